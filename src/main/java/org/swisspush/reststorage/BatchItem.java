@@ -0,0 +1,20 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.http.HttpMethod;
+import org.swisspush.reststorage.util.StatusCode;
+
+/**
+ * A single write operation of a batch. The storage sets the {@link #status} (and the {@link #etag} of written
+ * resources) after the batch has been executed.
+ */
+public class BatchItem {
+    public HttpMethod method;
+    public String path;
+    public byte[] content;
+    public long expire = -1;
+    /** the owner of the lock, items of the owner change resources locked by it */
+    public String lockOwner;
+
+    public StatusCode status;
+    public String etag;
+}
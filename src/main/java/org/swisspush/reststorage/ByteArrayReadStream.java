@@ -0,0 +1,79 @@
+package org.swisspush.reststorage;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * A {@link ReadStream} reading the content from memory in chunks of 8KB.
+ */
+public class ByteArrayReadStream implements ReadStream<Buffer> {
+
+    private final Vertx vertx;
+    Buffer content;
+    int size;
+    boolean paused;
+    int position;
+    Handler<Void> endHandler;
+    Handler<Buffer> handler;
+
+    public ByteArrayReadStream(Vertx vertx, byte[] byteArray) {
+        this(vertx, Buffer.buffer(Unpooled.wrappedBuffer(byteArray)));
+    }
+
+    public ByteArrayReadStream(Vertx vertx, Buffer content) {
+        this.vertx = vertx;
+        this.content = content;
+        this.size = content.length();
+    }
+
+    private void doRead() {
+        vertx.runOnContext(v -> {
+            if (!paused) {
+                if (position < size) {
+                    int toRead = 8192;
+                    if (position + toRead > size) {
+                        toRead = size - position;
+                    }
+                    handler.handle(content.getBuffer(position, position + toRead));
+                    position += toRead;
+                    doRead();
+                } else {
+                    endHandler.handle(null);
+                }
+            }
+        });
+    }
+
+    public ByteArrayReadStream resume() {
+        paused = false;
+        doRead();
+        return this;
+    }
+
+    @Override
+    public ByteArrayReadStream pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public ByteArrayReadStream exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        doRead();
+        return this;
+    }
+
+    @Override
+    public ByteArrayReadStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+}
@@ -0,0 +1,29 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The changes of the resources of a subtree, passed to the watchers of the subtree, or the changes of the members of a
+ * collection since a version.
+ */
+public class Changes {
+    /** the cursor to continue watching from, or the version to continue listing the changes of a collection from */
+    public String cursor;
+    /**
+     * the changes, having their cursor, type (put, delete or expire), path and etag (put only). The changes of the
+     * members of a collection have their type (added, updated or removed), name and etag (resources only)
+     */
+    public JsonArray changes = new JsonArray();
+    /** changes after the cursor or version provided are not available anymore */
+    public boolean expired = false;
+    public boolean notFound = false;
+    public boolean invalid = false;
+    public boolean error = false;
+    public String invalidMessage;
+    public String errorMessage;
+
+    public JsonObject asJsonObject() {
+        return new JsonObject().put("cursor", cursor).put("changes", changes);
+    }
+}
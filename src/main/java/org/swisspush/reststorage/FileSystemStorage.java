@@ -6,14 +6,18 @@ import io.vertx.core.file.FileProps;
 import io.vertx.core.file.FileSystem;
 import io.vertx.core.file.FileSystemException;
 import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.ReadConsistency;
+import org.swisspush.reststorage.util.StatusCode;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -56,6 +60,47 @@ public class FileSystemStorage implements Storage {
         throw new UnsupportedOperationException("Method 'getCurrentMemoryUsage' is not yet implemented for the FileSystemStorage");
     }
 
+    @Override
+    public JsonObject getMetrics() {
+        return new JsonObject();
+    }
+
+    @Override
+    public void getDeletions(Handler<JsonObject> handler) {
+        handler.handle(new JsonObject());
+    }
+
+    @Override
+    public void getDeduplication(Handler<JsonObject> handler) {
+        handler.handle(new JsonObject());
+    }
+
+    @Override
+    public void watch(String path, String cursor, long timeoutMs, Handler<Changes> handler) {
+        Changes changes = new Changes();
+        changes.invalid = true;
+        changes.invalidMessage = "Watching changes is not supported by the file system storage";
+        handler.handle(changes);
+    }
+
+    @Override
+    public void unwatch(String path, Handler<Changes> handler) {
+        // nothing is watched
+    }
+
+    @Override
+    public void changesSince(String path, String since, Handler<Changes> handler) {
+        Changes changes = new Changes();
+        changes.invalid = true;
+        changes.invalidMessage = "Listing the changes of collections is not supported by the file system storage";
+        handler.handle(changes);
+    }
+
+    @Override
+    public void get(String path, String etag, int offset, int count, ReadConsistency readConsistency, Handler<Resource> handler) {
+        get(path, etag, offset, count, handler);
+    }
+
     @Override
     public void get(String path, String etag, final int offset, final int count, final Handler<Resource> handler) {
         final String fullPath = canonicalize(path);
@@ -261,8 +306,49 @@ public class FileSystemStorage implements Storage {
         // nothing to do here
     }
 
+    @Override
+    public void writeBatch(List<BatchItem> items, boolean atomic, Handler<List<BatchItem>> handler) {
+        for (BatchItem item : items) {
+            item.status = StatusCode.BAD_REQUEST;
+        }
+        handler.handle(items);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, Handler<List<Resource>> handler) {
+        List<Resource> resources = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            Resource resource = new Resource();
+            resource.name = path;
+            resource.invalid = true;
+            resource.invalidMessage = "Reading multiple resources is not supported by the file system storage";
+            resources.add(resource);
+        }
+        handler.handle(resources);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, ReadConsistency readConsistency, Handler<List<Resource>> handler) {
+        multiGet(paths, etags, handler);
+    }
+
     @Override
     public void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler) {
         throw new UnsupportedOperationException("Method 'storageExpand' is not yet implemented for the FileSystemStorage");
     }
+
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, ReadConsistency readConsistency, Handler<Resource> handler) {
+        throw new UnsupportedOperationException("Method 'storageExpand' is not yet implemented for the FileSystemStorage");
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, Handler<Resource> handler) {
+        throw new UnsupportedOperationException("Method 'storageExpand' is not yet implemented for the FileSystemStorage");
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, ReadConsistency readConsistency, Handler<Resource> handler) {
+        throw new UnsupportedOperationException("Method 'storageExpand' is not yet implemented for the FileSystemStorage");
+    }
 }
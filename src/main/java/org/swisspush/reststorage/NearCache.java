@@ -0,0 +1,190 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bounded cache of the resources read by the redis storage, keyed by the encoded path of the resources. The least
+ * recently used resources are evicted when the amount of entries or the size of the cached values exceeds the limits.
+ * Entries are dropped when the resource has been written or deleted by any storage, which is announced through the
+ * invalidation channel, and when the resource expires.
+ * <p>
+ * A cache is used by one storage only and is not thread safe.
+ */
+class NearCache {
+
+    static class Entry {
+        final byte[] content;
+        final String etag;
+        final long expiration;
+
+        Entry(byte[] content, String etag, long expiration) {
+            this.content = content;
+            this.etag = etag;
+            this.expiration = expiration;
+        }
+    }
+
+    private static final char SEPARATOR = ':';
+    private static final int MAX_INVALIDATION_STAMPS = 10_000;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // the keys sorted, so the resources of a deleted collection are found without scanning all the entries
+    private final TreeSet<String> keys = new TreeSet<>();
+    private long bytes = 0;
+    // the stamp of the latest invalidation of the recently invalidated keys, reads started before are not cached. The
+    // stamps are bounded, reads started before the stamps kept (the horizon) are not cached at all
+    private long stamp = 0;
+    private long horizon = 0;
+    private final LinkedHashMap<String, Long> invalidated = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() > MAX_INVALIDATION_STAMPS) {
+                horizon = Math.max(horizon, eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+    private long invalidationLagSumMs = 0;
+    private long invalidationLagMaxMs = 0;
+
+    NearCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached resource or null, when the resource is not cached or has expired
+     */
+    Entry get(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiration <= now) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * The stamp changes with every invalidation. A resource read before an invalidation of its key or of a collection
+     * above it may be outdated already and is not cached.
+     */
+    long stamp() {
+        return stamp;
+    }
+
+    void put(String key, long readStamp, byte[] content, String etag, long expiration) {
+        if (invalidatedSince(key, readStamp) || content.length > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(content, etag, expiration));
+        keys.add(key);
+        bytes += content.length;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            eldest.remove();
+            keys.remove(evicted.getKey());
+            bytes -= evicted.getValue().content.length;
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the resource and the resources below it, since the key may be the one of a deleted collection.
+     */
+    void invalidate(String key) {
+        invalidated.remove(key);
+        invalidated.put(key, ++stamp);
+        remove(key);
+        for (String descendant : new ArrayList<>(keys.subSet(key + SEPARATOR, key + (char) (SEPARATOR + 1)))) {
+            remove(descendant);
+        }
+    }
+
+    /**
+     * Handles an invalidation message of the channel, consisting of the time of the write in milliseconds and the key.
+     */
+    void invalidated(String message, long now) {
+        int idx = message.indexOf(' ');
+        if (idx < 0) {
+            return;
+        }
+        invalidate(message.substring(idx + 1));
+        invalidations++;
+        try {
+            long lag = Math.max(0, now - Long.parseLong(message.substring(0, idx)));
+            invalidationLagSumMs += lag;
+            invalidationLagMaxMs = Math.max(invalidationLagMaxMs, lag);
+        } catch (NumberFormatException e) {
+            // no time provided
+        }
+    }
+
+    /**
+     * Drops all the resources, when invalidations may have been missed.
+     */
+    void clear() {
+        horizon = ++stamp;
+        invalidated.clear();
+        entries.clear();
+        keys.clear();
+        bytes = 0;
+    }
+
+    private boolean invalidatedSince(String key, long readStamp) {
+        if (readStamp < horizon) {
+            return true;
+        }
+        String current = key;
+        while (!current.isEmpty()) {
+            Long invalidatedStamp = invalidated.get(current);
+            if (invalidatedStamp != null && invalidatedStamp > readStamp) {
+                return true;
+            }
+            current = current.substring(0, Math.max(0, current.lastIndexOf(SEPARATOR)));
+        }
+        return false;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            keys.remove(key);
+            bytes -= entry.content.length;
+        }
+    }
+
+    JsonObject getMetrics() {
+        long requests = hits + misses;
+        return new JsonObject()
+                .put("entries", entries.size())
+                .put("bytes", bytes)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("hitRate", requests == 0 ? 0.0 : (double) hits / requests)
+                .put("evictions", evictions)
+                .put("invalidations", invalidations)
+                .put("invalidationLagAvgMs", invalidations == 0 ? 0.0 : (double) invalidationLagSumMs / invalidations)
+                .put("invalidationLagMaxMs", invalidationLagMaxMs);
+    }
+}
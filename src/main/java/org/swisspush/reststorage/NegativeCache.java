@@ -0,0 +1,101 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the paths not found by the redis storage, keyed by the encoded path. Entries expire after a fixed
+ * time to live, the oldest entries are evicted when the amount of entries exceeds the limit. Entries are dropped when
+ * the path or a path below it has been written by any storage, which is announced through the invalidation channel.
+ * <p>
+ * A cache is used by one storage only and is not thread safe.
+ */
+class NegativeCache {
+
+    private static final char SEPARATOR = ':';
+
+    private final int maxEntries;
+    private final long ttlMs;
+    // the entries in the order of their expiration, since all entries live for the same time
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    NegativeCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @return true when the path is known not to exist
+     */
+    boolean contains(String key, long now) {
+        Long expiration = entries.get(key);
+        if (expiration != null && expiration <= now) {
+            entries.remove(key);
+            expiration = null;
+        }
+        if (expiration == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        return true;
+    }
+
+    void put(String key, long now) {
+        entries.remove(key);
+        entries.put(key, now + ttlMs);
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entries.size() > maxEntries) {
+                evictions++;
+            } else if (entry.getValue() > now) {
+                break;
+            }
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the path and its ancestors, since writing a resource creates the collections above it.
+     */
+    void invalidate(String key) {
+        String ancestor = key;
+        while (true) {
+            if (entries.remove(ancestor) != null) {
+                invalidations++;
+            }
+            int idx = ancestor.lastIndexOf(SEPARATOR);
+            if (idx < 0) {
+                return;
+            }
+            ancestor = ancestor.substring(0, idx);
+        }
+    }
+
+    /**
+     * Drops all the paths, when invalidations may have been missed.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    JsonObject getMetrics() {
+        long requests = hits + misses;
+        return new JsonObject()
+                .put("entries", entries.size())
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("hitRate", requests == 0 ? 0.0 : (double) hits / requests)
+                .put("evictions", evictions)
+                .put("invalidations", invalidations);
+    }
+}
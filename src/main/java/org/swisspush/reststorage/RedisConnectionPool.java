@@ -0,0 +1,311 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A pool of redis connections divided into lanes. Interactive operations (GET, PUT, DELETE, etc.) and background
+ * operations (cleanup, memory usage calculation) use separate connections, so a long running cleanup does not block
+ * the commands of the clients waiting behind it on the same connection.
+ * <p>
+ * Read only commands can be sent over the {@link Lane#READ} lane, which uses connections to the configured read
+ * replicas. A replica is used only when it is connected to its master and its replication offset is not behind the
+ * offset of the master by more than the configured lag. Read commands are sent to the master when no replica is
+ * available or when the command failed on the replica.
+ * <p>
+ * Within a lane, a command is sent over the connection having the least commands in flight.
+ * The pool is not thread safe and has to be used from the context it was created on.
+ */
+public class RedisConnectionPool {
+
+    private Logger log = LoggerFactory.getLogger(RedisConnectionPool.class);
+
+    public enum Lane {
+        INTERACTIVE, BULK, READ
+    }
+
+    private final Map<Lane, List<Connection>> connections = new EnumMap<>(Lane.class);
+    private final Map<Lane, LaneMetrics> metrics = new EnumMap<>(Lane.class);
+    private final long readReplicaMaxOffsetLag;
+    private Function<RedisClient, Future<Void>> readReplicaInitializer = client -> Future.succeededFuture();
+
+    public RedisConnectionPool(Vertx vertx, ModuleConfiguration config) {
+        this(createClients(vertx, config, config.getRedisPoolSize()), createClients(vertx, config, config.getRedisBulkPoolSize()),
+                createReplicaClients(vertx, config), config.getRedisReplicaMaxOffsetLag());
+        if (!connections.get(Lane.READ).isEmpty()) {
+            checkReadReplicas();
+            vertx.setPeriodic(config.getRedisReplicaCheckIntervalMs(), timer -> checkReadReplicas());
+        }
+    }
+
+    /**
+     * Creates a pool using the same client for all lanes.
+     *
+     * @param redisClient the client to use
+     */
+    public RedisConnectionPool(RedisClient redisClient) {
+        this(Collections.singletonList(redisClient), Collections.singletonList(redisClient));
+    }
+
+    public RedisConnectionPool(List<RedisClient> interactiveClients, List<RedisClient> bulkClients) {
+        this(interactiveClients, bulkClients, Collections.emptyList(), 0);
+    }
+
+    public RedisConnectionPool(List<RedisClient> interactiveClients, List<RedisClient> bulkClients,
+                               List<RedisClient> readReplicaClients, long readReplicaMaxOffsetLag) {
+        this.readReplicaMaxOffsetLag = readReplicaMaxOffsetLag;
+        addLane(Lane.INTERACTIVE, interactiveClients, true);
+        addLane(Lane.BULK, bulkClients, true);
+        addLane(Lane.READ, readReplicaClients, false);
+        // replicas are used after their first successful check only
+        for (Connection connection : connections.get(Lane.READ)) {
+            connection.healthy = false;
+        }
+    }
+
+    private void addLane(Lane lane, List<RedisClient> clients, boolean required) {
+        if (required && clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one redis connection is required for lane " + lane);
+        }
+        List<Connection> laneConnections = new ArrayList<>();
+        for (RedisClient client : clients) {
+            laneConnections.add(new Connection(client));
+        }
+        connections.put(lane, laneConnections);
+        metrics.put(lane, new LaneMetrics());
+    }
+
+    private static List<RedisClient> createClients(Vertx vertx, ModuleConfiguration config, int amount) {
+        List<RedisClient> clients = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, amount); i++) {
+            clients.add(RedisClient.create(vertx, new RedisOptions()
+                    .setHost(config.getRedisHost())
+                    .setPort(config.getRedisPort())
+                    .setAuth(config.getRedisAuth())
+                    .setSelect(config.getRedisDatabase())));
+        }
+        return clients;
+    }
+
+    private static List<RedisClient> createReplicaClients(Vertx vertx, ModuleConfiguration config) {
+        List<RedisClient> clients = new ArrayList<>();
+        for (String replica : config.getRedisReadReplicas()) {
+            int separator = replica.lastIndexOf(':');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid redis read replica '" + replica + "'. Expected format is host:port");
+            }
+            clients.add(RedisClient.create(vertx, new RedisOptions()
+                    .setHost(replica.substring(0, separator))
+                    .setPort(Integer.parseInt(replica.substring(separator + 1)))
+                    .setAuth(config.getRedisAuth())
+                    .setSelect(config.getRedisDatabase())));
+        }
+        return clients;
+    }
+
+    /**
+     * Sets the initializer called before a read replica is used (again), e.g. to load the lua scripts.
+     *
+     * @param readReplicaInitializer the initializer, completing the returned future when the replica is ready
+     */
+    public void setReadReplicaInitializer(Function<RedisClient, Future<Void>> readReplicaInitializer) {
+        this.readReplicaInitializer = readReplicaInitializer;
+    }
+
+    public void evalsha(Lane lane, String sha1, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+        execute(lane, (client, resultHandler) -> client.evalsha(sha1, keys, args, resultHandler), handler);
+    }
+
+    /**
+     * Executes a command over the least busy connection of the lane.
+     *
+     * @param lane the lane to use
+     * @param command the command, invoked with the selected client and the handler to pass to the client
+     * @param handler the handler receiving the result of the command
+     */
+    public <T> void execute(Lane lane, BiConsumer<RedisClient, Handler<AsyncResult<T>>> command, Handler<AsyncResult<T>> handler) {
+        Connection connection = leastBusy(connections.get(lane));
+        if (connection == null) {
+            // no read replica available
+            execute(Lane.INTERACTIVE, command, handler);
+            return;
+        }
+        if (lane != Lane.READ) {
+            execute(lane, connection, command, handler);
+            return;
+        }
+        execute(lane, connection, command, result -> {
+            if (result.succeeded()) {
+                handler.handle(result);
+                return;
+            }
+            log.warn("Read command failed on redis read replica, using master instead. Cause: {}", result.cause().getMessage());
+            connection.healthy = false;
+            metrics.get(Lane.READ).fallbacks++;
+            execute(Lane.INTERACTIVE, command, handler);
+        });
+    }
+
+    private <T> void execute(Lane lane, Connection connection, BiConsumer<RedisClient, Handler<AsyncResult<T>>> command, Handler<AsyncResult<T>> handler) {
+        LaneMetrics laneMetrics = metrics.get(lane);
+        long start = System.nanoTime();
+        connection.inFlight++;
+        laneMetrics.inFlight++;
+        command.accept(connection.client, result -> {
+            connection.inFlight--;
+            laneMetrics.completed(System.nanoTime() - start, result.succeeded());
+            handler.handle(result);
+        });
+    }
+
+    private static Connection leastBusy(List<Connection> laneConnections) {
+        Connection result = null;
+        for (Connection connection : laneConnections) {
+            if (connection.healthy && (result == null || connection.inFlight < result.inFlight)) {
+                result = connection;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks the replication state of all read replicas. Replicas not connected to their master or lagging behind the
+     * master by more than the configured offset are not used until the next successful check.
+     *
+     * @return a future completed when all replicas are checked
+     */
+    public Future<Void> checkReadReplicas() {
+        Future<Void> future = Future.future();
+        this.<JsonObject>execute(Lane.BULK, (client, resultHandler) -> client.infoSection("replication", resultHandler), masterInfo -> {
+            Long masterOffset = masterInfo.succeeded() ? replicationValue(masterInfo.result(), "master_repl_offset") : null;
+            List<Future> checks = new ArrayList<>();
+            for (Connection connection : connections.get(Lane.READ)) {
+                Future<Void> check = Future.future();
+                checks.add(check);
+                checkReadReplica(connection, masterOffset, check);
+            }
+            CompositeFuture.all(checks).setHandler(event -> future.complete());
+        });
+        return future;
+    }
+
+    private void checkReadReplica(Connection connection, Long masterOffset, Future<Void> check) {
+        connection.client.infoSection("replication", replicaInfo -> {
+            boolean inSync = false;
+            if (replicaInfo.succeeded() && masterOffset != null) {
+                JsonObject replication = replicaInfo.result().getJsonObject("replication");
+                Long replicaOffset = replicationValue(replicaInfo.result(), "slave_repl_offset");
+                inSync = replication != null && "up".equals(replication.getString("master_link_status"))
+                        && replicaOffset != null && masterOffset - replicaOffset <= readReplicaMaxOffsetLag;
+            }
+            if (!inSync) {
+                if (connection.healthy) {
+                    log.warn("Redis read replica is not in sync with its master and is not used until it is in sync again");
+                }
+                connection.healthy = false;
+                check.complete();
+            } else if (connection.healthy) {
+                check.complete();
+            } else {
+                readReplicaInitializer.apply(connection.client).setHandler(initialized -> {
+                    connection.healthy = initialized.succeeded();
+                    if (initialized.failed()) {
+                        log.warn("Unable to initialize redis read replica. Cause: {}", initialized.cause().getMessage());
+                    }
+                    check.complete();
+                });
+            }
+        });
+    }
+
+    private static Long replicationValue(JsonObject info, String property) {
+        JsonObject replication = info.getJsonObject("replication");
+        if (replication == null || replication.getString(property) == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(replication.getString(property));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the metrics of all lanes as json object like
+     * <pre>
+     * {"interactive": {"connections": 4, "healthyConnections": 4, "inFlight": 2, "commands": 1000, "failures": 0, "fallbacks": 0, "latencyAvgMs": 0.4, "latencyMaxMs": 12.1}, "bulk": {...}, "read": {...}}
+     * </pre>
+     *
+     * @return the metrics
+     */
+    public JsonObject getMetrics() {
+        JsonObject result = new JsonObject();
+        for (Lane lane : Lane.values()) {
+            List<Connection> laneConnections = connections.get(lane);
+            int healthy = (int) laneConnections.stream().filter(connection -> connection.healthy).count();
+            result.put(lane.name().toLowerCase(), metrics.get(lane).asJsonObject(laneConnections.size(), healthy));
+        }
+        return result;
+    }
+
+    private static class Connection {
+        private final RedisClient client;
+        private int inFlight;
+        private boolean healthy = true;
+
+        private Connection(RedisClient client) {
+            this.client = client;
+        }
+    }
+
+    private static class LaneMetrics {
+        private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+        private long inFlight;
+        private long commands;
+        private long failures;
+        private long fallbacks;
+        private long latencySumNanos;
+        private long latencyMaxNanos;
+
+        private void completed(long latencyNanos, boolean succeeded) {
+            inFlight--;
+            commands++;
+            if (!succeeded) {
+                failures++;
+            }
+            latencySumNanos += latencyNanos;
+            latencyMaxNanos = Math.max(latencyMaxNanos, latencyNanos);
+        }
+
+        private JsonObject asJsonObject(int connections, int healthyConnections) {
+            return new JsonObject()
+                    .put("connections", connections)
+                    .put("healthyConnections", healthyConnections)
+                    .put("inFlight", inFlight)
+                    .put("commands", commands)
+                    .put("failures", failures)
+                    .put("fallbacks", fallbacks)
+                    .put("latencyAvgMs", commands == 0 ? 0.0 : latencySumNanos / NANOS_PER_MILLI / commands)
+                    .put("latencyMaxMs", latencyMaxNanos / NANOS_PER_MILLI);
+        }
+    }
+}
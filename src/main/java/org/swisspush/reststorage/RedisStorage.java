@@ -1,28 +1,44 @@
 package org.swisspush.reststorage;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.json.DecodeException;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.core.streams.ReadStream;
 import io.vertx.core.streams.WriteStream;
 import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
+import io.vertx.redis.op.RangeLimitOptions;
+import io.vertx.redis.op.ScanOptions;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.text.StrLookup;
 import org.apache.commons.lang.text.StrSubstitutor;
 import org.swisspush.reststorage.util.GZIPUtil;
 import org.swisspush.reststorage.util.LockMode;
 import org.swisspush.reststorage.util.ModuleConfiguration;
+import org.swisspush.reststorage.util.ReadConsistency;
 import org.swisspush.reststorage.util.ResourceNameUtil;
+import org.swisspush.reststorage.util.StatusCode;
+import org.swisspush.reststorage.util.StorageExpandResultBuilder;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.util.*;
 
@@ -36,65 +52,170 @@ public class RedisStorage implements Storage {
     private static final float MAX_PERCENTAGE = 100.0f;
     private static final float MIN_PERCENTAGE = 0.0f;
     private static final int CLEANUP_BULK_SIZE = 200;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String LOADED_LUA_SCRIPTS_MAP = "rest-storage-loaded-lua-scripts";
+    private static final int GET_PIPELINE_MAX_SIZE = 128;
+    private static final int GET_PIPELINE_MAX_COLLECTIONS = 1000;
+    private static final int MIGRATE_EXPIRABLE_BULK_SIZE = 1000;
+    private static final int MIGRATE_EXPIRATION_SCAN_COUNT = 1000;
+    private static final String EXPIRED_SUBSCRIBERS_MAP = "rest-storage-expired-subscribers";
+    private static final String INVALIDATION_SUBSCRIBERS_MAP = "rest-storage-invalidation-subscribers";
+    private static final String EXPIRED_CHANNEL_FORMAT = "__keyevent@%d__:expired";
+    private static final long SUBSCRIBE_RETRY_DELAY_MS = 5_000L;
+    private static final String COLLECTION_PRUNERS_MAP = "rest-storage-collection-pruners";
+    private static final String MIGRATORS_MAP = "rest-storage-migrators";
+    private static final int PRUNE_COLLECTIONS_SCAN_COUNT = 100;
+    private static final String DELETION_RECLAIMERS_MAP = "rest-storage-deletion-reclaimers";
+    private static final long RECLAIM_RETRY_DELAY_MS = 5_000L;
+    private static final int MAX_CHUNK_READ_ATTEMPTS = 3;
+    private static final long CHUNKS_PROVISIONAL_TTL_MS = 300_000L;
+    private static final int MAX_MERGE_ATTEMPTS = 10;
+    private static final String CHANGE_FEED_READERS_MAP = "rest-storage-change-feed-readers";
+    private static final int CHANGES_READ_COUNT = 1000;
 
     private String redisResourcesPrefix;
     private String redisCollectionsPrefix;
     private String redisDeltaResourcesPrefix;
     private String redisDeltaEtagsPrefix;
+    private int deltaHistorySize;
     private String expirableSet;
+    private long expirableBucketWindowMs;
+    private boolean nativeExpiration;
+    private int collectionPruneLimit;
+    private int readCollectionPruneLimit;
+    private String pruneCollectionsCursor = "0";
+    private boolean pruneCollectionsInProgress = false;
+    private boolean asyncRecursiveDelete;
+    private int asyncDeleteBatchSize;
+    private String deletionsKey;
+    private int resourceChunkSize;
+    private String redisChunksPrefix;
+    private boolean contentEtags;
+    private int resourceDedupThreshold;
+    private String redisBlobsPrefix;
+    private NearCache nearCache;
+    private NegativeCache negativeCache;
+    private Map<String, ReadFlight> readFlights = new HashMap<>();
+    private long reads = 0;
+    private long coalescedReads = 0;
+    private String invalidationChannel;
+    private String changeFeedStream;
+    private String changeFeedMaxLength;
+    private String changeFeedAddress;
+    private Set<Watcher> watchers = new LinkedHashSet<>();
+    private String changeFeedCursor;
+    private boolean readingChanges = false;
+    private Set<String> reclaimingDeletions = new HashSet<>();
+    private long startedDeletions = 0;
+    private long completedDeletions = 0;
+    private long reclaimedKeys = 0;
+    private long elidedWrites = 0;
+    private long elidedBytes = 0;
+    private long merges = 0;
+    private long mergeConflicts = 0;
     private long cleanupResourcesAmount;
     private String redisLockPrefix;
+    private int expandMaxNodes;
+    private long expandMaxBytes;
     private Vertx vertx;
-    private RedisClient redisClient;
+    private RedisConnectionPool redisPool;
     private Map<LuaScript,LuaScriptState> luaScripts = new HashMap<>();
+    private LocalMap<String, Boolean> loadedLuaScripts;
+    private String redisEndpoint;
+    private GetPipeline getPipeline;
     private DecimalFormat decimalFormat;
 
     private Optional<Float> currentMemoryUsageOptional = Optional.empty();
 
     public RedisStorage(Vertx vertx, ModuleConfiguration config) {
-        this(vertx, config, RedisClient.create(vertx, new RedisOptions()
-                        .setHost(config.getRedisHost())
-                        .setPort(config.getRedisPort())
-                        .setAuth(config.getRedisAuth())
-                )
-        );
+        this(vertx, config, new RedisConnectionPool(vertx, config));
     }
 
     public RedisStorage(Vertx vertx, ModuleConfiguration config, RedisClient redisClient) {
+        this(vertx, config, new RedisConnectionPool(redisClient));
+    }
+
+    public RedisStorage(Vertx vertx, ModuleConfiguration config, RedisConnectionPool redisPool) {
         this.expirableSet = config.getExpirablePrefix();
+        this.expirableBucketWindowMs = config.getExpirableBucketWindowMs();
+        this.nativeExpiration = config.isNativeExpiration();
+        this.collectionPruneLimit = config.getCollectionPruneLimit();
+        // reads sent to a read replica must not write
+        this.readCollectionPruneLimit = config.getRedisReadReplicas().isEmpty() ? collectionPruneLimit : 0;
+        this.asyncRecursiveDelete = config.isAsyncRecursiveDelete();
+        this.asyncDeleteBatchSize = config.getAsyncDeleteBatchSize();
+        this.deletionsKey = config.getDeletionsPrefix();
+        this.resourceChunkSize = config.getResourceChunkSize();
+        this.redisChunksPrefix = config.getChunksPrefix();
+        this.contentEtags = config.isContentEtags();
+        this.resourceDedupThreshold = config.getResourceDedupThreshold();
+        this.redisBlobsPrefix = config.getBlobsPrefix();
+        if (config.getNearCacheSize() > 0) {
+            this.nearCache = new NearCache(config.getNearCacheSize(), config.getNearCacheMaxBytes());
+        }
+        if (config.getNegativeCacheSize() > 0) {
+            this.negativeCache = new NegativeCache(config.getNegativeCacheSize(), config.getNegativeCacheTtlMs());
+        }
+        this.invalidationChannel = (nearCache != null || negativeCache != null || config.isPublishInvalidations())
+                ? StringUtils.defaultString(config.getInvalidationChannel()) : EMPTY;
+        this.changeFeedStream = config.isChangeFeed() ? config.getChangeFeedStream() : EMPTY;
+        this.changeFeedMaxLength = String.valueOf(config.getChangeFeedMaxLength());
+        this.changeFeedAddress = config.getChangeFeedAddress();
         this.redisResourcesPrefix = config.getResourcesPrefix();
         this.redisCollectionsPrefix = config.getCollectionsPrefix();
         this.redisDeltaResourcesPrefix = config.getDeltaResourcesPrefix();
         this.redisDeltaEtagsPrefix = config.getDeltaEtagsPrefix();
+        this.deltaHistorySize = config.getDeltaHistorySize();
         this.cleanupResourcesAmount = config.getResourceCleanupAmount();
         this.redisLockPrefix = config.getLockPrefix();
+        this.expandMaxNodes = config.getExpandMaxNodes();
+        this.expandMaxBytes = config.getExpandMaxBytes();
+        if (config.isRedisAutoPipelining()) {
+            this.getPipeline = new GetPipeline();
+        }
 
         this.vertx = vertx;
-        this.redisClient = redisClient;
+        this.redisPool = redisPool;
+        this.redisEndpoint = config.getRedisHost() + ":" + config.getRedisPort();
+        this.redisPool.setReadReplicaInitializer(this::loadLuaScripts);
 
         this.decimalFormat = new DecimalFormat();
         this.decimalFormat.setMaximumFractionDigits(1);
 
-        // load all the lua scripts
-        LuaScriptState luaGetScriptState = new LuaScriptState(LuaScript.GET, false);
-        luaGetScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
-        luaScripts.put(LuaScript.GET, luaGetScriptState);
-
-        LuaScriptState luaStorageExpandScriptState = new LuaScriptState(LuaScript.STORAGE_EXPAND, false);
-        luaStorageExpandScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
-        luaScripts.put(LuaScript.STORAGE_EXPAND, luaStorageExpandScriptState);
-
-        LuaScriptState luaPutScriptState = new LuaScriptState(LuaScript.PUT, false);
-        luaPutScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
-        luaScripts.put(LuaScript.PUT, luaPutScriptState);
-
-        LuaScriptState luaDeleteScriptState = new LuaScriptState(LuaScript.DELETE, false);
-        luaDeleteScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
-        luaScripts.put(LuaScript.DELETE, luaDeleteScriptState);
+        // load all the lua scripts. Scripts already loaded by another instance (verticle) are not loaded again
+        this.loadedLuaScripts = vertx.sharedData().getLocalMap(LOADED_LUA_SCRIPTS_MAP);
+        for (LuaScript luaScript : LuaScript.values()) {
+            LuaScriptState luaScriptState = new LuaScriptState(luaScript, false);
+            if (!loadedLuaScripts.containsKey(loadedLuaScriptKey(luaScriptState.getSha()))) {
+                luaScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
+            }
+            luaScripts.put(luaScript, luaScriptState);
+        }
 
-        LuaScriptState luaCleanupScriptState = new LuaScriptState(LuaScript.CLEANUP, false);
-        luaCleanupScriptState.loadLuaScript(new RedisCommandDoNothing(), 0);
-        luaScripts.put(LuaScript.CLEANUP, luaCleanupScriptState);
+        // the migrations are run once per redis endpoint and expirable set, even when deployed with multiple instances
+        LocalMap<String, Boolean> migrators = vertx.sharedData().getLocalMap(MIGRATORS_MAP);
+        if (migrators.putIfAbsent(redisEndpoint + "/" + expirableSet, true) == null) {
+            if (expirableBucketWindowMs > 0) {
+                migrateExpirableSet();
+            }
+            migrateExpiration();
+        }
+        if (nativeExpiration) {
+            subscribeExpiredResources(config);
+        }
+        if ((nearCache != null || negativeCache != null) && !invalidationChannel.isEmpty()) {
+            subscribeInvalidations(config);
+        }
+        if (!changeFeedStream.isEmpty()) {
+            startChangeFeed(config);
+        }
+        if (config.getCollectionPruneIntervalMs() > 0 && collectionPruneLimit > 0) {
+            LocalMap<String, Boolean> pruners = vertx.sharedData().getLocalMap(COLLECTION_PRUNERS_MAP);
+            if (pruners.putIfAbsent(redisEndpoint + "/" + redisCollectionsPrefix, true) == null) {
+                vertx.setPeriodic(config.getCollectionPruneIntervalMs(), timer -> pruneCollections());
+            }
+        }
+        resumeDeletions();
 
         if(config.isRejectStorageWriteOnLowMemory()){
             calculateCurrentMemoryUsage().setHandler(optionalAsyncResult -> currentMemoryUsageOptional = optionalAsyncResult.result());
@@ -102,13 +223,20 @@ public class RedisStorage implements Storage {
         }
     }
 
+    /**
+     * Scripts are registered per redis endpoint, since multiple storages (shards) may use different redis instances.
+     */
+    private String loadedLuaScriptKey(String sha) {
+        return redisEndpoint + "/" + sha;
+    }
+
     private void startPeriodicMemoryUsageUpdate(long intervalMs){
         vertx.setPeriodic(intervalMs, updateMemoryUsage -> calculateCurrentMemoryUsage().setHandler(optionalAsyncResult -> currentMemoryUsageOptional = optionalAsyncResult.result()));
     }
 
     public Future<Optional<Float>> calculateCurrentMemoryUsage(){
         Future<Optional<Float>> future = Future.future();
-        redisClient.infoSection("memory", memoryInfo -> {
+        redisPool.<JsonObject>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.infoSection("memory", resultHandler), memoryInfo -> {
             if (memoryInfo.failed()) {
                 log.error("Unable to get memory information from redis", memoryInfo.cause());
                 future.complete(Optional.empty());
@@ -163,7 +291,10 @@ public class RedisStorage implements Storage {
     }
 
     private enum LuaScript {
-        GET("get.lua"), STORAGE_EXPAND("storageExpand.lua"), PUT("put.lua"), DELETE("del.lua"), CLEANUP("cleanup.lua");
+        GET("get.lua"), STORAGE_EXPAND("storageExpand.lua"), EXPAND("expand.lua"), MULTI_GET("multiGet.lua"), PUT("put.lua"), DELETE("del.lua"), BATCH("batch.lua"), CLEANUP("cleanup.lua"),
+        MIGRATE_EXPIRABLE("migrateExpirable.lua"), MIGRATE_EXPIRATION("migrateExpiration.lua"), EXPIRED("expired.lua"),
+        PRUNE_COLLECTIONS("pruneCollections.lua"), DETACH("detach.lua"), RECLAIM("reclaim.lua"), CHANGES("changes.lua"),
+        DELTA("delta.lua");
 
         private String file;
 
@@ -193,7 +324,6 @@ public class RedisStorage implements Storage {
             this.luaScriptType = luaScriptType;
             this.logoutput = logoutput;
             this.composeLuaScript(luaScriptType);
-            this.loadLuaScript(new RedisCommandDoNothing(), 0);
         }
 
         /**
@@ -206,20 +336,23 @@ public class RedisStorage implements Storage {
 
             // It is not possible to evalsha or eval inside lua scripts,
             // so we wrap the cleanupscript around the deletescript manually to avoid code duplication.
-            // we have to comment the return, so that the cleanup script doesn't terminate
-            if(LuaScript.CLEANUP.equals(luaScriptType)) {
-                Map<String, String> values = new HashMap<>();
-                values.put("delscript", readLuaScriptFromClasspath(LuaScript.DELETE).replaceAll("return", "--return"));
-                StrSubstitutor sub = new StrSubstitutor(values, "--%(", ")");
-                this.script = sub.replace(readLuaScriptFromClasspath(LuaScript.CLEANUP));
-            } else {
-                this.script = readLuaScriptFromClasspath(luaScriptType);
-            }
+            // we have to comment the return, so that the cleanup script doesn't terminate.
+            // The functions shared by several scripts are included the same way, --%(name) includes name.lua
+            StrSubstitutor sub = new StrSubstitutor(new StrLookup() {
+                @Override
+                public String lookup(String key) {
+                    if ("delscript".equals(key)) {
+                        return readLuaScriptFromClasspath(LuaScript.DELETE.getFile()).replaceAll("return", "--return");
+                    }
+                    return readLuaScriptFromClasspath(key + ".lua");
+                }
+            }, "--%(", ")", StrSubstitutor.DEFAULT_ESCAPE);
+            this.script = sub.replace(readLuaScriptFromClasspath(luaScriptType.getFile()));
             this.sha = DigestUtils.sha1Hex(this.script);
         }
 
-        private String readLuaScriptFromClasspath(LuaScript luaScriptType) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(luaScriptType.getFile())));
+        private String readLuaScriptFromClasspath(String file) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(file)));
             StringBuilder sb;
             try {
                 sb = new StringBuilder();
@@ -259,7 +392,7 @@ public class RedisStorage implements Storage {
             final int executionCounterIncr = ++executionCounter;
 
             // check first if the lua script already exists in the store
-            redisClient.scriptExists(this.sha, resultArray -> {
+            redisPool.<JsonArray>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.scriptExists(this.sha, resultHandler), resultArray -> {
                 if(resultArray.failed()){
                     log.error("Error checking whether lua script exists", resultArray.cause());
                     return;
@@ -268,10 +401,11 @@ public class RedisStorage implements Storage {
                 // if script already
                 if(Long.valueOf(1).equals(exists)) {
                     log.debug("RedisStorage script already exists in redis cache: " + luaScriptType);
+                    loadedLuaScripts.put(loadedLuaScriptKey(sha), Boolean.TRUE);
                     redisCommand.exec(executionCounterIncr);
                 } else {
                     log.info("load lua script for script type: {} logoutput: {}", luaScriptType, logoutput);
-                    redisClient.scriptLoad(script, stringAsyncResult -> {
+                    redisPool.<String>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.scriptLoad(script, resultHandler), stringAsyncResult -> {
                         String newSha = stringAsyncResult.result();
                         log.info("got sha from redis for lua script: {}: {}", luaScriptType, newSha);
                         if(!newSha.equals(sha)) {
@@ -279,6 +413,7 @@ public class RedisStorage implements Storage {
                                     "We use the sha from redis", sha, newSha);
                         }
                         sha = newSha;
+                        loadedLuaScripts.put(loadedLuaScriptKey(sha), Boolean.TRUE);
                         log.info("execute redis command for script type: {} with new sha: {}", luaScriptType, sha);
                         redisCommand.exec(executionCounterIncr);
                     });
@@ -355,78 +490,215 @@ public class RedisStorage implements Storage {
         luaScriptState.loadLuaScript(redisCommand, executionCounter);
     }
 
-    public class ByteArrayReadStream implements ReadStream<Buffer> {
-
-        ByteArrayInputStream content;
-        int size;
-        boolean paused;
-        int position;
-        Handler<Void> endHandler;
-        Handler<Buffer> handler;
+    @Override
+    public Optional<Float> getCurrentMemoryUsage() {
+        return currentMemoryUsageOptional;
+    }
 
-        public ByteArrayReadStream(byte[] byteArray) {
-            size = byteArray.length;
-            content = new ByteArrayInputStream(byteArray);
+    @Override
+    public JsonObject getMetrics() {
+        JsonObject deletions = new JsonObject()
+                .put("started", startedDeletions)
+                .put("completed", completedDeletions)
+                .put("running", reclaimingDeletions.size())
+                .put("reclaimedKeys", reclaimedKeys);
+        JsonObject writeElision = new JsonObject()
+                .put("writes", elidedWrites)
+                .put("bytes", elidedBytes);
+        JsonObject merge = new JsonObject()
+                .put("merges", merges)
+                .put("conflicts", mergeConflicts);
+        JsonObject readCoalescing = new JsonObject()
+                .put("reads", reads)
+                .put("coalesced", coalescedReads);
+        JsonObject metrics = new JsonObject().put("redisPool", redisPool.getMetrics()).put("deletions", deletions)
+                .put("writeElision", writeElision).put("merge", merge).put("readCoalescing", readCoalescing);
+        if (nearCache != null) {
+            metrics.put("nearCache", nearCache.getMetrics());
         }
+        if (negativeCache != null) {
+            metrics.put("negativeCache", negativeCache.getMetrics());
+        }
+        if (!changeFeedStream.isEmpty()) {
+            metrics.put("changeFeed", new JsonObject().put("watchers", watchers.size()));
+        }
+        return metrics;
+    }
 
-        private void doRead() {
-            vertx.runOnContext(v -> {
-                if (!paused) {
-                    if (position < size) {
-                        int toRead = 8192;
-                        if (position + toRead > size) {
-                            toRead = size - position;
-                        }
-                        byte[] bytes = new byte[toRead];
-                        content.read(bytes, 0, toRead);
-                        handler.handle(Buffer.buffer(bytes));
-                        position += toRead;
-                        doRead();
-                    } else {
-                        endHandler.handle(null);
-                    }
+    @Override
+    public void getDeletions(Handler<JsonObject> handler) {
+        redisPool.<JsonObject>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hgetall(deletionsKey, resultHandler), event -> {
+            JsonObject deletions = new JsonObject();
+            if (event.failed()) {
+                log.error("Reading the deletions failed with message: {}", event.cause().getMessage());
+            } else {
+                for (Map.Entry<String, Object> entry : event.result()) {
+                    String path = ResourceNameUtil.resetReplacedColonsAndSemiColons(entry.getKey().replaceAll(":", "/"));
+                    deletions.put(path, new JsonObject().put("reclaimedKeys", Long.parseLong(String.valueOf(entry.getValue()))));
                 }
-            });
-        }
+            }
+            handler.handle(deletions);
+        });
+    }
 
-        public ByteArrayReadStream resume() {
-            paused = false;
-            doRead();
-            return this;
+    @Override
+    public void getDeduplication(Handler<JsonObject> handler) {
+        String statsKey = redisBlobsPrefix + ":stats";
+        redisPool.<JsonObject>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hgetall(statsKey, resultHandler), event -> {
+            if (event.failed()) {
+                log.error("Reading the deduplication stats failed with message: {}", event.cause().getMessage());
+                handler.handle(new JsonObject());
+                return;
+            }
+            JsonObject stats = event.result();
+            handler.handle(deduplication(Long.parseLong(stats.getString("blobs", "0")), Long.parseLong(stats.getString("references", "0")),
+                    Long.parseLong(stats.getString("bytes", "0")), Long.parseLong(stats.getString("referencedBytes", "0"))));
+        });
+    }
+
+    /**
+     * @return the deduplication stats, with the ratio of references per stored value and the bytes saved by storing the
+     * values once
+     */
+    static JsonObject deduplication(long blobs, long references, long bytes, long referencedBytes) {
+        return new JsonObject()
+                .put("blobs", blobs)
+                .put("references", references)
+                .put("bytes", bytes)
+                .put("referencedBytes", referencedBytes)
+                .put("savedBytes", referencedBytes - bytes)
+                .put("ratio", blobs > 0 ? (double) references / blobs : 0d);
+    }
+
+    private RedisConnectionPool.Lane readLane(ReadConsistency readConsistency) {
+        return readConsistency == ReadConsistency.STRONG ? RedisConnectionPool.Lane.INTERACTIVE : RedisConnectionPool.Lane.READ;
+    }
+
+    /**
+     * Loads the lua scripts into a read replica. Scripts are replicated by redis, but get lost when the replica
+     * has to be synchronized from scratch.
+     */
+    private Future<Void> loadLuaScripts(RedisClient readReplica) {
+        List<Future> futures = new ArrayList<>();
+        for (LuaScriptState luaScriptState : luaScripts.values()) {
+            Future<String> future = Future.future();
+            readReplica.scriptLoad(luaScriptState.getScript(), future.completer());
+            futures.add(future);
         }
+        return CompositeFuture.all(futures).map(all -> null);
+    }
 
-        @Override
-        public ByteArrayReadStream pause() {
-            paused = true;
-            return this;
+    @Override
+    public void get(String path, String etag, int offset, int limit, final Handler<Resource> handler) {
+        get(path, etag, offset, limit, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void get(String path, String etag, int offset, int limit, ReadConsistency readConsistency, final Handler<Resource> handler) {
+        String key = encodePath(path);
+        boolean negativeCached = negativeCache != null && readConsistency == ReadConsistency.EVENTUAL;
+        if (negativeCached && negativeCache.contains(key, System.currentTimeMillis())) {
+            notFound(handler);
+            return;
+        }
+        String flightId = key + "|" + etag + "|" + offset + "|" + limit + "|" + readConsistency;
+        ReadFlight flight = readFlights.get(flightId);
+        if (flight != null) {
+            coalescedReads++;
+            flight.handlers.add(handler);
+            return;
         }
+        reads++;
+        ReadFlight started = new ReadFlight(key);
+        started.handlers.add(handler);
+        readFlights.put(flightId, started);
+        read(path, etag, offset, limit, readConsistency, resource -> {
+            // a path written while being read may exist already
+            boolean detached = !readFlights.remove(flightId, started);
+            if (negativeCached && !detached && !resource.exists && !resource.error) {
+                negativeCache.put(key, System.currentTimeMillis());
+            }
+            completeFlight(started, resource);
+        });
+    }
 
-        @Override
-        public ByteArrayReadStream exceptionHandler(Handler<Throwable> handler) {
-            return this;
+    /**
+     * The requests waiting for the same read. They are answered by a single read of the resource or collection, so
+     * concurrent requests of the same path share one script invocation, one decompression and the content read.
+     */
+    private static class ReadFlight {
+
+        private final String key;
+        private final List<Handler<Resource>> handlers = new ArrayList<>(1);
+
+        private ReadFlight(String key) {
+            this.key = key;
         }
+    }
 
-        @Override
-        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
-            this.handler = handler;
-            doRead();
-            return this;
+    private void completeFlight(ReadFlight flight, Resource resource) {
+        List<Resource> copies = new ArrayList<>(flight.handlers.size());
+        copies.add(resource);
+        for (int i = 1; i < flight.handlers.size(); i++) {
+            copies.add(copyOf(resource));
+        }
+        for (int i = 0; i < flight.handlers.size(); i++) {
+            flight.handlers.get(i).handle(copies.get(i));
         }
+    }
 
-        @Override
-        public ByteArrayReadStream endHandler(Handler<Void> endHandler) {
-            this.endHandler = endHandler;
-            return this;
+    /**
+     * Copies a resource read for another request. Documents share the content read, collections the members read.
+     */
+    private Resource copyOf(Resource resource) {
+        Resource copy;
+        if (resource instanceof DocumentResource && ((DocumentResource) resource).readStream instanceof ByteArrayReadStream) {
+            DocumentResource document = (DocumentResource) resource;
+            DocumentResource documentCopy = new DocumentResource();
+            documentCopy.readStream = new ByteArrayReadStream(vertx, ((ByteArrayReadStream) document.readStream).content);
+            documentCopy.length = document.length;
+            documentCopy.etag = document.etag;
+            documentCopy.closeHandler = event -> {
+                // nothing to close
+            };
+            copy = documentCopy;
+        } else if (resource instanceof CollectionResource) {
+            CollectionResource collectionCopy = new CollectionResource();
+            List<Resource> items = ((CollectionResource) resource).items;
+            collectionCopy.items = items == null ? null : new ArrayList<>(items);
+            copy = collectionCopy;
+        } else {
+            copy = new Resource();
         }
+        copy.name = resource.name;
+        copy.exists = resource.exists;
+        copy.modified = resource.modified;
+        copy.invalid = resource.invalid;
+        copy.rejected = resource.rejected;
+        copy.error = resource.error;
+        copy.invalidMessage = resource.invalidMessage;
+        copy.errorMessage = resource.errorMessage;
+        return copy;
     }
 
-    @Override
-    public Optional<Float> getCurrentMemoryUsage() {
-        return currentMemoryUsageOptional;
+    /**
+     * A write completed, so reads started before are not shared with the requests arriving afterwards. This applies to
+     * the written path, its ancestor collections and the paths below it.
+     */
+    private void detachReadFlights(String key) {
+        readFlights.values().removeIf(flight -> flight.key.equals(key) || key.startsWith(flight.key + ":")
+                || flight.key.startsWith(key + ":"));
     }
 
-    @Override
-    public void get(String path, String etag, int offset, int limit, final Handler<Resource> handler) {
+    private void read(String path, String etag, int offset, int limit, ReadConsistency readConsistency, final Handler<Resource> handler) {
+        if (nearCache != null && offset == 0 && limit == -1 && readConsistency == ReadConsistency.EVENTUAL) {
+            getCached(path, etag, handler);
+            return;
+        }
+        if (getPipeline != null && offset == 0 && limit == -1 && readConsistency == ReadConsistency.EVENTUAL) {
+            getPipeline.add(path, etag, handler);
+            return;
+        }
         final String key = encodePath(path);
         List<String> keys = Collections.singletonList(key);
         List<String> arguments = Arrays.asList(
@@ -437,172 +709,1046 @@ public class RedisStorage implements Storage {
                 MAX_EXPIRE_IN_MILLIS,
                 String.valueOf(offset),
                 String.valueOf(limit),
-                etag
+                etag == null ? EMPTY : etag,
+                String.valueOf(expirableBucketWindowMs),
+                String.valueOf(readCollectionPruneLimit),
+                deletionsKey,
+                "false",
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                String.valueOf(deltaHistorySize)
         );
-        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.GET, new Get(keys, arguments, handler), 0);
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.GET, new Get(keys, arguments, readLane(readConsistency), handler), 0);
     }
 
     /**
-     * The Get Command Execution.
-     * If the get script cannot be found under the sha in luaScriptState, reload the script.
-     * To avoid infinite recursion, we limit the recursion.
+     * Answers the GETs from the near cache. Resources not cached are read with the get script, which provides their
+     * expiration as well, and are cached unless they have been invalidated in the meantime. They are read from the
+     * master, since a read replica may still return the value invalidated before.
      */
-    private class Get implements RedisCommand {
-
-        private List<String> keys;
-        private List<String> arguments;
-        private Handler<Resource> handler;
-
-        public Get(List<String> keys, List<String> arguments, final Handler<Resource> handler) {
-            this.keys = keys;
-            this.arguments = arguments;
-            this.handler = handler;
-        }
-
-        public void exec(final int executionCounter) {
-            redisClient.evalsha(luaScripts.get(LuaScript.GET).getSha(), keys, arguments, event -> {
-                if(event.succeeded()){
-                    JsonArray values = event.result();
-                    if (log.isTraceEnabled()) {
-                        log.trace("RedisStorage get result: {}", values);
-                    }
-                    if("notModified".equals(values.getString(0))){
-                        notModified(handler);
-                    } else if ("notFound".equals(values.getString(0))) {
-                        notFound(handler);
-                    } else {
-                        handleJsonArrayValues(values, handler, "0".equals(arguments.get(5)) && "-1".equals(arguments.get(6)));
-                    }
-                } else {
-                    String message = event.cause().getMessage();
-                    if(message != null && message.startsWith("NOSCRIPT")) {
-                        log.warn("get script couldn't be found, reload it");
-                        log.warn("amount the script got loaded: {}", executionCounter);
-                        if(executionCounter > 10) {
-                            log.error("amount the script got loaded is higher than 10, we abort");
-                        } else {
-                            luaScripts.get(LuaScript.GET).loadLuaScript(new Get(keys, arguments, handler), executionCounter);
-                        }
-                    } else {
-                        log.error("GET request failed with message: {}", message);
-                    }
-                }
-            });
+    private void getCached(String path, String etag, Handler<Resource> handler) {
+        String key = encodePath(path);
+        NearCache.Entry entry = nearCache.get(key, System.currentTimeMillis());
+        if (entry != null) {
+            if (entry.etag.equals(etag)) {
+                notModified(handler);
+            } else {
+                handler.handle(documentResource(entry.content, entry.etag));
+            }
+            return;
         }
-    }
-
-    @Override
-    public void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler) {
-        final String key = encodePath(path);
-        List<String> keys = Collections.singletonList(key);
         List<String> arguments = Arrays.asList(
                 redisResourcesPrefix,
                 redisCollectionsPrefix,
                 expirableSet,
                 String.valueOf(System.currentTimeMillis()),
                 MAX_EXPIRE_IN_MILLIS,
-                StringUtils.join(subResources, ";"),
-                String.valueOf(subResources.size())
+                "0",
+                "-1",
+                etag == null ? EMPTY : etag,
+                String.valueOf(expirableBucketWindowMs),
+                String.valueOf(collectionPruneLimit),
+                deletionsKey,
+                "true",
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                String.valueOf(deltaHistorySize)
         );
-        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.STORAGE_EXPAND, new StorageExpand(keys, arguments, handler, etag), 0);
+        Get get = new Get(Collections.singletonList(key), arguments, RedisConnectionPool.Lane.INTERACTIVE, handler);
+        get.cacheStamp = nearCache.stamp();
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.GET, get, 0);
     }
 
     /**
-     * The StorageExpand Command Execution.
-     * If the get script cannot be found under the sha in luaScriptState, reload the script.
-     * To avoid infinite recursion, we limit the recursion.
+     * Subscribes to the invalidation channel, so the near cache drops the resources written or deleted by any storage
+     * and the negative cache the paths written.
+     * Only one subscriber per redis endpoint and channel is registered, even when deployed with multiple instances. It
+     * forwards the invalidations to the caches of all the instances. The caches are cleared when the subscription
+     * fails, since invalidations may have been missed.
      */
-    private class StorageExpand implements RedisCommand {
-
-        private List<String> keys;
-        private List<String> arguments;
-        private Handler<Resource> handler;
-        private String etag;
-
-        public StorageExpand(List<String> keys, List<String> arguments, final Handler<Resource> handler, String etag) {
-            this.keys = keys;
-            this.arguments = arguments;
-            this.handler = handler;
-            this.etag = etag;
+    private void subscribeInvalidations(ModuleConfiguration config) {
+        String subscriberKey = redisEndpoint + "/" + invalidationChannel;
+        String address = INVALIDATION_SUBSCRIBERS_MAP + "." + subscriberKey;
+        vertx.eventBus().<String>localConsumer(address, message -> {
+            String invalidation = message.body();
+            if (invalidation == null) {
+                if (nearCache != null) {
+                    nearCache.clear();
+                }
+                if (negativeCache != null) {
+                    negativeCache.clear();
+                }
+                return;
+            }
+            if (nearCache != null) {
+                nearCache.invalidated(invalidation, System.currentTimeMillis());
+            }
+            if (negativeCache != null) {
+                // the message consists of the time of the write and the key
+                String key = invalidation.substring(invalidation.indexOf(' ') + 1);
+                detachReadFlights(key);
+                negativeCache.invalidate(key);
+            }
+        });
+        LocalMap<String, Boolean> subscribers = vertx.sharedData().getLocalMap(INVALIDATION_SUBSCRIBERS_MAP);
+        if (subscribers.putIfAbsent(subscriberKey, true) != null) {
+            return;
         }
+        String subscriberAddress = address + ".redis";
+        vertx.eventBus().<JsonObject>localConsumer(subscriberAddress + "." + invalidationChannel, message -> {
+            JsonObject value = message.body().getJsonObject("value");
+            String invalidation = value == null ? null : value.getString("message");
+            if (invalidation != null) {
+                vertx.eventBus().publish(address, invalidation);
+            }
+        });
+        RedisClient subscriber = RedisClient.create(vertx, new RedisOptions()
+                .setHost(config.getRedisHost())
+                .setPort(config.getRedisPort())
+                .setAuth(config.getRedisAuth())
+                .setAddress(subscriberAddress));
+        subscriber.subscribe(invalidationChannel, event -> {
+            if (event.failed()) {
+                subscribers.remove(subscriberKey);
+                log.error("Subscription to the invalidations failed with message: {}", event.cause().getMessage());
+                vertx.eventBus().publish(address, null);
+            }
+        });
+    }
 
-        public void exec(final int executionCounter) {
-            redisClient.evalsha(luaScripts.get(LuaScript.STORAGE_EXPAND).getSha(), keys, arguments, event -> {
-                if(event.succeeded()){
-                    Object value = event.result().getValue(0);
-                    if (log.isTraceEnabled()) {
-                        log.trace("RedisStorage get result: {}", value);
-                    }
-                    if("compressionNotSupported".equalsIgnoreCase((String) value)){
-                        error(handler, "Collections having compressed resources are not supported in storage expand");
-                        return;
-                    }
-                    if("notFound".equalsIgnoreCase((String) value)){
-                        notFound(handler);
-                        return;
-                    }
-                    JsonObject expandResult = new JsonObject();
+    private void invalidate(String key) {
+        detachReadFlights(key);
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+        if (negativeCache != null) {
+            negativeCache.invalidate(key);
+        }
+    }
 
-                    JsonArray resultArr = new JsonArray((String) value);
+    /**
+     * Feeds the watchers of this storage from the stream of the changes appended by the scripts. Only one storage per
+     * redis endpoint and stream reads the stream, even when deployed with multiple instances. It forwards the changes
+     * read to the watchers of all the instances and publishes them on the change feed address.
+     */
+    private void startChangeFeed(ModuleConfiguration config) {
+        String readerKey = redisEndpoint + "/" + changeFeedStream;
+        String address = CHANGE_FEED_READERS_MAP + "." + readerKey;
+        vertx.eventBus().<JsonObject>localConsumer(address, message -> changed(message.body()));
+        LocalMap<String, Boolean> readers = vertx.sharedData().getLocalMap(CHANGE_FEED_READERS_MAP);
+        if (readers.putIfAbsent(readerKey, true) != null) {
+            return;
+        }
+        // the changes appended before the first read are not published
+        readChangeFeed(address);
+        vertx.setPeriodic(config.getChangeFeedPollIntervalMs(), timer -> readChangeFeed(address));
+    }
 
-                    for (Object resultEntry : resultArr) {
-                        JsonArray entries = (JsonArray) resultEntry;
-                        String subResourceName = ResourceNameUtil.resetReplacedColonsAndSemiColons(entries.getString(0));
-                        String subResourceValue = entries.getString(1);
-                        if(subResourceValue.startsWith("[") && subResourceValue.endsWith("]")){
-                            expandResult.put(subResourceName, extractSortedJsonArray(subResourceValue));
-                        } else {
-                            try {
-                                expandResult.put(subResourceName, new JsonObject(subResourceValue));
-                            }catch (DecodeException ex){
-                                invalid(handler, "Error decoding invalid json resource '" + subResourceName + "'");
-                                return;
-                            }
-                        }
-                    }
+    private void readChangeFeed(String address) {
+        if (readingChanges) {
+            return;
+        }
+        readingChanges = true;
+        String cursor = changeFeedCursor;
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.CHANGES, new ReadChanges(cursor == null ? EMPTY : cursor, EMPTY, values -> {
+            readingChanges = false;
+            if (values == null) {
+                return;
+            }
+            Changes changes = changes(values);
+            if (changes.expired) {
+                // the watchers have missed changes, since the stream has been trimmed before all changes were read
+                log.warn("Changes of {} have been trimmed before being read", changeFeedStream);
+                changeFeedCursor = null;
+                JsonObject expired = new JsonObject().put("expired", true);
+                vertx.eventBus().publish(address, expired);
+                vertx.eventBus().publish(changeFeedAddress, expired);
+                return;
+            }
+            changeFeedCursor = changes.cursor;
+            if (cursor != null && !changes.changes.isEmpty()) {
+                JsonObject changed = changes.asJsonObject();
+                vertx.eventBus().publish(address, changed);
+                vertx.eventBus().publish(changeFeedAddress, changed);
+            }
+            if (values.getLong(2) == CHANGES_READ_COUNT) {
+                readChangeFeed(address);
+            }
+        }), 0);
+    }
 
-                    byte[] finalExpandedContent = decodeBinary(expandResult.encode());
-                    String calcDigest = DigestUtils.sha1Hex(finalExpandedContent);
+    /**
+     * Waits for the changes of a subtree. The changes after the cursor already in the stream are read first, the
+     * watcher waits for the changes read by the feed afterwards. Changes read by the feed in the meantime are kept
+     * until the watcher knows up to which change the stream has been read.
+     */
+    @Override
+    public void watch(String path, String cursor, long timeoutMs, Handler<Changes> handler) {
+        if (changeFeedStream.isEmpty()) {
+            Changes changes = new Changes();
+            changes.invalid = true;
+            changes.invalidMessage = "The change feed is not enabled";
+            handler.handle(changes);
+            return;
+        }
+        Watcher watcher = new Watcher(encodePath(path), handler);
+        watchers.add(watcher);
+        catchUp(watcher, cursor == null ? EMPTY : cursor, timeoutMs);
+    }
 
-                    if(calcDigest.equals(etag)){
-                        notModified(handler);
-                    } else {
-                        DocumentResource r = new DocumentResource();
-                        r.readStream = new ByteArrayReadStream(finalExpandedContent);
-                        r.length = finalExpandedContent.length;
-                        r.etag = calcDigest;
-                        r.closeHandler = event1 -> {
-                            // nothing to close
-                        };
-                        handler.handle(r);
-                    }
-                } else {
-                    String message = event.cause().getMessage();
-                    if(message != null && message.startsWith("NOSCRIPT")) {
-                        log.warn("storageExpand script couldn't be found, reload it");
-                        log.warn("amount the script got loaded: {}", executionCounter);
-                        if(executionCounter > 10) {
-                            log.error("amount the script got loaded is higher than 10, we abort");
-                        } else {
-                            luaScripts.get(LuaScript.STORAGE_EXPAND).loadLuaScript(new StorageExpand(keys, arguments, handler, etag), executionCounter);
-                        }
-                    } else {
-                        log.error("StorageExpand request failed with message: {}", message);
-                    }
+    @Override
+    public void unwatch(String path, Handler<Changes> handler) {
+        for (Watcher watcher : new ArrayList<>(watchers)) {
+            if (watcher.handler == handler) {
+                watchers.remove(watcher);
+                if (watcher.timerId != -1) {
+                    vertx.cancelTimer(watcher.timerId);
                 }
-            });
+            }
         }
     }
 
-    private JsonArray extractSortedJsonArray(String arrayString){
-        String arrayContent = arrayString.replaceAll("\\[", EMPTY).replaceAll("\\]", EMPTY).replaceAll("\"", EMPTY).replaceAll("\\\\", EMPTY);
-        String[] splitted = StringUtils.split(arrayContent, ",");
-        List<String> resources = new ArrayList<>();
-        List<String> collections = new ArrayList<>();
-        for (String split : splitted) {
-            if (split.endsWith("/")) {
-                collections.add(split);
-            } else {
+    private void catchUp(Watcher watcher, String cursor, long timeoutMs) {
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.CHANGES, new ReadChanges(cursor, watcher.key, values -> {
+            if (!watchers.contains(watcher)) {
+                return;
+            }
+            if (values == null) {
+                Changes changes = new Changes();
+                changes.error = true;
+                changes.errorMessage = "Error reading the changes";
+                completeWatcher(watcher, changes);
+                return;
+            }
+            Changes changes = changes(values);
+            if (changes.expired || !changes.changes.isEmpty()) {
+                completeWatcher(watcher, changes);
+                return;
+            }
+            if (values.getLong(2) == CHANGES_READ_COUNT) {
+                catchUp(watcher, changes.cursor, timeoutMs);
+                return;
+            }
+            watcher.cursor = changes.cursor;
+            for (JsonObject pending : watcher.pending) {
+                notifyWatcher(watcher, pending);
+            }
+            watcher.pending = null;
+            if (timeoutMs <= 0) {
+                completeWatcher(watcher, noChanges(watcher.cursor));
+            } else if (watchers.contains(watcher)) {
+                watcher.timerId = vertx.setTimer(timeoutMs, timer -> completeWatcher(watcher, noChanges(watcher.cursor)));
+            }
+        }), 0);
+    }
+
+    /**
+     * A watcher of a subtree, waiting for changes after its cursor.
+     */
+    private static class Watcher {
+
+        private final String key;
+        private final Handler<Changes> handler;
+        // null until the changes after the cursor provided have been read from the stream
+        private String cursor;
+        private List<JsonObject> pending = new ArrayList<>();
+        private long timerId = -1;
+
+        private Watcher(String key, Handler<Changes> handler) {
+            this.key = key;
+            this.handler = handler;
+        }
+    }
+
+    private void changed(JsonObject changed) {
+        for (Watcher watcher : new ArrayList<>(watchers)) {
+            if (watcher.cursor == null) {
+                watcher.pending.add(changed);
+            } else {
+                notifyWatcher(watcher, changed);
+            }
+        }
+    }
+
+    private void notifyWatcher(Watcher watcher, JsonObject changed) {
+        if (changed.getBoolean("expired", false)) {
+            Changes changes = new Changes();
+            changes.expired = true;
+            changes.cursor = watcher.cursor;
+            completeWatcher(watcher, changes);
+            return;
+        }
+        JsonArray matching = new JsonArray();
+        for (Object item : changed.getJsonArray("changes")) {
+            JsonObject change = (JsonObject) item;
+            if (before(watcher.cursor, change.getString("cursor")) && inSubtree(encodePath(change.getString("path")), watcher.key)) {
+                matching.add(change);
+            }
+        }
+        if (before(watcher.cursor, changed.getString("cursor"))) {
+            watcher.cursor = changed.getString("cursor");
+        }
+        if (!matching.isEmpty()) {
+            Changes changes = noChanges(watcher.cursor);
+            changes.changes = matching;
+            completeWatcher(watcher, changes);
+        }
+    }
+
+    private void completeWatcher(Watcher watcher, Changes changes) {
+        if (!watchers.remove(watcher)) {
+            return;
+        }
+        if (watcher.timerId != -1) {
+            vertx.cancelTimer(watcher.timerId);
+        }
+        watcher.handler.handle(changes);
+    }
+
+    private Changes noChanges(String cursor) {
+        Changes changes = new Changes();
+        changes.cursor = cursor;
+        return changes;
+    }
+
+    /**
+     * @return the changes read by the changes script, consisting of the cursor, whether the changes after the cursor
+     * have been trimmed already and the amount of changes read, followed by the cursor, type, path and etag of each change
+     */
+    private Changes changes(JsonArray values) {
+        Changes changes = noChanges(values.getString(0));
+        changes.expired = "true".equals(values.getString(1));
+        for (int i = 3; i + 3 < values.size(); i += 4) {
+            JsonObject change = new JsonObject()
+                    .put("cursor", values.getString(i))
+                    .put("type", values.getString(i + 1))
+                    .put("path", decodePath(values.getString(i + 2)));
+            String etag = values.getString(i + 3);
+            if (etag != null && !etag.isEmpty()) {
+                change.put("etag", etag);
+            }
+            changes.changes.add(change);
+        }
+        return changes;
+    }
+
+    /**
+     * Compares the cursors of the changes, being the ids of the entries of the stream (time in milliseconds and
+     * sequence number).
+     */
+    static boolean before(String cursor, String other) {
+        int idx = cursor.indexOf('-');
+        int otherIdx = other.indexOf('-');
+        long ms = Long.parseLong(cursor.substring(0, idx));
+        long otherMs = Long.parseLong(other.substring(0, otherIdx));
+        return ms < otherMs || (ms == otherMs && Long.parseLong(cursor.substring(idx + 1)) < Long.parseLong(other.substring(otherIdx + 1)));
+    }
+
+    /**
+     * @return true when the key is the root of the subtree, below it or above it (a deleted collection)
+     */
+    private static boolean inSubtree(String key, String subtree) {
+        return subtree.isEmpty() || key.equals(subtree) || key.startsWith(subtree + ":") || subtree.startsWith(key + ":");
+    }
+
+    private class ReadChanges implements RedisCommand {
+
+        private final String cursor;
+        private final String subtree;
+        private final Handler<JsonArray> handler;
+
+        public ReadChanges(String cursor, String subtree, Handler<JsonArray> handler) {
+            this.cursor = cursor;
+            this.subtree = subtree;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            List<String> arguments = Arrays.asList(cursor, subtree, String.valueOf(CHANGES_READ_COUNT));
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.CHANGES).getSha(),
+                    Collections.singletonList(changeFeedStream), arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.CHANGES).loadLuaScript(new ReadChanges(cursor, subtree, handler), executionCounter);
+                        return;
+                    }
+                    log.error("Reading the changes of {} failed with message: {}", changeFeedStream, message);
+                    handler.handle(null);
+                    return;
+                }
+                handler.handle(event.result());
+            });
+        }
+    }
+
+    /**
+     * Lists the members of a collection changed since a version, read from the history kept for each collection by the
+     * scripts writing and removing its members.
+     */
+    @Override
+    public void changesSince(String path, String since, Handler<Changes> handler) {
+        if (deltaHistorySize <= 0) {
+            Changes changes = new Changes();
+            changes.invalid = true;
+            changes.invalidMessage = "The history of the collections is not enabled";
+            handler.handle(changes);
+            return;
+        }
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                deletionsKey,
+                since,
+                String.valueOf(System.currentTimeMillis())
+        );
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DELTA, new ReadDelta(encodePath(path), arguments, handler), 0);
+    }
+
+    private class ReadDelta implements RedisCommand {
+
+        private final String key;
+        private final List<String> arguments;
+        private final Handler<Changes> handler;
+
+        public ReadDelta(String key, List<String> arguments, Handler<Changes> handler) {
+            this.key = key;
+            this.arguments = arguments;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.DELTA).getSha(),
+                    Collections.singletonList(key), arguments, event -> {
+                Changes changes = new Changes();
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.DELTA).loadLuaScript(new ReadDelta(key, arguments, handler), executionCounter);
+                        return;
+                    }
+                    log.error("Reading the changes of the collection {} failed with message: {}", key, message);
+                    changes.error = true;
+                    changes.errorMessage = "Error reading the changes of the collection";
+                    handler.handle(changes);
+                    return;
+                }
+                JsonArray values = event.result();
+                String result = values.getString(0);
+                if ("notFound".equals(result)) {
+                    changes.notFound = true;
+                } else if ("notCollection".equals(result)) {
+                    changes.invalid = true;
+                    changes.invalidMessage = "The changes since a version are listed for collections only";
+                } else if ("expired".equals(result)) {
+                    changes.expired = true;
+                } else {
+                    changes.cursor = result;
+                    for (int i = 1; i + 3 < values.size(); i += 4) {
+                        String name = ResourceNameUtil.resetReplacedColonsAndSemiColons(values.getString(i));
+                        JsonObject change = new JsonObject()
+                                .put("type", values.getString(i + 1))
+                                .put("name", "c".equals(values.getString(i + 2)) ? name + "/" : name);
+                        String etag = values.getString(i + 3);
+                        if (etag != null && !etag.isEmpty()) {
+                            change.put("etag", etag);
+                        }
+                        changes.changes.add(change);
+                    }
+                }
+                handler.handle(changes);
+            });
+        }
+    }
+
+    /**
+     * Collects the GETs of whole resources issued within the same event loop tick and reads them with a single invocation
+     * of the multiGet script, so concurrent requests share one command, one write to the connection and one reply.
+     * Collections are not supported by the multiGet script and are read afterwards with the get script. The paths read
+     * as collections are remembered, their next GETs are sent to the get script directly.
+     */
+    private class GetPipeline {
+
+        private List<String> paths = new ArrayList<>();
+        private List<String> etags = new ArrayList<>();
+        private List<Handler<Resource>> handlers = new ArrayList<>();
+        private Set<String> collections = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > GET_PIPELINE_MAX_COLLECTIONS;
+            }
+        });
+
+        void add(String path, String etag, Handler<Resource> handler) {
+            if (collections.contains(path)) {
+                getResource(path, etag, RedisConnectionPool.Lane.READ, resource -> {
+                    if (!(resource instanceof CollectionResource)) {
+                        collections.remove(path);
+                    }
+                    handler.handle(resource);
+                });
+                return;
+            }
+            if (paths.isEmpty()) {
+                vertx.runOnContext(event -> flush());
+            }
+            paths.add(path);
+            etags.add(etag);
+            handlers.add(handler);
+            if (paths.size() >= GET_PIPELINE_MAX_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (paths.isEmpty()) {
+                return;
+            }
+            final List<String> flushedPaths = paths;
+            final List<String> flushedEtags = etags;
+            final List<Handler<Resource>> flushedHandlers = handlers;
+            paths = new ArrayList<>();
+            etags = new ArrayList<>();
+            handlers = new ArrayList<>();
+            if (log.isTraceEnabled()) {
+                log.trace("RedisStorage pipelined get of {} resources", flushedPaths.size());
+            }
+            multiGet(flushedPaths, flushedEtags, resources -> {
+                for (int i = 0; i < resources.size(); i++) {
+                    Resource resource = resources.get(i);
+                    if (resource.invalid) {
+                        String path = flushedPaths.get(i);
+                        Handler<Resource> handler = flushedHandlers.get(i);
+                        getResource(path, flushedEtags.get(i), RedisConnectionPool.Lane.READ, read -> {
+                            if (read instanceof CollectionResource) {
+                                collections.add(path);
+                            }
+                            handler.handle(read);
+                        });
+                    } else {
+                        flushedHandlers.get(i).handle(resource);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads a whole resource or collection with the get script, bypassing the pipeline. Used for the paths the
+     * multiGet script cannot answer (collections and resources stored in chunks).
+     */
+    private void getResource(String path, String etag, RedisConnectionPool.Lane lane, Handler<Resource> handler) {
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                expirableSet,
+                String.valueOf(System.currentTimeMillis()),
+                MAX_EXPIRE_IN_MILLIS,
+                "0",
+                "-1",
+                etag == null ? EMPTY : etag,
+                String.valueOf(expirableBucketWindowMs),
+                String.valueOf(readCollectionPruneLimit),
+                deletionsKey,
+                "false",
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                String.valueOf(deltaHistorySize)
+        );
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.GET, new Get(Collections.singletonList(encodePath(path)), arguments, lane, handler), 0);
+    }
+
+    /**
+     * The Get Command Execution.
+     * If the get script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Get implements RedisCommand {
+
+        private List<String> keys;
+        private List<String> arguments;
+        private RedisConnectionPool.Lane lane;
+        private Handler<Resource> handler;
+        private int chunkReadAttempts = 0;
+        // the stamp of the near cache when the read started, -1 when the resource is not cached
+        private long cacheStamp = -1;
+
+        public Get(List<String> keys, List<String> arguments, RedisConnectionPool.Lane lane, final Handler<Resource> handler) {
+            this.keys = keys;
+            this.arguments = arguments;
+            this.lane = lane;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(lane, luaScripts.get(LuaScript.GET).getSha(), keys, arguments, event -> {
+                if(event.succeeded()){
+                    JsonArray values = event.result();
+                    if (log.isTraceEnabled()) {
+                        log.trace("RedisStorage get result: {}", values);
+                    }
+                    if("notModified".equals(values.getString(0))){
+                        notModified(handler);
+                    } else if ("notFound".equals(values.getString(0))) {
+                        notFound(handler);
+                    } else if ("TYPE_RESOURCE".equals(values.getString(0)) && values.size() > 4 && !values.hasNull(4)) {
+                        readChunks(values, executionCounter);
+                    } else if ("TYPE_RESOURCE".equals(values.getString(0))) {
+                        handleResource(values);
+                    } else {
+                        handleJsonArrayValues(values, handler, "0".equals(arguments.get(5)) && "-1".equals(arguments.get(6)));
+                    }
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("get script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                            error(handler, "Error reading the resource");
+                        } else {
+                            Get get = new Get(keys, arguments, lane, handler);
+                            get.cacheStamp = cacheStamp;
+                            luaScripts.get(LuaScript.GET).loadLuaScript(get, executionCounter);
+                        }
+                    } else {
+                        log.error("GET request failed with message: {}", message);
+                        error(handler, "Error reading the resource");
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reads the chunks of a large value. A chunk is missing when the resource has been written again in the
+         * meantime, the resource is read again then.
+         */
+        private void readChunks(JsonArray values, int executionCounter) {
+            RedisStorage.this.readChunks(values.getString(4), Integer.parseInt(values.getString(5)), lane, content -> {
+                if (content.succeeded()) {
+                    handleResource(new JsonArray(Arrays.asList("TYPE_RESOURCE", content.result(), values.getString(2),
+                            values.getString(3), null, null, values.size() > 6 ? values.getString(6) : null)));
+                } else if (++chunkReadAttempts < MAX_CHUNK_READ_ATTEMPTS) {
+                    exec(executionCounter);
+                } else {
+                    log.error("Reading the chunks of {} failed with message: {}", keys.get(0), content.cause().getMessage());
+                    error(handler, "Error reading the chunks of the resource");
+                }
+            });
+        }
+
+        /**
+         * Passes the resource read and adds it to the near cache, if requested. Resources without an expiration
+         * are cached until they are invalidated.
+         */
+        private void handleResource(JsonArray values) {
+            if (cacheStamp < 0) {
+                handleJsonArrayValues(values, handler, false);
+                return;
+            }
+            resourceContent(values, content -> {
+                if (content.failed()) {
+                    error(handler, "Error during decompression of resource: " + content.cause().getMessage());
+                    return;
+                }
+                String expiration = values.size() > 6 ? values.getString(6) : null;
+                nearCache.put(keys.get(0), cacheStamp, content.result(), values.getString(2),
+                        expiration == null ? Long.MAX_VALUE : (long) Double.parseDouble(expiration));
+                handler.handle(documentResource(content.result(), values.getString(2)));
+            });
+        }
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, Handler<List<Resource>> handler) {
+        multiGet(paths, etags, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, ReadConsistency readConsistency, Handler<List<Resource>> handler) {
+        List<String> keys = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            keys.add(encodePath(path));
+        }
+        List<String> arguments = new ArrayList<>(etags.size() + 6);
+        arguments.add(redisResourcesPrefix);
+        arguments.add(redisCollectionsPrefix);
+        arguments.add(expirableSet);
+        arguments.add(String.valueOf(System.currentTimeMillis()));
+        arguments.add(String.valueOf(expirableBucketWindowMs));
+        arguments.add(deletionsKey);
+        for (String etag : etags) {
+            arguments.add(etag == null ? EMPTY : etag);
+        }
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.MULTI_GET, new MultiGet(paths, keys, arguments, readLane(readConsistency), handler), 0);
+    }
+
+    /**
+     * The MultiGet Command Execution. All paths are read with a single script invocation, so the whole batch
+     * needs only one round trip to redis.
+     * If the multiGet script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class MultiGet implements RedisCommand {
+
+        private static final int VALUES_PER_PATH = 4;
+
+        private List<String> paths;
+        private List<String> keys;
+        private List<String> arguments;
+        private RedisConnectionPool.Lane lane;
+        private Handler<List<Resource>> handler;
+
+        public MultiGet(List<String> paths, List<String> keys, List<String> arguments, RedisConnectionPool.Lane lane, final Handler<List<Resource>> handler) {
+            this.paths = paths;
+            this.keys = keys;
+            this.arguments = arguments;
+            this.lane = lane;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(lane, luaScripts.get(LuaScript.MULTI_GET).getSha(), keys, arguments, event -> {
+                if(event.succeeded()){
+                    JsonArray values = event.result();
+                    if (log.isTraceEnabled()) {
+                        log.trace("RedisStorage multiGet result: {}", values);
+                    }
+                    List<Future> futures = new ArrayList<>(paths.size());
+                    for (int i = 0; i < paths.size(); i++) {
+                        Future<Resource> future = Future.future();
+                        futures.add(future);
+                        Handler<Resource> itemHandler = resource -> {
+                            future.complete(resource);
+                        };
+                        int index = i * VALUES_PER_PATH;
+                        String type = values.getString(index);
+                        if ("notModified".equals(type)) {
+                            notModified(itemHandler);
+                        } else if ("TYPE_COLLECTION".equals(type)) {
+                            invalid(itemHandler, "Collections are not supported in multiGet requests");
+                        } else if ("TYPE_CHUNKED".equals(type)) {
+                            // the etag known by the client has already been compared by the multiGet script
+                            getResource(paths.get(i), null, lane, itemHandler);
+                        } else if ("TYPE_RESOURCE".equals(type)) {
+                            String compressed = values.getString(index + 3);
+                            handleJsonArrayValues(new JsonArray(Arrays.asList(
+                                    type,
+                                    StringUtils.defaultString(values.getString(index + 1)),
+                                    values.getString(index + 2),
+                                    StringUtils.isEmpty(compressed) ? null : compressed)), itemHandler, false);
+                        } else {
+                            notFound(itemHandler);
+                        }
+                    }
+                    CompositeFuture.all(futures).setHandler(all -> {
+                        List<Resource> resources = new ArrayList<>(paths.size());
+                        for (int i = 0; i < paths.size(); i++) {
+                            Resource resource = all.result().resultAt(i);
+                            resource.name = paths.get(i);
+                            resources.add(resource);
+                        }
+                        handler.handle(resources);
+                    });
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("multiGet script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                            failed();
+                        } else {
+                            luaScripts.get(LuaScript.MULTI_GET).loadLuaScript(new MultiGet(paths, keys, arguments, lane, handler), executionCounter);
+                        }
+                    } else {
+                        log.error("MultiGet request failed with message: {}", message);
+                        failed();
+                    }
+                }
+            });
+        }
+
+        private void failed() {
+            List<Resource> resources = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                Resource resource = new Resource();
+                resource.name = path;
+                resource.error = true;
+                resource.errorMessage = "Error reading the resource";
+                resources.add(resource);
+            }
+            handler.handle(resources);
+        }
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler) {
+        storageExpand(path, etag, subResources, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, ReadConsistency readConsistency, Handler<Resource> handler) {
+        final String key = encodePath(path);
+        List<String> keys = Collections.singletonList(key);
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                expirableSet,
+                String.valueOf(System.currentTimeMillis()),
+                MAX_EXPIRE_IN_MILLIS,
+                StringUtils.join(subResources, ";"),
+                String.valueOf(subResources.size()),
+                etag == null ? EMPTY : etag,
+                String.valueOf(expirableBucketWindowMs),
+                deletionsKey
+        );
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.STORAGE_EXPAND, new StorageExpand(keys, arguments, readLane(readConsistency), handler, etag), 0);
+    }
+
+    /**
+     * The StorageExpand Command Execution.
+     * If the get script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class StorageExpand implements RedisCommand {
+
+        private List<String> keys;
+        private List<String> arguments;
+        private RedisConnectionPool.Lane lane;
+        private Handler<Resource> handler;
+        private String etag;
+
+        public StorageExpand(List<String> keys, List<String> arguments, RedisConnectionPool.Lane lane, final Handler<Resource> handler, String etag) {
+            this.keys = keys;
+            this.arguments = arguments;
+            this.lane = lane;
+            this.handler = handler;
+            this.etag = etag;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(lane, luaScripts.get(LuaScript.STORAGE_EXPAND).getSha(), keys, arguments, event -> {
+                if(event.succeeded()){
+                    JsonArray values = event.result();
+                    if (log.isTraceEnabled()) {
+                        log.trace("RedisStorage get result: {}", values);
+                    }
+                    String value = values.getString(0);
+                    if("compressionNotSupported".equalsIgnoreCase(value)){
+                        error(handler, "Collections having compressed resources are not supported in storage expand");
+                        return;
+                    }
+                    if("chunksNotSupported".equalsIgnoreCase(value)){
+                        error(handler, "Collections having resources stored in chunks are not supported in storage expand");
+                        return;
+                    }
+                    if("notFound".equalsIgnoreCase(value)){
+                        notFound(handler);
+                        return;
+                    }
+                    if("notModified".equalsIgnoreCase(value)){
+                        notModified(handler);
+                        return;
+                    }
+                    // the etag is calculated by the script from the etags of the sub resources
+                    String expandEtag = value;
+                    String expandResult = values.getString(1);
+                    StorageExpandResultBuilder resultBuilder = new StorageExpandResultBuilder(expandResult.length());
+                    // the result is read through a reader, so the parser holds a small window of it only. The values
+                    // of the sub resources are copied from the buffer of the parser, without creating strings of them
+                    try (JsonParser parser = JSON_FACTORY.createParser(new StringReader(expandResult))) {
+                        parser.nextToken(); // the outer array
+                        while (parser.nextToken() == JsonToken.START_ARRAY) {
+                            parser.nextToken();
+                            String subResourceName = ResourceNameUtil.resetReplacedColonsAndSemiColons(parser.getText());
+                            parser.nextToken();
+                            char[] subResourceValue = parser.getTextCharacters();
+                            int offset = parser.getTextOffset();
+                            int length = parser.getTextLength();
+                            if(length > 1 && subResourceValue[offset] == '[' && subResourceValue[offset + length - 1] == ']'){
+                                resultBuilder.appendCollection(subResourceName, extractSortedJsonArray(new String(subResourceValue, offset, length)));
+                            } else if(StorageExpandResultBuilder.isJsonObject(subResourceValue, offset, length)) {
+                                resultBuilder.appendResource(subResourceName, subResourceValue, offset, length);
+                            } else {
+                                invalid(handler, "Error decoding invalid json resource '" + subResourceName + "'");
+                                return;
+                            }
+                            parser.nextToken(); // the end of the entry array
+                        }
+                    } catch (IOException ex) {
+                        error(handler, "Error reading storageExpand result: " + ex.getMessage());
+                        return;
+                    }
+
+                    Buffer finalExpandedContent = resultBuilder.build();
+                    DocumentResource r = new DocumentResource();
+                    r.readStream = new ByteArrayReadStream(vertx, finalExpandedContent);
+                    r.length = finalExpandedContent.length();
+                    r.etag = expandEtag;
+                    r.closeHandler = event1 -> {
+                        // nothing to close
+                    };
+                    handler.handle(r);
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("storageExpand script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                            error(handler, "Error reading the resources to expand");
+                        } else {
+                            luaScripts.get(LuaScript.STORAGE_EXPAND).loadLuaScript(new StorageExpand(keys, arguments, lane, handler, etag), executionCounter);
+                        }
+                    } else {
+                        log.error("StorageExpand request failed with message: {}", message);
+                        error(handler, "Error reading the resources to expand");
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, Handler<Resource> handler) {
+        storageExpand(path, etag, depth, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, ReadConsistency readConsistency, Handler<Resource> handler) {
+        final String key = encodePath(path);
+        List<String> keys = Collections.singletonList(key);
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                expirableSet,
+                String.valueOf(System.currentTimeMillis()),
+                MAX_EXPIRE_IN_MILLIS,
+                String.valueOf(depth),
+                String.valueOf(expandMaxNodes),
+                String.valueOf(expandMaxBytes),
+                etag == null ? EMPTY : etag,
+                String.valueOf(expirableBucketWindowMs),
+                deletionsKey
+        );
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.EXPAND, new Expand(keys, arguments, readLane(readConsistency), handler), 0);
+    }
+
+    /**
+     * The depth limited Expand Command Execution.
+     * If the expand script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Expand implements RedisCommand {
+
+        private List<String> keys;
+        private List<String> arguments;
+        private RedisConnectionPool.Lane lane;
+        private Handler<Resource> handler;
+
+        public Expand(List<String> keys, List<String> arguments, RedisConnectionPool.Lane lane, final Handler<Resource> handler) {
+            this.keys = keys;
+            this.arguments = arguments;
+            this.lane = lane;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(lane, luaScripts.get(LuaScript.EXPAND).getSha(), keys, arguments, event -> {
+                if(event.succeeded()){
+                    JsonArray values = event.result();
+                    String value = values.getString(0);
+                    if("compressionNotSupported".equalsIgnoreCase(value)){
+                        error(handler, "Collections having compressed resources are not supported in expand");
+                        return;
+                    }
+                    if("chunksNotSupported".equalsIgnoreCase(value)){
+                        error(handler, "Collections having resources stored in chunks are not supported in expand");
+                        return;
+                    }
+                    if("notFound".equalsIgnoreCase(value)){
+                        notFound(handler);
+                        return;
+                    }
+                    if("notCollection".equalsIgnoreCase(value)){
+                        String etag = arguments.get(8);
+                        getResource(decodePath(keys.get(0)), etag.isEmpty() ? null : etag, lane, handler);
+                        return;
+                    }
+                    if("notModified".equalsIgnoreCase(value)){
+                        notModified(handler);
+                        return;
+                    }
+                    if("limitExceeded".equalsIgnoreCase(value)){
+                        Resource r = new Resource();
+                        r.rejected = true;
+                        r.errorMessage = "Expanded content exceeds the limit of " + expandMaxNodes + " nodes or "
+                                + expandMaxBytes + " bytes. Use a smaller expand depth";
+                        handler.handle(r);
+                        return;
+                    }
+
+                    // values: etag followed by triples of type, name and value
+                    StorageExpandResultBuilder resultBuilder = new StorageExpandResultBuilder();
+                    for (int i = 1; i + 2 < values.size(); i += 3) {
+                        String type = values.getString(i);
+                        String name = ResourceNameUtil.resetReplacedColonsAndSemiColons(values.getString(i + 1));
+                        String content = values.getString(i + 2);
+                        if ("COLLECTION_START".equals(type)) {
+                            resultBuilder.startCollection(name);
+                        } else if ("COLLECTION_END".equals(type)) {
+                            resultBuilder.endCollection();
+                        } else if ("COLLECTION".equals(type)) {
+                            resultBuilder.appendCollection(name, extractSortedJsonArray(content));
+                        } else if (StorageExpandResultBuilder.isJsonObject(content)) {
+                            resultBuilder.appendResource(name, content);
+                        } else {
+                            invalid(handler, "Error decoding invalid json resource '" + name + "'");
+                            return;
+                        }
+                    }
+
+                    Buffer finalExpandedContent = resultBuilder.build();
+                    DocumentResource r = new DocumentResource();
+                    r.readStream = new ByteArrayReadStream(vertx, finalExpandedContent);
+                    r.length = finalExpandedContent.length();
+                    r.etag = value;
+                    r.closeHandler = event1 -> {
+                        // nothing to close
+                    };
+                    handler.handle(r);
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("expand script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                            error(handler, "Error reading the resource");
+                        } else {
+                            luaScripts.get(LuaScript.EXPAND).loadLuaScript(new Expand(keys, arguments, lane, handler), executionCounter);
+                        }
+                    } else {
+                        log.error("Expand request failed with message: {}", message);
+                        error(handler, "Error reading the resource");
+                    }
+                }
+            });
+        }
+    }
+
+    private JsonArray extractSortedJsonArray(String arrayString){
+        String arrayContent = arrayString.replaceAll("\\[", EMPTY).replaceAll("\\]", EMPTY).replaceAll("\"", EMPTY).replaceAll("\\\\", EMPTY);
+        String[] splitted = StringUtils.split(arrayContent, ",");
+        List<String> resources = new ArrayList<>();
+        List<String> collections = new ArrayList<>();
+        for (String split : splitted) {
+            if (split.endsWith("/")) {
+                collections.add(split);
+            } else {
                 resources.add(split);
             }
         }
@@ -614,33 +1760,13 @@ public class RedisStorage implements Storage {
     private void handleJsonArrayValues(JsonArray values, Handler<Resource> handler, boolean allowEmptyReturn){
         String type = values.getString(0);
         if("TYPE_RESOURCE".equals(type)){
-            String valueStr = values.getString(1);
-            DocumentResource r = new DocumentResource();
-            byte[] content = decodeBinary(valueStr);
-            if(!values.hasNull(3)){
-                // data is compressed
-                GZIPUtil.decompressResource(vertx, log, content, decompressedResult -> {
-                    if(decompressedResult.succeeded()) {
-                        r.readStream = new ByteArrayReadStream(decompressedResult.result());
-                        r.length = decompressedResult.result().length;
-                        r.etag = values.getString(2);
-                        r.closeHandler = event -> {
-                            // nothing to close
-                        };
-                        handler.handle(r);
-                    } else {
-                        error(handler, "Error during decompression of resource: " + decompressedResult.cause().getMessage());
-                    }
-                });
-            } else {
-                r.readStream = new ByteArrayReadStream(content);
-                r.length = content.length;
-                r.etag = values.getString(2);
-                r.closeHandler = event -> {
-                    // nothing to close
-                };
-                handler.handle(r);
-            }
+            resourceContent(values, content -> {
+                if (content.succeeded()) {
+                    handler.handle(documentResource(content.result(), values.getString(2)));
+                } else {
+                    error(handler, "Error during decompression of resource: " + content.cause().getMessage());
+                }
+            });
         } else if("TYPE_COLLECTION".equals(type)) {
             CollectionResource r = new CollectionResource();
             Set<Resource> items = new HashSet<>();
@@ -671,14 +1797,54 @@ public class RedisStorage implements Storage {
         }
     }
 
+    /**
+     * Passes the content of a resource read by a script, decompressed if it is stored compressed.
+     */
+    private void resourceContent(JsonArray values, Handler<AsyncResult<byte[]>> handler) {
+        byte[] content = decodeBinary(values.getString(1));
+        if (!values.hasNull(3)) {
+            // data is compressed
+            GZIPUtil.decompressResource(vertx, log, content, handler);
+        } else {
+            handler.handle(Future.succeededFuture(content));
+        }
+    }
+
+    private DocumentResource documentResource(byte[] content, String etag) {
+        DocumentResource r = new DocumentResource();
+        r.readStream = new ByteArrayReadStream(vertx, content);
+        r.length = content.length;
+        r.etag = etag;
+        r.closeHandler = event -> {
+            // nothing to close
+        };
+        return r;
+    }
+
     class ByteArrayWriteStream implements WriteStream<Buffer> {
 
         private ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        private final MessageDigest digest;
+
+        ByteArrayWriteStream() {
+            this(false);
+        }
+
+        ByteArrayWriteStream(boolean computeDigest) {
+            this.digest = computeDigest ? DigestUtils.getMd5Digest() : null;
+        }
 
         public byte[] getBytes() {
             return bos.toByteArray();
         }
 
+        /**
+         * @return the hex encoded md5 digest of the written bytes, computed while the bytes are written
+         */
+        public String getDigest() {
+            return Hex.encodeHexString(digest.digest());
+        }
+
         @Override
         public ByteArrayWriteStream setWriteQueueMaxSize(int maxSize) {
             return this;
@@ -702,7 +1868,11 @@ public class RedisStorage implements Storage {
         @Override
         public WriteStream<Buffer> write(Buffer data) {
             try {
-                bos.write(data.getBytes());
+                byte[] bytes = data.getBytes();
+                bos.write(bytes);
+                if (digest != null) {
+                    digest.update(bytes);
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -741,11 +1911,15 @@ public class RedisStorage implements Storage {
     public void put(String path, String etag, boolean merge, long expire, String lockOwner, LockMode lockMode, long lockExpire, boolean storeCompressed, Handler<Resource> handler) {
         final String key = encodePath(path);
         final DocumentResource d = new DocumentResource();
-        final ByteArrayWriteStream stream = new ByteArrayWriteStream();
+        // without an etag provided by the client, the etag is derived from the content so unchanged values are not written again.
+        // Merged values are excluded, since the stored value is not the content of the request
+        final boolean contentEtag = contentEtags && isEmpty(etag) && !merge;
+        final ByteArrayWriteStream stream = new ByteArrayWriteStream(contentEtag);
 
-        final String etagValue = initEtagValue(etag);
+        final String providedEtag = contentEtag ? null : initEtagValue(etag);
         d.writeStream = stream;
         d.closeHandler = event -> {
+            String etagValue = contentEtag ? stream.getDigest() : providedEtag;
             String expireInMillis = MAX_EXPIRE_IN_MILLIS;
             if (expire > -1) {
                 expireInMillis = String.valueOf(System.currentTimeMillis() + (expire * 1000));
@@ -760,52 +1934,288 @@ public class RedisStorage implements Storage {
 
             List<String> keys = Collections.singletonList(key);
 
-            if (storeCompressed) {
+            if (merge) {
+                merges++;
+                mergeContent(d, keys, expireInMillis, stream.getBytes(), etagValue, lockOwner, lockMode, lockExpireInMillis, 1, handler);
+            } else if (storeCompressed) {
                 String finalExpireInMillis = expireInMillis;
                 GZIPUtil.compressResource(vertx, log, stream.getBytes(), compressResourceResult -> {
                     if(compressResourceResult.succeeded()) {
-                        List<String> arg = Arrays.asList(
-                                redisResourcesPrefix,
-                                redisCollectionsPrefix,
-                                expirableSet,
-                                merge ? "true" : "false",
-                                finalExpireInMillis,
-                                MAX_EXPIRE_IN_MILLIS,
-                                encodeBinary(compressResourceResult.result()),
-                                etagValue,
-                                redisLockPrefix,
-                                lockOwner,
-                                lockMode.text(),
-                                lockExpireInMillis,
-                                storeCompressed ? "1" : "0"
-                        );
-                        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.PUT, new Put(d, keys, arg, handler), 0);
+                        putContent(d, keys, finalExpireInMillis, compressResourceResult.result(), etagValue, contentEtag,
+                                lockOwner, lockMode, lockExpireInMillis, storeCompressed, null, null, handler);
                     } else {
                         error(handler, "Error during compression of resource");
                     }
                 });
             } else {
-                List<String> arguments = Arrays.asList(
-                        redisResourcesPrefix,
-                        redisCollectionsPrefix,
-                        expirableSet,
-                        merge ? "true" : "false",
-                        expireInMillis,
-                        MAX_EXPIRE_IN_MILLIS,
-                        encodeBinary(stream.getBytes()),
-                        etagValue,
-                        redisLockPrefix,
-                        lockOwner,
-                        lockMode.text(),
-                        lockExpireInMillis,
-                        storeCompressed ? "1" : "0"
-                );
-                reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.PUT, new Put(d, keys, arguments, handler), 0);
+                putContent(d, keys, expireInMillis, stream.getBytes(), etagValue, contentEtag, lockOwner, lockMode,
+                        lockExpireInMillis, storeCompressed, null, null, handler);
             }
         };
         handler.handle(d);
     }
 
+    /**
+     * Merges the content into the stored json object and writes the result, as long as the stored value has not been
+     * changed in the meantime. The merge runs on a worker thread, redis only compares the etag read before. A value
+     * changed concurrently is read and merged again.
+     */
+    private void mergeContent(DocumentResource d, List<String> keys, String expireInMillis, byte[] patch, String etagValue,
+                              String lockOwner, LockMode lockMode, String lockExpireInMillis, int attempt, Handler<Resource> handler) {
+        Runnable conflictHandler = () -> {
+            mergeConflicts++;
+            if (attempt < MAX_MERGE_ATTEMPTS) {
+                mergeContent(d, keys, expireInMillis, patch, etagValue, lockOwner, lockMode, lockExpireInMillis, attempt + 1, handler);
+            } else {
+                log.error("Merging {} failed after {} concurrent modifications", keys.get(0), attempt);
+                error(handler, "Error merging the resource, it has been modified concurrently");
+            }
+        };
+        readStoredValue(keys.get(0), stored -> {
+            if (stored.failed()) {
+                // a chunk or stored value removed while reading it has been replaced concurrently
+                log.warn("Reading the merged resource {} failed with message: {}", keys.get(0), stored.cause().getMessage());
+                conflictHandler.run();
+                return;
+            }
+            vertx.<byte[]>executeBlocking(future -> future.complete(mergeJson(stored.result().content, patch)), false, merged -> {
+                if (merged.failed()) {
+                    log.error("PUT request failed with message: {}", merged.cause().getMessage());
+                    if (d.errorHandler != null) {
+                        d.errorHandler.handle(merged.cause());
+                    }
+                    return;
+                }
+                putContent(d, keys, expireInMillis, merged.result(), etagValue, false, lockOwner, lockMode, lockExpireInMillis,
+                        false, stored.result().etag, conflictHandler, handler);
+            });
+        });
+    }
+
+    /**
+     * Merges the fields of the patch into the stored json object, fields having a null value are removed. Without a
+     * stored value the patch is stored as it is.
+     */
+    static byte[] mergeJson(byte[] stored, byte[] patch) {
+        if (stored == null) {
+            return patch;
+        }
+        JsonObject merged = new JsonObject(new String(stored, StandardCharsets.UTF_8));
+        JsonObject changes = new JsonObject(new String(patch, StandardCharsets.UTF_8));
+        for (String field : changes.fieldNames()) {
+            Object value = changes.getValue(field);
+            if (value == null) {
+                merged.remove(field);
+            } else {
+                merged.put(field, value);
+            }
+        }
+        return merged.encode().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class StoredValue {
+        private final String etag;
+        private final byte[] content;
+
+        private StoredValue(String etag, byte[] content) {
+            this.etag = etag;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Reads the stored value of a resource regardless of its expiration, including values stored in chunks, in a blob
+     * or compressed. A resource not existing is passed with an empty etag and without content.
+     */
+    private void readStoredValue(String key, Handler<AsyncResult<StoredValue>> handler) {
+        String resourceKey = redisResourcesPrefix + key;
+        List<String> fields = Arrays.asList("resource", "etag", "compressed", "chunkkey", "chunks", "blob");
+        redisPool.<JsonArray>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hmget(resourceKey, fields, resultHandler), event -> {
+            if (event.failed()) {
+                handler.handle(Future.failedFuture(event.cause()));
+                return;
+            }
+            JsonArray values = event.result();
+            if (values.hasNull(1)) {
+                handler.handle(Future.succeededFuture(new StoredValue(EMPTY, null)));
+                return;
+            }
+            String etag = values.getString(1);
+            Future<String> value = Future.future();
+            if (!values.hasNull(5)) {
+                redisPool.<String>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hget(values.getString(5), "value", resultHandler), blob -> {
+                    if (blob.succeeded() && blob.result() == null) {
+                        value.fail("missing blob " + values.getString(5));
+                    } else {
+                        value.handle(blob);
+                    }
+                });
+            } else if (!values.hasNull(3)) {
+                readChunks(values.getString(3), Integer.parseInt(values.getString(4)), RedisConnectionPool.Lane.INTERACTIVE, value.completer());
+            } else {
+                value.complete(values.getString(0));
+            }
+            value.setHandler(read -> {
+                if (read.failed()) {
+                    handler.handle(Future.failedFuture(read.cause()));
+                } else if (values.hasNull(2)) {
+                    handler.handle(Future.succeededFuture(new StoredValue(etag, decodeBinary(read.result()))));
+                } else {
+                    GZIPUtil.decompressResource(vertx, log, decodeBinary(read.result()), decompressed -> handler.handle(
+                            decompressed.map(content -> new StoredValue(etag, content))));
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes the content with the put script. Content larger than resourceChunkSize is written in chunks to a separate
+     * key first, so no single command has to transfer the whole value. With an expected etag, the content is only
+     * written when the stored etag still matches, otherwise the conflict handler is called.
+     */
+    private void putContent(DocumentResource d, List<String> keys, String expireInMillis, byte[] content,
+                            String etagValue, boolean contentEtag, String lockOwner, LockMode lockMode,
+                            String lockExpireInMillis, boolean storeCompressed, String expectedEtag, Runnable conflictHandler,
+                            Handler<Resource> handler) {
+        String chunkKey = chunkKey(content);
+        boolean chunked = !chunkKey.isEmpty();
+        String blobKey = blobKey(content, expireInMillis, chunked);
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                expirableSet,
+                expectedEtag != null ? "true" : "false",
+                expireInMillis,
+                MAX_EXPIRE_IN_MILLIS,
+                chunked ? EMPTY : encodeBinary(content),
+                etagValue,
+                redisLockPrefix,
+                lockOwner,
+                lockMode.text(),
+                lockExpireInMillis,
+                storeCompressed ? "1" : "0",
+                String.valueOf(expirableBucketWindowMs),
+                nativeExpiration ? "true" : "false",
+                deletionsKey,
+                chunkKey,
+                String.valueOf(chunkCount(content, chunked)),
+                contentEtag ? "true" : "false",
+                blobKey,
+                expectedEtag != null ? expectedEtag : EMPTY,
+                invalidationChannel,
+                changeFeedStream,
+                changeFeedMaxLength,
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                String.valueOf(deltaHistorySize),
+                String.valueOf(System.currentTimeMillis())
+        );
+        if (!chunked) {
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.PUT, new Put(d, keys, arguments, contentEtag, content.length, conflictHandler, handler), 0);
+            return;
+        }
+        writeChunks(chunkKey, content).setHandler(written -> {
+            if (written.succeeded()) {
+                reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.PUT, new Put(d, keys, arguments, contentEtag, content.length, conflictHandler, handler), 0);
+            } else {
+                log.error("Writing the chunks of {} failed with message: {}", keys.get(0), written.cause().getMessage());
+                removeChunks(chunkKey);
+                error(handler, "Error writing the chunks of the resource");
+            }
+        });
+    }
+
+    /**
+     * @return a new chunk key for content larger than resourceChunkSize, an empty key for content stored in a single
+     * field
+     */
+    private String chunkKey(byte[] content) {
+        boolean chunked = resourceChunkSize > 0 && content.length > resourceChunkSize;
+        return chunked ? redisChunksPrefix + ":" + UUID.randomUUID().toString() : EMPTY;
+    }
+
+    private int chunkCount(byte[] content, boolean chunked) {
+        return chunked ? (content.length + resourceChunkSize - 1) / resourceChunkSize : 0;
+    }
+
+    /**
+     * @return the key of the blob storing the content once for all resources having the same content, or an empty
+     * key. Only permanent values are deduplicated, expiring resources are removed without the script releasing the
+     * value when native expiration is used
+     */
+    private String blobKey(byte[] content, String expireInMillis, boolean chunked) {
+        boolean deduplicated = resourceDedupThreshold > 0 && content.length >= resourceDedupThreshold && !chunked
+                && MAX_EXPIRE_IN_MILLIS.equals(expireInMillis);
+        return deduplicated ? redisBlobsPrefix + ":" + DigestUtils.sha256Hex(content) : EMPTY;
+    }
+
+    /**
+     * Writes the chunks of a large value as fields of the chunk key. The chunks are sent without waiting for each other,
+     * spread over the connections of the interactive lane. The chunk key gets a provisional ttl with the first chunk,
+     * so the chunks are removed by redis when the put script is never run. The put script removes the ttl.
+     */
+    private Future<Void> writeChunks(String chunkKey, byte[] content) {
+        List<Future> futures = new ArrayList<>();
+        for (int offset = 0; offset < content.length; offset += resourceChunkSize) {
+            String field = String.valueOf(offset / resourceChunkSize);
+            String chunk = new String(content, offset, Math.min(resourceChunkSize, content.length - offset), StandardCharsets.ISO_8859_1);
+            Future<Long> future = Future.future();
+            futures.add(future);
+            if (offset > 0) {
+                redisPool.<Long>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hset(chunkKey, field, chunk, resultHandler), future.completer());
+                continue;
+            }
+            redisPool.<Long>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.hset(chunkKey, field, chunk, resultHandler), written -> {
+                if (written.failed()) {
+                    future.fail(written.cause());
+                    return;
+                }
+                redisPool.<Long>execute(RedisConnectionPool.Lane.INTERACTIVE, (client, resultHandler) -> client.pexpire(chunkKey, CHUNKS_PROVISIONAL_TTL_MS, resultHandler), future.completer());
+            });
+        }
+        return CompositeFuture.all(futures).map(all -> null);
+    }
+
+    /**
+     * Reads and joins the chunks of a large value. Fails when a chunk is missing, because the value has been
+     * replaced in the meantime.
+     */
+    private void readChunks(String chunkKey, int chunkCount, RedisConnectionPool.Lane lane, Handler<AsyncResult<String>> handler) {
+        List<Future> futures = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            String field = String.valueOf(i);
+            Future<String> future = Future.future();
+            futures.add(future);
+            redisPool.<String>execute(lane, (client, resultHandler) -> client.hget(chunkKey, field, resultHandler), future.completer());
+        }
+        CompositeFuture.all(futures).setHandler(all -> {
+            if (all.failed()) {
+                handler.handle(Future.failedFuture(all.cause()));
+                return;
+            }
+            StringBuilder content = new StringBuilder();
+            for (Future future : futures) {
+                if (future.result() == null) {
+                    handler.handle(Future.failedFuture("missing chunk of " + chunkKey));
+                    return;
+                }
+                content.append((String) future.result());
+            }
+            handler.handle(Future.succeededFuture(content.toString()));
+        });
+    }
+
+    /**
+     * Removes the chunks written for a value, which has not been stored by the put script.
+     */
+    private void removeChunks(String chunkKey) {
+        redisPool.<Long>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.del(chunkKey, resultHandler), event -> {
+            if (event.failed()) {
+                log.warn("Removing the chunks {} failed with message: {}", chunkKey, event.cause().getMessage());
+            }
+        });
+    }
+
     /**
      * The Put Command Execution.
      * If the get script cannot be found under the sha in luaScriptState, reload the script.
@@ -816,22 +2226,33 @@ public class RedisStorage implements Storage {
         private DocumentResource d;
         private List<String> keys;
         private List<String> arguments;
+        private boolean contentEtag;
+        private long contentLength;
+        private Runnable conflictHandler;
         private Handler<Resource> handler;
 
-        public Put(DocumentResource d, List<String> keys, List<String> arguments, Handler<Resource> handler) {
+        public Put(DocumentResource d, List<String> keys, List<String> arguments, boolean contentEtag, long contentLength,
+                   Runnable conflictHandler, Handler<Resource> handler) {
             this.d = d;
             this.keys = keys;
             this.arguments = arguments;
+            this.contentEtag = contentEtag;
+            this.contentLength = contentLength;
+            this.conflictHandler = conflictHandler;
             this.handler = handler;
         }
 
         public void exec(final int executionCounter) {
-            redisClient.evalsha(luaScripts.get(LuaScript.PUT).getSha(), keys, arguments, event -> {
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.PUT).getSha(), keys, arguments, event -> {
                 if(event.succeeded()){
                     String result = event.result().getString(0);
                     if (log.isTraceEnabled()) {
                         log.trace("RedisStorage successful put. Result: {}", result);
                     }
+                    String chunkKey = arguments.get(16);
+                    if (!chunkKey.isEmpty() && !"OK".equals(result)) {
+                        removeChunks(chunkKey);
+                    }
                     if(result != null && result.startsWith("existingCollection")){
                         CollectionResource c = new CollectionResource();
                         handler.handle(c);
@@ -839,59 +2260,215 @@ public class RedisStorage implements Storage {
                         DocumentResource d = new DocumentResource();
                         d.exists = false;
                         handler.handle(d);
+                    } else if("conflict".equals(result)){
+                        conflictHandler.run();
+                    } else if("notModified".equals(result) && contentEtag){
+                        // the client did not ask for a conditional write, so the unchanged value is reported as written
+                        elidedWrites++;
+                        elidedBytes += contentLength;
+                        d.endHandler.handle(null);
                     } else if("notModified".equals(result)){
                         notModified(handler);
                     } else if(LockMode.REJECT.text().equals(result)) {
                         rejected(handler);
+                    } else if("chunksExpired".equals(result)) {
+                        log.error("The chunks of {} expired before they have been referenced", keys.get(0));
+                        error(handler, "Error writing the chunks of the resource");
+                    }
+                    else {
+                        invalidate(keys.get(0));
+                        d.endHandler.handle(null);
+                    }
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("put script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                        } else {
+                            luaScripts.get(LuaScript.PUT).loadLuaScript(new Put(d, keys, arguments, contentEtag, contentLength, conflictHandler, handler), executionCounter);
+                        }
+                    } else {
+                        if (!arguments.get(16).isEmpty()) {
+                            removeChunks(arguments.get(16));
+                        }
+                        if (message != null && d.errorHandler != null) {
+                            log.error("PUT request failed with message: {}", message);
+                            d.errorHandler.handle(event.cause());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void delete(String path, String lockOwner, LockMode lockMode, long lockExpire, boolean confirmCollectionDelete,
+                       boolean deleteRecursive, final Handler<Resource> handler ) {
+        final String key = encodePath(path);
+        List<String> keys = Collections.singletonList(key);
+
+        String lockExpireInMillis = String.valueOf(System.currentTimeMillis() + (lockExpire * 1000));
+
+        List<String> arguments = Arrays.asList(
+                redisResourcesPrefix,
+                redisCollectionsPrefix,
+                redisDeltaResourcesPrefix,
+                redisDeltaEtagsPrefix,
+                expirableSet,
+                String.valueOf(System.currentTimeMillis()),
+                MAX_EXPIRE_IN_MILLIS,
+                confirmCollectionDelete ? "true" : "false",
+                deleteRecursive ? "true" : "false",
+                redisLockPrefix,
+                lockOwner,
+                lockMode.text(),
+                lockExpireInMillis,
+                String.valueOf(expirableBucketWindowMs),
+                invalidationChannel,
+                changeFeedStream,
+                changeFeedMaxLength,
+                "delete",
+                String.valueOf(deltaHistorySize),
+                String.valueOf(System.currentTimeMillis())
+        );
+        Delete delete = new Delete(keys, arguments, handler);
+        if (asyncRecursiveDelete && deleteRecursive && !key.isEmpty()) {
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DETACH, new Detach(keys, delete, handler), 0);
+        } else {
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DELETE, delete, 0);
+        }
+    }
+
+    /**
+     * The Detach Command Execution. Detaches a collection deleted recursively, so it is not visible anymore, and
+     * reclaims its keys in the background. Resources and locked collections are deleted by the given delete command.
+     * If the detach script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Detach implements RedisCommand {
+
+        private List<String> keys;
+        private Delete delete;
+        private Handler<Resource> handler;
+
+        public Detach(List<String> keys, Delete delete, final Handler<Resource> handler) {
+            this.keys = keys;
+            this.delete = delete;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            List<String> arguments = Arrays.asList(redisResourcesPrefix, redisCollectionsPrefix, redisLockPrefix, deletionsKey,
+                    invalidationChannel, changeFeedStream, changeFeedMaxLength, redisDeltaResourcesPrefix, redisDeltaEtagsPrefix,
+                    String.valueOf(deltaHistorySize), String.valueOf(System.currentTimeMillis()));
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.DETACH).getSha(), keys, arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.DETACH).loadLuaScript(new Detach(keys, delete, handler), executionCounter);
+                        return;
+                    }
+                    log.error("Detach of {} failed with message: {}, deleting it in place", keys.get(0), message);
+                    reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DELETE, delete, 0);
+                    return;
+                }
+                String result = event.result().getString(0);
+                if ("detached".equals(result)) {
+                    invalidate(keys.get(0));
+                    startedDeletions++;
+                    handler.handle(new Resource());
+                    reclaim(keys.get(0));
+                } else if ("notFound".equals(result)) {
+                    notFound(handler);
+                } else {
+                    reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DELETE, delete, 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Continues the deletions not completed before this storage has been started. Only one storage per redis
+     * endpoint continues them, even when deployed with multiple instances.
+     */
+    private void resumeDeletions() {
+        LocalMap<String, Boolean> reclaimers = vertx.sharedData().getLocalMap(DELETION_RECLAIMERS_MAP);
+        if (reclaimers.putIfAbsent(redisEndpoint + "/" + deletionsKey, true) != null) {
+            return;
+        }
+        redisPool.<JsonArray>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.hkeys(deletionsKey, resultHandler), event -> {
+            if (event.failed()) {
+                log.warn("Reading the pending deletions failed with message: {}", event.cause().getMessage());
+                return;
+            }
+            for (Object key : event.result()) {
+                log.info("Resuming the deletion of {}", key);
+                reclaim((String) key);
+            }
+        });
+    }
+
+    /**
+     * Removes the keys of a detached collection in batches of asyncDeleteBatchSize keys. The next batch is started
+     * when the previous one has completed, so the deletion does not occupy more than one bulk connection.
+     */
+    private void reclaim(String key) {
+        if (reclaimingDeletions.add(key)) {
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.RECLAIM, new Reclaim(key), 0);
+        }
+    }
+
+    /**
+     * The Reclaim Command Execution.
+     * If the reclaim script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Reclaim implements RedisCommand {
+
+        private String key;
+
+        public Reclaim(String key) {
+            this.key = key;
+        }
+
+        public void exec(final int executionCounter) {
+            List<String> arguments = Arrays.asList(
+                    redisResourcesPrefix,
+                    redisCollectionsPrefix,
+                    redisDeltaResourcesPrefix,
+                    redisDeltaEtagsPrefix,
+                    expirableSet,
+                    String.valueOf(expirableBucketWindowMs),
+                    deletionsKey,
+                    String.valueOf(asyncDeleteBatchSize)
+            );
+            redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.RECLAIM).getSha(), Collections.singletonList(key), arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.RECLAIM).loadLuaScript(new Reclaim(key), executionCounter);
+                        return;
                     }
-                    else {
-                        d.endHandler.handle(null);
+                    log.warn("Reclaiming the keys of {} failed with message: {}, retrying", key, message);
+                    vertx.setTimer(RECLAIM_RETRY_DELAY_MS, timer -> reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.RECLAIM, this, 0));
+                    return;
+                }
+                reclaimedKeys += event.result().getLong(1);
+                if ("done".equals(event.result().getString(0))) {
+                    completedDeletions++;
+                    reclaimingDeletions.remove(key);
+                    if (log.isTraceEnabled()) {
+                        log.trace("RedisStorage completed the deletion of {}", key);
                     }
                 } else {
-                    String message = event.cause().getMessage();
-                    if(message != null && message.startsWith("NOSCRIPT")) {
-                        log.warn("put script couldn't be found, reload it");
-                        log.warn("amount the script got loaded: {}", executionCounter);
-                        if(executionCounter > 10) {
-                            log.error("amount the script got loaded is higher than 10, we abort");
-                        } else {
-                            luaScripts.get(LuaScript.PUT).loadLuaScript(new Put(d, keys, arguments, handler), executionCounter);
-                        }
-                    } else if (message != null && d.errorHandler != null){
-                        log.error("PUT request failed with message: {}", message);
-                        d.errorHandler.handle(event.cause());
-                    }
+                    reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.RECLAIM, this, 0);
                 }
             });
         }
     }
 
-    @Override
-    public void delete(String path, String lockOwner, LockMode lockMode, long lockExpire, boolean confirmCollectionDelete,
-                       boolean deleteRecursive, final Handler<Resource> handler ) {
-        final String key = encodePath(path);
-        List<String> keys = Collections.singletonList(key);
-
-        String lockExpireInMillis = String.valueOf(System.currentTimeMillis() + (lockExpire * 1000));
-
-        List<String> arguments = Arrays.asList(
-                redisResourcesPrefix,
-                redisCollectionsPrefix,
-                redisDeltaResourcesPrefix,
-                redisDeltaEtagsPrefix,
-                expirableSet,
-                String.valueOf(System.currentTimeMillis()),
-                MAX_EXPIRE_IN_MILLIS,
-                confirmCollectionDelete ? "true" : "false",
-                deleteRecursive ? "true" : "false",
-                redisLockPrefix,
-                lockOwner,
-                lockMode.text(),
-                lockExpireInMillis
-        );
-        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.DELETE, new Delete(keys, arguments, handler), 0);
-    }
-
     /**
      * The Delete Command Execution.
      * If the get script cannot be found under the sha in luaScriptState, reload the script.
@@ -910,7 +2487,7 @@ public class RedisStorage implements Storage {
         }
 
         public void exec(final int executionCounter) {
-            redisClient.evalsha(luaScripts.get(LuaScript.DELETE).getSha(), keys, arguments, event -> {
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.DELETE).getSha(), keys, arguments, event -> {
                 if(event.cause() != null && event.cause().getMessage().startsWith("NOSCRIPT")) {
                     log.warn("delete script couldn't be found, reload it");
                     log.warn("amount the script got loaded: {}", executionCounter);
@@ -941,12 +2518,195 @@ public class RedisStorage implements Storage {
                     rejected(handler);
                     return;
                 }
+                invalidate(keys.get(0));
                 Resource r = new Resource();
                 handler.handle(r);
             });
         }
     }
 
+    @Override
+    public void writeBatch(List<BatchItem> items, boolean atomic, Handler<List<BatchItem>> handler) {
+        List<String> keys = new ArrayList<>(items.size());
+        List<String> arguments = new ArrayList<>(items.size() * 9 + 16);
+        arguments.add(redisResourcesPrefix);
+        arguments.add(redisCollectionsPrefix);
+        arguments.add(redisDeltaResourcesPrefix);
+        arguments.add(redisDeltaEtagsPrefix);
+        arguments.add(expirableSet);
+        arguments.add(redisLockPrefix);
+        arguments.add(String.valueOf(System.currentTimeMillis()));
+        arguments.add(MAX_EXPIRE_IN_MILLIS);
+        arguments.add(atomic ? "true" : "false");
+        arguments.add(String.valueOf(expirableBucketWindowMs));
+        arguments.add(nativeExpiration ? "true" : "false");
+        arguments.add(deletionsKey);
+        arguments.add(invalidationChannel);
+        arguments.add(changeFeedStream);
+        arguments.add(changeFeedMaxLength);
+        arguments.add(String.valueOf(deltaHistorySize));
+        Set<BatchItem> contentEtagItems = new HashSet<>();
+        // the values are prepared like the values of single writes, large values are written in chunks before
+        List<String> chunkKeys = new ArrayList<>(items.size());
+        List<Future> writtenChunks = new ArrayList<>();
+        for (BatchItem item : items) {
+            keys.add(encodePath(item.path));
+            String chunkKey = EMPTY;
+            String blobKey = EMPTY;
+            if (HttpMethod.PUT == item.method) {
+                if (contentEtags && isEmpty(item.etag)) {
+                    item.etag = DigestUtils.md5Hex(item.content);
+                    contentEtagItems.add(item);
+                } else {
+                    item.etag = initEtagValue(item.etag);
+                }
+                String expireInMillis = MAX_EXPIRE_IN_MILLIS;
+                if (item.expire > -1) {
+                    expireInMillis = String.valueOf(Math.min(System.currentTimeMillis() + (item.expire * 1000), Long.parseLong(MAX_EXPIRE_IN_MILLIS)));
+                }
+                chunkKey = chunkKey(item.content);
+                blobKey = blobKey(item.content, expireInMillis, !chunkKey.isEmpty());
+                if (!chunkKey.isEmpty()) {
+                    writtenChunks.add(writeChunks(chunkKey, item.content));
+                }
+                arguments.add("PUT");
+                arguments.add(chunkKey.isEmpty() ? encodeBinary(item.content) : EMPTY);
+                arguments.add(item.etag);
+                arguments.add(expireInMillis);
+                arguments.add(contentEtagItems.contains(item) ? "true" : "false");
+            } else {
+                arguments.add("DELETE");
+                arguments.add(EMPTY);
+                arguments.add(EMPTY);
+                arguments.add(EMPTY);
+                arguments.add(EMPTY);
+            }
+            arguments.add(item.lockOwner == null ? EMPTY : item.lockOwner);
+            arguments.add(chunkKey);
+            arguments.add(chunkKey.isEmpty() ? "0" : String.valueOf(chunkCount(item.content, true)));
+            arguments.add(blobKey);
+            chunkKeys.add(chunkKey);
+        }
+        Batch batch = new Batch(items, contentEtagItems, chunkKeys, keys, arguments, handler);
+        if (writtenChunks.isEmpty()) {
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.BATCH, batch, 0);
+            return;
+        }
+        CompositeFuture.all(writtenChunks).setHandler(written -> {
+            if (written.succeeded()) {
+                reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.BATCH, batch, 0);
+            } else {
+                log.error("Writing the chunks of the batch failed with message: {}", written.cause().getMessage());
+                batch.fail();
+            }
+        });
+    }
+
+    /**
+     * The Batch Command Execution. All items are written with a single script invocation, so ancestor collections
+     * shared by several items are updated only once.
+     * If the batch script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Batch implements RedisCommand {
+
+        private List<BatchItem> items;
+        private Set<BatchItem> contentEtagItems;
+        private List<String> chunkKeys;
+        private List<String> keys;
+        private List<String> arguments;
+        private Handler<List<BatchItem>> handler;
+
+        public Batch(List<BatchItem> items, Set<BatchItem> contentEtagItems, List<String> chunkKeys, List<String> keys,
+                     List<String> arguments, final Handler<List<BatchItem>> handler) {
+            this.items = items;
+            this.contentEtagItems = contentEtagItems;
+            this.chunkKeys = chunkKeys;
+            this.keys = keys;
+            this.arguments = arguments;
+            this.handler = handler;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(RedisConnectionPool.Lane.INTERACTIVE, luaScripts.get(LuaScript.BATCH).getSha(), keys, arguments, event -> {
+                if(event.succeeded()){
+                    JsonArray results = event.result();
+                    if (log.isTraceEnabled()) {
+                        log.trace("RedisStorage batch result: {}", results);
+                    }
+                    for (int i = 0; i < items.size(); i++) {
+                        BatchItem item = items.get(i);
+                        String result = results.getString(i);
+                        if ("notModified".equals(result) && contentEtagItems.contains(item)) {
+                            // unchanged values without an etag provided by the client are reported as written
+                            elidedWrites++;
+                            elidedBytes += item.content.length;
+                            result = "OK";
+                        }
+                        if ("OK".equals(result) || "deleted".equals(result)) {
+                            invalidate(keys.get(i));
+                        }
+                        if (!chunkKeys.get(i).isEmpty() && !"OK".equals(result)) {
+                            removeChunks(chunkKeys.get(i));
+                        }
+                        item.status = batchItemStatus(result);
+                    }
+                    handler.handle(items);
+                } else {
+                    String message = event.cause().getMessage();
+                    if(message != null && message.startsWith("NOSCRIPT")) {
+                        log.warn("batch script couldn't be found, reload it");
+                        log.warn("amount the script got loaded: {}", executionCounter);
+                        if(executionCounter > 10) {
+                            log.error("amount the script got loaded is higher than 10, we abort");
+                            fail();
+                        } else {
+                            luaScripts.get(LuaScript.BATCH).loadLuaScript(new Batch(items, contentEtagItems, chunkKeys, keys, arguments, handler), executionCounter);
+                        }
+                    } else {
+                        log.error("Batch request failed with message: {}", message);
+                        fail();
+                    }
+                }
+            });
+        }
+
+        private void fail() {
+            for (String chunkKey : chunkKeys) {
+                if (!chunkKey.isEmpty()) {
+                    removeChunks(chunkKey);
+                }
+            }
+            for (BatchItem item : items) {
+                item.status = StatusCode.INTERNAL_SERVER_ERROR;
+            }
+            handler.handle(items);
+        }
+    }
+
+    private StatusCode batchItemStatus(String result) {
+        if ("OK".equals(result) || "deleted".equals(result) || LockMode.SILENT.text().equals(result)) {
+            return StatusCode.OK;
+        }
+        if ("notModified".equals(result)) {
+            return StatusCode.NOT_MODIFIED;
+        }
+        if ("notFound".equals(result)) {
+            return StatusCode.NOT_FOUND;
+        }
+        if ("notApplied".equals(result)) {
+            return StatusCode.FAILED_DEPENDENCY;
+        }
+        if (LockMode.REJECT.text().equals(result)) {
+            return StatusCode.CONFLICT;
+        }
+        if ("chunksExpired".equals(result)) {
+            return StatusCode.INTERNAL_SERVER_ERROR;
+        }
+        // existingCollection, existingResource or collection (deletes are supported for resources only)
+        return StatusCode.METHOD_NOT_ALLOWED;
+    }
+
     /**
      * Cleans up the outdated resources recursive.
      * If the script which is refered over the luaScriptState.sha, the execution is aborted and the script is reloaded.
@@ -968,18 +2728,26 @@ public class RedisStorage implements Storage {
                 "false",
                 "true",
                 String.valueOf(System.currentTimeMillis()),
-                String.valueOf(bulkSize)
+                String.valueOf(bulkSize),
+                String.valueOf(expirableBucketWindowMs),
+                changeFeedStream,
+                changeFeedMaxLength,
+                String.valueOf(deltaHistorySize)
         );
 
-        redisClient.evalsha(luaScripts.get(LuaScript.CLEANUP).getSha(), Collections.emptyList(), arguments, event -> {
+        redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.CLEANUP).getSha(), Collections.emptyList(), arguments, event -> {
             if (log.isTraceEnabled()) {
                 log.trace("RedisStorage cleanup resources succeeded: {}", event.succeeded());
             }
 
-            if(event.failed() && event.cause() != null && event.cause().getMessage().startsWith("NOSCRIPT")) {
+            // the resources cleaned so far are answered on failures, so callers cleaning several storages one after
+            // another continue with the next one
+            if(event.failed() && event.cause() != null && event.cause().getMessage() != null
+                    && event.cause().getMessage().startsWith("NOSCRIPT")) {
                 log.warn("the cleanup script is not loaded. Load it and exit. The Cleanup will success the next time");
                 luaScripts.get(LuaScript.CLEANUP).loadLuaScript(new RedisCommandDoNothing(), 0);
-                return;
+            } else if (event.failed()) {
+                log.error("Cleanup of the expired resources failed", event.cause());
             }
 
             long cleanedThisRun = 0;
@@ -996,7 +2764,7 @@ public class RedisStorage implements Storage {
                 }
                 cleanupRecursive(handler, cleaned, maxdel, bulkSize);
             } else {
-                redisClient.zcount(expirableSet, 0, System.currentTimeMillis(), longAsyncResult -> {
+                countExpiredResources().setHandler(longAsyncResult -> {
                     Long result = longAsyncResult.result();
                     if (log.isTraceEnabled()) {
                         log.trace("RedisStorage cleanup resources zcount on expirable set: {}", result);
@@ -1010,7 +2778,7 @@ public class RedisStorage implements Storage {
                     retObj.put("expiredResourcesLeft", resToCleanLeft);
                     DocumentResource r = new DocumentResource();
                     byte[] content = decodeBinary(retObj.toString());
-                    r.readStream = new ByteArrayReadStream(content);
+                    r.readStream = new ByteArrayReadStream(vertx, content);
                     r.length = content.length;
                     r.closeHandler = event1 -> {
                         // nothing to close
@@ -1021,6 +2789,355 @@ public class RedisStorage implements Storage {
         });
     }
 
+    /**
+     * Counts the expired resources in the buckets of the windows started until now, including the entries not migrated
+     * yet.
+     */
+    private Future<Long> countExpiredResources() {
+        long now = System.currentTimeMillis();
+        Future<Long> future = Future.future();
+        expiredBuckets(now).setHandler(buckets -> {
+            List<Future> counts = new ArrayList<>();
+            for (String expirableKey : buckets.result()) {
+                Future<Long> count = Future.future();
+                counts.add(count);
+                redisPool.<Long>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.zcount(expirableKey, 0, now, resultHandler), count.completer());
+            }
+            CompositeFuture.all(counts).setHandler(event -> {
+                long sum = 0;
+                for (Future count : counts) {
+                    if (count.succeeded() && count.result() != null) {
+                        sum += (Long) count.result();
+                    }
+                }
+                future.complete(sum);
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Lists the buckets of the expirable set of the windows started until the given time, read from the windows index,
+     * followed by the undivided set.
+     */
+    private Future<List<String>> expiredBuckets(long now) {
+        Future<List<String>> future = Future.future();
+        List<String> keys = new ArrayList<>();
+        if (expirableBucketWindowMs <= 0) {
+            keys.add(expirableSet);
+            future.complete(keys);
+            return future;
+        }
+        String maxWindow = String.valueOf(now / expirableBucketWindowMs);
+        redisPool.<JsonArray>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.zrangebyscore(expirableSet + ":windows",
+                "-inf", maxWindow, RangeLimitOptions.NONE, resultHandler), event -> {
+            if (event.succeeded() && event.result() != null) {
+                for (Object bucket : event.result()) {
+                    keys.add((String) bucket);
+                }
+            }
+            keys.add(expirableSet);
+            future.complete(keys);
+        });
+        return future;
+    }
+
+    /**
+     * Moves the entries of the undivided expirable set into its buckets, e.g. when buckets have been configured for an
+     * existing storage. Until the migration is completed, the scripts look up the expiration in both.
+     */
+    private void migrateExpirableSet() {
+        List<String> arguments = Arrays.asList(expirableSet, String.valueOf(expirableBucketWindowMs), String.valueOf(MIGRATE_EXPIRABLE_BULK_SIZE));
+        reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.MIGRATE_EXPIRABLE, new MigrateExpirable(arguments, 0), 0);
+    }
+
+    /**
+     * The MigrateExpirable Command Execution. Migrates one bulk after the other until no entries are left.
+     * If the migrateExpirable script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class MigrateExpirable implements RedisCommand {
+
+        private List<String> arguments;
+        private long migrated;
+
+        public MigrateExpirable(List<String> arguments, long migrated) {
+            this.arguments = arguments;
+            this.migrated = migrated;
+        }
+
+        public void exec(final int executionCounter) {
+            redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.MIGRATE_EXPIRABLE).getSha(), Collections.emptyList(), arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.MIGRATE_EXPIRABLE).loadLuaScript(new MigrateExpirable(arguments, migrated), executionCounter);
+                    } else {
+                        log.error("Migration of the expirable set failed with message: {}", message);
+                    }
+                    return;
+                }
+                Long migratedThisRun = event.result().getLong(0);
+                if (migratedThisRun != null && migratedThisRun > 0) {
+                    new MigrateExpirable(arguments, migrated + migratedThisRun).exec(0);
+                } else if (migrated > 0) {
+                    log.info("Migrated {} entries of the expirable set into its buckets", migrated);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stores the expiration in the hash of resources written before the expiration was kept there. The resources are
+     * scanned once, afterwards a marker key is set. Until the migration is completed, the scripts look up the expiration
+     * of these resources in the expirable set.
+     */
+    private void migrateExpiration() {
+        String marker = expirableSet + ":migrated";
+        redisPool.<String>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.get(marker, resultHandler), event -> {
+            if (event.failed()) {
+                log.error("Migration of the expiration into the resources failed with message: {}", event.cause().getMessage());
+            } else if (event.result() == null) {
+                new MigrateExpiration(marker, "0", 0).exec(0);
+            }
+        });
+    }
+
+    /**
+     * The MigrateExpiration Command Execution. Scans the resources and migrates one bulk after the other until the scan
+     * is completed.
+     * If the migrateExpiration script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class MigrateExpiration implements RedisCommand {
+
+        private String marker;
+        private String cursor;
+        private long migrated;
+
+        public MigrateExpiration(String marker, String cursor, long migrated) {
+            this.marker = marker;
+            this.cursor = cursor;
+            this.migrated = migrated;
+        }
+
+        public void exec(final int executionCounter) {
+            ScanOptions scanOptions = new ScanOptions().setMatch(redisResourcesPrefix + ":*").setCount(MIGRATE_EXPIRATION_SCAN_COUNT);
+            redisPool.<JsonArray>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.scan(cursor, scanOptions, resultHandler), scan -> {
+                if (scan.failed()) {
+                    log.error("Migration of the expiration into the resources failed with message: {}", scan.cause().getMessage());
+                    return;
+                }
+                String nextCursor = scan.result().getString(0);
+                List<String> keys = new ArrayList<>();
+                for (Object key : scan.result().getJsonArray(1)) {
+                    keys.add((String) key);
+                }
+                if (keys.isEmpty()) {
+                    proceed(nextCursor, 0);
+                    return;
+                }
+                List<String> arguments = Arrays.asList(expirableSet, MAX_EXPIRE_IN_MILLIS, String.valueOf(expirableBucketWindowMs));
+                redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.MIGRATE_EXPIRATION).getSha(), keys, arguments, event -> {
+                    if (event.failed()) {
+                        String message = event.cause().getMessage();
+                        if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                            luaScripts.get(LuaScript.MIGRATE_EXPIRATION).loadLuaScript(new MigrateExpiration(marker, cursor, migrated), executionCounter);
+                        } else {
+                            log.error("Migration of the expiration into the resources failed with message: {}", message);
+                        }
+                        return;
+                    }
+                    Long migratedThisRun = event.result().getLong(0);
+                    proceed(nextCursor, migratedThisRun == null ? 0 : migratedThisRun);
+                });
+            });
+        }
+
+        private void proceed(String nextCursor, long migratedThisRun) {
+            if (!"0".equals(nextCursor)) {
+                new MigrateExpiration(marker, nextCursor, migrated + migratedThisRun).exec(0);
+                return;
+            }
+            redisPool.<Void>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.set(marker, "true", resultHandler), event -> {
+                if (migrated + migratedThisRun > 0) {
+                    log.info("Stored the expiration in the hash of {} resources", migrated + migratedThisRun);
+                }
+            });
+        }
+    }
+
+    /**
+     * Subscribes to the notifications of keys removed by redis, because their native ttl has expired. Expired resources
+     * are removed from their parent collections, so no cleanup is needed. Only one subscriber per redis endpoint and
+     * storage is registered, even when deployed with multiple instances.
+     */
+    private void subscribeExpiredResources(ModuleConfiguration config) {
+        LocalMap<String, Boolean> subscribers = vertx.sharedData().getLocalMap(EXPIRED_SUBSCRIBERS_MAP);
+        String subscriberKey = redisEndpoint + "/" + redisResourcesPrefix;
+        if (subscribers.putIfAbsent(subscriberKey, true) != null) {
+            return;
+        }
+        enableExpiredKeyEvents();
+        subscribeExpiredChannel(config, EXPIRED_SUBSCRIBERS_MAP + "." + subscriberKey);
+    }
+
+    /**
+     * Subscribes to the channel of the keys expired in the database of the storage. When the subscription fails, the
+     * consumer is unregistered and the subscription is retried with a new connection after a delay.
+     */
+    private void subscribeExpiredChannel(ModuleConfiguration config, String address) {
+        String channel = String.format(EXPIRED_CHANNEL_FORMAT, config.getRedisDatabase());
+        MessageConsumer<JsonObject> consumer = vertx.eventBus().<JsonObject>localConsumer(address + "." + channel, message -> {
+            JsonObject value = message.body().getJsonObject("value");
+            String key = value == null ? null : value.getString("message");
+            if (key != null && key.startsWith(redisResourcesPrefix + ":")) {
+                List<String> keys = Collections.singletonList(key.substring(redisResourcesPrefix.length()));
+                reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.EXPIRED, new Expired(keys), 0);
+            }
+        });
+        RedisClient subscriber = RedisClient.create(vertx, new RedisOptions()
+                .setHost(config.getRedisHost())
+                .setPort(config.getRedisPort())
+                .setAuth(config.getRedisAuth())
+                .setAddress(address));
+        subscriber.subscribe(channel, event -> {
+            if (event.failed()) {
+                log.error("Subscription to the expired resources failed with message: {}, retrying in {} ms",
+                        event.cause().getMessage(), SUBSCRIBE_RETRY_DELAY_MS);
+                consumer.unregister();
+                subscriber.close(closed -> {});
+                vertx.setTimer(SUBSCRIBE_RETRY_DELAY_MS, timer -> subscribeExpiredChannel(config, address));
+            }
+        });
+    }
+
+    /**
+     * Redis sends the notifications of expired keys only when enabled by the configuration 'notify-keyspace-events'.
+     * Enables them in addition to the already enabled notifications. This fails when the CONFIG command is not allowed,
+     * the notifications have to be enabled on the redis server then.
+     */
+    private void enableExpiredKeyEvents() {
+        redisPool.<JsonArray>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.configGet("notify-keyspace-events", resultHandler), event -> {
+            if (event.failed() || event.result().size() < 2) {
+                log.warn("Unable to read the redis configuration 'notify-keyspace-events', make sure the notifications of expired keys are enabled");
+                return;
+            }
+            String events = event.result().getString(1);
+            if (events.contains("E") && (events.contains("x") || events.contains("A"))) {
+                return;
+            }
+            String enabledEvents = events + (events.contains("E") ? "" : "E") + (events.contains("x") ? "" : "x");
+            redisPool.<String>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.configSet("notify-keyspace-events", enabledEvents, resultHandler), set -> {
+                if (set.failed()) {
+                    log.warn("Unable to enable the notifications of expired keys: {}", set.cause().getMessage());
+                }
+            });
+        });
+    }
+
+    /**
+     * The Expired Command Execution.
+     * If the expired script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class Expired implements RedisCommand {
+
+        private List<String> keys;
+
+        public Expired(List<String> keys) {
+            this.keys = keys;
+        }
+
+        public void exec(final int executionCounter) {
+            List<String> arguments = Arrays.asList(
+                    redisResourcesPrefix,
+                    redisCollectionsPrefix,
+                    redisDeltaResourcesPrefix,
+                    redisDeltaEtagsPrefix,
+                    expirableSet,
+                    String.valueOf(expirableBucketWindowMs),
+                    changeFeedStream,
+                    changeFeedMaxLength,
+                    String.valueOf(deltaHistorySize),
+                    String.valueOf(System.currentTimeMillis())
+            );
+            redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.EXPIRED).getSha(), keys, arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.EXPIRED).loadLuaScript(new Expired(keys), executionCounter);
+                    } else {
+                        log.error("Removal of the expired resource {} failed with message: {}", keys.get(0), message);
+                    }
+                } else if (log.isTraceEnabled()) {
+                    log.trace("RedisStorage removed expired resource {} from {} collections", keys.get(0), event.result().getLong(0));
+                }
+            });
+        }
+    }
+
+    /**
+     * Incremental background pass removing expired members of the collections. Each run scans a small amount of
+     * collections and continues with the next ones on the following run, starting over when the scan is completed.
+     */
+    private void pruneCollections() {
+        if (pruneCollectionsInProgress) {
+            return;
+        }
+        pruneCollectionsInProgress = true;
+        ScanOptions scanOptions = new ScanOptions().setMatch(redisCollectionsPrefix + "*").setCount(PRUNE_COLLECTIONS_SCAN_COUNT);
+        redisPool.<JsonArray>execute(RedisConnectionPool.Lane.BULK, (client, resultHandler) -> client.scan(pruneCollectionsCursor, scanOptions, resultHandler), scan -> {
+            if (scan.failed()) {
+                pruneCollectionsInProgress = false;
+                log.warn("Scan of the collections to prune failed with message: {}", scan.cause().getMessage());
+                return;
+            }
+            pruneCollectionsCursor = scan.result().getString(0);
+            List<String> keys = new ArrayList<>();
+            for (Object key : scan.result().getJsonArray(1)) {
+                keys.add((String) key);
+            }
+            if (keys.isEmpty()) {
+                pruneCollectionsInProgress = false;
+                return;
+            }
+            reloadScriptIfLoglevelChangedAndExecuteRedisCommand(LuaScript.PRUNE_COLLECTIONS, new PruneCollections(keys), 0);
+        });
+    }
+
+    /**
+     * The PruneCollections Command Execution.
+     * If the pruneCollections script cannot be found under the sha in luaScriptState, reload the script.
+     * To avoid infinite recursion, we limit the recursion.
+     */
+    private class PruneCollections implements RedisCommand {
+
+        private List<String> keys;
+
+        public PruneCollections(List<String> keys) {
+            this.keys = keys;
+        }
+
+        public void exec(final int executionCounter) {
+            List<String> arguments = Arrays.asList(String.valueOf(System.currentTimeMillis()), String.valueOf(collectionPruneLimit),
+                    redisCollectionsPrefix, redisDeltaResourcesPrefix, redisDeltaEtagsPrefix, String.valueOf(deltaHistorySize));
+            redisPool.evalsha(RedisConnectionPool.Lane.BULK, luaScripts.get(LuaScript.PRUNE_COLLECTIONS).getSha(), keys, arguments, event -> {
+                if (event.failed()) {
+                    String message = event.cause().getMessage();
+                    if (message != null && message.startsWith("NOSCRIPT") && executionCounter <= 10) {
+                        luaScripts.get(LuaScript.PRUNE_COLLECTIONS).loadLuaScript(new PruneCollections(keys), executionCounter);
+                        return;
+                    }
+                    log.warn("Pruning of the collections failed with message: {}", message);
+                } else if (log.isTraceEnabled()) {
+                    log.trace("RedisStorage pruned {} expired collection members", event.result().getLong(0));
+                }
+                pruneCollectionsInProgress = false;
+            });
+        }
+    }
+
     private String encodePath(String path) {
         if (path.equals("/")) {
             path = "";
@@ -1028,6 +3145,10 @@ public class RedisStorage implements Storage {
         return ResourceNameUtil.replaceColonsAndSemiColons(path).replaceAll("/", ":");
     }
 
+    private String decodePath(String key) {
+        return ResourceNameUtil.resetReplacedColonsAndSemiColons(key.replaceAll(":", "/"));
+    }
+
     private String encodeBinary(byte[] bytes) {
         return new String(bytes, StandardCharsets.ISO_8859_1);
     }
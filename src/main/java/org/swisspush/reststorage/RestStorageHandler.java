@@ -1,24 +1,34 @@
 package org.swisspush.reststorage;
 
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.core.streams.Pump;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.ReadConsistency;
 import org.swisspush.reststorage.util.ModuleConfiguration;
 import org.swisspush.reststorage.util.ResourceNameUtil;
 import org.swisspush.reststorage.util.StatusCode;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import static org.swisspush.reststorage.util.HttpRequestHeader.*;
 import static org.swisspush.reststorage.util.HttpRequestParam.*;
@@ -26,6 +36,12 @@ import static org.swisspush.reststorage.util.HttpRequestParam.getString;
 
 public class RestStorageHandler implements Handler<HttpServerRequest> {
 
+    private static final Pattern CURSOR_PATTERN = Pattern.compile("\\d+-\\d+");
+    private static final int DEFAULT_WATCH_TIMEOUT_S = 30;
+    private static final int MAX_WATCH_TIMEOUT_S = 300;
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\d{1,18}");
+    private static final String WATCHERS_MAP = "rest-storage-watchers";
+
     private final Logger log;
     private final Router router;
     private final Storage storage;
@@ -41,15 +57,21 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
     private final boolean rejectStorageWriteOnLowMemory;
     private final boolean return200onDeleteNonExisting;
     private final DecimalFormat decimalFormat;
+    private final Vertx vertx;
+    private final int maxWatchers;
+    // the waiting watches of all the instances (verticles) sharing the prefix, looked up with the first watch
+    private LocalMap<String, Integer> watchers;
 
     public RestStorageHandler(Vertx vertx, final Logger log, final Storage storage, final ModuleConfiguration config) {
         this.router = Router.router(vertx);
+        this.vertx = vertx;
         this.log = log;
         this.storage = storage;
         this.prefix = config.getPrefix();
         this.confirmCollectionDelete = config.isConfirmCollectionDelete();
         this.rejectStorageWriteOnLowMemory = config.isRejectStorageWriteOnLowMemory();
         this.return200onDeleteNonExisting = config.isReturn200onDeleteNonExisting();
+        this.maxWatchers = config.getChangeFeedMaxWatchers();
 
         this.decimalFormat = new DecimalFormat();
         this.decimalFormat.setMaximumFractionDigits(1);
@@ -62,7 +84,13 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
 
         router.postWithRegex(".*_cleanup").handler(this::cleanup);
 
-        router.postWithRegex(prefixFixed + ".*").handler(this::storageExpand);
+        router.get(prefixFixed + "/_metrics").handler(this::metrics);
+
+        router.get(prefixFixed + "/_deletions").handler(this::deletions);
+
+        router.get(prefixFixed + "/_deduplication").handler(this::deduplication);
+
+        router.postWithRegex(prefixFixed + ".*").handler(this::postResource);
 
         router.getWithRegex(prefixFixed + ".*").handler(this::getResource);
 
@@ -108,6 +136,25 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
         }, ctx.request().params().get("cleanupResourcesAmount"));
     }
 
+    private void metrics(RoutingContext ctx) {
+        ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+        ctx.response().end(storage.getMetrics().encode());
+    }
+
+    private void deletions(RoutingContext ctx) {
+        storage.getDeletions(deletions -> {
+            ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+            ctx.response().end(deletions.encode());
+        });
+    }
+
+    private void deduplication(RoutingContext ctx) {
+        storage.getDeduplication(deduplication -> {
+            ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+            ctx.response().end(deduplication.encode());
+        });
+    }
+
     private void getResourceNotFound(RoutingContext ctx) {
         if (log.isTraceEnabled()) {
             log.trace("RestStorageHandler resource not found: {}", ctx.request().uri());
@@ -123,11 +170,27 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
         if (log.isTraceEnabled()) {
             log.trace("RestStorageHandler got GET Request path: {} etag: {}", path, etag);
         }
+        final ReadConsistency readConsistency = readConsistency(ctx);
+        if (readConsistency == null) {
+            return;
+        }
         MultiMap params = ctx.request().params();
+        if (getBoolean(params, WATCH_PARAMETER)) {
+            watch(ctx, path);
+            return;
+        }
+        if (containsParam(params, SINCE_PARAMETER)) {
+            changesSince(ctx, path);
+            return;
+        }
+        if (containsParam(params, EXPAND_PARAMETER)) {
+            expandResource(ctx, path, etag, readConsistency);
+            return;
+        }
         String offsetFromUrl = getString(params, OFFSET_PARAMETER);
         String limitFromUrl = getString(params, LIMIT_PARAMETER);
         OffsetLimit offsetLimit = UrlParser.offsetLimit(offsetFromUrl, limitFromUrl);
-        storage.get(path, etag, offsetLimit.offset, offsetLimit.limit, new Handler<Resource>() {
+        storage.get(path, etag, offsetLimit.offset, offsetLimit.limit, readConsistency, new Handler<Resource>() {
             public void handle(Resource resource) {
                 if (log.isTraceEnabled()) {
                     log.trace("RestStorageHandler resource exists: {}", resource.exists);
@@ -298,10 +361,11 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
         });
     }
 
-    private void putResource(RoutingContext ctx) {
-        ctx.request().pause();
-        final String path = cleanPath(ctx.request().path().substring(prefixFixed.length()));
-
+    /**
+     * Rejects the PUT requests, or the batch requests writing resources, with an importance level below the
+     * current memory usage of the storage. Returns true when the request has been answered.
+     */
+    private boolean rejectedOnLowMemory(RoutingContext ctx) {
         MultiMap headers = ctx.request().headers();
 
         Integer importanceLevel;
@@ -314,7 +378,7 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
                 ctx.response().end("Invalid " + IMPORTANCE_LEVEL_HEADER.getName() + " header: " + headers.get(IMPORTANCE_LEVEL_HEADER.getName()));
                 log.error("Rejecting PUT request to {} because {} header, has an invalid value: {}",
                         ctx.request().uri(), IMPORTANCE_LEVEL_HEADER.getName(), headers.get(IMPORTANCE_LEVEL_HEADER.getName()));
-                return;
+                return true;
             }
 
             if (rejectStorageWriteOnLowMemory) {
@@ -328,7 +392,7 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
                         log.info("Rejecting PUT request to {} because current memory usage of {}% is higher than " +
                                         "provided importance level of {}%", ctx.request().uri(),
                                 decimalFormat.format(currentMemoryUsage.get()), importanceLevel);
-                        return;
+                        return true;
                     }
                 } else {
                     log.warn("Rejecting storage writes on low memory feature disabled, because current memory usage not available");
@@ -341,6 +405,18 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
             log.debug("Received PUT request to {} without {} header. Going to handle this request with highest importance",
                     ctx.request().uri(), IMPORTANCE_LEVEL_HEADER.getName());
         }
+        return false;
+    }
+
+    private void putResource(RoutingContext ctx) {
+        ctx.request().pause();
+        final String path = cleanPath(ctx.request().path().substring(prefixFixed.length()));
+
+        MultiMap headers = ctx.request().headers();
+
+        if (rejectedOnLowMemory(ctx)) {
+            return;
+        }
 
         Long expire = -1L; // default infinit
         if (containsHeader(headers, EXPIRE_AFTER_HEADER)) {
@@ -567,10 +643,192 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
                 });
     }
 
+    private void postResource(RoutingContext ctx) {
+        if (containsParam(ctx.request().params(), MULTI_GET_PARAMETER)) {
+            multiGet(ctx);
+        } else if (containsParam(ctx.request().params(), BATCH_PARAMETER)) {
+            writeBatch(ctx);
+        } else {
+            storageExpand(ctx);
+        }
+    }
+
+    private void multiGet(RoutingContext ctx) {
+        final ReadConsistency readConsistency = readConsistency(ctx);
+        if (readConsistency == null) {
+            return;
+        }
+        ctx.request().bodyHandler(event -> {
+            List<String> paths = new ArrayList<>();
+            List<String> etags = new ArrayList<>();
+            try {
+                JsonObject body = new JsonObject(event.toString());
+                if (!(body.getValue("resources") instanceof JsonArray)) {
+                    respondWithBadRequest(ctx.request(), "Bad Request: Expected array field 'resources' with paths of resources");
+                    return;
+                }
+                JsonArray resourcesArray = body.getJsonArray("resources");
+                for (int i = 0; i < resourcesArray.size(); i++) {
+                    JsonObject entry = resourcesArray.getJsonObject(i);
+                    String path = entry.getString("path");
+                    if (path == null || !path.startsWith(prefixFixed + "/")) {
+                        respondWithBadRequest(ctx.request(), "Bad Request: Invalid path '" + path + "' in multiGet POST request");
+                        return;
+                    }
+                    paths.add(cleanPath(path.substring(prefixFixed.length())));
+                    etags.add(entry.getString("etag"));
+                }
+            } catch (RuntimeException ex) {
+                respondWithBadRequest(ctx.request(), "Bad Request: Unable to parse body of multiGet POST request");
+                return;
+            }
+
+            storage.multiGet(paths, etags, readConsistency, resources -> {
+                List<Future> bodies = new ArrayList<>(resources.size());
+                for (Resource resource : resources) {
+                    bodies.add(readBody(resource));
+                }
+                CompositeFuture.all(bodies).setHandler(all -> {
+                    if (all.failed()) {
+                        respondWith(ctx.response(), StatusCode.INTERNAL_SERVER_ERROR, all.cause().getMessage());
+                        return;
+                    }
+                    JsonArray result = new JsonArray();
+                    for (int i = 0; i < resources.size(); i++) {
+                        result.add(multiGetEntry(prefixFixed, resources.get(i), etags.get(i), all.result().resultAt(i)));
+                    }
+                    String responseBody = new JsonObject().put("resources", result).encode();
+                    ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+                    ctx.response().end(responseBody);
+                });
+            });
+        });
+    }
+
+    private void writeBatch(RoutingContext ctx) {
+        if (rejectedOnLowMemory(ctx)) {
+            return;
+        }
+        ctx.request().bodyHandler(event -> {
+            List<BatchItem> items = new ArrayList<>();
+            boolean atomic;
+            try {
+                JsonObject body = new JsonObject(event.toString());
+                atomic = body.getBoolean("atomic", false);
+                String lockOwner = ctx.request().headers().get(LOCK_HEADER.getName());
+                JsonArray itemsArray = body.getJsonArray("items");
+                if (itemsArray == null) {
+                    respondWithBadRequest(ctx.request(), "Bad Request: Expected array field 'items' with the operations of the batch");
+                    return;
+                }
+                for (int i = 0; i < itemsArray.size(); i++) {
+                    JsonObject entry = itemsArray.getJsonObject(i);
+                    BatchItem item = new BatchItem();
+                    item.method = HttpMethod.valueOf(entry.getString("method", "").toUpperCase());
+                    String path = entry.getString("path");
+                    if (path == null || !path.startsWith(prefixFixed + "/")) {
+                        respondWithBadRequest(ctx.request(), "Bad Request: Invalid path '" + path + "' in batch POST request");
+                        return;
+                    }
+                    item.path = cleanPath(path.substring(prefixFixed.length()));
+                    item.lockOwner = lockOwner;
+                    if (HttpMethod.PUT == item.method) {
+                        Object content = entry.getValue("body");
+                        if (content == null) {
+                            respondWithBadRequest(ctx.request(), "Bad Request: Missing body of PUT item '" + path + "' in batch POST request");
+                            return;
+                        }
+                        item.content = Json.encode(content).getBytes(StandardCharsets.UTF_8);
+                        item.expire = entry.getLong("expireAfter", -1L);
+                    } else if (HttpMethod.DELETE != item.method) {
+                        respondWithBadRequest(ctx.request(), "Bad Request: Unsupported method '" + item.method + "' in batch POST request");
+                        return;
+                    }
+                    items.add(item);
+                }
+            } catch (RuntimeException ex) {
+                respondWithBadRequest(ctx.request(), "Bad Request: Unable to parse body of batch POST request");
+                return;
+            }
+
+            storage.writeBatch(items, atomic, results -> {
+                JsonArray result = new JsonArray();
+                for (BatchItem item : results) {
+                    JsonObject entry = new JsonObject()
+                            .put("path", prefixFixed + item.path)
+                            .put("status", item.status.getStatusCode());
+                    if (HttpMethod.PUT == item.method && StatusCode.OK == item.status) {
+                        entry.put("etag", item.etag);
+                    }
+                    result.add(entry);
+                }
+                String responseBody = new JsonObject().put("items", result).encode();
+                ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+                ctx.response().end(responseBody);
+            });
+        });
+    }
+
+    private static JsonObject multiGetEntry(String prefixFixed, Resource resource, String etag, Buffer content) {
+        JsonObject entry = new JsonObject().put("path", prefixFixed + resource.name);
+        if (resource.error) {
+            entry.put("status", StatusCode.INTERNAL_SERVER_ERROR.getStatusCode());
+            entry.put("error", resource.errorMessage);
+        } else if (resource.invalid) {
+            entry.put("status", StatusCode.BAD_REQUEST.getStatusCode());
+            entry.put("error", resource.invalidMessage);
+        } else if (!resource.modified) {
+            entry.put("status", StatusCode.NOT_MODIFIED.getStatusCode());
+            entry.put("etag", etag);
+        } else if (resource.exists && resource instanceof DocumentResource) {
+            entry.put("status", StatusCode.OK.getStatusCode());
+            String resourceEtag = ((DocumentResource) resource).etag;
+            if (resourceEtag != null && !resourceEtag.isEmpty()) {
+                entry.put("etag", resourceEtag);
+            }
+            // only json objects and arrays are returned as json, other content such as 123 is returned as it was stored
+            Object body = null;
+            try {
+                body = Json.decodeValue(content.toString(), Object.class);
+            } catch (DecodeException ex) {
+                // not json
+            }
+            if (body instanceof Map || body instanceof List) {
+                entry.put("body", body);
+            } else {
+                entry.put("bodyBase64", content.getBytes());
+            }
+        } else {
+            entry.put("status", StatusCode.NOT_FOUND.getStatusCode());
+        }
+        return entry;
+    }
+
+    private Future<Buffer> readBody(Resource resource) {
+        Future<Buffer> future = Future.future();
+        if (!resource.exists || !resource.modified || !(resource instanceof DocumentResource)) {
+            future.complete(null);
+            return future;
+        }
+        DocumentResource documentResource = (DocumentResource) resource;
+        Buffer content = Buffer.buffer();
+        documentResource.readStream.exceptionHandler(exception -> future.fail((Throwable) exception));
+        documentResource.readStream.endHandler(nothing -> {
+            documentResource.closeHandler.handle(null);
+            future.complete(content);
+        });
+        documentResource.readStream.handler(buffer -> content.appendBuffer((Buffer) buffer));
+        return future;
+    }
+
     private void storageExpand(RoutingContext ctx) {
         if (!containsParam(ctx.request().params(), STORAGE_EXPAND_PARAMETER)) {
             respondWithNotAllowed(ctx.request());
         } else {
+            final ReadConsistency readConsistency = readConsistency(ctx);
+            if (readConsistency == null) {
+                return;
+            }
             ctx.request().bodyHandler(event -> {
                 List<String> subResourceNames = new ArrayList<>();
                 try {
@@ -592,70 +850,89 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
 
                 final String path = cleanPath(ctx.request().path().substring(prefixFixed.length()));
                 final String etag = ctx.request().headers().get(IF_NONE_MATCH_HEADER.getName());
-                storage.storageExpand(path, etag, subResourceNames, resource -> {
+                storage.storageExpand(path, etag, subResourceNames, readConsistency, resource -> respondWithExpandedResource(ctx, path, etag, resource));
+            });
+        }
+    }
 
-                    if (resource.error) {
-                        ctx.response().setStatusCode(StatusCode.CONFLICT.getStatusCode());
-                        ctx.response().setStatusMessage(StatusCode.CONFLICT.getStatusMessage());
-                        String message = StatusCode.CONFLICT.getStatusMessage();
-                        if (resource.errorMessage != null) {
-                            message = resource.errorMessage;
-                        }
-                        ctx.response().end(message);
-                        return;
-                    }
+    private void expandResource(RoutingContext ctx, String path, String etag, ReadConsistency readConsistency) {
+        Integer depth = getInteger(ctx.request().params(), EXPAND_PARAMETER);
+        if (depth == null || depth < 1) {
+            respondWithBadRequest(ctx.request(), "Bad Request: Expected a positive integer as value of parameter 'expand'");
+            return;
+        }
+        if (containsParam(ctx.request().params(), OFFSET_PARAMETER) || containsParam(ctx.request().params(), LIMIT_PARAMETER)) {
+            respondWithBadRequest(ctx.request(), "Bad Request: Parameter 'expand' cannot be combined with 'offset' or 'limit'");
+            return;
+        }
+        storage.storageExpand(path, etag, depth, readConsistency, resource -> respondWithExpandedResource(ctx, path, etag, resource));
+    }
 
-                    if (resource.invalid) {
-                        ctx.response().setStatusCode(StatusCode.INTERNAL_SERVER_ERROR.getStatusCode());
-                        ctx.response().setStatusMessage(StatusCode.INTERNAL_SERVER_ERROR.getStatusMessage());
+    private void respondWithExpandedResource(RoutingContext ctx, String path, String etag, Resource resource) {
+        if (resource.rejected) {
+            respondWithBadRequest(ctx.request(), resource.errorMessage);
+            return;
+        }
 
-                        String message = StatusCode.INTERNAL_SERVER_ERROR.getStatusMessage();
-                        if (resource.invalidMessage != null) {
-                            message = resource.invalidMessage;
-                        }
-                        ctx.response().end(new JsonObject().put("error", message).encode());
-                        return;
-                    }
+        if (resource.error) {
+            ctx.response().setStatusCode(StatusCode.CONFLICT.getStatusCode());
+            ctx.response().setStatusMessage(StatusCode.CONFLICT.getStatusMessage());
+            String message = StatusCode.CONFLICT.getStatusMessage();
+            if (resource.errorMessage != null) {
+                message = resource.errorMessage;
+            }
+            ctx.response().end(message);
+            return;
+        }
 
-                    if (!resource.modified) {
-                        ctx.response().setStatusCode(StatusCode.NOT_MODIFIED.getStatusCode());
-                        ctx.response().setStatusMessage(StatusCode.NOT_MODIFIED.getStatusMessage());
-                        ctx.response().headers().set(ETAG_HEADER.getName(), etag);
-                        ctx.response().headers().add(CONTENT_LENGTH.getName(), "0");
-                        ctx.response().end();
-                        return;
-                    }
+        if (resource.invalid) {
+            ctx.response().setStatusCode(StatusCode.INTERNAL_SERVER_ERROR.getStatusCode());
+            ctx.response().setStatusMessage(StatusCode.INTERNAL_SERVER_ERROR.getStatusMessage());
 
-                    if (resource.exists) {
-                        if (log.isTraceEnabled()) {
-                            log.trace("RestStorageHandler resource is a DocumentResource: {}", ctx.request().uri());
-                        }
+            String message = StatusCode.INTERNAL_SERVER_ERROR.getStatusMessage();
+            if (resource.invalidMessage != null) {
+                message = resource.invalidMessage;
+            }
+            ctx.response().end(new JsonObject().put("error", message).encode());
+            return;
+        }
 
-                        String mimeType = mimeTypeResolver.resolveMimeType(path);
-                        final DocumentResource documentResource = (DocumentResource) resource;
-                        if (documentResource.etag != null && !documentResource.etag.isEmpty()) {
-                            ctx.response().headers().add(ETAG_HEADER.getName(), documentResource.etag);
-                        }
-                        ctx.response().headers().add(CONTENT_LENGTH.getName(), "" + documentResource.length);
-                        ctx.response().headers().add(CONTENT_TYPE.getName(), mimeType);
-                        final Pump pump = Pump.pump(documentResource.readStream, ctx.response());
-                        documentResource.readStream.endHandler(nothing -> {
-                            documentResource.closeHandler.handle(null);
-                            ctx.response().end();
-                        });
-                        pump.start();
-                        // TODO: exception handlers
+        if (!resource.modified) {
+            ctx.response().setStatusCode(StatusCode.NOT_MODIFIED.getStatusCode());
+            ctx.response().setStatusMessage(StatusCode.NOT_MODIFIED.getStatusMessage());
+            ctx.response().headers().set(ETAG_HEADER.getName(), etag);
+            ctx.response().headers().add(CONTENT_LENGTH.getName(), "0");
+            ctx.response().end();
+            return;
+        }
 
-                    } else {
-                        if (log.isTraceEnabled()) {
-                            log.trace("RestStorageHandler Could not find resource: {}", ctx.request().uri());
-                        }
-                        ctx.response().setStatusCode(StatusCode.NOT_FOUND.getStatusCode());
-                        ctx.response().setStatusMessage(StatusCode.NOT_FOUND.getStatusMessage());
-                        ctx.response().end(StatusCode.NOT_FOUND.toString());
-                    }
-                });
+        if (resource.exists) {
+            if (log.isTraceEnabled()) {
+                log.trace("RestStorageHandler resource is a DocumentResource: {}", ctx.request().uri());
+            }
+
+            String mimeType = mimeTypeResolver.resolveMimeType(path);
+            final DocumentResource documentResource = (DocumentResource) resource;
+            if (documentResource.etag != null && !documentResource.etag.isEmpty()) {
+                ctx.response().headers().add(ETAG_HEADER.getName(), documentResource.etag);
+            }
+            ctx.response().headers().add(CONTENT_LENGTH.getName(), "" + documentResource.length);
+            ctx.response().headers().add(CONTENT_TYPE.getName(), mimeType);
+            final Pump pump = Pump.pump(documentResource.readStream, ctx.response());
+            documentResource.readStream.endHandler(nothing -> {
+                documentResource.closeHandler.handle(null);
+                ctx.response().end();
             });
+            pump.start();
+            // TODO: exception handlers
+
+        } else {
+            if (log.isTraceEnabled()) {
+                log.trace("RestStorageHandler Could not find resource: {}", ctx.request().uri());
+            }
+            ctx.response().setStatusCode(StatusCode.NOT_FOUND.getStatusCode());
+            ctx.response().setStatusMessage(StatusCode.NOT_FOUND.getStatusMessage());
+            ctx.response().end(StatusCode.NOT_FOUND.toString());
         }
     }
 
@@ -684,10 +961,127 @@ public class RestStorageHandler implements Handler<HttpServerRequest> {
         public int limit;
     }
 
+    /**
+     * Long-polls the changes of a subtree. The response is sent as soon as changes after the cursor are available, or
+     * with no changes when the timeout (in seconds) has elapsed. The watch is removed when the client closes the
+     * connection before, the amount of waiting watches is limited.
+     */
+    private void watch(RoutingContext ctx, String path) {
+        MultiMap params = ctx.request().params();
+        String cursor = getString(params, CURSOR_PARAMETER);
+        if (cursor != null && !CURSOR_PATTERN.matcher(cursor).matches()) {
+            respondWithBadRequest(ctx.request(), "Bad Request: Invalid cursor '" + cursor + "'");
+            return;
+        }
+        Integer timeout = containsParam(params, TIMEOUT_PARAMETER) ? getInteger(params, TIMEOUT_PARAMETER) : DEFAULT_WATCH_TIMEOUT_S;
+        if (timeout == null || timeout < 0 || timeout > MAX_WATCH_TIMEOUT_S) {
+            respondWithBadRequest(ctx.request(), "Bad Request: Expected a timeout between 0 and " + MAX_WATCH_TIMEOUT_S + " seconds");
+            return;
+        }
+        if (!addWatcher()) {
+            respondWith(ctx.response(), StatusCode.SERVICE_UNAVAILABLE, "Too many watch requests");
+            return;
+        }
+        AtomicBoolean waiting = new AtomicBoolean(true);
+        Handler<Changes> handler = changes -> {
+            if (!waiting.compareAndSet(true, false)) {
+                return;
+            }
+            removeWatcher();
+            if (ctx.response().closed()) {
+                return;
+            }
+            if (changes.invalid) {
+                respondWithBadRequest(ctx.request(), changes.invalidMessage);
+            } else if (changes.error) {
+                respondWith(ctx.response(), StatusCode.INTERNAL_SERVER_ERROR, changes.errorMessage);
+            } else if (changes.expired) {
+                respondWith(ctx.response(), StatusCode.GONE, "Changes after the cursor are not available anymore");
+            } else {
+                ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+                ctx.response().end(changes.asJsonObject().encode());
+            }
+        };
+        ctx.response().closeHandler(closed -> {
+            if (waiting.compareAndSet(true, false)) {
+                removeWatcher();
+                storage.unwatch(path, handler);
+            }
+        });
+        storage.watch(path, cursor, timeout * 1000L, handler);
+    }
+
+    /**
+     * Counts a waiting watch, unless changeFeedMaxWatchers watches are waiting already.
+     *
+     * @return false when the limit has been reached
+     */
+    private boolean addWatcher() {
+        if (watchers == null) {
+            watchers = vertx.sharedData().getLocalMap(WATCHERS_MAP);
+        }
+        AtomicBoolean added = new AtomicBoolean(false);
+        watchers.compute(prefix, (key, count) -> {
+            if (count != null && count >= maxWatchers || count == null && maxWatchers <= 0) {
+                return count;
+            }
+            added.set(true);
+            return count == null ? 1 : count + 1;
+        });
+        return added.get();
+    }
+
+    private void removeWatcher() {
+        watchers.computeIfPresent(prefix, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Lists the members of a collection added, updated or removed since the version returned with the changes listed
+     * before. Version 0 lists all the members.
+     */
+    private void changesSince(RoutingContext ctx, String path) {
+        String since = getString(ctx.request().params(), SINCE_PARAMETER);
+        if (since == null || !VERSION_PATTERN.matcher(since).matches()) {
+            respondWithBadRequest(ctx.request(), "Bad Request: Invalid version '" + since + "'");
+            return;
+        }
+        storage.changesSince(path, since, changes -> {
+            if (changes.invalid) {
+                respondWithBadRequest(ctx.request(), changes.invalidMessage);
+            } else if (changes.error) {
+                respondWith(ctx.response(), StatusCode.INTERNAL_SERVER_ERROR, changes.errorMessage);
+            } else if (changes.notFound) {
+                getResourceNotFound(ctx);
+            } else if (changes.expired) {
+                respondWith(ctx.response(), StatusCode.GONE, "Changes since the version are not available anymore");
+            } else {
+                ctx.response().headers().add(CONTENT_TYPE.getName(), "application/json; charset=utf-8");
+                ctx.response().end(changes.asJsonObject().encode());
+            }
+        });
+    }
+
     private void respondWithNotAllowed(HttpServerRequest request) {
         respondWith(request.response(), StatusCode.METHOD_NOT_ALLOWED, null);
     }
 
+    /**
+     * Gets the consistency requested with the x-read-consistency header. Defaults to {@link ReadConsistency#EVENTUAL}.
+     * Responds with a 400 Bad Request and returns <code>null</code> when the header value is invalid.
+     */
+    private ReadConsistency readConsistency(RoutingContext ctx) {
+        String value = ctx.request().headers().get(READ_CONSISTENCY_HEADER.getName());
+        if (value == null) {
+            return ReadConsistency.EVENTUAL;
+        }
+        try {
+            return ReadConsistency.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            respondWithBadRequest(ctx.request(), "Invalid " + READ_CONSISTENCY_HEADER.getName() + " header: " + value);
+            return null;
+        }
+    }
+
     private void respondWithBadRequest(HttpServerRequest request, String responseMessage) {
         respondWith(request.response(), StatusCode.BAD_REQUEST, responseMessage);
     }
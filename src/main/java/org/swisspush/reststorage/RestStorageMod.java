@@ -23,7 +23,11 @@ public class RestStorageMod extends AbstractVerticle {
                 storage = new FileSystemStorage(vertx, modConfig.getRoot());
                 break;
             case redis:
-                storage = new RedisStorage(vertx, modConfig);
+                if (modConfig.getRedisShards().isEmpty()) {
+                    storage = new RedisStorage(vertx, modConfig);
+                } else {
+                    storage = new ShardedRedisStorage(vertx, modConfig);
+                }
                 break;
             default:
                 throw new RuntimeException("Storage not supported: " + modConfig.getStorageType());
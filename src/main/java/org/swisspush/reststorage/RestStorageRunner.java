@@ -1,18 +1,21 @@
 package org.swisspush.reststorage;
 
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.logging.LoggerFactory;
 
 /**
  * Created by florian kammermann on 23.05.2016.
  *
  * Deploys the rest-storage to vert.x.
- * Used in the standalone scenario.
+ * Used in the standalone scenario. One instance is deployed per event loop.
  */
 public class RestStorageRunner {
 
     public static void main(String[] args) {
-        Vertx.vertx().deployVerticle("org.swisspush.reststorage.RestStorageMod", event ->
+        DeploymentOptions options = new DeploymentOptions().setInstances(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE);
+        Vertx.vertx().deployVerticle("org.swisspush.reststorage.RestStorageMod", options, event ->
                 LoggerFactory.getLogger(RestStorageMod.class).info("rest-storage started"));
     }
 }
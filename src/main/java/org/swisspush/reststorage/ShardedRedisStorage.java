@@ -0,0 +1,479 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+import org.swisspush.reststorage.util.ReadConsistency;
+import org.swisspush.reststorage.util.StatusCode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link Storage} partitioning the resources over multiple redis instances (shards). A resource belongs to the
+ * shard selected by the hash of its path segment at the configured level (e.g. level 2 partitions
+ * <code>/server/tenants/tenantA/...</code> by <code>tenantA</code>), so all the keys touched by a single lua script
+ * invocation are stored on the same shard.
+ * <p>
+ * The keys of every shard contain the hash tag <code>{shard&lt;n&gt;}</code>. This allows multiple shards to be
+ * stored on the same redis instance and a shard to be moved to another instance without renaming its keys.
+ * <p>
+ * Collections above the partitioning level exist on every shard. They are listed and deleted on all shards, but
+ * cannot be written, expanded or read by multiGet. The amount of shards must not be changed once resources are
+ * stored, since this changes the shard of the resources.
+ */
+public class ShardedRedisStorage implements Storage {
+
+    private Logger log = LoggerFactory.getLogger(ShardedRedisStorage.class);
+
+    private static final String ABOVE_SHARD_LEVEL_MESSAGE = "Not supported for collections above the shard level";
+
+    private final Vertx vertx;
+    private final List<Storage> shards;
+    private final int shardPathLevel;
+
+    public ShardedRedisStorage(Vertx vertx, ModuleConfiguration config) {
+        this(vertx, createShards(vertx, config), config.getRedisShardPathLevel());
+    }
+
+    public ShardedRedisStorage(Vertx vertx, List<Storage> shards, int shardPathLevel) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.vertx = vertx;
+        this.shards = shards;
+        this.shardPathLevel = shardPathLevel;
+    }
+
+    private static List<Storage> createShards(Vertx vertx, ModuleConfiguration config) {
+        List<Storage> shards = new ArrayList<>();
+        List<String> redisShards = config.getRedisShards();
+        for (int i = 0; i < redisShards.size(); i++) {
+            String shard = redisShards.get(i);
+            int separator = shard.lastIndexOf(':');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid redis shard '" + shard + "'. Expected format is host:port");
+            }
+            String hashTag = ":{shard" + i + "}";
+            ModuleConfiguration shardConfig = ModuleConfiguration.fromJsonObject(config.asJsonObject())
+                    .redisHost(shard.substring(0, separator))
+                    .redisPort(Integer.parseInt(shard.substring(separator + 1)))
+                    .redisShards(new ArrayList<>())
+                    .redisReadReplicas(new ArrayList<>())
+                    .expirablePrefix(config.getExpirablePrefix() + hashTag)
+                    .resourcesPrefix(config.getResourcesPrefix() + hashTag)
+                    .collectionsPrefix(config.getCollectionsPrefix() + hashTag)
+                    .deltaResourcesPrefix(config.getDeltaResourcesPrefix() + hashTag)
+                    .deltaEtagsPrefix(config.getDeltaEtagsPrefix() + hashTag)
+                    .lockPrefix(config.getLockPrefix() + hashTag)
+                    .deletionsPrefix(config.getDeletionsPrefix() + hashTag)
+                    .chunksPrefix(config.getChunksPrefix() + hashTag)
+                    .blobsPrefix(config.getBlobsPrefix() + hashTag)
+                    .changeFeedStream(config.getChangeFeedStream() + hashTag);
+            shards.add(new RedisStorage(vertx, shardConfig));
+        }
+        return shards;
+    }
+
+    /**
+     * Gets the shard storing the provided path.
+     *
+     * @param path the path of a resource or collection
+     * @return the shard or <code>null</code> when the path is above the shard level and therefore exists on all shards
+     */
+    Storage shard(String path) {
+        int level = 0;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (level == shardPathLevel) {
+                CRC32 crc = new CRC32();
+                crc.update(segment.getBytes(StandardCharsets.UTF_8));
+                return shards.get((int) (crc.getValue() % shards.size()));
+            }
+            level++;
+        }
+        return null;
+    }
+
+    @Override
+    public Optional<Float> getCurrentMemoryUsage() {
+        Optional<Float> result = Optional.empty();
+        for (Storage shard : shards) {
+            Optional<Float> usage = shard.getCurrentMemoryUsage();
+            if (usage.isPresent() && (!result.isPresent() || usage.get() > result.get())) {
+                result = usage;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public JsonObject getMetrics() {
+        JsonArray shardMetrics = new JsonArray();
+        for (Storage shard : shards) {
+            shardMetrics.add(shard.getMetrics());
+        }
+        return new JsonObject().put("shards", shardMetrics);
+    }
+
+    @Override
+    public void getDeletions(Handler<JsonObject> handler) {
+        List<Future> futures = new ArrayList<>();
+        for (Storage s : shards) {
+            Future<JsonObject> future = Future.future();
+            futures.add(future);
+            s.getDeletions(future::complete);
+        }
+        CompositeFuture.all(futures).setHandler(event -> {
+            JsonObject deletions = new JsonObject();
+            for (Future future : futures) {
+                deletions.mergeIn((JsonObject) future.result());
+            }
+            handler.handle(deletions);
+        });
+    }
+
+    @Override
+    public void getDeduplication(Handler<JsonObject> handler) {
+        List<Future> futures = new ArrayList<>();
+        for (Storage s : shards) {
+            Future<JsonObject> future = Future.future();
+            futures.add(future);
+            s.getDeduplication(future::complete);
+        }
+        CompositeFuture.all(futures).setHandler(event -> {
+            long blobs = 0, references = 0, bytes = 0, referencedBytes = 0;
+            for (Future future : futures) {
+                JsonObject shard = (JsonObject) future.result();
+                blobs += shard.getLong("blobs", 0L);
+                references += shard.getLong("references", 0L);
+                bytes += shard.getLong("bytes", 0L);
+                referencedBytes += shard.getLong("referencedBytes", 0L);
+            }
+            handler.handle(RedisStorage.deduplication(blobs, references, bytes, referencedBytes));
+        });
+    }
+
+    @Override
+    public void get(String path, String etag, int offset, int count, Handler<Resource> handler) {
+        get(path, etag, offset, count, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void get(String path, String etag, int offset, int count, ReadConsistency readConsistency, Handler<Resource> handler) {
+        Storage shard = shard(path);
+        if (shard != null) {
+            shard.get(path, etag, offset, count, readConsistency, handler);
+            return;
+        }
+        List<Future> futures = new ArrayList<>();
+        for (Storage s : shards) {
+            Future<Resource> future = Future.future();
+            futures.add(future);
+            s.get(path, etag, 0, -1, readConsistency, future::complete);
+        }
+        CompositeFuture.all(futures).setHandler(event -> {
+            Set<Resource> items = new HashSet<>();
+            boolean exists = false;
+            for (Future future : futures) {
+                Resource resource = (Resource) future.result();
+                if (resource.error || (resource.exists && !(resource instanceof CollectionResource))) {
+                    handler.handle(resource);
+                    return;
+                }
+                if (resource.exists) {
+                    exists = true;
+                    items.addAll(((CollectionResource) resource).items);
+                }
+            }
+            if (!exists) {
+                Resource r = new Resource();
+                r.exists = false;
+                handler.handle(r);
+                return;
+            }
+            List<Resource> sorted = new ArrayList<>(items);
+            Collections.sort(sorted);
+            int from = Math.min(Math.max(offset, 0), sorted.size());
+            int to = count < 0 ? sorted.size() : Math.min(from + count, sorted.size());
+            CollectionResource r = new CollectionResource();
+            r.items = new ArrayList<>(sorted.subList(from, to));
+            handler.handle(r);
+        });
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, Handler<List<Resource>> handler) {
+        multiGet(paths, etags, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, ReadConsistency readConsistency, Handler<List<Resource>> handler) {
+        Resource[] results = new Resource[paths.size()];
+        Map<Storage, List<Integer>> indexesByShard = new LinkedHashMap<>();
+        List<Future> futures = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            Storage shard = shard(paths.get(i));
+            if (shard != null) {
+                indexesByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+                continue;
+            }
+            // there are no resources above the shard level, only collections
+            int index = i;
+            Future<Void> future = Future.future();
+            futures.add(future);
+            get(paths.get(i), null, 0, 0, readConsistency, resource -> {
+                Resource r = new Resource();
+                r.name = paths.get(index);
+                if (resource.error) {
+                    r.error = true;
+                    r.errorMessage = resource.errorMessage;
+                } else if (resource.exists) {
+                    r.invalid = true;
+                    r.invalidMessage = "Collections are not supported in multiGet requests";
+                } else {
+                    r.exists = false;
+                }
+                results[index] = r;
+                future.complete();
+            });
+        }
+        for (Map.Entry<Storage, List<Integer>> entry : indexesByShard.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            List<String> shardPaths = new ArrayList<>(indexes.size());
+            List<String> shardEtags = new ArrayList<>(indexes.size());
+            for (Integer index : indexes) {
+                shardPaths.add(paths.get(index));
+                shardEtags.add(etags.get(index));
+            }
+            Future<Void> future = Future.future();
+            futures.add(future);
+            entry.getKey().multiGet(shardPaths, shardEtags, readConsistency, resources -> {
+                for (int i = 0; i < indexes.size(); i++) {
+                    results[indexes.get(i)] = resources.get(i);
+                }
+                future.complete();
+            });
+        }
+        CompositeFuture.all(futures).setHandler(event -> {
+            List<Resource> resources = new ArrayList<>(results.length);
+            Collections.addAll(resources, results);
+            handler.handle(resources);
+        });
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler) {
+        storageExpand(path, etag, subResources, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, ReadConsistency readConsistency, Handler<Resource> handler) {
+        Storage shard = shard(path);
+        if (shard == null) {
+            rejectAboveShardLevel(handler);
+            return;
+        }
+        shard.storageExpand(path, etag, subResources, readConsistency, handler);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, Handler<Resource> handler) {
+        storageExpand(path, etag, depth, ReadConsistency.EVENTUAL, handler);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, ReadConsistency readConsistency, Handler<Resource> handler) {
+        Storage shard = shard(path);
+        if (shard == null) {
+            rejectAboveShardLevel(handler);
+            return;
+        }
+        shard.storageExpand(path, etag, depth, readConsistency, handler);
+    }
+
+    private void rejectAboveShardLevel(Handler<Resource> handler) {
+        Resource r = new Resource();
+        r.rejected = true;
+        r.errorMessage = ABOVE_SHARD_LEVEL_MESSAGE;
+        handler.handle(r);
+    }
+
+    @Override
+    public void put(String path, String etag, boolean merge, long expire, Handler<Resource> handler) {
+        put(path, etag, merge, expire, "", LockMode.SILENT, 0, handler);
+    }
+
+    @Override
+    public void put(String path, String etag, boolean merge, long expire, String lockOwner, LockMode lockMode, long lockExpire, Handler<Resource> handler) {
+        put(path, etag, merge, expire, lockOwner, lockMode, lockExpire, false, handler);
+    }
+
+    @Override
+    public void put(String path, String etag, boolean merge, long expire, String lockOwner, LockMode lockMode, long lockExpire, boolean storeCompressed, Handler<Resource> handler) {
+        Storage shard = shard(path);
+        if (shard == null) {
+            // paths above the shard level are collections on all shards
+            handler.handle(new CollectionResource());
+            return;
+        }
+        shard.put(path, etag, merge, expire, lockOwner, lockMode, lockExpire, storeCompressed, handler);
+    }
+
+    @Override
+    public void delete(String path, String lockOwner, LockMode lockMode, long lockExpire, boolean confirmCollectionDelete, boolean deleteRecursive, Handler<Resource> handler) {
+        Storage shard = shard(path);
+        if (shard != null) {
+            shard.delete(path, lockOwner, lockMode, lockExpire, confirmCollectionDelete, deleteRecursive, handler);
+            return;
+        }
+        List<Future> futures = new ArrayList<>();
+        for (Storage s : shards) {
+            Future<Resource> future = Future.future();
+            futures.add(future);
+            s.delete(path, lockOwner, lockMode, lockExpire, confirmCollectionDelete, deleteRecursive, future::complete);
+        }
+        CompositeFuture.all(futures).setHandler(event -> {
+            Resource result = null;
+            for (Future future : futures) {
+                Resource resource = (Resource) future.result();
+                if (resource.rejected || resource.error) {
+                    handler.handle(resource);
+                    return;
+                }
+                if (result == null || resource.exists) {
+                    result = resource;
+                }
+            }
+            handler.handle(result);
+        });
+    }
+
+    @Override
+    public void writeBatch(List<BatchItem> items, boolean atomic, Handler<List<BatchItem>> handler) {
+        Map<Storage, List<BatchItem>> itemsByShard = new LinkedHashMap<>();
+        boolean aboveShardLevel = false;
+        for (BatchItem item : items) {
+            Storage shard = shard(item.path);
+            if (shard == null) {
+                item.status = StatusCode.METHOD_NOT_ALLOWED;
+                aboveShardLevel = true;
+            } else {
+                itemsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(item);
+            }
+        }
+        if (atomic && (aboveShardLevel || itemsByShard.size() > 1)) {
+            // atomicity is guaranteed within a single shard only
+            for (BatchItem item : items) {
+                if (item.status == null) {
+                    item.status = aboveShardLevel ? StatusCode.FAILED_DEPENDENCY : StatusCode.BAD_REQUEST;
+                }
+            }
+            handler.handle(items);
+            return;
+        }
+        List<Future> futures = new ArrayList<>();
+        for (Map.Entry<Storage, List<BatchItem>> entry : itemsByShard.entrySet()) {
+            Future<Void> future = Future.future();
+            futures.add(future);
+            entry.getKey().writeBatch(entry.getValue(), atomic, shardItems -> future.complete());
+        }
+        CompositeFuture.all(futures).setHandler(event -> handler.handle(items));
+    }
+
+    /**
+     * Watches the subtree on its shard. Subtrees above the shard level span all the shards, each having its own change
+     * feed, and cannot be watched.
+     */
+    @Override
+    public void watch(String path, String cursor, long timeoutMs, Handler<Changes> handler) {
+        Storage shard = shard(path);
+        if (shard == null) {
+            Changes changes = new Changes();
+            changes.invalid = true;
+            changes.invalidMessage = ABOVE_SHARD_LEVEL_MESSAGE;
+            handler.handle(changes);
+            return;
+        }
+        shard.watch(path, cursor, timeoutMs, handler);
+    }
+
+    @Override
+    public void unwatch(String path, Handler<Changes> handler) {
+        Storage shard = shard(path);
+        if (shard != null) {
+            shard.unwatch(path, handler);
+        }
+    }
+
+    /**
+     * Lists the changes of the collection on its shard. Collections above the shard level are listed from all the
+     * shards and have no history.
+     */
+    @Override
+    public void changesSince(String path, String since, Handler<Changes> handler) {
+        Storage shard = shard(path);
+        if (shard == null) {
+            Changes changes = new Changes();
+            changes.invalid = true;
+            changes.invalidMessage = ABOVE_SHARD_LEVEL_MESSAGE;
+            handler.handle(changes);
+            return;
+        }
+        shard.changesSince(path, since, handler);
+    }
+
+    /**
+     * Cleans up the expired resources of one shard after the other. The amount of resources to clean up applies to
+     * each shard.
+     */
+    @Override
+    public void cleanup(Handler<DocumentResource> handler, String cleanupResourcesAmount) {
+        cleanup(0, 0L, 0L, handler, cleanupResourcesAmount);
+    }
+
+    private void cleanup(int shardIndex, long cleanedResources, long expiredResourcesLeft, Handler<DocumentResource> handler, String cleanupResourcesAmount) {
+        if (shardIndex == shards.size()) {
+            JsonObject retObj = new JsonObject();
+            retObj.put("cleanedResources", cleanedResources);
+            retObj.put("expiredResourcesLeft", expiredResourcesLeft);
+            byte[] content = retObj.toString().getBytes(StandardCharsets.UTF_8);
+            DocumentResource r = new DocumentResource();
+            r.readStream = new ByteArrayReadStream(vertx, content);
+            r.length = content.length;
+            r.closeHandler = event -> {
+                // nothing to close
+            };
+            handler.handle(r);
+            return;
+        }
+        shards.get(shardIndex).cleanup(shardResult -> {
+            Buffer body = Buffer.buffer();
+            shardResult.readStream.endHandler(nothing -> {
+                JsonObject result = new JsonObject(body.toString());
+                log.debug("Cleanup of shard {} done: {}", shardIndex, result);
+                cleanup(shardIndex + 1, cleanedResources + result.getLong("cleanedResources", 0L),
+                        expiredResourcesLeft + result.getLong("expiredResourcesLeft", 0L), handler, cleanupResourcesAmount);
+            });
+            shardResult.readStream.handler(data -> body.appendBuffer((Buffer) data));
+        }, cleanupResourcesAmount);
+    }
+}
@@ -1,7 +1,9 @@
 package org.swisspush.reststorage;
 
 import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
 import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.ReadConsistency;
 
 import java.util.List;
 import java.util.Optional;
@@ -15,10 +17,64 @@ public interface Storage {
      */
     Optional<Float> getCurrentMemoryUsage();
 
+    /**
+     * Gets the current metrics of the storage. Storages not providing any metrics return an empty json object.
+     *
+     * @return the current metrics of the storage
+     */
+    JsonObject getMetrics();
+
+    /**
+     * Gets the collections being deleted in the background. Storages deleting collections in place pass an empty
+     * json object to the handler.
+     *
+     * @param handler the handler receiving the collections being deleted, having their path as key
+     */
+    void getDeletions(Handler<JsonObject> handler);
+
+    /**
+     * Gets the statistics of the values stored once for several resources. Storages not deduplicating values pass an
+     * empty json object to the handler.
+     *
+     * @param handler the handler receiving the amount of stored values and references, their size and the saved bytes
+     */
+    void getDeduplication(Handler<JsonObject> handler);
+
     void get(String path, String etag, int offset, int count, Handler<Resource> handler);
 
+    /**
+     * Reads a resource or collection. Reads having {@link ReadConsistency#EVENTUAL} consistency may be answered by a
+     * read replica and therefore may not reflect the latest writes.
+     *
+     * @param path the path of the resource or collection
+     * @param etag the etag known by the client
+     * @param offset the amount of collection members to skip
+     * @param count the amount of collection members to return
+     * @param readConsistency the required consistency of the read
+     * @param handler the handler receiving the resource
+     */
+    void get(String path, String etag, int offset, int count, ReadConsistency readConsistency, Handler<Resource> handler);
+
+    /**
+     * Reads multiple resources at once. The resources are passed to the handler in the order of the provided paths,
+     * having their {@link Resource#name} set to the corresponding path.
+     *
+     * @param paths the paths of the resources to read
+     * @param etags the etags of the resources known by the client (same order as paths, entries may be null)
+     * @param handler the handler receiving the resources
+     */
+    void multiGet(List<String> paths, List<String> etags, Handler<List<Resource>> handler);
+
+    void multiGet(List<String> paths, List<String> etags, ReadConsistency readConsistency, Handler<List<Resource>> handler);
+
     void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler);
 
+    void storageExpand(String path, String etag, List<String> subResources, ReadConsistency readConsistency, Handler<Resource> handler);
+
+    void storageExpand(String path, String etag, int depth, Handler<Resource> handler);
+
+    void storageExpand(String path, String etag, int depth, ReadConsistency readConsistency, Handler<Resource> handler);
+
     void put(String path, String etag, boolean merge, long expire, Handler<Resource> handler);
 
     void put(String path, String etag, boolean merge, long expire, String lockOwner, LockMode lockMode, long lockExpire, Handler<Resource> handler);
@@ -27,6 +83,48 @@ public interface Storage {
 
     void delete(String path, String lockOwner, LockMode lockMode, long lockExpire, boolean confirmCollectionDelete, boolean deleteRecursive, Handler<Resource> handler);
 
+    /**
+     * Writes (PUT) and deletes (DELETE) multiple resources at once. Deletes are supported for resources only.
+     * The handler receives the provided items having their status set.
+     *
+     * @param items the write operations to execute in the provided order
+     * @param atomic when <code>true</code>, no item is applied when one of the items cannot be applied
+     * @param handler the handler receiving the items having their status set
+     */
+    void writeBatch(List<BatchItem> items, boolean atomic, Handler<List<BatchItem>> handler);
+
     void cleanup(Handler<DocumentResource> handler, String cleanupResourcesAmount);
 
+    /**
+     * Waits for changes of the resources of a subtree. The handler receives the changes as soon as changes after the
+     * cursor are available, or no changes when the timeout has elapsed. Storages not providing a change feed pass
+     * invalid {@link Changes} to the handler.
+     *
+     * @param path the root of the subtree. Deletes of the collections above it are changes of the subtree as well
+     * @param cursor the cursor of the last change known by the watcher, <code>null</code> to wait for the changes to come
+     * @param timeoutMs the max time to wait for changes in milliseconds
+     * @param handler the handler receiving the changes and the cursor to continue from
+     */
+    void watch(String path, String cursor, long timeoutMs, Handler<Changes> handler);
+
+    /**
+     * Stops waiting for the changes of a subtree, e.g. when the client of the watch has gone. The handler of the watch
+     * is not called anymore.
+     *
+     * @param path the root of the watched subtree
+     * @param handler the handler passed to {@link #watch(String, String, long, Handler)}
+     */
+    void unwatch(String path, Handler<Changes> handler);
+
+    /**
+     * Lists the members of a collection added, updated or removed since a version, so clients keep a copy of the
+     * collection in sync without listing it again. Storages not keeping the history of the collections pass invalid
+     * {@link Changes} to the handler.
+     *
+     * @param path the path of the collection
+     * @param since the version returned with the changes listed before, "0" to list all the members as added
+     * @param handler the handler receiving the changes and the version to continue from
+     */
+    void changesSince(String path, String since, Handler<Changes> handler);
+
 }
@@ -17,6 +17,7 @@ public enum HttpRequestHeader {
     EXPIRE_AFTER_HEADER("x-expire-after"),
     IMPORTANCE_LEVEL_HEADER("x-importance-level"),
     COMPRESS_HEADER("x-stored-compressed"),
+    READ_CONSISTENCY_HEADER("x-read-consistency"),
     CONTENT_TYPE("Content-Type"),
     CONTENT_LENGTH("Content-Length");
 
@@ -11,8 +11,15 @@ public enum HttpRequestParam {
 
     RECURSIVE_PARAMETER("recursive"),
     STORAGE_EXPAND_PARAMETER("storageExpand"),
+    EXPAND_PARAMETER("expand"),
+    MULTI_GET_PARAMETER("multiGet"),
+    BATCH_PARAMETER("batch"),
     LIMIT_PARAMETER("limit"),
-    OFFSET_PARAMETER("offset");
+    OFFSET_PARAMETER("offset"),
+    WATCH_PARAMETER("watch"),
+    CURSOR_PARAMETER("cursor"),
+    TIMEOUT_PARAMETER("timeout"),
+    SINCE_PARAMETER("since");
 
     private final String name;
 
@@ -51,6 +58,31 @@ public enum HttpRequestParam {
         return params.get(httpRequestParam.getName());
     }
 
+    /**
+     * Get the value of the provided {@link HttpRequestParam} as Integer.
+     * <p>Returns <code>null</code> in the following cases:</p>
+     *
+     * <ul>
+     *     <li>params are <code>null</code></li>
+     *     <li>params does not contain httpRequestParam</li>
+     *     <li>value of httpRequestParam is no parsable Integer i.e. empty string, non-digit characters, numbers to bigger than Integer allows</li>
+     * </ul>
+     *
+     * @param params the http request params
+     * @param httpRequestParam the http request param to get the value from
+     * @return an Integer representing the value of the httpRequestParam or null
+     */
+    public static Integer getInteger(MultiMap params, HttpRequestParam httpRequestParam) {
+        if(params == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(params.get(httpRequestParam.getName()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Get the value of the provided {@link HttpRequestParam} as boolean.
      * <p>Returns <code>false</code> in the following cases:</p>
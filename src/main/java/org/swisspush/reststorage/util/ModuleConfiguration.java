@@ -2,6 +2,8 @@ package org.swisspush.reststorage.util;
 
 import io.vertx.core.json.JsonObject;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,17 +26,53 @@ public class ModuleConfiguration {
     private String             redisHost                     = "localhost"               ;
     private int                redisPort                     = 6379                      ;
     private String             redisAuth                     = null                      ;
+    private int                redisDatabase                 = 0                         ;
     private String             expirablePrefix               = "rest-storage:expirable"  ;
+    private long               expirableBucketWindowMs       = 0L                        ;
+    private boolean            nativeExpiration              = false                     ;
+    private int                collectionPruneLimit          = 0                         ;
+    private long               collectionPruneIntervalMs     = 0L                        ;
+    private boolean            asyncRecursiveDelete          = false                     ;
+    private int                asyncDeleteBatchSize          = 1000                      ;
+    private String             deletionsPrefix               = "rest-storage:deletions"  ;
+    private int                resourceChunkSize             = 0                         ;
+    private String             chunksPrefix                  = "rest-storage:chunks"     ;
+    private boolean            contentEtags                  = false                     ;
+    private int                resourceDedupThreshold        = 0                         ;
+    private String             blobsPrefix                   = "rest-storage:blobs"      ;
+    private int                nearCacheSize                 = 0                         ;
+    private long               nearCacheMaxBytes             = 64 * 1024 * 1024          ;
+    private int                negativeCacheSize             = 0                         ;
+    private long               negativeCacheTtlMs            = 1_000L                    ;
+    private String             invalidationChannel           = "rest-storage:invalidations";
+    private boolean            publishInvalidations          = false                     ;
+    private boolean            changeFeed                    = false                     ;
+    private String             changeFeedStream              = "rest-storage:changes"    ;
+    private long               changeFeedMaxLength           = 100_000L                  ;
+    private String             changeFeedAddress             = "rest-storage-changes"    ;
+    private long               changeFeedPollIntervalMs      = 100L                      ;
+    private int                changeFeedMaxWatchers         = 1000                      ;
     private String             resourcesPrefix               = "rest-storage:resources"  ;
     private String             collectionsPrefix             = "rest-storage:collections";
     private String             deltaResourcesPrefix          = "delta:resources"         ;
     private String             deltaEtagsPrefix              = "delta:etags"             ;
+    private int                deltaHistorySize              = 0                         ;
     private long               resourceCleanupAmount         = 100_000L                  ;
     private String             lockPrefix                    = "rest-storage:locks"      ;
     private boolean            confirmCollectionDelete       = false                     ;
     private boolean            rejectStorageWriteOnLowMemory = false                     ;
     private long               freeMemoryCheckIntervalMs     = 60_000L                   ;
     private boolean            return200onDeleteNonExisting  = false                     ;
+    private int                expandMaxNodes                = 10_000                    ;
+    private long               expandMaxBytes                = 10_485_760L               ;
+    private int                redisPoolSize                 = 4                         ;
+    private int                redisBulkPoolSize             = 1                         ;
+    private boolean            redisAutoPipelining           = false                     ;
+    private List<String>       redisReadReplicas             = new ArrayList<>()         ;
+    private long               redisReplicaMaxOffsetLag      = 1_048_576L                ;
+    private long               redisReplicaCheckIntervalMs   = 1_000L                    ;
+    private List<String>       redisShards                   = new ArrayList<>()         ;
+    private int                redisShardPathLevel           = 0                         ;
 
     public ModuleConfiguration root(String root) {
         this.root = root;
@@ -86,11 +124,136 @@ public class ModuleConfiguration {
         return this;
     }
 
+    public ModuleConfiguration redisDatabase(int redisDatabase) {
+        this.redisDatabase = redisDatabase;
+        return this;
+    }
+
     public ModuleConfiguration expirablePrefix(String expirablePrefix) {
         this.expirablePrefix = expirablePrefix;
         return this;
     }
 
+    public ModuleConfiguration expirableBucketWindowMs(long expirableBucketWindowMs) {
+        this.expirableBucketWindowMs = expirableBucketWindowMs;
+        return this;
+    }
+
+    public ModuleConfiguration nativeExpiration(boolean nativeExpiration) {
+        this.nativeExpiration = nativeExpiration;
+        return this;
+    }
+
+    public ModuleConfiguration collectionPruneLimit(int collectionPruneLimit) {
+        this.collectionPruneLimit = collectionPruneLimit;
+        return this;
+    }
+
+    public ModuleConfiguration collectionPruneIntervalMs(long collectionPruneIntervalMs) {
+        this.collectionPruneIntervalMs = collectionPruneIntervalMs;
+        return this;
+    }
+
+    public ModuleConfiguration asyncRecursiveDelete(boolean asyncRecursiveDelete) {
+        this.asyncRecursiveDelete = asyncRecursiveDelete;
+        return this;
+    }
+
+    public ModuleConfiguration asyncDeleteBatchSize(int asyncDeleteBatchSize) {
+        this.asyncDeleteBatchSize = asyncDeleteBatchSize;
+        return this;
+    }
+
+    public ModuleConfiguration deletionsPrefix(String deletionsPrefix) {
+        this.deletionsPrefix = deletionsPrefix;
+        return this;
+    }
+
+    public ModuleConfiguration resourceChunkSize(int resourceChunkSize) {
+        this.resourceChunkSize = resourceChunkSize;
+        return this;
+    }
+
+    public ModuleConfiguration chunksPrefix(String chunksPrefix) {
+        this.chunksPrefix = chunksPrefix;
+        return this;
+    }
+
+    public ModuleConfiguration contentEtags(boolean contentEtags) {
+        this.contentEtags = contentEtags;
+        return this;
+    }
+
+    public ModuleConfiguration resourceDedupThreshold(int resourceDedupThreshold) {
+        this.resourceDedupThreshold = resourceDedupThreshold;
+        return this;
+    }
+
+    public ModuleConfiguration blobsPrefix(String blobsPrefix) {
+        this.blobsPrefix = blobsPrefix;
+        return this;
+    }
+
+    public ModuleConfiguration nearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+        return this;
+    }
+
+    public ModuleConfiguration nearCacheMaxBytes(long nearCacheMaxBytes) {
+        this.nearCacheMaxBytes = nearCacheMaxBytes;
+        return this;
+    }
+
+    public ModuleConfiguration negativeCacheSize(int negativeCacheSize) {
+        this.negativeCacheSize = negativeCacheSize;
+        return this;
+    }
+
+    public ModuleConfiguration negativeCacheTtlMs(long negativeCacheTtlMs) {
+        this.negativeCacheTtlMs = negativeCacheTtlMs;
+        return this;
+    }
+
+    public ModuleConfiguration invalidationChannel(String invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+        return this;
+    }
+
+    public ModuleConfiguration publishInvalidations(boolean publishInvalidations) {
+        this.publishInvalidations = publishInvalidations;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeed(boolean changeFeed) {
+        this.changeFeed = changeFeed;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeedStream(String changeFeedStream) {
+        this.changeFeedStream = changeFeedStream;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeedMaxLength(long changeFeedMaxLength) {
+        this.changeFeedMaxLength = changeFeedMaxLength;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeedAddress(String changeFeedAddress) {
+        this.changeFeedAddress = changeFeedAddress;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeedPollIntervalMs(long changeFeedPollIntervalMs) {
+        this.changeFeedPollIntervalMs = changeFeedPollIntervalMs;
+        return this;
+    }
+
+    public ModuleConfiguration changeFeedMaxWatchers(int changeFeedMaxWatchers) {
+        this.changeFeedMaxWatchers = changeFeedMaxWatchers;
+        return this;
+    }
+
     public ModuleConfiguration resourcesPrefix(String resourcesPrefix) {
         this.resourcesPrefix = resourcesPrefix;
         return this;
@@ -111,6 +274,11 @@ public class ModuleConfiguration {
         return this;
     }
 
+    public ModuleConfiguration deltaHistorySize(int deltaHistorySize) {
+        this.deltaHistorySize = deltaHistorySize;
+        return this;
+    }
+
     public ModuleConfiguration resourceCleanupAmount(long resourceCleanupAmount) {
         this.resourceCleanupAmount = resourceCleanupAmount;
         return this;
@@ -141,6 +309,56 @@ public class ModuleConfiguration {
         return this;
     }
 
+    public ModuleConfiguration expandMaxNodes(int expandMaxNodes) {
+        this.expandMaxNodes = expandMaxNodes;
+        return this;
+    }
+
+    public ModuleConfiguration expandMaxBytes(long expandMaxBytes) {
+        this.expandMaxBytes = expandMaxBytes;
+        return this;
+    }
+
+    public ModuleConfiguration redisPoolSize(int redisPoolSize) {
+        this.redisPoolSize = redisPoolSize;
+        return this;
+    }
+
+    public ModuleConfiguration redisBulkPoolSize(int redisBulkPoolSize) {
+        this.redisBulkPoolSize = redisBulkPoolSize;
+        return this;
+    }
+
+    public ModuleConfiguration redisAutoPipelining(boolean redisAutoPipelining) {
+        this.redisAutoPipelining = redisAutoPipelining;
+        return this;
+    }
+
+    public ModuleConfiguration redisReadReplicas(List<String> redisReadReplicas) {
+        this.redisReadReplicas = redisReadReplicas;
+        return this;
+    }
+
+    public ModuleConfiguration redisReplicaMaxOffsetLag(long redisReplicaMaxOffsetLag) {
+        this.redisReplicaMaxOffsetLag = redisReplicaMaxOffsetLag;
+        return this;
+    }
+
+    public ModuleConfiguration redisReplicaCheckIntervalMs(long redisReplicaCheckIntervalMs) {
+        this.redisReplicaCheckIntervalMs = redisReplicaCheckIntervalMs;
+        return this;
+    }
+
+    public ModuleConfiguration redisShards(List<String> redisShards) {
+        this.redisShards = redisShards;
+        return this;
+    }
+
+    public ModuleConfiguration redisShardPathLevel(int redisShardPathLevel) {
+        this.redisShardPathLevel = redisShardPathLevel;
+        return this;
+    }
+
 
 
     public String getRoot() {
@@ -179,10 +397,110 @@ public class ModuleConfiguration {
         return redisAuth;
     }
 
+    public int getRedisDatabase() {
+        return redisDatabase;
+    }
+
     public String getExpirablePrefix() {
         return expirablePrefix;
     }
 
+    public long getExpirableBucketWindowMs() {
+        return expirableBucketWindowMs;
+    }
+
+    public boolean isNativeExpiration() {
+        return nativeExpiration;
+    }
+
+    public int getCollectionPruneLimit() {
+        return collectionPruneLimit;
+    }
+
+    public long getCollectionPruneIntervalMs() {
+        return collectionPruneIntervalMs;
+    }
+
+    public boolean isAsyncRecursiveDelete() {
+        return asyncRecursiveDelete;
+    }
+
+    public int getAsyncDeleteBatchSize() {
+        return asyncDeleteBatchSize;
+    }
+
+    public String getDeletionsPrefix() {
+        return deletionsPrefix;
+    }
+
+    public int getResourceChunkSize() {
+        return resourceChunkSize;
+    }
+
+    public String getChunksPrefix() {
+        return chunksPrefix;
+    }
+
+    public boolean isContentEtags() {
+        return contentEtags;
+    }
+
+    public int getResourceDedupThreshold() {
+        return resourceDedupThreshold;
+    }
+
+    public String getBlobsPrefix() {
+        return blobsPrefix;
+    }
+
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    public long getNearCacheMaxBytes() {
+        return nearCacheMaxBytes;
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    public long getNegativeCacheTtlMs() {
+        return negativeCacheTtlMs;
+    }
+
+    public String getInvalidationChannel() {
+        return invalidationChannel;
+    }
+
+    public boolean isPublishInvalidations() {
+        return publishInvalidations;
+    }
+
+    public boolean isChangeFeed() {
+        return changeFeed;
+    }
+
+    public String getChangeFeedStream() {
+        return changeFeedStream;
+    }
+
+    public long getChangeFeedMaxLength() {
+        return changeFeedMaxLength;
+    }
+
+    public String getChangeFeedAddress() {
+        return changeFeedAddress;
+    }
+
+    public long getChangeFeedPollIntervalMs() {
+        return changeFeedPollIntervalMs;
+    }
+
+    public int getChangeFeedMaxWatchers() {
+        return changeFeedMaxWatchers;
+    }
+
     public String getResourcesPrefix() {
         return resourcesPrefix;
     }
@@ -199,6 +517,10 @@ public class ModuleConfiguration {
         return deltaEtagsPrefix;
     }
 
+    public int getDeltaHistorySize() {
+        return deltaHistorySize;
+    }
+
     public long getResourceCleanupAmount() {
         return resourceCleanupAmount;
     }
@@ -215,6 +537,26 @@ public class ModuleConfiguration {
         return return200onDeleteNonExisting;
     }
 
+    public int getExpandMaxNodes() { return expandMaxNodes; }
+
+    public long getExpandMaxBytes() { return expandMaxBytes; }
+
+    public int getRedisPoolSize() { return redisPoolSize; }
+
+    public int getRedisBulkPoolSize() { return redisBulkPoolSize; }
+
+    public boolean isRedisAutoPipelining() { return redisAutoPipelining; }
+
+    public List<String> getRedisReadReplicas() { return redisReadReplicas; }
+
+    public long getRedisReplicaMaxOffsetLag() { return redisReplicaMaxOffsetLag; }
+
+    public long getRedisReplicaCheckIntervalMs() { return redisReplicaCheckIntervalMs; }
+
+    public List<String> getRedisShards() { return redisShards; }
+
+    public int getRedisShardPathLevel() { return redisShardPathLevel; }
+
     public JsonObject asJsonObject(){
         return JsonObject.mapFrom(this);
     }
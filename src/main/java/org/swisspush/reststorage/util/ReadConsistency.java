@@ -0,0 +1,20 @@
+package org.swisspush.reststorage.util;
+
+/**
+ * Enum for the consistency of read operations. Reads with {@link #EVENTUAL} consistency may be answered by a
+ * read replica, reads with {@link #STRONG} consistency are always answered by the master.
+ */
+public enum ReadConsistency {
+    EVENTUAL("eventual"),
+    STRONG("strong");
+
+    private String readConsistency;
+
+    ReadConsistency(String readConsistency) {
+        this.readConsistency = readConsistency;
+    }
+
+    public String text() {
+        return readConsistency;
+    }
+}
@@ -0,0 +1,208 @@
+package org.swisspush.reststorage.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Assembles the response of a storageExpand request in a single output buffer.
+ * <p>
+ * The content of the sub resources is written verbatim (without being decoded and re-encoded). Like this the expanded
+ * content is held in memory only once.
+ * </p>
+ * <p>
+ * All strings are written using the ISO-8859-1 charset, since this is how the binary resource values received
+ * from redis are represented as Java strings.
+ * </p>
+ */
+public class StorageExpandResultBuilder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String CHARSET = StandardCharsets.ISO_8859_1.name();
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    private final Buffer content;
+    private final Deque<Set<String>> levels = new ArrayDeque<>();
+
+    public StorageExpandResultBuilder() {
+        this(1024);
+    }
+
+    /**
+     * @param initialSizeHint the expected size of the expanded content in bytes
+     */
+    public StorageExpandResultBuilder(int initialSizeHint) {
+        this.content = Buffer.buffer(initialSizeHint);
+        levels.push(new HashSet<>());
+        write("{");
+    }
+
+    /**
+     * Appends a sub resource with the provided json content. The content is written as it is without being re-encoded.
+     * Sub resources with an already appended name are ignored.
+     *
+     * @param name the name of the sub resource
+     * @param jsonContent the json content of the sub resource
+     * @return this builder
+     */
+    public StorageExpandResultBuilder appendResource(String name, String jsonContent) {
+        if (levels.peek().add(name)) {
+            writeName(name);
+            write(jsonContent);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a sub resource with the json content in the provided range of characters, as provided by a streaming
+     * parser. The characters are copied into the output buffer without creating a string of the content.
+     * Sub resources with an already appended name are ignored.
+     *
+     * @param name the name of the sub resource
+     * @param jsonContent the characters containing the json content of the sub resource
+     * @param offset the offset of the json content
+     * @param length the length of the json content
+     * @return this builder
+     */
+    public StorageExpandResultBuilder appendResource(String name, char[] jsonContent, int offset, int length) {
+        if (levels.peek().add(name)) {
+            writeName(name);
+            byte[] chunk = new byte[Math.min(length, COPY_CHUNK_SIZE)];
+            for (int start = offset; start < offset + length; start += chunk.length) {
+                int count = Math.min(chunk.length, offset + length - start);
+                for (int i = 0; i < count; i++) {
+                    chunk[i] = (byte) jsonContent[start + i];
+                }
+                content.appendBytes(chunk, 0, count);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends a sub collection with the provided member names. Sub resources with an already appended name are ignored.
+     *
+     * @param name the name of the sub collection
+     * @param members the names of the collection members
+     * @return this builder
+     */
+    public StorageExpandResultBuilder appendCollection(String name, JsonArray members) {
+        if (levels.peek().add(name)) {
+            writeName(name);
+            write(members.encode());
+        }
+        return this;
+    }
+
+    /**
+     * Starts an expanded sub collection. All resources and collections appended until the matching call to
+     * {@link #endCollection()} are written as content of this sub collection.
+     *
+     * @param name the name of the sub collection
+     * @return this builder
+     */
+    public StorageExpandResultBuilder startCollection(String name) {
+        Set<String> names = levels.peek();
+        names.add(name);
+        writeName(name);
+        levels.push(new HashSet<>());
+        write("{");
+        return this;
+    }
+
+    /**
+     * Ends the sub collection started with the last call to {@link #startCollection(String)}.
+     *
+     * @return this builder
+     * @throws IllegalStateException when no sub collection has been started
+     */
+    public StorageExpandResultBuilder endCollection() {
+        if (levels.size() < 2) {
+            throw new IllegalStateException("No sub collection has been started");
+        }
+        levels.pop();
+        write("}");
+        return this;
+    }
+
+    /**
+     * Completes the expanded content. The builder must not be used anymore afterwards.
+     *
+     * @return the expanded content
+     */
+    public Buffer build() {
+        write("}");
+        return content;
+    }
+
+    /**
+     * Checks whether the provided string is a single valid json object. The check is done using a streaming parser,
+     * so no object tree is built.
+     *
+     * <pre>
+     * StorageExpandResultBuilder.isJsonObject(null)            = false
+     * StorageExpandResultBuilder.isJsonObject("{\"a\": 1}")    = true
+     * StorageExpandResultBuilder.isJsonObject("{\"a\"}")       = false
+     * StorageExpandResultBuilder.isJsonObject("[1, 2]")        = false
+     * </pre>
+     *
+     * @param json the string to check
+     * @return true when the string is a valid json object
+     */
+    public static boolean isJsonObject(String json) {
+        if (json == null) {
+            return false;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return isJsonObject(parser);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the provided range of characters is a single valid json object, see {@link #isJsonObject(String)}.
+     *
+     * @param json the characters to check
+     * @param offset the offset of the range to check
+     * @param length the length of the range to check
+     * @return true when the characters are a valid json object
+     */
+    public static boolean isJsonObject(char[] json, int offset, int length) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json, offset, length)) {
+            return isJsonObject(parser);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isJsonObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        parser.skipChildren();
+        return parser.nextToken() == null;
+    }
+
+    private void writeName(String name) {
+        if (levels.peek().size() > 1) {
+            write(",");
+        }
+        write(Json.encode(name));
+        write(":");
+    }
+
+    private void write(String value) {
+        content.appendString(value, CHARSET);
+    }
+}
@@ -0,0 +1,264 @@
+local sep = ":"
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local deltaResourcesPrefix = ARGV[3]
+local deltaEtagsPrefix = ARGV[4]
+local expirableSet = ARGV[5]
+local lockPrefix = ARGV[6]
+local timestamp = tonumber(ARGV[7])
+local maxexpiration = tonumber(ARGV[8])
+local atomic = ARGV[9]
+local expirableBucketWindow = tonumber(ARGV[10]) or 0
+local nativeExpiration = ARGV[11]
+local deletionsKey = ARGV[12]
+local invalidationChannel = ARGV[13] or ""
+local changesStream = ARGV[14] or ""
+local changesMaxLength = tonumber(ARGV[15])
+local deltaHistorySize = tonumber(ARGV[16]) or 0
+local itemsOffset = 16
+-- method, value, etag, expiration, contentEtag, lock owner, chunk key, chunk count and blob key of each item. Large
+-- values are written in chunks by the caller before, values stored once are referenced by their blob like in put.lua
+local argsPerItem = 9
+
+--%(invalidation)
+
+--%(feed)
+
+--%(history)
+
+-- state changes of the items already validated in this batch, so later items see the effect of earlier ones
+local resources = {}
+local createdCollections = {}
+
+--%(expirable)
+
+--%(chunks)
+
+--%(blobs)
+
+local function setExpiration(resourceKey, expiration, storedExpiration, chunkKey)
+    removeExpirable(resourceKey, storedExpiration)
+    if expiration ~= maxexpiration then
+        addExpirable(resourceKey, expiration)
+    end
+    -- with native expiration, redis removes the resource itself when it has expired
+    if nativeExpiration == "true" and expiration ~= maxexpiration then
+        redis.call('pexpireat',resourceKey,expiration)
+        if chunkKey ~= "" then
+            redis.call('pexpireat',chunkKey,expiration)
+        end
+    else
+        redis.call('persist',resourceKey)
+        if chunkKey ~= "" then
+            redis.call('persist',chunkKey)
+        end
+    end
+end
+
+local function itemArg(i, n)
+    return ARGV[itemsOffset + (i - 1) * argsPerItem + n]
+end
+
+local function isResource(path)
+    if resources[path] ~= nil then
+        return resources[path]
+    end
+    local values = redis.call('hmget',resourcesPrefix..path,'etag','expire')
+    if not values[1] then
+        return false
+    end
+    local score = expirationScore(resourcesPrefix..path, values[2])
+    return score == nil or score >= timestamp
+end
+
+local function isCollection(path)
+    return createdCollections[path] == true or redis.call('exists',collectionsPrefix..path) == 1
+end
+
+-- returns the ancestors as parent/member pairs, starting with the direct parent
+local function ancestors(path)
+    local result = {}
+    local current = path
+    while current ~= "" do
+        local idx = current:match(".*()"..sep)
+        if idx == nil then
+            break
+        end
+        table.insert(result, {current:sub(1, idx - 1), current:sub(idx + 1)})
+        current = current:sub(1, idx - 1)
+    end
+    return result
+end
+
+-- resources locked by another owner cannot be changed
+local function lockMode(path, owner)
+    if redis.call('exists',lockPrefix..path) == 1 then
+        local lock = redis.call('hmget',lockPrefix..path,'owner','mode')
+        if lock[1] ~= owner then
+            return lock[2]
+        end
+    end
+    return nil
+end
+
+--%(deleting)
+
+local function validatePut(path, etag, expiration, contentEtag, owner, chunkKey)
+    -- the subtree of a collection being deleted is not writable until it has been reclaimed
+    if isDeleting(path) then
+        return "reject"
+    end
+    -- the chunks are written before with a provisional ttl, they are gone when this script runs too late
+    if chunkKey ~= "" and redis.call('exists',chunkKey) == 0 then
+        return "chunksExpired"
+    end
+    if isCollection(path) then
+        return "existingCollection"
+    end
+    local mode = lockMode(path, owner)
+    if mode then
+        return mode
+    end
+    for _,pair in ipairs(ancestors(path)) do
+        if pair[1] ~= "" and isResource(pair[1]) then
+            return "existingResource "..resourcesPrefix..pair[1]
+        end
+    end
+    if expiration == maxexpiration and resources[path] == nil and redis.call('exists',resourcesPrefix..path) == 1 then
+        local stored = redis.call('hmget',resourcesPrefix..path,'etag','compressed','expire')
+        -- a value with an etag derived from the content is written again when the stored resource expires
+        local permanent = contentEtag ~= "true" or (tonumber(stored[3]) or maxexpiration) == maxexpiration
+        if stored[1] == etag and not stored[2] and permanent then
+            return "notModified"
+        end
+    end
+    resources[path] = true
+    for _,pair in ipairs(ancestors(path)) do
+        createdCollections[pair[1]] = true
+    end
+    return "OK"
+end
+
+local function validateDelete(path, owner)
+    if isDeleting(path) or not isResource(path) then
+        if isCollection(path) then
+            return "collection"
+        end
+        return "notFound"
+    end
+    local mode = lockMode(path, owner)
+    if mode then
+        return mode
+    end
+    resources[path] = false
+    return "deleted"
+end
+
+local results = {}
+local failed = false
+for i,path in ipairs(KEYS) do
+    local method = itemArg(i, 1)
+    local result
+    if method == "PUT" then
+        result = validatePut(path, itemArg(i, 3), tonumber(itemArg(i, 4)), itemArg(i, 5), itemArg(i, 6), itemArg(i, 7))
+    else
+        result = validateDelete(path, itemArg(i, 6))
+    end
+    if result ~= "OK" and result ~= "deleted" and result ~= "notModified" and result ~= "silent" then
+        failed = true
+    end
+    results[i] = result
+end
+
+if atomic == "true" and failed then
+    for i,result in ipairs(results) do
+        if result == "OK" or result == "deleted" then
+            results[i] = "notApplied"
+        end
+    end
+    return results
+end
+
+-- the memberships already written by this batch. Ancestors are updated starting with the direct parent, so the
+-- update of an item can stop at the first membership already written with the same or a higher expiration
+local writtenMemberships = {}
+
+local function updateAncestors(path, expiration, etag)
+    local score = expiration
+    for i,pair in ipairs(ancestors(path)) do
+        if i == 1 then
+            recordMember(pair[1], pair[2], "r "..etag, deltaHistorySize > 0 and not isListed(pair[1], pair[2]))
+        end
+        local membership = pair[1]..sep..pair[2]
+        local contentMax = redis.call('zrange',collectionsPrefix..membership,-1,-1,'withscores')[2]
+        if contentMax ~= nil and tonumber(contentMax) > score then
+            score = tonumber(contentMax)
+        end
+        local written = writtenMemberships[membership]
+        if written ~= nil and written >= score then
+            return
+        end
+        -- a collection is added to its parent when it is created, or written again after it had expired
+        if i > 1 and deltaHistorySize > 0 and not isListed(pair[1], pair[2]) then
+            recordMember(pair[1], pair[2], "c", true)
+        end
+        redis.call('zadd',collectionsPrefix..pair[1],score,pair[2])
+        writtenMemberships[membership] = score
+    end
+end
+
+local function removeFromAncestors(path)
+    for _,pair in ipairs(ancestors(path)) do
+        if redis.call('zrem',collectionsPrefix..pair[1],pair[2]) == 1 then
+            recordMember(pair[1], pair[2])
+        end
+        if redis.call('exists',collectionsPrefix..pair[1]) == 1 then
+            return
+        end
+    end
+end
+
+for i,path in ipairs(KEYS) do
+    if results[i] == "OK" then
+        local resourceKey = resourcesPrefix..path
+        local expiration = tonumber(itemArg(i, 4))
+        local value = itemArg(i, 2)
+        local chunkKey = itemArg(i, 7)
+        local blobKey = itemArg(i, 9)
+        removeChunks(resourceKey)
+        if chunkKey ~= "" then
+            redis.call('hmset',resourceKey,'chunks',itemArg(i, 8),'chunkkey',chunkKey)
+        end
+        local previousBlobKey = redis.call('hget',resourceKey,'blob')
+        if blobKey ~= "" and previousBlobKey ~= blobKey then
+            acquireBlob(blobKey, value)
+        end
+        if previousBlobKey and previousBlobKey ~= blobKey then
+            releaseBlob(previousBlobKey)
+        end
+        if blobKey ~= "" then
+            redis.call('hset',resourceKey,'blob',blobKey)
+            value = ""
+        elseif previousBlobKey then
+            redis.call('hdel',resourceKey,'blob')
+        end
+        local storedExpiration = redis.call('hget',resourceKey,'expire')
+        redis.call('hmset',resourceKey,'resource',value,'etag',itemArg(i, 3),'expire',expiration)
+        redis.call('hdel',resourceKey,'compressed')
+        setExpiration(resourceKey, expiration, storedExpiration, chunkKey)
+        updateAncestors(path, expiration, itemArg(i, 3))
+        publishInvalidation(path)
+        appendChange("put", path, itemArg(i, 3))
+    elseif results[i] == "deleted" then
+        setExpiration(resourcesPrefix..path, maxexpiration, redis.call('hget',resourcesPrefix..path,'expire'), "")
+        removeChunks(resourcesPrefix..path)
+        releaseResourceBlob(resourcesPrefix..path)
+        redis.call('del',resourcesPrefix..path,deltaResourcesPrefix..path,deltaEtagsPrefix..path,lockPrefix..path)
+        removeFromAncestors(path)
+        writtenMemberships = {}
+        publishInvalidation(path)
+        appendChange("delete", path, "")
+    end
+end
+
+return results
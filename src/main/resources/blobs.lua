@@ -0,0 +1,39 @@
+-- Keeps the values stored once for several resources, included by the scripts writing or removing resources
+
+-- values stored once for several resources are kept in a blob with a reference count, the blob is removed with its
+-- last reference. The totals of all blobs are kept in the stats hash next to them
+local function blobStats(blobKey)
+    return string.match(blobKey, "(.*):")..":stats"
+end
+
+local function acquireBlob(blobKey, value)
+    local statsKey = blobStats(blobKey)
+    local size = string.len(value)
+    if redis.call('hincrby',blobKey,'refs',1) == 1 then
+        redis.call('hmset',blobKey,'value',value,'size',size)
+        redis.call('hincrby',statsKey,'blobs',1)
+        redis.call('hincrby',statsKey,'bytes',size)
+    end
+    redis.call('hincrby',statsKey,'references',1)
+    redis.call('hincrby',statsKey,'referencedBytes',size)
+end
+
+local function releaseBlob(blobKey)
+    local statsKey = blobStats(blobKey)
+    local size = tonumber(redis.call('hget',blobKey,'size')) or 0
+    redis.call('hincrby',statsKey,'references',-1)
+    redis.call('hincrby',statsKey,'referencedBytes',-size)
+    if redis.call('hincrby',blobKey,'refs',-1) <= 0 then
+        redis.call('del',blobKey)
+        redis.call('hincrby',statsKey,'blobs',-1)
+        redis.call('hincrby',statsKey,'bytes',-size)
+    end
+end
+
+-- releases the blob referenced by the resource, if any
+local function releaseResourceBlob(resourceKey)
+    local blobKey = redis.call('hget',resourceKey,'blob')
+    if blobKey then
+        releaseBlob(blobKey)
+    end
+end
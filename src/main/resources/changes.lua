@@ -0,0 +1,56 @@
+-- Reads the changes appended to the stream of the changes after the provided cursor (the id of a change), skipping
+-- the changes outside of the subtree. A change is part of the subtree when its path is the root of the subtree, below
+-- it or above it (a deleted collection).
+-- Returns the cursor of the last change read, "true" when changes after the cursor have been trimmed from the stream
+-- already ("false" otherwise) and the amount of changes read, followed by the id, type, path and etag of each change of
+-- the subtree. Without cursor, the cursor of the last change of the stream is returned
+local sep = ":"
+local stream = KEYS[1]
+local cursor = ARGV[1]
+local subtree = ARGV[2]
+local count = tonumber(ARGV[3])
+
+local function before(id, other)
+    local ms, seq = string.match(id, "(%d+)-(%d+)")
+    local otherMs, otherSeq = string.match(other, "(%d+)-(%d+)")
+    ms, seq, otherMs, otherSeq = tonumber(ms), tonumber(seq), tonumber(otherMs), tonumber(otherSeq)
+    return ms < otherMs or (ms == otherMs and seq < otherSeq)
+end
+
+local function inSubtree(path)
+    return subtree == "" or path == subtree or string.sub(path, 1, #subtree + 1) == subtree..sep
+        or string.sub(subtree, 1, #path + 1) == path..sep
+end
+
+if cursor == "" then
+    local last = redis.call('xrevrange',stream,'+','-','COUNT',1)
+    if #last == 0 then
+        return {"0-0", "false", 0}
+    end
+    return {last[1][1], "false", 0}
+end
+
+local trimmed = redis.call('get',stream..":trimmed")
+if trimmed and before(cursor, trimmed) then
+    return {cursor, "true", 0}
+end
+
+local result = {cursor, "false", 0}
+local read = redis.call('xread','COUNT',count,'STREAMS',stream,cursor)
+if read then
+    for _,entry in ipairs(read[1][2]) do
+        local fields = {}
+        for i = 1, #entry[2], 2 do
+            fields[entry[2][i]] = entry[2][i + 1]
+        end
+        if inSubtree(fields['path']) then
+            table.insert(result, entry[1])
+            table.insert(result, fields['type'])
+            table.insert(result, fields['path'])
+            table.insert(result, fields['etag'])
+        end
+        result[1] = entry[1]
+        result[3] = result[3] + 1
+    end
+end
+return result
@@ -0,0 +1,18 @@
+-- Removes the chunks of large values, included by the scripts writing or removing resources
+
+-- unlink frees the memory in the background, redis versions not supporting it delete the keys in place
+local function unlink(...)
+    local result = redis.pcall('unlink', ...)
+    if type(result) == 'table' and result.err then
+        redis.call('del', ...)
+    end
+end
+
+-- the chunks of a large value are kept in the chunk key referenced by the resource
+local function removeChunks(resourceKey)
+    local chunkKey = redis.call('hget',resourceKey,'chunkkey')
+    if chunkKey then
+        unlink(chunkKey)
+        redis.call('hdel',resourceKey,'chunks','chunkkey')
+    end
+end
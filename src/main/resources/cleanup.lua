@@ -9,6 +9,10 @@ local confirmCollectionDelete = ARGV[8]
 local deleteRecursive = ARGV[9]
 local now = tonumber(ARGV[10])
 local bulksize = tonumber(ARGV[11])
+local expirableBucketWindow = tonumber(ARGV[12]) or 0
+local changesStream = ARGV[13] or ""
+local changesMaxLength = ARGV[14] or ""
+local deltaHistorySize = ARGV[15] or ""
 
 -- Important: The ARGV-Array is used again in the included del.lua script
 -- (see this funny comment with the percent sign below and Java-Method
@@ -19,17 +23,50 @@ ARGV[10] = ''
 ARGV[11] = ''
 ARGV[12] = ''
 ARGV[13] = ''
+ARGV[14] = tostring(expirableBucketWindow)
+ARGV[15] = ''
+ARGV[16] = changesStream
+ARGV[17] = changesMaxLength
+ARGV[18] = 'expire'
+ARGV[19] = deltaHistorySize
+ARGV[20] = tostring(now)
 
 local resourcePrefixLength = string.len(resourcesPrefix)
 local counter = 0
 local KEYS = {}
-local resourcesToClean = redis.call('zrangebyscore',expirableSet,minscore,now,'limit',0,bulksize)
+local resourcesToClean
+-- the bucket of each resource to clean, entries left by resources removed in the meantime are removed from it
+local bucketsToClean = {}
+if expirableBucketWindow <= 0 then
+  resourcesToClean = redis.call('zrangebyscore',expirableSet,minscore,now,'limit',0,bulksize)
+else
+  -- the bulk is filled with the due entries of the buckets of the windows started until now, oldest first. The
+  -- entries of the undivided set not migrated yet are cleaned afterwards. All the entries of passed windows are due,
+  -- so at most one bucket more than the bulk is read
+  resourcesToClean = {}
+  local buckets = redis.call('zrangebyscore',expirableSet..":windows",'-inf',math.floor(now / expirableBucketWindow),'limit',0,bulksize + 1)
+  table.insert(buckets, expirableSet)
+  for _,bucket in ipairs(buckets) do
+    if #resourcesToClean >= bulksize then
+      break
+    end
+    local due = redis.call('zrangebyscore',bucket,minscore,now,'limit',0,bulksize - #resourcesToClean)
+    for _,value in ipairs(due) do
+      table.insert(resourcesToClean, value)
+      table.insert(bucketsToClean, bucket)
+    end
+  end
+end
 for key,value in pairs(resourcesToClean) do
   redis.log(redis.LOG_NOTICE, "cleanup resource: "..value)
   KEYS[1] = string.sub(value, resourcePrefixLength+1, string.len(value))
   
   --%(delscript)
   
+  local bucket = bucketsToClean[key]
+  if bucket and redis.call('zrem',bucket,value) == 1 and bucket ~= expirableSet and redis.call('exists',bucket) == 0 then
+    redis.call('zrem',expirableSet..":windows",bucket)
+  end
   counter = counter + 1
 end
 return counter
\ No newline at end of file
@@ -18,11 +18,33 @@ local lockPrefix = ARGV[10]
 local lockOwner = ARGV[11]
 local lockMode = ARGV[12]
 local lockExpire = ARGV[13]
+local expirableBucketWindow = tonumber(ARGV[14]) or 0
+local invalidationChannel = ARGV[15] or ""
+local changesStream = ARGV[16] or ""
+local changesMaxLength = tonumber(ARGV[17])
+-- resources removed by the cleanup have expired
+local changeType = ARGV[18] or "delete"
+local deltaHistorySize = tonumber(ARGV[19]) or 0
+-- the time of the delete in milliseconds, taken by the caller like in put.lua
+local timestamp = tonumber(ARGV[20]) or 0
+
+--%(expirable)
+
+-- The functions below must not "return" anything, since this script is included in cleanup.lua
+local function removeExpiration(resourceKey)
+    removeExpirable(resourceKey, redis.call('hget', resourceKey, 'expire'))
+end
+
+--%(chunks)
+
+--%(blobs)
 
 local function deleteChildrenAndItself(path)
     if redis.call('exists',resourcesPrefix..path) == 1 then
       redis.log(redis.LOG_NOTICE, "del: "..resourcesPrefix..path)
-      redis.call('zrem', expirableSet, resourcesPrefix..path)
+      removeExpiration(resourcesPrefix..path)
+      removeChunks(resourcesPrefix..path)
+      releaseResourceBlob(resourcesPrefix..path)
       redis.call('del', resourcesPrefix..path)
       redis.call('del', deltaResourcesPrefix..path)
       redis.call('del', deltaEtagsPrefix..path)
@@ -34,11 +56,18 @@ local function deleteChildrenAndItself(path)
         deleteChildrenAndItself(pathToDelete)
       end
       redis.call('del', collectionsPrefix..path)
+      redis.call('del', deltaResourcesPrefix..path, deltaEtagsPrefix..path)
     else
       redis.log(redis.LOG_WARNING, "can't delete resource: "..path)
     end
 end
 
+--%(invalidation)
+
+--%(feed)
+
+--%(history)
+
 local setLockIfClaimed = function()
     if lockOwner ~= nil and lockOwner ~= '' then
         redis.call('hmset', lockPrefix..KEYS[1], 'owner', lockOwner, 'mode', lockMode)
@@ -65,7 +94,7 @@ if isResource == 1 or isCollection == 1 then
     end
   end
 
-  local score = tonumber(redis.call('zscore',expirableSet,resourcesPrefix..toDelete))  
+  local score = expirationScore(resourcesPrefix..toDelete, redis.call('hget',resourcesPrefix..toDelete,'expire'))
   local expired = 0
   if score ~= nil and minscore > score then
     redis.log(redis.LOG_NOTICE, "expired: "..resourcesPrefix..toDelete)
@@ -119,12 +148,16 @@ if isResource == 1 or isCollection == 1 then
               stopDel = 1
             end
             redis.log(redis.LOG_NOTICE, "zrem: "..collectionsPrefix..pathtable[pathDepthState-2].." "..nodetable[pathDepthState-1])
-            redis.call('zrem', collectionsPrefix..pathtable[pathDepthState-2], nodetable[pathDepthState-1])
+            if redis.call('zrem', collectionsPrefix..pathtable[pathDepthState-2], nodetable[pathDepthState-1]) == 1 then
+              recordMember(pathtable[pathDepthState-2], nodetable[pathDepthState-1])
+            end
         end
         if directParent == 1 then
           redis.log(redis.LOG_NOTICE, "remove direct parent")
           redis.log(redis.LOG_NOTICE, "zrem: "..collectionsPrefix..pathtable[pathDepth-2].." "..nodetable[pathDepthState-1])
-          redis.call('zrem', collectionsPrefix..pathtable[pathDepthState-2], nodetable[pathDepthState-1])
+          if redis.call('zrem', collectionsPrefix..pathtable[pathDepthState-2], nodetable[pathDepthState-1]) == 1 then
+            recordMember(pathtable[pathDepthState-2], nodetable[pathDepthState-1])
+          end
           directParent = 0
         end
       end
@@ -134,12 +167,14 @@ if isResource == 1 or isCollection == 1 then
         setLockIfClaimed()
     end
 
+    publishInvalidation(toDelete)
+    appendChange(changeType, toDelete, "")
     scriptState = "deleted"
   end
 else
   redis.log(redis.LOG_WARNING, "resource "..toDelete.." not present, will remove possible entry in expirableSet anyway")
   -- remove orphan entry in the expirableSet anyway (if there is actually one)
-  redis.call('zrem', expirableSet, resourcesPrefix..toDelete)
+  removeExpiration(resourcesPrefix..toDelete)
 end
 
 return scriptState
\ No newline at end of file
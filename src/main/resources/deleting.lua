@@ -0,0 +1,22 @@
+-- Checks the collections deleted asynchronously, included by the scripts reading or writing paths. The including
+-- script defines sep and deletionsKey
+
+-- collections deleted asynchronously are kept in the deletions hash until their subtree has been reclaimed. Their
+-- subtree is not visible anymore, although its keys still exist
+local function isDeleting(path)
+    if deletionsKey == nil or deletionsKey == "" or redis.call('exists',deletionsKey) == 0 then
+        return false
+    end
+    local current = path
+    while current ~= "" do
+        if redis.call('hexists',deletionsKey,current) == 1 then
+            return true
+        end
+        local idx = current:match(".*()"..sep)
+        if idx == nil then
+            break
+        end
+        current = string.sub(current, 1, idx - 1)
+    end
+    return false
+end
@@ -0,0 +1,86 @@
+-- Lists the members of a collection added, updated or removed since a version, read from the history of the
+-- collection. Members expired since the version are removed as well, even when they have not been cleaned up yet.
+-- Since version "0" all the members are listed as added, without a history the version is recorded as the horizon.
+-- Returns "notFound", "notCollection", "expired" when changes since the version have been dropped from the history
+-- already, or the version to continue from followed by the name, change, kind ("r" for resources, "c" for collections)
+-- and etag of each member
+local sep = ":"
+local path = KEYS[1]
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local deltaResourcesPrefix = ARGV[3]
+local deltaEtagsPrefix = ARGV[4]
+local deletionsKey = ARGV[5]
+local since = ARGV[6]
+local timestamp = tonumber(ARGV[7])
+
+--%(deleting)
+
+if isDeleting(path) then
+    return "notFound"
+end
+if redis.call('exists',collectionsPrefix..path) == 0 then
+    if redis.call('exists',resourcesPrefix..path) == 1 then
+        return "notCollection"
+    end
+    return "notFound"
+end
+
+local statesKey = deltaEtagsPrefix..path
+-- versions are the time in microseconds, like the versions of the changes
+local now = timestamp * 1000
+local version = tonumber(redis.call('hget',statesKey,':version'))
+local result = {string.format("%.0f", math.max(version or 0, now))}
+
+local function kind(name)
+    if redis.call('exists',collectionsPrefix..path..sep..name) == 1 then
+        return "c"
+    end
+    return "r"
+end
+
+if since == "0" then
+    if version == nil then
+        redis.call('hset',statesKey,':version',result[1],':horizon',result[1])
+    end
+    for _,name in ipairs(redis.call('zrangebyscore',collectionsPrefix..path,timestamp,'+inf')) do
+        local memberKind = kind(name)
+        table.insert(result, name)
+        table.insert(result, "added")
+        table.insert(result, memberKind)
+        table.insert(result, memberKind == "r" and redis.call('hget',resourcesPrefix..path..sep..name,'etag') or "")
+    end
+    return result
+end
+
+local horizon = tonumber(redis.call('hget',statesKey,':horizon'))
+if horizon == nil or tonumber(since) < horizon then
+    return "expired"
+end
+
+local listed = {}
+for _,name in ipairs(redis.call('zrangebyscore',deltaResourcesPrefix..path,'('..since,'+inf')) do
+    local state = redis.call('hget',statesKey,name) or "- r"
+    local created, memberKind, etag = string.match(state, "^(%S+) (%a) ?(.*)$")
+    local change = "removed"
+    if created ~= "-" and (tonumber(redis.call('zscore',collectionsPrefix..path,name)) or 0) >= timestamp then
+        change = tonumber(created) > tonumber(since) and "added" or "updated"
+    end
+    listed[name] = true
+    table.insert(result, name)
+    table.insert(result, change)
+    table.insert(result, memberKind)
+    table.insert(result, change == "removed" and "" or etag)
+end
+
+-- the members expired in the meantime are removed from the collection by the cleanup or when pruned
+local sinceMs = string.format("%.0f", math.floor(tonumber(since) / 1000))
+for _,name in ipairs(redis.call('zrangebyscore',collectionsPrefix..path,sinceMs,'('..timestamp)) do
+    if not listed[name] then
+        table.insert(result, name)
+        table.insert(result, "removed")
+        table.insert(result, kind(name))
+        table.insert(result, "")
+    end
+end
+return result
@@ -0,0 +1,60 @@
+-- Detaches a collection deleted asynchronously. The collection is registered in the deletions hash, which hides its
+-- subtree from reads and writes, and is removed from its parent collections. Collections left empty are removed from
+-- their parents as well. The keys of the subtree are removed afterwards in small batches by reclaim.lua.
+-- Returns "detached", "notFound" when the collection is already being deleted or "sync" when the path has to be
+-- deleted by the del script (resources and locked or not existing paths)
+local sep = ":"
+local path = KEYS[1]
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local lockPrefix = ARGV[3]
+local deletionsKey = ARGV[4]
+local invalidationChannel = ARGV[5] or ""
+local changesStream = ARGV[6] or ""
+local changesMaxLength = tonumber(ARGV[7])
+local deltaResourcesPrefix = ARGV[8] or ""
+local deltaEtagsPrefix = ARGV[9] or ""
+local deltaHistorySize = tonumber(ARGV[10]) or 0
+-- the time of the delete in milliseconds, taken by the caller like in put.lua
+local timestamp = tonumber(ARGV[11]) or 0
+
+--%(invalidation)
+
+--%(feed)
+
+--%(history)
+
+--%(deleting)
+
+if isDeleting(path) then
+    return "notFound"
+end
+
+if redis.call('exists',collectionsPrefix..path) == 0 or redis.call('exists',resourcesPrefix..path) == 1
+        or redis.call('exists',lockPrefix..path) == 1 then
+    return "sync"
+end
+
+-- the value is the amount of keys reclaimed so far
+redis.call('hset',deletionsKey,path,0)
+
+local current = path
+while true do
+    local idx = current:match(".*()"..sep)
+    if idx == nil then
+        break
+    end
+    local parent = string.sub(current, 1, idx - 1)
+    if redis.call('zrem',collectionsPrefix..parent,string.sub(current, idx + 1)) == 1 then
+        recordMember(parent, string.sub(current, idx + 1))
+    end
+    if parent == "" or redis.call('exists',collectionsPrefix..parent) == 1 or redis.call('exists',resourcesPrefix..parent) == 1 then
+        break
+    end
+    current = parent
+end
+
+-- the near caches of the storages drop the resources of the collection
+publishInvalidation(path)
+appendChange("delete", path, "")
+return "detached"
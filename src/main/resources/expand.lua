@@ -0,0 +1,149 @@
+local sep = ":"
+local path = KEYS[1]
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local expirableSet = ARGV[3]
+local timestamp = tonumber(ARGV[4])
+local maxtime = tonumber(ARGV[5])
+local depth = tonumber(ARGV[6])
+local maxNodes = tonumber(ARGV[7])
+local maxBytes = tonumber(ARGV[8])
+local etag = ARGV[9]
+local expirableBucketWindow = tonumber(ARGV[10]) or 0
+local deletionsKey = ARGV[11]
+
+--%(expirable)
+
+--%(deleting)
+
+if isDeleting(path) then
+    return "notFound"
+end
+if redis.call('exists',collectionsPrefix..path) == 0 then
+    -- resources are not expanded, they are read as they are by the caller
+    if redis.call('exists',resourcesPrefix..path) == 1 then
+        return "notCollection"
+    end
+    return "notFound"
+end
+
+-- The collection is walked depth first. Every entry consists of a type, the name and (for collection listings) the
+-- encoded members or (for resources) the key of the resource. The content of the resources is read after the
+-- validator (etag) has been compared, so a not modified result does not read any resource content.
+local entries = {}
+local validatorParts = {}
+local nodeCount = 0
+local failure
+
+local function sortedMembers(collectionKey)
+    local membersWithScores = redis.call('zrangebyscore',collectionKey, timestamp, maxtime, 'withscores')
+    local members = {}
+    local scores = {}
+    for k=1,#membersWithScores,2 do
+        table.insert(members, membersWithScores[k])
+        scores[membersWithScores[k]] = membersWithScores[k+1]
+    end
+    table.sort(members)
+    return members, scores
+end
+
+local function expandCollection(collectionPath, level)
+    local members, scores = sortedMembers(collectionsPrefix..collectionPath)
+    for _,member in ipairs(members) do
+        nodeCount = nodeCount + 1
+        if nodeCount > maxNodes then
+            failure = "limitExceeded"
+            return false
+        end
+        local childPath = collectionPath..sep..member
+        if redis.call('exists',collectionsPrefix..childPath) == 1 then
+            if level < depth then
+                table.insert(entries, {"COLLECTION_START", member, ""})
+                table.insert(validatorParts, "+"..member.."\0"..scores[member])
+                if not expandCollection(childPath, level + 1) then
+                    return false
+                end
+                table.insert(entries, {"COLLECTION_END", "", ""})
+                table.insert(validatorParts, "-")
+            else
+                local childMembers, childScores = sortedMembers(collectionsPrefix..childPath)
+                local memberParts = {}
+                nodeCount = nodeCount + #childMembers
+                if nodeCount > maxNodes then
+                    failure = "limitExceeded"
+                    return false
+                end
+                for k,childMember in ipairs(childMembers) do
+                    table.insert(memberParts, childMember.."\0"..childScores[childMember])
+                    if redis.call('exists',collectionsPrefix..childPath..sep..childMember) == 1 then
+                        childMembers[k] = childMember.."/"
+                    end
+                end
+                local encodedMembers = "[]"
+                if #childMembers > 0 then
+                    encodedMembers = cjson.encode(childMembers)
+                end
+                table.insert(entries, {"COLLECTION", member, encodedMembers})
+                table.insert(validatorParts, member.."/\0"..table.concat(memberParts, "\0"))
+            end
+        else
+            local values = redis.call('hmget',resourcesPrefix..childPath,'etag','compressed','expire','chunks')
+            if values[1] then
+                if values[2] then
+                    failure = "compressionNotSupported"
+                    return false
+                end
+                if values[4] then
+                    failure = "chunksNotSupported"
+                    return false
+                end
+                local score = expirationScore(resourcesPrefix..childPath, values[3])
+                if score == nil or score > timestamp then
+                    local resEtag = values[1]
+                    table.insert(entries, {"TYPE_RESOURCE", member, resourcesPrefix..childPath})
+                    table.insert(validatorParts, member.."\0"..tostring(resEtag))
+                end
+            end
+        end
+    end
+    return true
+end
+
+if not expandCollection(path, 1) then
+    return failure
+end
+
+local validator = redis.sha1hex(table.concat(validatorParts, "\n"))
+if validator == etag then
+    return "notModified"
+end
+
+-- values stored once for several resources are read from their blob
+local function storedValue(resourceKey)
+    local values = redis.call('hmget',resourceKey,'resource','blob')
+    if values[2] then
+        return redis.call('hget',values[2],'value')
+    end
+    return values[1]
+end
+
+local result = {validator}
+local bytes = 0
+for _,entry in ipairs(entries) do
+    local value = entry[3]
+    if entry[1] == "TYPE_RESOURCE" then
+        value = storedValue(value)
+        if not value then
+            value = "{}"
+        end
+        bytes = bytes + string.len(value)
+        if bytes > maxBytes then
+            return "limitExceeded"
+        end
+    end
+    table.insert(result, entry[1])
+    table.insert(result, entry[2])
+    table.insert(result, value)
+end
+
+return result
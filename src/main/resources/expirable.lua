@@ -0,0 +1,41 @@
+-- Keeps the expiration of resources in the expirable set, included by the scripts writing or reading it. The including
+-- script defines expirableSet and expirableBucketWindow.
+-- The expirable set is divided into buckets by time windows of the expiration, named by the number of their window, so
+-- the cleanup reads only the buckets of the windows which have started. The buckets having entries are kept in the
+-- windows index, scored by the number of their window. Entries written before the expirable set was divided stay in
+-- the undivided set until they are migrated
+
+local function expirableBucket(expiration)
+    if expirableBucketWindow <= 0 then
+        return expirableSet
+    end
+    return expirableSet..":"..string.format("%.0f", math.floor(expiration / expirableBucketWindow))
+end
+
+local function addExpirable(resourceKey, expiration)
+    local bucket = expirableBucket(expiration)
+    redis.call('zadd',bucket,expiration,resourceKey)
+    if bucket ~= expirableSet then
+        redis.call('zadd',expirableSet..":windows",math.floor(expiration / expirableBucketWindow),bucket)
+    end
+end
+
+-- removes the resource from the bucket of its stored expiration and from the undivided set
+local function removeExpirable(resourceKey, storedExpiration)
+    local expiration = tonumber(storedExpiration)
+    if expiration and expirableBucketWindow > 0 then
+        local bucket = expirableBucket(expiration)
+        if redis.call('zrem',bucket,resourceKey) == 1 and redis.call('exists',bucket) == 0 then
+            redis.call('zrem',expirableSet..":windows",bucket)
+        end
+    end
+    redis.call('zrem',expirableSet,resourceKey)
+end
+
+-- the expiration is stored in the resource hash. Resources written before have it only in the undivided set
+local function expirationScore(resourceKey, storedExpiration)
+    if storedExpiration then
+        return tonumber(storedExpiration)
+    end
+    return tonumber(redis.call('zscore',expirableSet,resourceKey))
+end
@@ -0,0 +1,62 @@
+-- Called for a resource whose key has been removed by redis, because its native ttl has expired. Removes the resource
+-- from its parent collections, collections left empty are removed from their parents as well.
+-- Returns the amount of removed collection members
+local sep = ":"
+local path = KEYS[1]
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local deltaResourcesPrefix = ARGV[3]
+local deltaEtagsPrefix = ARGV[4]
+local expirableSet = ARGV[5]
+local expirableBucketWindow = tonumber(ARGV[6]) or 0
+local changesStream = ARGV[7] or ""
+local changesMaxLength = tonumber(ARGV[8])
+local deltaHistorySize = tonumber(ARGV[9]) or 0
+local timestamp = tonumber(ARGV[10])
+
+--%(feed)
+
+--%(history)
+
+-- the resource has been written again in the meantime
+if redis.call('exists',resourcesPrefix..path) == 1 then
+    return 0
+end
+
+-- the expiration of the removed resource is not known anymore. It has expired already, so its entry is searched in the
+-- buckets of the windows started until now, latest first
+local resourceKey = resourcesPrefix..path
+if expirableBucketWindow > 0 then
+    local windows = expirableSet..":windows"
+    for _,bucket in ipairs(redis.call('zrevrangebyscore',windows,math.floor(timestamp / expirableBucketWindow),'-inf')) do
+        if redis.call('zrem',bucket,resourceKey) == 1 then
+            if redis.call('exists',bucket) == 0 then
+                redis.call('zrem',windows,bucket)
+            end
+            break
+        end
+    end
+end
+redis.call('zrem',expirableSet,resourceKey)
+redis.call('del',deltaResourcesPrefix..path,deltaEtagsPrefix..path)
+appendChange("expire", path, "")
+
+local removed = 0
+local current = path
+while current ~= "" do
+    if redis.call('exists',resourcesPrefix..current) == 1 or redis.call('exists',collectionsPrefix..current) == 1 then
+        break
+    end
+    local idx = current:match(".*()"..sep)
+    if idx == nil then
+        break
+    end
+    local parent = string.sub(current, 1, idx - 1)
+    local count = redis.call('zrem',collectionsPrefix..parent,string.sub(current, idx + 1))
+    if count == 1 then
+        recordMember(parent, string.sub(current, idx + 1))
+    end
+    removed = removed + count
+    current = parent
+end
+return removed
@@ -0,0 +1,28 @@
+-- Appends the changes to the stream watched by the clients, included by the scripts changing resources. The including
+-- script defines changesStream, changesMaxLength and timestamp, the time of the caller in milliseconds
+
+-- the watchers of subtrees are fed from the stream of the changes. The ids of the changes are derived from the time of
+-- the caller instead of letting redis generate them, so the script does not depend on the time of redis. They are
+-- raised above the last change, when the clocks of the callers differ. The stream is trimmed in batches, the id of the
+-- last change trimmed is kept, so watchers resuming from an older change know they have missed changes
+local function appendChange(changeType, key, etag)
+    if changesStream ~= "" then
+        local ms = tonumber(timestamp)
+        local seq = 0
+        local last = redis.call('xrevrange',changesStream,'+','-','COUNT',1)[1]
+        if last then
+            local lastMs, lastSeq = string.match(last[1], "^(%d+)-(%d+)$")
+            if tonumber(lastMs) >= ms then
+                ms = tonumber(lastMs)
+                seq = tonumber(lastSeq) + 1
+            end
+        end
+        redis.call('xadd',changesStream,string.format("%.0f-%.0f", ms, seq),'type',changeType,'path',key,'etag',etag)
+        local excess = redis.call('xlen',changesStream) - changesMaxLength
+        if excess >= math.max(1, math.floor(changesMaxLength / 10)) then
+            local trimmed = redis.call('xrange',changesStream,'-','+','COUNT',excess)
+            redis.call('set',changesStream..":trimmed",trimmed[#trimmed][1])
+            redis.call('xtrim',changesStream,'MAXLEN',changesMaxLength)
+        end
+    end
+end
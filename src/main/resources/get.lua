@@ -9,35 +9,43 @@ local maxtime = tonumber(ARGV[5])
 local offset = tonumber(ARGV[6])
 local count = tonumber(ARGV[7])
 local etag = ARGV[8]
+local expirableBucketWindow = tonumber(ARGV[9]) or 0
+local pruneLimit = tonumber(ARGV[10]) or 0
+local deletionsKey = ARGV[11]
+local withExpiration = ARGV[12] == "true"
+local deltaResourcesPrefix = ARGV[13] or ""
+local deltaEtagsPrefix = ARGV[14] or ""
+local deltaHistorySize = tonumber(ARGV[15]) or 0
 
-local function not_empty(x)
-    return (type(x) == "table") and (not x.err) and (#x ~= 0)
-end
+--%(history)
 
-local function string_not_empty(s)
-    return s ~= nil and s ~= ''
-end
+--%(resource)
 
-if redis.call('exists',resourcesPrefix..path) == 1 then
-    local score = tonumber(redis.call('zscore',expirableSet,resourcesPrefix..path))
-    if score ~= nil and score < timestamp then
-        return "notFound"
-    else
-        local result = redis.call('hmget',resourcesPrefix..path,'resource','etag','compressed')
-        if not_empty(result) then
-            if string_not_empty(etag) then
-                local etagStorage = result[2]
-                if etagStorage == etag then
-                    return "notModified"
-                end
+local found, value, etagStorage, compressed, chunkKey, chunks, score = readResource(path, etag)
+if found == "notFound" or found == "notModified" then
+    return found
+elseif found == "resource" then
+    -- the near cache keeps the resource until it expires
+    if withExpiration then
+        return {"TYPE_RESOURCE", chunkKey and "" or value, etagStorage, compressed or false, chunkKey or false,
+                chunks or false, score and tostring(score) or false}
+    end
+    -- the chunks of large values are read by the caller
+    if chunkKey then
+        return {"TYPE_RESOURCE", "", etagStorage, compressed or false, chunkKey, chunks}
+    end
+    return {"TYPE_RESOURCE", value, etagStorage, compressed}
+else
+    -- remove a bounded amount of expired members, so the collection does not grow until the next cleanup
+    if pruneLimit > 0 then
+        local expiredMembers = redis.call('zrangebyscore',collectionsPrefix..path,'-inf','('..timestamp,'limit',0,pruneLimit)
+        if #expiredMembers > 0 then
+            redis.call('zrem',collectionsPrefix..path,unpack(expiredMembers))
+            for _,member in ipairs(expiredMembers) do
+                recordMember(path, member)
             end
-            table.insert(result, 1, "TYPE_RESOURCE")
-            return result
-        else
-            return "notFound"
         end
     end
-elseif redis.call('exists',collectionsPrefix..path) == 1 then
     local members = {}
     if offset ~= nil and count ~= nil and offset > -1 then
         members = redis.call('zrangebyscore',collectionsPrefix..path, timestamp, maxtime,'limit',offset, count)
@@ -55,6 +63,4 @@ elseif redis.call('exists',collectionsPrefix..path) == 1 then
         end
     end
     return children
-else
-    return "notFound"
 end 
\ No newline at end of file
@@ -0,0 +1,48 @@
+-- Keeps the history of the members of collections, included by the scripts adding or removing members. The including
+-- script defines sep, collectionsPrefix, deltaResourcesPrefix, deltaEtagsPrefix, deltaHistorySize and timestamp, the
+-- time of the caller in milliseconds
+
+-- the changes of the members of a collection are kept in the history of the collection, scored by the version of the
+-- change, the state of each member (the version it was added with and its etag, or its removal) is kept next to it.
+-- Versions are the time of the caller in microseconds, raised above the last version of the collection, so they keep
+-- growing when the history is removed with its collection or the clocks of the callers differ. The history is
+-- bounded, the version of the last change dropped from it is kept as the horizon of the collection
+local function recordMember(collection, name, state, added)
+    if deltaHistorySize > 0 then
+        local historyKey = deltaResourcesPrefix..collection
+        local statesKey = deltaEtagsPrefix..collection
+        local now = tonumber(timestamp) * 1000
+        local last = tonumber(redis.call('hget',statesKey,':version'))
+        if last == nil then
+            redis.call('hset',statesKey,':horizon',string.format("%.0f", now))
+        end
+        local version = string.format("%.0f", math.max((last or 0) + 1, now + 1))
+        redis.call('hset',statesKey,':version',version)
+        local previous = redis.call('hget',statesKey,name)
+        if state then
+            local created = not added and previous and string.match(previous, "^%d+") or version
+            redis.call('hset',statesKey,name,created.." "..state)
+        else
+            redis.call('hset',statesKey,name,"- "..(previous and string.match(previous, " (%a)") or "r"))
+            redis.call('del',deltaResourcesPrefix..collection..sep..name,deltaEtagsPrefix..collection..sep..name)
+        end
+        redis.call('zadd',historyKey,version,name)
+        local excess = redis.call('zcard',historyKey) - deltaHistorySize
+        if excess > 0 then
+            local trimmed = redis.call('zrange',historyKey,0,excess - 1,'withscores')
+            redis.call('zremrangebyrank',historyKey,0,excess - 1)
+            redis.call('hset',statesKey,':horizon',string.format("%.0f", tonumber(trimmed[#trimmed])))
+            for i = 1, #trimmed, 2 do
+                if string.sub(redis.call('hget',statesKey,trimmed[i]) or "-", 1, 1) == "-" then
+                    redis.call('hdel',statesKey,trimmed[i])
+                end
+            end
+        end
+    end
+end
+
+-- a member is listed by its collection as long as it has not expired
+local function isListed(collection, name)
+    local score = tonumber(redis.call('zscore',collectionsPrefix..collection,name))
+    return score ~= nil and score >= tonumber(timestamp)
+end
@@ -0,0 +1,10 @@
+-- Publishes the invalidations of the near caches, included by the scripts changing resources. The including script
+-- defines invalidationChannel and timestamp, the time of the caller in milliseconds
+
+-- the near caches of the storages drop the changed resources, or the resources below a changed collection. The time
+-- of the change is sent along, so the caches can measure the delay of the invalidation
+local function publishInvalidation(key)
+    if invalidationChannel ~= "" then
+        redis.call('publish',invalidationChannel,string.format("%.0f", timestamp).." "..key)
+    end
+end
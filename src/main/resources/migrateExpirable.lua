@@ -0,0 +1,19 @@
+-- Moves entries of the undivided expirable set into the buckets of the expirable set. The expiration is stored in the
+-- hash of resources not having it yet, since it is not looked up in the buckets. Returns the amount of moved entries
+local expirableSet = ARGV[1]
+local expirableBucketWindow = tonumber(ARGV[2])
+local bulksize = tonumber(ARGV[3])
+
+--%(expirable)
+
+local entries = redis.call('zrange',expirableSet,0,bulksize - 1,'withscores')
+for i = 1, #entries, 2 do
+    local resourceKey = entries[i]
+    local expiration = tonumber(entries[i + 1])
+    if redis.call('exists',resourceKey) == 1 and redis.call('hexists',resourceKey,'expire') == 0 then
+        redis.call('hset',resourceKey,'expire',entries[i + 1])
+    end
+    addExpirable(resourceKey, expiration)
+    redis.call('zrem',expirableSet,resourceKey)
+end
+return #entries / 2
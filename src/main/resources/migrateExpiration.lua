@@ -0,0 +1,16 @@
+-- Stores the expiration in the hash of resources written before the expiration was kept there. The expiration is taken
+-- from the expirable set, resources not contained in it are permanent. Returns the amount of migrated resources
+local expirableSet = ARGV[1]
+local maxexpiration = ARGV[2]
+local expirableBucketWindow = tonumber(ARGV[3]) or 0
+
+--%(expirable)
+
+local migrated = 0
+for _,resourceKey in ipairs(KEYS) do
+    if redis.call('type',resourceKey).ok == 'hash' and redis.call('hexists',resourceKey,'expire') == 0 and redis.call('hexists',resourceKey,'resource') == 1 then
+        redis.call('hset',resourceKey,'expire',expirationScore(resourceKey) or maxexpiration)
+        migrated = migrated + 1
+    end
+end
+return migrated
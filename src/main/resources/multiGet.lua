@@ -0,0 +1,40 @@
+local sep = ":"
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local expirableSet = ARGV[3]
+local timestamp = tonumber(ARGV[4])
+local expirableBucketWindow = tonumber(ARGV[5]) or 0
+local deletionsKey = ARGV[6]
+local etagsOffset = 6
+
+--%(resource)
+
+-- Every path gets exactly four result entries (type, resource, etag, compressed). Missing values are returned as
+-- empty strings, because nil values would truncate the result table.
+local result = {}
+
+local function addResult(type, resource, etag, compressed)
+    table.insert(result, type)
+    table.insert(result, resource or "")
+    table.insert(result, etag or "")
+    table.insert(result, compressed or "")
+end
+
+for i,path in ipairs(KEYS) do
+    local etag = ARGV[etagsOffset + i]
+    local found, value, etagStorage, compressed, chunkKey = readResource(path, etag)
+    if found == "notModified" then
+        addResult("notModified", nil, etag)
+    elseif found == "collection" then
+        addResult("TYPE_COLLECTION")
+    elseif found == "notFound" then
+        addResult("notFound")
+    elseif chunkKey then
+        -- large values stored in chunks are read by the get script
+        addResult("TYPE_CHUNKED")
+    else
+        addResult("TYPE_RESOURCE", value, etagStorage, compressed and "compressed")
+    end
+end
+
+return result
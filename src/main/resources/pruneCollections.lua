@@ -0,0 +1,25 @@
+-- Removes a bounded amount of expired members of the given collections. A member is expired when its score (the
+-- latest expiration of its content) is in the past. Returns the amount of removed members
+local timestamp = ARGV[1]
+local pruneLimit = tonumber(ARGV[2])
+local collectionsPrefix = ARGV[3] or ""
+local deltaResourcesPrefix = ARGV[4] or ""
+local deltaEtagsPrefix = ARGV[5] or ""
+local deltaHistorySize = tonumber(ARGV[6]) or 0
+local sep = ":"
+
+--%(history)
+
+local removed = 0
+for _,collectionKey in ipairs(KEYS) do
+    if redis.call('type',collectionKey).ok == 'zset' then
+        local expiredMembers = redis.call('zrangebyscore',collectionKey,'-inf','('..timestamp,'limit',0,pruneLimit)
+        if #expiredMembers > 0 then
+            removed = removed + redis.call('zrem',collectionKey,unpack(expiredMembers))
+            for _,member in ipairs(expiredMembers) do
+                recordMember(string.sub(collectionKey, #collectionsPrefix + 1), member)
+            end
+        end
+    end
+end
+return removed
@@ -1,9 +1,8 @@
 local sep = ":"
-local path = KEYS[1]..sep
 local resourcesPrefix = ARGV[1]
 local collectionsPrefix = ARGV[2]
 local expirableSet = ARGV[3]
-local merge = ARGV[4]
+local compareAndSet = ARGV[4]
 local expiration = tonumber(ARGV[5])
 local maxexpiration = tonumber(ARGV[6])
 local resourceValue = ARGV[7]
@@ -13,6 +12,59 @@ local lockOwner = ARGV[10]
 local lockMode = ARGV[11]
 local lockExpire = ARGV[12]
 local compress = tonumber(ARGV[13])
+local expirableBucketWindow = tonumber(ARGV[14]) or 0
+local nativeExpiration = ARGV[15]
+local deletionsKey = ARGV[16]
+local chunkKey = ARGV[17] or ""
+local chunkCount = ARGV[18]
+local contentEtag = ARGV[19]
+local blobKey = ARGV[20] or ""
+local expectedEtag = ARGV[21] or ""
+local invalidationChannel = ARGV[22] or ""
+local changesStream = ARGV[23] or ""
+local changesMaxLength = tonumber(ARGV[24])
+local deltaResourcesPrefix = ARGV[25] or ""
+local deltaEtagsPrefix = ARGV[26] or ""
+local deltaHistorySize = tonumber(ARGV[27]) or 0
+-- the time of the write in milliseconds, taken by the caller since scripts reading the time of redis cannot write
+-- afterwards on redis versions before 5
+local timestamp = tonumber(ARGV[28]) or 0
+
+--%(chunks)
+
+--%(expirable)
+
+local function setExpiration(resourceKey, expiration, storedExpiration)
+    removeExpirable(resourceKey, storedExpiration)
+    if expiration ~= maxexpiration then
+        addExpirable(resourceKey, expiration)
+    end
+    -- with native expiration, redis removes the resource itself when it has expired
+    if nativeExpiration == "true" and expiration ~= maxexpiration then
+        redis.call('pexpireat',resourceKey,expiration)
+        if chunkKey ~= "" then
+            redis.call('pexpireat',chunkKey,expiration)
+        end
+    else
+        redis.call('persist',resourceKey)
+        if chunkKey ~= "" then
+            redis.call('persist',chunkKey)
+        end
+    end
+end
+
+--%(blobs)
+
+--%(invalidation)
+
+--%(feed)
+
+--%(deleting)
+
+-- the subtree of a collection being deleted is not writable until it has been reclaimed
+if isDeleting(KEYS[1]) then
+    return "reject"
+end
 
 if redis.call('exists',collectionsPrefix..KEYS[1]) == 1 then
     return "existingCollection"
@@ -25,6 +77,17 @@ if redis.call('exists',lockPrefix..KEYS[1]) == 1 then
     end
 end
 
+-- merged values are built by the caller from the value read before, they are only written as long as the stored value
+-- has not been changed in the meantime. An empty expected etag stands for a resource not existing
+if compareAndSet == "true" and (redis.call('hget',resourcesPrefix..KEYS[1],'etag') or "") ~= expectedEtag then
+    return "conflict"
+end
+
+-- the chunks are written before with a provisional ttl, they are gone when this script runs too late
+if chunkKey ~= "" and redis.call('exists',chunkKey) == 0 then
+    return "chunksExpired"
+end
+
 local setLockIfClaimed = function()
     if lockOwner ~= nil and lockOwner ~= '' then
         redis.call('hmset', lockPrefix..KEYS[1], 'owner', lockOwner, 'mode', lockMode)
@@ -38,77 +101,114 @@ local compressionModeNotChanged = function(doCompress)
 end
 
 if redis.call('exists',resourcesPrefix..KEYS[1]) == 1 then
-    local etag = redis.call('hget',resourcesPrefix..KEYS[1],'etag')
-    if etag == resourceHash and expiration == maxexpiration and compressionModeNotChanged(compress) then
+    local stored = redis.call('hmget',resourcesPrefix..KEYS[1],'etag','expire')
+    -- a value with an etag derived from the content is written again when the stored resource expires
+    local permanent = contentEtag ~= "true" or (tonumber(stored[2]) or maxexpiration) == maxexpiration
+    if stored[1] == resourceHash and expiration == maxexpiration and permanent and compressionModeNotChanged(compress) then
         setLockIfClaimed()
         return "notModified";
     end
 end
 
+--%(history)
+
 local not_empty = function(x)
     return (type(x) == "table") and (not x.err) and (#x ~= 0)
 end
 
-local pathState
-local collections = {}
-local nodes = {path:match((path:gsub("[^"..sep.."]*"..sep, "([^"..sep.."]*)"..sep)))}
-
-for key,value in pairs(nodes) do
-    if pathState == nil then
-        pathState = value
-    else
-        collections[pathState] = value
-        pathState = pathState..sep..value
+-- the ancestors as collection/member pairs, starting with the direct parent
+local ancestors = {}
+local current = KEYS[1]
+while true do
+    local idx = current:match(".*()"..sep)
+    if idx == nil then
+        break
     end
-    redis.log(redis.LOG_NOTICE, "pathState: "..resourcesPrefix..pathState)
-    redis.log(redis.LOG_NOTICE, "path: "..resourcesPrefix..KEYS[1])
-    if redis.call('exists',resourcesPrefix..pathState) == 1 and resourcesPrefix..pathState ~= resourcesPrefix..KEYS[1] then
-        return "existingResource".." "..resourcesPrefix..pathState
+    table.insert(ancestors, {string.sub(current, 1, idx - 1), string.sub(current, idx + 1)})
+    current = string.sub(current, 1, idx - 1)
+end
+
+-- an existing parent collection implies that none of the ancestors is a resource
+if redis.call('exists',collectionsPrefix..ancestors[1][1]) == 0 then
+    for i = #ancestors, 1, -1 do
+        redis.log(redis.LOG_NOTICE, "pathState: "..resourcesPrefix..ancestors[i][1])
+        if redis.call('exists',resourcesPrefix..ancestors[i][1]) == 1 then
+            return "existingResource".." "..resourcesPrefix..ancestors[i][1]
+        end
     end
 end
-for key,value in pairs(collections) do
-    local collectionKey = collectionsPrefix..key
+
+-- The direct parent lists the resource with its expiration, the ancestors above list their child collection with the
+-- latest expiration of its content. As long as the expiration of the resource is not decreased, an ancestor already
+-- listing its member with a later or equal expiration implies that all the ancestors above are up to date as well.
+-- A decreased expiration is recalculated up to the root.
+local previousExpiration = tonumber(redis.call('zscore',collectionsPrefix..ancestors[1][1],ancestors[1][2]))
+local decreased = previousExpiration ~= nil and previousExpiration > expiration
+local addedResource = deltaHistorySize > 0 and not isListed(ancestors[1][1], ancestors[1][2])
+for i,ancestor in ipairs(ancestors) do
+    local collectionKey = collectionsPrefix..ancestor[1]
     local actualExpiration = expiration
-    local contentMax = redis.call('zrange',collectionKey..sep..value,-1,-1, "withscores")[2]
-    if contentMax ~= nil and contentMax ~= '' then
-        contentMax = tonumber(contentMax)
-        if contentMax > actualExpiration then
-            actualExpiration = contentMax
+    if decreased then
+        if i > 1 then
+            local contentMax = redis.call('zrange',collectionsPrefix..ancestors[i - 1][1],-1,-1,"withscores")[2]
+            if contentMax ~= nil and contentMax ~= '' then
+                actualExpiration = math.max(actualExpiration, tonumber(contentMax))
+            end
         end
-    end
-    redis.log(redis.LOG_NOTICE, "zadd: "..collectionKey.." "..actualExpiration.." "..value)
-    redis.call('zadd',collectionKey,actualExpiration,value)
-end
-redis.log(redis.LOG_NOTICE, "merge: "..merge)
-
-if merge == "true" then
-    local s = redis.call('hget',resourcesPrefix..KEYS[1],'resource')
-    redis.log(redis.LOG_NOTICE, "merge: "..tostring(s).." "..resourceValue)
-    if s then
-        s = cjson.decode(s)
-        for k,v in pairs(cjson.decode(resourceValue)) do
-            if v == cjson.null then s[k] = nil else s[k] = v end
+    else
+        local listedExpiration = previousExpiration
+        if i > 1 then
+            listedExpiration = tonumber(redis.call('zscore',collectionKey,ancestor[2]))
+        end
+        if listedExpiration ~= nil and listedExpiration >= expiration then
+            break
         end
-        resourceValue = cjson.encode(s)
     end
+    -- a collection is added to its parent when it is created, or written again after it had expired
+    if i > 1 and deltaHistorySize > 0 and not isListed(ancestor[1], ancestor[2]) then
+        recordMember(ancestor[1], ancestor[2], "c", true)
+    end
+    redis.log(redis.LOG_NOTICE, "zadd: "..collectionKey.." "..actualExpiration.." "..ancestor[2])
+    redis.call('zadd',collectionKey,actualExpiration,ancestor[2])
 end
-
 redis.log(redis.LOG_NOTICE, "update: "..resourcesPrefix..KEYS[1])
+local previousChunkKey = redis.call('hget',resourcesPrefix..KEYS[1],'chunkkey')
+if previousChunkKey and previousChunkKey ~= chunkKey then
+    unlink(previousChunkKey)
+end
+if chunkKey ~= "" then
+    redis.call('hmset',resourcesPrefix..KEYS[1],'chunks',chunkCount,'chunkkey',chunkKey)
+elseif previousChunkKey then
+    redis.call('hdel',resourcesPrefix..KEYS[1],'chunks','chunkkey')
+end
+local previousBlobKey = redis.call('hget',resourcesPrefix..KEYS[1],'blob')
+if blobKey ~= "" and previousBlobKey ~= blobKey then
+    acquireBlob(blobKey, resourceValue)
+end
+if previousBlobKey and previousBlobKey ~= blobKey then
+    releaseBlob(previousBlobKey)
+end
+if blobKey ~= "" then
+    redis.call('hset',resourcesPrefix..KEYS[1],'blob',blobKey)
+    resourceValue = ""
+elseif previousBlobKey then
+    redis.call('hdel',resourcesPrefix..KEYS[1],'blob')
+end
+local storedExpiration = redis.call('hget',resourcesPrefix..KEYS[1],'expire')
 if compress == 1 then
-    redis.call('hmset',resourcesPrefix..KEYS[1],'resource',resourceValue,'etag',resourceHash,'compressed',1)
+    redis.call('hmset',resourcesPrefix..KEYS[1],'resource',resourceValue,'etag',resourceHash,'expire',expiration,'compressed',1)
 else
-    redis.call('hmset',resourcesPrefix..KEYS[1],'resource',resourceValue,'etag',resourceHash)
+    redis.call('hmset',resourcesPrefix..KEYS[1],'resource',resourceValue,'etag',resourceHash,'expire',expiration)
     redis.call('hdel',resourcesPrefix..KEYS[1],'compressed')
 end
 
-if expiration ~= maxexpiration then
-    redis.log(redis.LOG_NOTICE, "zadd: "..expirableSet.." "..expiration.." "..resourcesPrefix..KEYS[1])
-    redis.call('zadd',expirableSet,expiration,resourcesPrefix..KEYS[1])
-elseif expiration == maxexpiration then
-    redis.log(redis.LOG_NOTICE, "zrem: "..expirableSet.." "..resourcesPrefix..KEYS[1])
-    redis.call('zrem', expirableSet, resourcesPrefix..KEYS[1])
-end
+redis.log(redis.LOG_NOTICE, "expiration: "..expiration.." "..resourcesPrefix..KEYS[1])
+setExpiration(resourcesPrefix..KEYS[1], expiration, storedExpiration)
 
 setLockIfClaimed()
 
+publishInvalidation(KEYS[1])
+recordMember(ancestors[1][1], ancestors[1][2], "r "..resourceHash, addedResource)
+appendChange("put", KEYS[1], resourceHash)
+
 return "OK";
\ No newline at end of file
@@ -0,0 +1,62 @@
+-- Removes the keys of a collection detached by detach.lua. At most batchSize keys are removed per call, so the
+-- deletion of large subtrees does not block redis. The subtree is walked depth first, collections are removed when
+-- all their members have been removed. The collection is removed from the deletions hash when its subtree is empty.
+-- Returns the state ("pending" or "done") and the amount of keys removed by this call
+local sep = ":"
+local path = KEYS[1]
+local resourcesPrefix = ARGV[1]
+local collectionsPrefix = ARGV[2]
+local deltaResourcesPrefix = ARGV[3]
+local deltaEtagsPrefix = ARGV[4]
+local expirableSet = ARGV[5]
+local expirableBucketWindow = tonumber(ARGV[6]) or 0
+local deletionsKey = ARGV[7]
+local batchSize = tonumber(ARGV[8])
+
+--%(expirable)
+
+--%(chunks)
+
+--%(blobs)
+
+local function removeResource(resourcePath)
+    local resourceKey = resourcesPrefix..resourcePath
+    removeChunks(resourceKey)
+    releaseResourceBlob(resourceKey)
+    removeExpirable(resourceKey, redis.call('hget',resourceKey,'expire'))
+    unlink(resourceKey, deltaResourcesPrefix..resourcePath, deltaEtagsPrefix..resourcePath)
+end
+
+local reclaimed = 0
+local stack = {path}
+while #stack > 0 and reclaimed < batchSize do
+    local current = stack[#stack]
+    local collectionKey = collectionsPrefix..current
+    local members = redis.call('zrange',collectionKey,0,batchSize - reclaimed - 1)
+    if #members == 0 then
+        unlink(collectionKey, deltaResourcesPrefix..current, deltaEtagsPrefix..current)
+        table.remove(stack)
+        if #stack > 0 then
+            redis.call('zrem',collectionsPrefix..stack[#stack],string.sub(current, #stack[#stack] + 2))
+        end
+        reclaimed = reclaimed + 1
+    else
+        for _,member in ipairs(members) do
+            local child = current..sep..member
+            if redis.call('exists',collectionsPrefix..child) == 1 then
+                table.insert(stack, child)
+                break
+            end
+            removeResource(child)
+            redis.call('zrem',collectionKey,member)
+            reclaimed = reclaimed + 1
+        end
+    end
+end
+
+if #stack == 0 then
+    redis.call('hdel',deletionsKey,path)
+    return {"done", reclaimed}
+end
+redis.call('hincrby',deletionsKey,path,reclaimed)
+return {"pending", reclaimed}
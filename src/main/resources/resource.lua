@@ -0,0 +1,34 @@
+-- Reads resources, included by the scripts reading them. The including script defines sep, resourcesPrefix,
+-- collectionsPrefix, expirableSet, expirableBucketWindow, deletionsKey and timestamp
+
+--%(expirable)
+
+--%(deleting)
+
+-- Returns "notFound", "collection", "notModified" when the resource still has the etag, or "resource" followed by its
+-- value, etag, compressed flag, chunk key, chunk count and expiration. Values stored once for several resources are
+-- read from their blob, the chunks of large values are read by the caller
+local function readResource(path, etag)
+    if isDeleting(path) then
+        return "notFound"
+    end
+    local values = redis.call('hmget',resourcesPrefix..path,'resource','etag','compressed','expire','chunkkey','chunks','blob')
+    if not values[1] then
+        if redis.call('exists',collectionsPrefix..path) == 1 then
+            return "collection"
+        end
+        return "notFound"
+    end
+    local score = expirationScore(resourcesPrefix..path, values[4])
+    if score ~= nil and score < timestamp then
+        return "notFound"
+    end
+    if etag ~= nil and etag ~= "" and values[2] == etag then
+        return "notModified"
+    end
+    local value = values[1]
+    if values[7] then
+        value = redis.call('hget',values[7],'value')
+    end
+    return "resource", value, values[2], values[3], values[5], values[6], score
+end
@@ -14,6 +14,11 @@ local timestamp = tonumber(ARGV[4])
 local maxtime = tonumber(ARGV[5])
 local subResources = ARGV[6]
 local subResourcesCount = tonumber(ARGV[7])
+local etag = ARGV[8]
+local expirableBucketWindow = tonumber(ARGV[9]) or 0
+local deletionsKey = ARGV[10]
+
+--%(expirable)
 
 local function splitToTable(divider,str)
     if (divider=='') then return false end
@@ -26,6 +31,8 @@ local function splitToTable(divider,str)
     return arr
 end
 
+--%(deleting)
+
 local function isCollection(resName)
     if(string.find(resName, "/", -1) ~= nil) then
         return true
@@ -33,15 +40,15 @@ local function isCollection(resName)
     return false
 end
 
-local function isCompressed(resourcePath)
-    if redis.call('hexists',resourcePath,'compressed') == 1 then
-        return true
-    else
-        return false
-    end
+-- The validator (etag) of the expanded result is calculated from the etags of the sub resources and the members
+-- (and their scores) of the sub collections. Like this a not modified result can be detected without transferring
+-- the content of the sub resources.
+if isDeleting(path) then
+    return "notFound"
 end
 
-local result = {}
+local entries = {}
+local validatorParts = {}
 local subResourcesTable = splitToTable(";", subResources);
 
 for i=1,subResourcesCount do
@@ -50,35 +57,70 @@ for i=1,subResourcesCount do
         subResName = string.sub(subResName, 1, string.len(subResName)-1)
         local colPath = collectionsPrefix..path..sep..subResName
         if redis.call('exists',colPath) == 1 then
-            local colMembers = redis.call('zrangebyscore',colPath, timestamp, maxtime)
-            for k, v in ipairs(colMembers) do
-                if redis.call('exists',colPath..sep..v) == 1 then
-                    colMembers[k] = v.."/"
+            local colMembersWithScores = redis.call('zrangebyscore',colPath, timestamp, maxtime, 'withscores')
+            local colMembers = {}
+            local memberParts = {}
+            for k=1,#colMembersWithScores,2 do
+                local member = colMembersWithScores[k]
+                if redis.call('exists',colPath..sep..member) == 1 then
+                    member = member.."/"
                 end
+                table.insert(colMembers, member)
+                table.insert(memberParts, member.."\0"..colMembersWithScores[k+1])
             end
-            table.insert(result, {subResName, cjson.encode(colMembers)})
+            table.insert(entries, {subResName, cjson.encode(colMembers)})
+            table.insert(validatorParts, subResName.."/\0"..table.concat(memberParts, "\0"))
         end
     else
         local resPath = resourcesPrefix..path..sep..subResName
-        if redis.call('exists',resPath) == 1 then
-            if isCompressed(resPath) then
+        local values = redis.call('hmget',resPath,'etag','compressed','expire','chunks')
+        if values[1] then
+            if values[2] then
                 return "compressionNotSupported"
             end
-            local score = tonumber(redis.call('zscore',expirableSet,resPath))
+            if values[4] then
+                return "chunksNotSupported"
+            end
+            local score = expirationScore(resPath, values[3])
             if score == nil or score > timestamp then
-                local res = (redis.call('hget',resPath,'resource'))
-                if(res) then
-                    table.insert(result, {subResName, res})
-                end
+                local resEtag = values[1]
+                table.insert(entries, {subResName, false, resPath})
+                table.insert(validatorParts, subResName.."\0"..tostring(resEtag))
             end
         end
     end
 end
 
+local validator = redis.sha1hex(table.concat(validatorParts, "\n"))
+if #entries > 0 and validator == etag then
+    return "notModified"
+end
+
+-- values stored once for several resources are read from their blob
+local function storedValue(resourceKey)
+    local values = redis.call('hmget',resourceKey,'resource','blob')
+    if values[2] then
+        return redis.call('hget',values[2],'value')
+    end
+    return values[1]
+end
+
+local result = {}
+for i,entry in ipairs(entries) do
+    if entry[2] then
+        table.insert(result, entry)
+    else
+        local res = storedValue(entry[3])
+        if(res) then
+            table.insert(result, {entry[1], res})
+        end
+    end
+end
+
 local resEncoded = cjson.encode(result)
 
 if (resEncoded=='{}') then
     return "notFound"
 end
 
-return resEncoded
\ No newline at end of file
+return {validator, resEncoded}
@@ -0,0 +1,69 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the recursive deletion of collections detaching them immediately and removing their keys in the background.
+ */
+@RunWith(VertxUnitRunner.class)
+public class AsyncDeleteIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.asyncRecursiveDelete(true).asyncDeleteBatchSize(10);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testDeleteRecursive(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < 50; i++) {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/deleted/sub" + (i % 5) + "/res" + i);
+        }
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/kept/res");
+
+        given().param("recursive", "true").delete("/server/resources/deleted").then().assertThat().statusCode(200);
+        get("/server/resources/deleted/").then().assertThat().statusCode(404);
+        get("/server/resources/deleted/sub1/res1").then().assertThat().statusCode(404);
+        get("/server/resources/").then().assertThat().statusCode(200).body("resources", contains("kept/"));
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> jedis.keys("rest-storage:*:server:resources:deleted*").size(), equalTo(0));
+        get("/_deletions").then().assertThat().statusCode(200).body(equalTo("{}"));
+        get("/_metrics").then().assertThat().statusCode(200)
+                .body("deletions.started", equalTo(1))
+                .body("deletions.completed", equalTo(1))
+                .body("deletions.reclaimedKeys", equalTo(56));
+
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/deleted/res").then().assertThat().statusCode(200);
+        async.complete();
+    }
+
+    @Test
+    public void testDeleteResource(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/res");
+
+        given().param("recursive", "true").delete("/server/resources/res").then().assertThat().statusCode(200);
+        get("/server/resources/res").then().assertThat().statusCode(404);
+        get("/_metrics").then().assertThat().body("deletions.started", equalTo(0));
+        async.complete();
+    }
+}
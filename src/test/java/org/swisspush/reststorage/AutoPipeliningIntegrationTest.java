@@ -0,0 +1,157 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(VertxUnitRunner.class)
+public class AutoPipeliningIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final int CONCURRENT_REQUESTS = 50;
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.redisAutoPipelining(true);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/");
+    }
+
+    @Test
+    public void testGet(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/a/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/a/b/res2");
+        String etag = get("/server/resources/a/res1").getHeader("Etag");
+
+        get("/server/resources/a/res1").then().assertThat().statusCode(200).body("foo", equalTo("bar1"));
+        get("/server/resources/a/").then().assertThat().statusCode(200).body("a", contains("b/", "res1"));
+        get("/server/resources/a/?limit=1").then().assertThat().statusCode(200).body("a", contains("b/"));
+        // known collections are read with the get script directly
+        get("/server/resources/a/").then().assertThat().statusCode(200).body("a", contains("b/", "res1"));
+        get("/server/resources/a/b/").then().assertThat().statusCode(200).body("b", contains("res2"));
+        given().param("recursive", "true").delete("/server/resources/a/b");
+        with().body("{ \"foo\": \"bar3\" }").put("/server/resources/a/b");
+        get("/server/resources/a/b").then().assertThat().statusCode(200).body("foo", equalTo("bar3"));
+        get("/server/resources/a/notExisting").then().assertThat().statusCode(404);
+        given().header("if-none-match", etag).get("/server/resources/a/res1").then().assertThat().statusCode(304);
+        async.complete();
+    }
+
+    @Test
+    public void testConcurrentGets(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            with().body("{ \"foo\": \"bar" + i + "\" }").put("/server/resources/concurrent/res" + i);
+        }
+
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(REST_STORAGE_PORT).setMaxPoolSize(CONCURRENT_REQUESTS));
+        AtomicInteger pending = new AtomicInteger(CONCURRENT_REQUESTS + 2);
+        Handler<Void> done = event -> {
+            if (pending.decrementAndGet() == 0) {
+                async.complete();
+            }
+        };
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            String expected = "bar" + i;
+            client.getNow("/server/resources/concurrent/res" + i, response -> response.bodyHandler(body -> {
+                context.assertEquals(200, response.statusCode());
+                context.assertEquals(expected, new JsonObject(body.toString()).getString("foo"));
+                done.handle(null);
+            }));
+        }
+        client.getNow("/server/resources/concurrent/", response -> response.bodyHandler(body -> {
+            context.assertEquals(200, response.statusCode());
+            context.assertEquals(CONCURRENT_REQUESTS, new JsonObject(body.toString()).getJsonArray("concurrent").size());
+            done.handle(null);
+        }));
+        client.getNow("/server/resources/concurrent/notExisting", response -> {
+            context.assertEquals(404, response.statusCode());
+            done.handle(null);
+        });
+    }
+
+    /**
+     * Measures the throughput of GET requests with 1, 64 and 1024 concurrent clients, with and without coalescing the GETs of resources.
+     */
+    @Ignore
+    @Test
+    public void loadTestConcurrentClients(TestContext context) {
+        Async async = context.async();
+        int requests = 50000;
+        int resources = 1000;
+        for (int i = 0; i < resources; i++) {
+            jedis.hset("rest-storage:resources:server:resources:load:res" + i, "resource", "{\"foo\": \"bar" + i + "\"}");
+            jedis.hset("rest-storage:resources:server:resources:load:res" + i, "etag", "etag" + i);
+        }
+
+        int portWithoutPipelining = REST_STORAGE_PORT + 1;
+        ModuleConfiguration modConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-without-pipelining")
+                .port(portWithoutPipelining);
+        vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(modConfig.asJsonObject()), context.asyncAssertSuccess(id -> {
+            // warm up both instances before measuring
+            Future<Void> future = measure(REST_STORAGE_PORT, 64, requests, resources)
+                    .compose(v -> measure(portWithoutPipelining, 64, requests, resources)).map(v -> null);
+            for (int clients : new int[]{1, 64, 1024}) {
+                future = future.compose(v -> measure(REST_STORAGE_PORT, clients, requests, resources).compose(withPipelining ->
+                        measure(portWithoutPipelining, clients, requests, resources).map(withoutPipelining -> {
+                            System.out.println(clients + " clients: " + withPipelining + " requests/s with auto pipelining, "
+                                    + withoutPipelining + " requests/s without");
+                            return null;
+                        })));
+            }
+            future.setHandler(context.asyncAssertSuccess(v -> async.complete()));
+        }));
+    }
+
+    private Future<Long> measure(int port, int clients, int requests, int resources) {
+        Future<Long> future = Future.future();
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(port).setMaxPoolSize(clients));
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        Handler<Void> next = new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                int request = sent.getAndIncrement();
+                if (request >= requests) {
+                    return;
+                }
+                client.getNow("/server/resources/load/res" + (request % resources), response -> response.bodyHandler(body -> {
+                    if (done.incrementAndGet() == requests) {
+                        client.close();
+                        future.complete(requests * 1000L / Math.max(1, System.currentTimeMillis() - start));
+                    } else {
+                        handle(null);
+                    }
+                }));
+            }
+        };
+        for (int i = 0; i < clients; i++) {
+            next.handle(null);
+        }
+        return future;
+    }
+}
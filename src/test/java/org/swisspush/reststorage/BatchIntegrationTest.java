@@ -0,0 +1,104 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(VertxUnitRunner.class)
+public class BatchIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    final String ETAG_HEADER = "Etag";
+    final String POST_BATCH = "/server/resources?batch=true";
+    final int BAD_REQUEST = 400;
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/");
+    }
+
+    @Test
+    public void testBatchWithWrongBody(TestContext context) {
+        Async async = context.async();
+        given().body("{ \"foo\": \"bar1\" }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Expected array field 'items' with the operations of the batch"));
+
+        given().body("{ \"items\": [ {\"method\": \"FOO\", \"path\": \"/server/resources/res1\"} ] }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Unable to parse body of batch POST request"));
+
+        given().body("{ \"items\": [ {\"method\": \"GET\", \"path\": \"/server/resources/res1\"} ] }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Unsupported method 'GET' in batch POST request"));
+
+        given().body("{ \"items\": [ {\"method\": \"PUT\", \"path\": \"/server/resources/res1\"} ] }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Missing body of PUT item '/server/resources/res1' in batch POST request"));
+        async.complete();
+    }
+
+    @Test
+    public void testBatch(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"old\" }").put("/server/resources/a/res0");
+
+        String etag = given().body("{ \"items\": [" +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/a/res1\", \"body\": {\"foo\": \"bar1\"}}," +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/a/b/res2\", \"body\": {\"foo\": \"bar2\"}, \"expireAfter\": 100}," +
+                "{\"method\": \"DELETE\", \"path\": \"/server/resources/a/res0\"}," +
+                "{\"method\": \"DELETE\", \"path\": \"/server/resources/a/notExisting\"}," +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/a\", \"body\": {\"foo\": \"collection\"}}" +
+                "] }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(200)
+                .body("items.size()", equalTo(5))
+                .body("items[0].path", equalTo("/server/resources/a/res1"))
+                .body("items[0].status", equalTo(200))
+                .body("items[0].etag", not(isEmptyOrNullString()))
+                .body("items[1].status", equalTo(200))
+                .body("items[2].status", equalTo(200))
+                .body("items[2].etag", nullValue())
+                .body("items[3].status", equalTo(404))
+                .body("items[4].status", equalTo(405))
+                .extract().path("items[0].etag");
+
+        get("/server/resources/a/res1").then().assertThat()
+                .statusCode(200)
+                .body("foo", equalTo("bar1"))
+                .header(ETAG_HEADER, equalTo(etag));
+        get("/server/resources/a/b/res2").then().assertThat().statusCode(200).body("foo", equalTo("bar2"));
+        get("/server/resources/a/res0").then().assertThat().statusCode(404);
+        get("/server/resources/a").then().assertThat().statusCode(200).body("a", contains("b/", "res1"));
+        async.complete();
+    }
+
+    @Test
+    public void testBatchAtomic(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/a/res1");
+
+        given().body("{ \"atomic\": true, \"items\": [" +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/a/res2\", \"body\": {\"foo\": \"bar2\"}}," +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/a/res1/res3\", \"body\": {\"foo\": \"bar3\"}}" +
+                "] }")
+                .when().post(POST_BATCH)
+                .then().assertThat().statusCode(200)
+                .body("items[0].status", equalTo(424))
+                .body("items[1].status", equalTo(405));
+
+        get("/server/resources/a/res2").then().assertThat().statusCode(404);
+        async.complete();
+    }
+}
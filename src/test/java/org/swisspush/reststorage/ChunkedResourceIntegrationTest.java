@@ -0,0 +1,214 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the storage of large resources in chunks.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ChunkedResourceIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final String RESOURCE_KEY = "rest-storage:resources:server:resources:chunked:res";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.resourceChunkSize(CHUNK_SIZE);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testLargeResource(TestContext context) {
+        Async async = context.async();
+        String content = "{ \"foo\": \"" + StringUtils.repeat("x", 10000) + "\" }";
+        with().body(content).put("/server/resources/chunked/res").then().assertThat().statusCode(200);
+
+        context.assertEquals("10", jedis.hget(RESOURCE_KEY, "chunks"));
+        context.assertEquals(1, jedis.keys("rest-storage:chunks:*").size());
+        // the provisional ttl of the chunks is removed with the write of the resource
+        context.assertEquals(-1L, jedis.pttl(jedis.hget(RESOURCE_KEY, "chunkkey")));
+        get("/server/resources/chunked/res").then().assertThat().statusCode(200).body(equalTo(content));
+        String etag = get("/server/resources/chunked/res").getHeader("Etag");
+        given().header("if-none-match", etag).get("/server/resources/chunked/res").then().assertThat().statusCode(304);
+
+        // small again
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/chunked/res");
+        context.assertFalse(jedis.hexists(RESOURCE_KEY, "chunks"));
+        context.assertEquals(0, jedis.keys("rest-storage:chunks:*").size());
+        get("/server/resources/chunked/res").then().assertThat().statusCode(200).body("foo", equalTo("bar"));
+
+        with().body(content).put("/server/resources/chunked/res");
+        delete("/server/resources/chunked/res").then().assertThat().statusCode(200);
+        context.assertEquals(0, jedis.keys("rest-storage:chunks:*").size());
+        async.complete();
+    }
+
+    @Test
+    public void testLargeCompressedResource(TestContext context) {
+        Async async = context.async();
+        String content = "{ \"foo\": \"" + RandomStringUtils.randomAlphanumeric(20000) + "\" }";
+        given().header("x-stored-compressed", "true").body(content).put("/server/resources/chunked/res");
+
+        context.assertEquals("1", jedis.hget(RESOURCE_KEY, "compressed"));
+        context.assertTrue(jedis.hexists(RESOURCE_KEY, "chunks"));
+        get("/server/resources/chunked/res").then().assertThat().statusCode(200).body(equalTo(content));
+        async.complete();
+    }
+
+    @Test
+    public void testRejectedWriteRemovesChunks(TestContext context) {
+        Async async = context.async();
+        String content = "{ \"foo\": \"" + StringUtils.repeat("x", 10000) + "\" }";
+        with().body(content).put("/server/resources/chunked/res/sub").then().assertThat().statusCode(200);
+
+        // a resource cannot be written in place of a collection
+        with().body(content).put("/server/resources/chunked/res").then().assertThat().statusCode(405);
+        context.assertEquals(1, jedis.keys("rest-storage:chunks:*").size());
+        async.complete();
+    }
+
+    @Test
+    public void testBatch(TestContext context) {
+        Async async = context.async();
+        String value = StringUtils.repeat("x", 10000);
+        JsonObject batch = new JsonObject().put("items", new JsonArray()
+                .add(new JsonObject().put("method", "PUT").put("path", "/server/resources/chunked/res").put("body", new JsonObject().put("foo", value)))
+                .add(new JsonObject().put("method", "PUT").put("path", "/server/resources/chunked/res/sub").put("body", new JsonObject().put("foo", value))));
+        with().body(batch.encode()).post("/server/resources?batch=true")
+                .then().assertThat()
+                .statusCode(200)
+                .body("items.status", contains(200, 405));
+
+        context.assertEquals("10", jedis.hget(RESOURCE_KEY, "chunks"));
+        // the chunks of the rejected item are removed
+        await().atMost(1, TimeUnit.SECONDS).until(() -> jedis.keys("rest-storage:chunks:*").size(), equalTo(1));
+        get("/server/resources/chunked/res").then().assertThat().statusCode(200).body("foo", equalTo(value));
+        async.complete();
+    }
+
+    @Test
+    public void testMultiGet(TestContext context) {
+        Async async = context.async();
+        String content = "{ \"foo\": \"" + StringUtils.repeat("x", 10000) + "\" }";
+        with().body(content).put("/server/resources/chunked/res");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/chunked/small");
+
+        given().body("{ \"resources\": [{\"path\": \"/server/resources/chunked/res\"}, {\"path\": \"/server/resources/chunked/small\"}] }")
+                .when().post("/server/resources?multiGet=true")
+                .then().assertThat().statusCode(200)
+                .body("resources[0].status", equalTo(200))
+                .body("resources[0].body.foo", equalTo(StringUtils.repeat("x", 10000)))
+                .body("resources[1].status", equalTo(200))
+                .body("resources[1].body.foo", equalTo("bar"));
+        async.complete();
+    }
+
+    /**
+     * Measures the latency of GET requests of small resources while large resources are written and read concurrently,
+     * with and without storing the large resources in chunks.
+     */
+    @Ignore
+    @Test(timeout = 600000)
+    public void benchmarkMixedTraffic(TestContext context) {
+        Async async = context.async();
+        int portWithChunks = REST_STORAGE_PORT + 1;
+        int portWithoutChunks = REST_STORAGE_PORT + 2;
+        ModuleConfiguration withChunksConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-with-chunks")
+                .resourceChunkSize(64 * 1024)
+                .port(portWithChunks);
+        ModuleConfiguration withoutChunksConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-without-chunks")
+                .port(portWithoutChunks);
+        Buffer large = Buffer.buffer("{ \"foo\": \"" + RandomStringUtils.randomAlphanumeric(4 * 1024 * 1024) + "\" }");
+        for (int i = 0; i < 100; i++) {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/small/res" + i);
+        }
+        vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(withChunksConfig.asJsonObject()), context.asyncAssertSuccess(id1 ->
+                vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(withoutChunksConfig.asJsonObject()), context.asyncAssertSuccess(id2 ->
+                        measure(portWithChunks, large, 500)
+                                .compose(withChunks -> measure(portWithoutChunks, large, 500).map(withoutChunks -> {
+                                    System.out.println("small GET latency with chunks: " + withChunks);
+                                    System.out.println("small GET latency without chunks: " + withoutChunks);
+                                    return (Void) null;
+                                }))
+                                .setHandler(context.asyncAssertSuccess(v -> async.complete()))))));
+    }
+
+    private Future<String> measure(int port, Buffer large, int requests) {
+        Future<String> future = Future.future();
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(port).setMaxPoolSize(8));
+        AtomicBoolean running = new AtomicBoolean(true);
+        // concurrent writes and reads of the large resources
+        for (int i = 0; i < 4; i++) {
+            String path = "/server/resources/large/res" + i;
+            Handler<Void> largeTraffic = new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    if (!running.get()) {
+                        return;
+                    }
+                    client.put(path, put -> put.bodyHandler(b -> client.getNow(path, get -> get.bodyHandler(body -> handle(null))))).end(large);
+                }
+            };
+            largeTraffic.handle(null);
+        }
+        List<Long> latencies = new ArrayList<>(requests);
+        Handler<Void> next = new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                if (latencies.size() == requests) {
+                    running.set(false);
+                    client.close();
+                    Collections.sort(latencies);
+                    long sum = latencies.stream().mapToLong(Long::longValue).sum();
+                    future.complete(String.format("avg %.2fms, p99 %.2fms, max %.2fms", sum / 1e6 / requests,
+                            latencies.get(requests * 99 / 100) / 1e6, latencies.get(requests - 1) / 1e6));
+                    return;
+                }
+                long start = System.nanoTime();
+                client.getNow("/server/resources/small/res" + (latencies.size() % 100), response -> response.bodyHandler(body -> {
+                    latencies.add(System.nanoTime() - start);
+                    handle(null);
+                }));
+            }
+        };
+        next.handle(null);
+        return future;
+    }
+}
@@ -42,6 +42,25 @@ public class CleanupIntegrationTest extends RedisStorageIntegrationTestCase {
         async.complete();
     }
 
+    @Test
+    public void testCleanupUsesBulkLane(TestContext testContext) {
+        Async async = testContext.async();
+        generateResourcesAndWaitUntilExpired(10);
+        validateCleanupResults(10,0);
+        given()
+                .get("/_metrics")
+                .then()
+                .assertThat()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("redisPool.interactive.connections", equalTo(4))
+                .body("redisPool.interactive.commands", greaterThanOrEqualTo(11))
+                .body("redisPool.bulk.connections", equalTo(1))
+                .body("redisPool.bulk.commands", greaterThanOrEqualTo(3))
+                .body("redisPool.bulk.inFlight", equalTo(0));
+        async.complete();
+    }
+
     private void generateResourcesAndWaitUntilExpired(int amountOfResources){
         for (int i = 1; i <= amountOfResources; i++) {
             given().
@@ -0,0 +1,136 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests the listing of the members of collections changed since a version.
+ */
+@RunWith(VertxUnitRunner.class)
+public class CollectionDeltaIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.deltaHistorySize(5);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    private String version(String path) {
+        return given().param("since", "0").get(path).then().assertThat().statusCode(200).extract().path("cursor");
+    }
+
+    @Test
+    public void testChangesSince(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res1");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res2");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/sub/res");
+
+        String version = given().param("since", "0").get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", everyItem(equalTo("added")))
+                .body("changes.name", containsInAnyOrder("res1", "res2", "sub/"))
+                .body("changes.find { it.name == 'res1' }.etag", notNullValue())
+                .body("changes.find { it.name == 'sub/' }.etag", nullValue())
+                .extract().path("cursor");
+
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/synced/res1");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res3");
+        delete("/server/resources/synced/res2");
+        // changes below the members are not changes of the collection
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/sub/other");
+
+        String etag = get("/server/resources/synced/res1").getHeader("Etag");
+        String next = given().param("since", version).get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("updated", "added", "removed"))
+                .body("changes.name", contains("res1", "res3", "res2"))
+                .body("changes[0].etag", equalTo(etag))
+                .body("changes[2].etag", nullValue())
+                .extract().path("cursor");
+
+        given().param("since", next).get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes", empty());
+        async.complete();
+    }
+
+    @Test
+    public void testRemovedCollectionAndExpiredMember(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res");
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/synced/expiring");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/sub/res");
+        String version = version("/server/resources/synced");
+
+        given().param("recursive", "true").delete("/server/resources/synced/sub");
+        await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/synced/expiring").statusCode(), equalTo(404));
+
+        given().param("since", version).get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("removed", "removed"))
+                .body("changes.name", contains("sub/", "expiring"));
+
+        // removed from the collection by the cleanup
+        post("/server/_cleanup").then().assertThat().statusCode(200);
+        given().param("since", version).get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("removed", "removed"))
+                .body("changes.name", contains("sub/", "expiring"));
+        async.complete();
+    }
+
+    @Test
+    public void testBoundedHistory(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res");
+        String version = version("/server/resources/synced");
+
+        for (int i = 0; i < 5; i++) {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res" + i);
+        }
+        given().param("since", version).get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.name", contains("res0", "res1", "res2", "res3", "res4"));
+
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res5");
+        given().param("since", version).get("/server/resources/synced").then().assertThat().statusCode(410);
+        given().param("since", "0").get("/server/resources/synced")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes", hasSize(7));
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidRequests(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/synced/res");
+        given().param("since", "abc").get("/server/resources/synced").then().assertThat().statusCode(400);
+        given().param("since", "0").get("/server/resources/synced/res").then().assertThat().statusCode(400);
+        given().param("since", "0").get("/server/resources/missing").then().assertThat().statusCode(404);
+        async.complete();
+    }
+}
@@ -0,0 +1,50 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the removal of expired collection members by reads and by the background pass.
+ */
+@RunWith(VertxUnitRunner.class)
+public class CollectionPruneIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String COLLECTION_KEY = "rest-storage:collections:server:resources:pruning";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.collectionPruneLimit(2).collectionPruneIntervalMs(100);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testExpiredMembersArePruned(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < 10; i++) {
+            given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/pruning/res" + i);
+        }
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/pruning/live");
+        context.assertEquals(11L, jedis.zcard(COLLECTION_KEY));
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> jedis.zcard(COLLECTION_KEY), equalTo(1L));
+        get("/server/resources/pruning/").then().assertThat().statusCode(200).body("pruning", contains("live"));
+        async.complete();
+    }
+}
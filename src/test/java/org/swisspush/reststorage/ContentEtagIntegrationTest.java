@@ -0,0 +1,100 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the etags derived from the content and the elision of unchanged writes.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ContentEtagIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String RESOURCE_KEY = "rest-storage:resources:server:resources:etags:res";
+    private static final String CONTENT = "{ \"foo\": \"bar\" }";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.contentEtags(true);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testUnchangedPutIsElided(TestContext context) {
+        Async async = context.async();
+        with().body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        context.assertEquals(DigestUtils.md5Hex(CONTENT), jedis.hget(RESOURCE_KEY, "etag"));
+
+        with().body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        get("/_metrics").then().assertThat()
+                .body("writeElision.writes", equalTo(1))
+                .body("writeElision.bytes", equalTo(CONTENT.length()));
+
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        get("/server/resources/etags/res").then().assertThat()
+                .statusCode(200)
+                .body("foo", equalTo("bar2"))
+                .header("Etag", equalTo(DigestUtils.md5Hex("{ \"foo\": \"bar2\" }")));
+        get("/_metrics").then().assertThat().body("writeElision.writes", equalTo(1));
+        async.complete();
+    }
+
+    @Test
+    public void testProvidedEtagIsKept(TestContext context) {
+        Async async = context.async();
+        given().header("if-none-match", "etag1").body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        context.assertEquals("etag1", jedis.hget(RESOURCE_KEY, "etag"));
+
+        given().header("if-none-match", "etag1").body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(304);
+        get("/_metrics").then().assertThat().body("writeElision.writes", equalTo(0));
+        async.complete();
+    }
+
+    @Test
+    public void testExpiringResourceBecomesPermanent(TestContext context) {
+        Async async = context.async();
+        given().header("x-expire-after", "100").body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        assertExpirableSetCount(context, 1L);
+
+        with().body(CONTENT).put("/server/resources/etags/res").then().assertThat().statusCode(200);
+        assertExpirableSetCount(context, 0L);
+        get("/_metrics").then().assertThat().body("writeElision.writes", equalTo(0));
+        async.complete();
+    }
+
+    @Test
+    public void testUnchangedBatchItemIsElided(TestContext context) {
+        Async async = context.async();
+        String batch = "{ \"items\": [{\"method\": \"PUT\", \"path\": \"/server/resources/etags/res\", \"body\": {\"foo\": \"bar\"}}] }";
+        given().body(batch).when().post("/server/resources?batch=true").then().assertThat()
+                .statusCode(200)
+                .body("items[0].status", equalTo(200));
+        given().body(batch).when().post("/server/resources?batch=true").then().assertThat()
+                .statusCode(200)
+                .body("items[0].status", equalTo(200));
+
+        get("/_metrics").then().assertThat().body("writeElision.writes", equalTo(1));
+
+        // an expiring resource becomes permanent
+        given().header("x-expire-after", "100").body("{\"foo\":\"bar\"}").put("/server/resources/etags/res");
+        context.assertEquals(jedis.hget(RESOURCE_KEY, "etag"), DigestUtils.md5Hex("{\"foo\":\"bar\"}"));
+        assertExpirableSetCount(context, 1L);
+        given().body(batch).when().post("/server/resources?batch=true").then().assertThat().body("items[0].status", equalTo(200));
+        assertExpirableSetCount(context, 0L);
+        get("/_metrics").then().assertThat().body("writeElision.writes", equalTo(1));
+        async.complete();
+    }
+}
@@ -50,6 +50,18 @@ public class CrudIntegrationTest extends RedisStorageIntegrationTestCase {
         async.complete();
     }
 
+    @Test
+    public void testResourcesNamedLikeEndpoints(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"metrics\" }").put("res_metrics");
+        with().body("{ \"foo\": \"deletions\" }").put("res_deletions");
+        with().body("{ \"foo\": \"deduplication\" }").put("res_deduplication");
+        when().get("res_metrics").then().assertThat().body("foo", equalTo("metrics"));
+        when().get("res_deletions").then().assertThat().body("foo", equalTo("deletions"));
+        when().get("res_deduplication").then().assertThat().body("foo", equalTo("deduplication"));
+        async.complete();
+    }
+
     @Test
     public void testList(TestContext context) {
         Async async = context.async();
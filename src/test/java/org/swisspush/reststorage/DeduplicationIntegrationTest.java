@@ -0,0 +1,88 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the storage of identical values once for several resources.
+ */
+@RunWith(VertxUnitRunner.class)
+public class DeduplicationIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String CONTENT = "{ \"foo\": \"" + StringUtils.repeat("x", 200) + "\" }";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.resourceDedupThreshold(100);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testIdenticalValuesAreStoredOnce(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < 3; i++) {
+            with().body(CONTENT).put("/server/resources/dedup/res" + i).then().assertThat().statusCode(200);
+        }
+        with().body("{ \"foo\": \"small\" }").put("/server/resources/dedup/small");
+        given().header("x-expire-after", "100").body(CONTENT).put("/server/resources/dedup/expiring");
+
+        // besides the stats key
+        context.assertEquals(1, jedis.keys("rest-storage:blobs:*").size() - 1);
+        for (int i = 0; i < 3; i++) {
+            get("/server/resources/dedup/res" + i).then().assertThat().statusCode(200).body(equalTo(CONTENT));
+        }
+        get("/server/resources/dedup/expiring").then().assertThat().statusCode(200).body(equalTo(CONTENT));
+        get("/_deduplication").then().assertThat()
+                .statusCode(200)
+                .body("blobs", equalTo(1))
+                .body("references", equalTo(3))
+                .body("bytes", equalTo(CONTENT.length()))
+                .body("savedBytes", equalTo(2 * CONTENT.length()))
+                .body("ratio", equalTo(3.0f));
+
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/dedup/res0");
+        delete("/server/resources/dedup/res1").then().assertThat().statusCode(200);
+        get("/_deduplication").then().assertThat().body("references", equalTo(1));
+
+        given().param("recursive", "true").delete("/server/resources/dedup").then().assertThat().statusCode(200);
+        get("/_deduplication").then().assertThat()
+                .body("blobs", equalTo(0))
+                .body("savedBytes", equalTo(0));
+        context.assertEquals(0, jedis.keys("rest-storage:blobs:*").size() - 1);
+        async.complete();
+    }
+
+    @Test
+    public void testCompressedValues(TestContext context) {
+        Async async = context.async();
+        // the compressed value has to exceed the threshold
+        String random = RandomStringUtils.randomAlphanumeric(300);
+        String content = "{ \"foo\": \"" + random + "\" }";
+        given().header("x-stored-compressed", "true").body(content).put("/server/resources/dedup/res1");
+        given().header("x-stored-compressed", "true").body(content).put("/server/resources/dedup/res2");
+
+        get("/server/resources/dedup/res2").then().assertThat().statusCode(200).body(equalTo(content));
+        given().body("{ \"resources\": [{\"path\": \"/server/resources/dedup/res1\"}] }")
+                .when().post("/server/resources?multiGet=true")
+                .then().assertThat().statusCode(200)
+                .body("resources[0].status", equalTo(200))
+                .body("resources[0].body.foo", equalTo(random));
+        get("/_deduplication").then().assertThat().body("references", equalTo(2));
+        async.complete();
+    }
+}
@@ -0,0 +1,120 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(VertxUnitRunner.class)
+public class ExpandIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    final String ETAG_HEADER = "Etag";
+    final String IF_NONE_MATCH_HEADER = "if-none-match";
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/");
+    }
+
+    @Test
+    public void testExpandInvalidDepth(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+
+        when().get("/server/resources?expand=abc").then().assertThat().statusCode(400);
+        when().get("/server/resources?expand=0").then().assertThat().statusCode(400);
+        when().get("/server/resources?expand").then().assertThat().statusCode(400);
+        when().get("/server/resources?expand=1&offset=0&limit=10").then().assertThat().statusCode(400);
+        when().get("/server/resources?expand=1&limit=10").then().assertThat().statusCode(400);
+
+        async.complete();
+    }
+
+    @Test
+    public void testExpandResource(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+        String etag = get("/server/resources/res1").getHeader(ETAG_HEADER);
+
+        when().get("/server/resources/res1?expand=2").then().assertThat()
+                .statusCode(200)
+                .header(ETAG_HEADER, etag)
+                .body("foo", equalTo("bar1"));
+        given().header("if-none-match", etag).when().get("/server/resources/res1?expand=2").then().assertThat().statusCode(304);
+        async.complete();
+    }
+
+    @Test
+    public void testExpandNotFound(TestContext context) {
+        Async async = context.async();
+        when().get("/server/resources/notExisting?expand=1").then().assertThat().statusCode(404);
+        async.complete();
+    }
+
+    @Test
+    public void testExpandDepthOne(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/sub/res2");
+        with().body("{ \"foo\": \"bar3\" }").put("/server/resources/sub/subsub/res3");
+
+        when().get("/server/resources?expand=1").then().assertThat()
+                .statusCode(200)
+                .body("res1.foo", equalTo("bar1"))
+                .body("sub", hasItems("subsub/", "res2"))
+                .header(ETAG_HEADER, not(isEmptyOrNullString()));
+
+        async.complete();
+    }
+
+    @Test
+    public void testExpandDepthTwo(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/sub/res2");
+        with().body("{ \"foo\": \"bar3\" }").put("/server/resources/sub/subsub/res3");
+
+        when().get("/server/resources?expand=2").then().assertThat()
+                .statusCode(200)
+                .body("res1.foo", equalTo("bar1"))
+                .body("sub.res2.foo", equalTo("bar2"))
+                .body("sub.subsub", hasItems("res3"));
+
+        when().get("/server/resources?expand=3").then().assertThat()
+                .statusCode(200)
+                .body("sub.subsub.res3.foo", equalTo("bar3"));
+
+        async.complete();
+    }
+
+    @Test
+    public void testExpandNotModified(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/sub/res2");
+
+        String etag = get("/server/resources?expand=2").getHeader(ETAG_HEADER);
+
+        given().header(IF_NONE_MATCH_HEADER, etag)
+                .when().get("/server/resources?expand=2")
+                .then().assertThat().statusCode(304);
+
+        with().body("{ \"foo\": \"bar2_changed\" }").put("/server/resources/sub/res2");
+
+        given().header(IF_NONE_MATCH_HEADER, etag)
+                .when().get("/server/resources?expand=2")
+                .then().assertThat()
+                .statusCode(200)
+                .body("sub.res2.foo", equalTo("bar2_changed"))
+                .header(ETAG_HEADER, not(equalTo(etag)));
+
+        async.complete();
+    }
+}
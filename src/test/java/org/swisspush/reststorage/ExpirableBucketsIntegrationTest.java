@@ -0,0 +1,79 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the storage using an expirable set divided into buckets by time windows. The storage is started having entries
+ * in the undivided expirable set, which have to be migrated into the buckets of their windows.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ExpirableBucketsIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final long WINDOW = 1000;
+    private static final String EXPIRABLE_SET = "rest-storage:expirable";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.expirableBucketWindowMs(WINDOW);
+        // written before the buckets have been configured, expiring in different windows
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            jedis.zadd(EXPIRABLE_SET, now + 60000 + i * WINDOW, "rest-storage:resources:server:resources:legacy:res" + i);
+        }
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testMigrationOfUndividedSet(TestContext context) {
+        Async async = context.async();
+        await().atMost(3, TimeUnit.SECONDS).until(() -> jedis.zcard(EXPIRABLE_SET), equalTo(0L));
+        context.assertEquals(10L, jedis.zcard(EXPIRABLE_SET + ":windows"));
+        context.assertEquals(10L, bucketEntries());
+        async.complete();
+    }
+
+    @Test
+    public void testExpirationAndCleanup(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < 20; i++) {
+            given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/expiring/res" + i);
+        }
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/expiring/permanent");
+        await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/expiring/res19").statusCode(), equalTo(404));
+        get("/server/resources/expiring/permanent").then().assertThat().statusCode(200);
+
+        post("/server/_cleanup").then().assertThat()
+                .statusCode(200)
+                .body("cleanedResources", equalTo(20))
+                .body("expiredResourcesLeft", equalTo(0));
+        get("/server/resources/expiring/").then().assertThat().statusCode(200);
+        // the buckets of the cleaned windows have been removed from the index
+        await().atMost(3, TimeUnit.SECONDS).until(() -> bucketEntries(), equalTo(10L));
+        async.complete();
+    }
+
+    private long bucketEntries() {
+        long entries = 0;
+        for (String bucket : jedis.zrange(EXPIRABLE_SET + ":windows", 0, -1)) {
+            entries += jedis.zcard(bucket);
+        }
+        return entries;
+    }
+}
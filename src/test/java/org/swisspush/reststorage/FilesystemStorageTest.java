@@ -9,6 +9,7 @@ import io.vertx.core.file.AsyncFile;
 import io.vertx.core.file.CopyOptions;
 import io.vertx.core.file.FileSystem;
 import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.unit.Async;
@@ -18,8 +19,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.swisspush.reststorage.mocks.*;
 import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.StatusCode;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -42,6 +45,18 @@ public class FilesystemStorageTest {
         storage.getCurrentMemoryUsage();
     }
 
+    @Test
+    public void testBatchAndMultiGetAreInvalid(TestContext testContext){
+        FileSystemStorage storage = new FileSystemStorage(mock(Vertx.class), "/root");
+        BatchItem item = new BatchItem();
+        item.method = HttpMethod.DELETE;
+        item.path = "/some/resource";
+        storage.writeBatch(Collections.singletonList(item), false,
+                items -> testContext.assertEquals(StatusCode.BAD_REQUEST, items.get(0).status));
+        storage.multiGet(Collections.singletonList("/some/resource"), Collections.singletonList(null),
+                resources -> testContext.assertTrue(resources.get(0).invalid));
+    }
+
     @Test
     public void removesFilesWhenPutGotInterrupted(TestContext testContext) {
 
@@ -0,0 +1,225 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests the merge of json resources in the storage.
+ */
+@RunWith(VertxUnitRunner.class)
+public class MergeIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String RESOURCE_KEY = "rest-storage:resources:server:resources:merge:res";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.resourceChunkSize(1024);
+        modConfig.resourceDedupThreshold(100);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testMergeOnAbsentResource(TestContext context) {
+        Async async = context.async();
+        given().param("merge", "true").body("{ \"foo\": \"bar\" }").put("/server/resources/merge/res").then().assertThat().statusCode(200);
+        get("/server/resources/merge/res").then().assertThat().statusCode(200).body("foo", equalTo("bar"));
+        async.complete();
+    }
+
+    @Test
+    public void testMergeRemovesNullFields(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\", \"hello\": \"world\" }").put("/server/resources/merge/res");
+        given().param("merge", "true").body("{ \"foo\": null, \"other\": 1 }").put("/server/resources/merge/res").then().assertThat().statusCode(200);
+        get("/server/resources/merge/res").then().assertThat()
+                .statusCode(200)
+                .body("foo", nullValue())
+                .body("hello", equalTo("world"))
+                .body("other", equalTo(1));
+        async.complete();
+    }
+
+    @Test
+    public void testMergeOnChunkedResource(TestContext context) {
+        Async async = context.async();
+        String large = StringUtils.repeat("x", 10000);
+        with().body("{ \"foo\": \"" + large + "\" }").put("/server/resources/merge/res");
+        given().param("merge", "true").body("{ \"other\": \"bar\" }").put("/server/resources/merge/res").then().assertThat().statusCode(200);
+
+        // the merged value is large as well
+        context.assertTrue(jedis.hexists(RESOURCE_KEY, "chunks"));
+        get("/server/resources/merge/res").then().assertThat()
+                .statusCode(200)
+                .body("foo", equalTo(large))
+                .body("other", equalTo("bar"));
+        async.complete();
+    }
+
+    @Test
+    public void testMergeOnCompressedResource(TestContext context) {
+        Async async = context.async();
+        given().header("x-stored-compressed", "true").body("{ \"foo\": \"bar\" }").put("/server/resources/merge/res");
+        given().param("merge", "true").body("{ \"other\": \"bar\" }").put("/server/resources/merge/res").then().assertThat().statusCode(200);
+
+        context.assertFalse(jedis.hexists(RESOURCE_KEY, "compressed"));
+        get("/server/resources/merge/res").then().assertThat()
+                .statusCode(200)
+                .body("foo", equalTo("bar"))
+                .body("other", equalTo("bar"));
+        async.complete();
+    }
+
+    @Test
+    public void testMergeOnDeduplicatedResource(TestContext context) {
+        Async async = context.async();
+        String value = StringUtils.repeat("x", 200);
+        with().body("{ \"foo\": \"" + value + "\" }").put("/server/resources/merge/res");
+        with().body("{ \"foo\": \"" + value + "\" }").put("/server/resources/merge/other");
+        given().param("merge", "true").body("{ \"other\": \"bar\" }").put("/server/resources/merge/res").then().assertThat().statusCode(200);
+
+        get("/server/resources/merge/res").then().assertThat()
+                .statusCode(200)
+                .body("foo", equalTo(value))
+                .body("other", equalTo("bar"));
+        get("/server/resources/merge/other").then().assertThat().statusCode(200).body("other", nullValue());
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidMerge(TestContext context) {
+        Async async = context.async();
+        with().body("[1, 2]").put("/server/resources/merge/res");
+        given().param("merge", "true").body("{ \"other\": \"bar\" }").put("/server/resources/merge/res").then().assertThat().statusCode(500);
+        async.complete();
+    }
+
+    @Test
+    public void testConcurrentMerges(TestContext context) {
+        int merges = 8;
+        Async async = context.async(merges);
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(REST_STORAGE_PORT).setMaxPoolSize(merges));
+        for (int i = 0; i < merges; i++) {
+            client.put("/server/resources/merge/res?merge=true", response -> {
+                context.assertEquals(200, response.statusCode());
+                async.countDown();
+            }).end("{ \"field" + i + "\": " + i + " }");
+        }
+        async.awaitSuccess();
+        client.close();
+
+        for (int i = 0; i < merges; i++) {
+            get("/server/resources/merge/res").then().assertThat().body("field" + i, equalTo(i));
+        }
+        get("/_metrics").then().assertThat().body("merge.merges", equalTo(merges));
+    }
+
+    /**
+     * Measures the throughput of merges of 10KB and 1MB documents and the CPU time redis spends on them, compared to
+     * merging the documents with cjson in a script.
+     */
+    @Ignore
+    @Test(timeout = 600000)
+    public void benchmarkMerge(TestContext context) {
+        Async async = context.async();
+        // without chunks and deduplication
+        int port = REST_STORAGE_PORT + 1;
+        ModuleConfiguration config = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-benchmark")
+                .port(port);
+        vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(config.asJsonObject()), context.asyncAssertSuccess(id ->
+                measure(port, 10 * 1024, 1000)
+                        .compose(small -> measure(port, 1024 * 1024, 50).map(large -> {
+                            System.out.println("merge of 10KB documents: " + small + ", cjson script: " + measureScript(10 * 1024, 1000));
+                            System.out.println("merge of 1MB documents: " + large + ", cjson script: " + measureScript(1024 * 1024, 50));
+                            return (Void) null;
+                        }))
+                        .setHandler(context.asyncAssertSuccess(v -> async.complete()))));
+    }
+
+    private static final String MERGE_SCRIPT = "local value = cjson.decode(redis.call('hget', KEYS[1], 'resource'))\n" +
+            "for k, v in pairs(cjson.decode(ARGV[1])) do value[k] = v end\n" +
+            "redis.call('hset', KEYS[1], 'resource', cjson.encode(value))\n" +
+            "return 'OK'";
+
+    private Future<String> measure(int port, int size, int merges) {
+        Future<String> future = Future.future();
+        String path = "/server/resources/benchmark/res" + size;
+        with().body(document(size)).put(path);
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(port));
+        double cpu = redisCpu();
+        long start = System.nanoTime();
+        Handler<Integer> next = new Handler<Integer>() {
+            @Override
+            public void handle(Integer count) {
+                if (count == merges) {
+                    client.close();
+                    future.complete(result(merges, start, cpu));
+                    return;
+                }
+                client.put(path + "?merge=true", response -> response.bodyHandler(body -> handle(count + 1)))
+                        .end(Buffer.buffer("{ \"counter\": " + count + " }"));
+            }
+        };
+        next.handle(0);
+        return future;
+    }
+
+    private String measureScript(int size, int merges) {
+        String key = "benchmark:script" + size;
+        jedis.hset(key, "resource", document(size));
+        double cpu = redisCpu();
+        long start = System.nanoTime();
+        for (int i = 0; i < merges; i++) {
+            jedis.eval(MERGE_SCRIPT, Collections.singletonList(key), Collections.singletonList("{ \"counter\": " + i + " }"));
+        }
+        return result(merges, start, cpu);
+    }
+
+    private String result(int merges, long start, double cpu) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%.1f merges/s, redis cpu %.2fms/merge", merges / seconds, (redisCpu() - cpu) * 1000 / merges);
+    }
+
+    private String document(int size) {
+        return "{ \"foo\": \"" + RandomStringUtils.randomAlphanumeric(size) + "\" }";
+    }
+
+    private double redisCpu() {
+        double cpu = 0;
+        for (String line : jedis.info("cpu").split("\r\n")) {
+            for (String field : Arrays.asList("used_cpu_sys:", "used_cpu_user:")) {
+                if (line.startsWith(field)) {
+                    cpu += Double.parseDouble(line.substring(field.length()));
+                }
+            }
+        }
+        return cpu;
+    }
+}
@@ -0,0 +1,108 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(VertxUnitRunner.class)
+public class MultiGetIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    final String ETAG_HEADER = "Etag";
+    final String POST_MULTI_GET = "/server/resources?multiGet=true";
+    final int BAD_REQUEST = 400;
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/");
+    }
+
+    @Test
+    public void testMultiGetWithWrongBody(TestContext context) {
+        Async async = context.async();
+        given().body("{ \"foo\": \"bar1\" }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Expected array field 'resources' with paths of resources"));
+
+        given().body("{ \"resources\": 123 }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Expected array field 'resources' with paths of resources"));
+
+        given().body("123")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Unable to parse body of multiGet POST request"));
+
+        given().body("{ \"resources\": [ 123 ] }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Unable to parse body of multiGet POST request"));
+
+        given().body("{ \"resources\": [ {\"path\": \"res1\"} ] }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(BAD_REQUEST)
+                .body(equalTo("Bad Request: Invalid path 'res1' in multiGet POST request"));
+        async.complete();
+    }
+
+    @Test
+    public void testMultiGet(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/a/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/b/c/res2");
+        with().body("not json").put("/server/resources/b/res3");
+        with().body("123").put("/server/resources/b/res4");
+        String etag1 = get("/server/resources/a/res1").getHeader(ETAG_HEADER);
+        String etag2 = get("/server/resources/b/c/res2").getHeader(ETAG_HEADER);
+
+        given().body("{ \"resources\": [" +
+                "{\"path\": \"/server/resources/b/c/res2\"}," +
+                "{\"path\": \"/server/resources/a/res1\", \"etag\": \"" + etag1 + "\"}," +
+                "{\"path\": \"/server/resources/a/notExisting\"}," +
+                "{\"path\": \"/server/resources/b\"}," +
+                "{\"path\": \"/server/resources/b/res3\"}," +
+                "{\"path\": \"/server/resources/b/res4\"}" +
+                "] }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(200)
+                .body("resources.size()", equalTo(6))
+                .body("resources[0].path", equalTo("/server/resources/b/c/res2"))
+                .body("resources[0].status", equalTo(200))
+                .body("resources[0].etag", equalTo(etag2))
+                .body("resources[0].body.foo", equalTo("bar2"))
+                .body("resources[1].path", equalTo("/server/resources/a/res1"))
+                .body("resources[1].status", equalTo(304))
+                .body("resources[1].etag", equalTo(etag1))
+                .body("resources[1].body", nullValue())
+                .body("resources[2].status", equalTo(404))
+                .body("resources[3].status", equalTo(400))
+                .body("resources[4].status", equalTo(200))
+                .body("resources[4].bodyBase64", equalTo("bm90IGpzb24="))
+                .body("resources[5].status", equalTo(200))
+                .body("resources[5].bodyBase64", equalTo("MTIz"));
+        async.complete();
+    }
+
+    @Test
+    public void testMultiGetCompressedResource(TestContext context) {
+        Async async = context.async();
+        given().header("x-stored-compressed", "true")
+                .body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+
+        given().body("{ \"resources\": [{\"path\": \"/server/resources/res1\"}] }")
+                .when().post(POST_MULTI_GET)
+                .then().assertThat().statusCode(200)
+                .body("resources[0].status", equalTo(200))
+                .body("resources[0].body.foo", equalTo("bar1"));
+        async.complete();
+    }
+}
@@ -0,0 +1,144 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the deployment of multiple {@link RestStorageMod} instances sharing the same port.
+ */
+@RunWith(VertxUnitRunner.class)
+public class MultiInstanceIntegrationTest {
+
+    private static final int PORT = 8989;
+    private static final String ADDRESS = "rest-storage";
+
+    private Vertx vertx;
+    private Jedis jedis;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        jedis = JedisFactory.createJedis();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        jedis.flushAll();
+        jedis.close();
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void testMultipleInstances(TestContext context) {
+        Async async = context.async();
+        deploy(4, context, deploymentId -> {
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(PORT).setMaxPoolSize(8));
+            AtomicInteger pending = new AtomicInteger(20);
+            for (int i = 0; i < 20; i++) {
+                String path = "/server/tests/multi/res" + i;
+                client.put(path, putResponse -> {
+                    context.assertEquals(200, putResponse.statusCode());
+                    client.getNow(path, getResponse -> getResponse.bodyHandler(body -> {
+                        context.assertEquals(200, getResponse.statusCode());
+                        context.assertEquals(path, new JsonObject(body.toString()).getString("path"));
+                        if (pending.decrementAndGet() == 0) {
+                            async.complete();
+                        }
+                    }));
+                }).end(new JsonObject().put("path", path).encode());
+            }
+        });
+    }
+
+    @Test
+    public void testMultipleInstancesEventBus(TestContext context) {
+        Async async = context.async();
+        deploy(4, context, deploymentId -> {
+            JsonObject header = new JsonObject().put("method", "GET").put("uri", "/server/tests/multi/notExisting");
+            Buffer request = Buffer.buffer().appendInt(header.encode().length()).appendString(header.encode());
+            vertx.eventBus().<Buffer>send(ADDRESS, request, reply -> {
+                context.assertTrue(reply.succeeded());
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * Measures the throughput (GET requests per second) of 1 instance compared to one instance per event loop, after a
+     * first run warming up the JIT.
+     */
+    @Ignore
+    @Test
+    public void benchmarkThroughputOfMultipleInstances(TestContext context) {
+        Async async = context.async();
+        int instances = Math.max(2, Runtime.getRuntime().availableProcessors());
+        measureThroughput(1, context, warmup -> {
+            measureThroughput(1, context, single -> {
+                measureThroughput(instances, context, multi -> {
+                    System.out.println("1 instance: " + single + " requests/s");
+                    System.out.println(instances + " instances: " + multi + " requests/s");
+                    async.complete();
+                });
+            });
+        });
+    }
+
+    private void measureThroughput(int instances, TestContext context, Handler<Long> resultHandler) {
+        int requests = 100000;
+        int concurrency = 256;
+        jedis.flushAll();
+        deploy(instances, context, deploymentId -> {
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(PORT).setMaxPoolSize(concurrency));
+            client.put("/server/tests/multi/res", response -> {
+                AtomicInteger sent = new AtomicInteger();
+                AtomicInteger done = new AtomicInteger();
+                long start = System.currentTimeMillis();
+                Handler<Void> next = new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        if (sent.incrementAndGet() > requests) {
+                            return;
+                        }
+                        client.getNow("/server/tests/multi/res", getResponse -> getResponse.bodyHandler(body -> {
+                            if (done.incrementAndGet() == requests) {
+                                long duration = Math.max(1, System.currentTimeMillis() - start);
+                                client.close();
+                                vertx.undeploy(deploymentId, undeployed -> resultHandler.handle(requests * 1000L / duration));
+                            } else {
+                                handle(null);
+                            }
+                        }));
+                    }
+                };
+                for (int i = 0; i < concurrency; i++) {
+                    next.handle(null);
+                }
+            }).end("{\"content\": \"benchmark\"}");
+        });
+    }
+
+    private void deploy(int instances, TestContext context, Handler<String> deployedHandler) {
+        ModuleConfiguration modConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress(ADDRESS);
+        DeploymentOptions options = new DeploymentOptions().setConfig(modConfig.asJsonObject()).setInstances(instances);
+        vertx.deployVerticle(RestStorageMod.class.getName(), options, context.asyncAssertSuccess(deployedHandler));
+    }
+}
@@ -0,0 +1,66 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the storage using native redis ttls for expiring resources. The expired resources are removed by redis, the
+ * parent collections are pruned by the subscriber of the expired keys.
+ */
+@RunWith(VertxUnitRunner.class)
+public class NativeExpirationIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.nativeExpiration(true);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testExpiredResourcesAreRemovedByRedis(TestContext context) {
+        Async async = context.async();
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/expiring/sub/res1");
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/expiring/res2");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/permanent/res3");
+
+        context.assertTrue(jedis.pttl("rest-storage:resources:server:resources:expiring:res2") > 0);
+        context.assertEquals(-1L, jedis.pttl("rest-storage:resources:server:resources:permanent:res3"));
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> jedis.exists("rest-storage:collections:server:resources:expiring"), equalTo(false));
+        context.assertFalse(jedis.exists("rest-storage:resources:server:resources:expiring:res2"));
+        context.assertFalse(jedis.exists("rest-storage:collections:server:resources:expiring:sub"));
+        context.assertEquals(0L, jedis.zcard("rest-storage:expirable"));
+
+        get("/server/resources/expiring/").then().assertThat().statusCode(404);
+        get("/server/resources/").then().assertThat().statusCode(200).body("resources", contains("permanent/"));
+        async.complete();
+    }
+
+    @Test
+    public void testPermanentAgain(TestContext context) {
+        Async async = context.async();
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/expiring/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/expiring/res1");
+
+        context.assertEquals(-1L, jedis.pttl("rest-storage:resources:server:resources:expiring:res1"));
+        context.assertEquals(0L, jedis.zcard("rest-storage:expirable"));
+        async.complete();
+    }
+}
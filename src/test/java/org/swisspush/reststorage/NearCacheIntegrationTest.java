@@ -0,0 +1,99 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the near cache of the resources read and its invalidation.
+ */
+@RunWith(VertxUnitRunner.class)
+public class NearCacheIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String RESOURCE_KEY = "rest-storage:resources:server:resources:cached:res";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.nearCacheSize(100);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testCachedGet(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/cached/res");
+        get("/server/resources/cached/res").then().assertThat().statusCode(200).body("foo", equalTo("bar"));
+        String etag = get("/server/resources/cached/res").getHeader("Etag");
+        given().header("if-none-match", etag).get("/server/resources/cached/res").then().assertThat().statusCode(304);
+
+        // changed behind the back of the storage
+        jedis.hset(RESOURCE_KEY, "resource", "{ \"foo\": \"changed\" }");
+        get("/server/resources/cached/res").then().assertThat().body("foo", equalTo("bar"));
+
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/cached/res");
+        get("/server/resources/cached/res").then().assertThat().body("foo", equalTo("bar2"));
+        get("/_metrics").then().assertThat()
+                .body("nearCache.entries", equalTo(1))
+                .body("nearCache.hits", equalTo(3))
+                .body("nearCache.misses", equalTo(2));
+
+        delete("/server/resources/cached/res");
+        get("/server/resources/cached/res").then().assertThat().statusCode(404);
+        async.complete();
+    }
+
+    @Test
+    public void testExpiringResource(TestContext context) {
+        Async async = context.async();
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/cached/res");
+        get("/server/resources/cached/res").then().assertThat().statusCode(200);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/cached/res").statusCode(), equalTo(404));
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidationByOtherStorage(TestContext context) {
+        Async async = context.async();
+        int otherPort = REST_STORAGE_PORT + 1;
+        ModuleConfiguration otherConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-other")
+                .confirmCollectionDelete(true)
+                .publishInvalidations(true)
+                .port(otherPort);
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/cached/res");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/cached/sub/res");
+        get("/server/resources/cached/res").then().assertThat().body("foo", equalTo("bar"));
+        get("/server/resources/cached/sub/res").then().assertThat().body("foo", equalTo("bar"));
+
+        vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(otherConfig.asJsonObject()), context.asyncAssertSuccess(id -> {
+            vertx.executeBlocking(future -> {
+                given().port(otherPort).body("{ \"foo\": \"bar2\" }").put("/server/resources/cached/res");
+                await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/cached/res").path("foo"), equalTo("bar2"));
+
+                given().port(otherPort).param("recursive", "true").delete("/server/resources/cached/sub");
+                await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/cached/sub/res").statusCode(), equalTo(404));
+
+                // including the ones of the writes of this storage
+                get("/_metrics").then().assertThat().body("nearCache.invalidations", equalTo(4));
+                future.complete();
+            }, context.asyncAssertSuccess(v -> async.complete()));
+        }));
+    }
+}
@@ -0,0 +1,101 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+    private static final long PERMANENT = Long.MAX_VALUE;
+
+    @Test
+    public void testGetAndExpiration() {
+        NearCache cache = new NearCache(10, 1000);
+        cache.put(":a", cache.stamp(), new byte[10], "etag1", PERMANENT);
+        cache.put(":b", cache.stamp(), new byte[10], "etag2", 100);
+
+        Assert.assertEquals("etag1", cache.get(":a", 0).etag);
+        Assert.assertEquals("etag2", cache.get(":b", 99).etag);
+        Assert.assertNull(cache.get(":b", 100));
+
+        JsonObject metrics = cache.getMetrics();
+        Assert.assertEquals(1, (int) metrics.getInteger("entries"));
+        Assert.assertEquals(2L, (long) metrics.getLong("hits"));
+        Assert.assertEquals(1L, (long) metrics.getLong("misses"));
+    }
+
+    @Test
+    public void testEvictionBySizeAndBytes() {
+        NearCache cache = new NearCache(2, 100);
+        cache.put(":a", cache.stamp(), new byte[10], "a", PERMANENT);
+        cache.put(":b", cache.stamp(), new byte[10], "b", PERMANENT);
+        cache.get(":a", 0);
+        cache.put(":c", cache.stamp(), new byte[10], "c", PERMANENT);
+
+        // the least recently used entry is evicted
+        Assert.assertNotNull(cache.get(":a", 0));
+        Assert.assertNull(cache.get(":b", 0));
+
+        cache.put(":d", cache.stamp(), new byte[95], "d", PERMANENT);
+        Assert.assertNotNull(cache.get(":d", 0));
+        Assert.assertNull(cache.get(":a", 0));
+        Assert.assertNull(cache.get(":c", 0));
+        Assert.assertEquals(95L, (long) cache.getMetrics().getLong("bytes"));
+        Assert.assertEquals(3L, (long) cache.getMetrics().getLong("evictions"));
+
+        // larger than the cache
+        cache.put(":e", cache.stamp(), new byte[101], "e", PERMANENT);
+        Assert.assertNull(cache.get(":e", 0));
+    }
+
+    @Test
+    public void testInvalidation() {
+        NearCache cache = new NearCache(10, 1000);
+        cache.put(":a:b", cache.stamp(), new byte[1], "1", PERMANENT);
+        cache.put(":a:b:c", cache.stamp(), new byte[1], "2", PERMANENT);
+        cache.put(":a:bc", cache.stamp(), new byte[1], "3", PERMANENT);
+
+        cache.invalidated("1000 :a:b", 1250);
+
+        Assert.assertNull(cache.get(":a:b", 0));
+        Assert.assertNull(cache.get(":a:b:c", 0));
+        Assert.assertNotNull(cache.get(":a:bc", 0));
+        JsonObject metrics = cache.getMetrics();
+        Assert.assertEquals(1L, (long) metrics.getLong("invalidations"));
+        Assert.assertEquals(250L, (long) metrics.getLong("invalidationLagMaxMs"));
+    }
+
+    @Test
+    public void testValueReadBeforeInvalidationIsNotCached() {
+        NearCache cache = new NearCache(10, 1000);
+        long stamp = cache.stamp();
+        cache.invalidate(":a");
+        cache.put(":a", stamp, new byte[1], "outdated", PERMANENT);
+
+        Assert.assertNull(cache.get(":a", 0));
+    }
+
+    @Test
+    public void testInvalidationOfOtherKeysDoesNotPreventCaching() {
+        NearCache cache = new NearCache(10, 1000);
+        long stamp = cache.stamp();
+        cache.invalidate(":a:b");
+        cache.invalidate(":a:bc");
+        cache.put(":a:c", stamp, new byte[1], "current", PERMANENT);
+        cache.put(":a:b:c", stamp, new byte[1], "outdated", PERMANENT);
+
+        Assert.assertNotNull(cache.get(":a:c", 0));
+        // below an invalidated collection
+        Assert.assertNull(cache.get(":a:b:c", 0));
+    }
+
+    @Test
+    public void testValueReadBeforeClearIsNotCached() {
+        NearCache cache = new NearCache(10, 1000);
+        long stamp = cache.stamp();
+        cache.clear();
+        cache.put(":a", stamp, new byte[1], "outdated", PERMANENT);
+
+        Assert.assertNull(cache.get(":a", 0));
+    }
+}
@@ -0,0 +1,80 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Tests the negative cache of the paths not found and its invalidation.
+ */
+@RunWith(VertxUnitRunner.class)
+public class NegativeCacheIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.negativeCacheSize(100);
+        modConfig.negativeCacheTtlMs(60_000L);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testNotFoundCached(TestContext context) {
+        Async async = context.async();
+        get("/server/resources/negative/res").then().assertThat().statusCode(404);
+        get("/server/resources/negative/res").then().assertThat().statusCode(404);
+        get("/_metrics").then().assertThat()
+                .body("negativeCache.entries", equalTo(1))
+                .body("negativeCache.hits", equalTo(1))
+                .body("negativeCache.misses", equalTo(1));
+
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/negative/res");
+        get("/server/resources/negative/res").then().assertThat().statusCode(200).body("foo", equalTo("bar"));
+        async.complete();
+    }
+
+    @Test
+    public void testWriteBelowCachedPath(TestContext context) {
+        Async async = context.async();
+        get("/server/resources/negative/collection").then().assertThat().statusCode(404);
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/negative/collection/sub/res");
+        get("/server/resources/negative/collection/").then().assertThat().statusCode(200);
+        get("/_metrics").then().assertThat().body("negativeCache.invalidations", equalTo(1));
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidationByOtherStorage(TestContext context) {
+        Async async = context.async();
+        int otherPort = REST_STORAGE_PORT + 1;
+        ModuleConfiguration otherConfig = new ModuleConfiguration()
+                .storageType(ModuleConfiguration.StorageType.redis)
+                .storageAddress("rest-storage-other")
+                .publishInvalidations(true)
+                .port(otherPort);
+        get("/server/resources/negative/res").then().assertThat().statusCode(404);
+
+        vertx.deployVerticle(new RestStorageMod(), new DeploymentOptions().setConfig(otherConfig.asJsonObject()), context.asyncAssertSuccess(id -> {
+            vertx.executeBlocking(future -> {
+                given().port(otherPort).body("{ \"foo\": \"bar\" }").put("/server/resources/negative/res");
+                await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/negative/res").statusCode(), equalTo(200));
+                future.complete();
+            }, context.asyncAssertSuccess(v -> async.complete()));
+        }));
+    }
+}
@@ -0,0 +1,57 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NegativeCacheTest {
+
+    @Test
+    public void testContainsAndExpiration() {
+        NegativeCache cache = new NegativeCache(10, 100);
+        cache.put(":a", 0);
+
+        Assert.assertTrue(cache.contains(":a", 99));
+        Assert.assertFalse(cache.contains(":b", 99));
+        Assert.assertFalse(cache.contains(":a", 100));
+
+        JsonObject metrics = cache.getMetrics();
+        Assert.assertEquals(0, (int) metrics.getInteger("entries"));
+        Assert.assertEquals(1L, (long) metrics.getLong("hits"));
+        Assert.assertEquals(2L, (long) metrics.getLong("misses"));
+    }
+
+    @Test
+    public void testEviction() {
+        NegativeCache cache = new NegativeCache(2, 100);
+        cache.put(":a", 0);
+        cache.put(":b", 10);
+        cache.put(":c", 20);
+
+        // the oldest entry is evicted
+        Assert.assertFalse(cache.contains(":a", 30));
+        Assert.assertTrue(cache.contains(":b", 30));
+        Assert.assertEquals(1L, (long) cache.getMetrics().getLong("evictions"));
+
+        // expired entries are dropped
+        cache.put(":d", 115);
+        Assert.assertEquals(2, (int) cache.getMetrics().getInteger("entries"));
+    }
+
+    @Test
+    public void testInvalidationOfAncestors() {
+        NegativeCache cache = new NegativeCache(10, 100);
+        cache.put(":a", 0);
+        cache.put(":a:b", 0);
+        cache.put(":a:b:c", 0);
+        cache.put(":a:bc", 0);
+
+        cache.invalidate(":a:b");
+
+        Assert.assertFalse(cache.contains(":a", 0));
+        Assert.assertFalse(cache.contains(":a:b", 0));
+        Assert.assertTrue(cache.contains(":a:b:c", 0));
+        Assert.assertTrue(cache.contains(":a:bc", 0));
+        Assert.assertEquals(2L, (long) cache.getMetrics().getLong("invalidations"));
+    }
+}
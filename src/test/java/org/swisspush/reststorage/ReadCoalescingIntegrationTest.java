@@ -0,0 +1,87 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jayway.restassured.RestAssured.*;
+
+/**
+ * Tests the coalescing of concurrent reads of the same path.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ReadCoalescingIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final int REQUESTS = 10;
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    @Test
+    public void testConcurrentReadsOfResource(TestContext context) {
+        Async async = context.async();
+        String content = "{ \"foo\": \"" + RandomStringUtils.randomAlphanumeric(20000) + "\" }";
+        given().header("x-stored-compressed", "true").body(content).put("/server/resources/coalesced/res");
+
+        vertx.runOnContext(v -> {
+            RedisStorage storage = new RedisStorage(vertx, new ModuleConfiguration().storageType(ModuleConfiguration.StorageType.redis));
+            AtomicInteger completed = new AtomicInteger();
+            for (int i = 0; i < REQUESTS; i++) {
+                storage.get("/server/resources/coalesced/res", null, 0, -1, resource -> {
+                    DocumentResource document = (DocumentResource) resource;
+                    Buffer body = Buffer.buffer();
+                    document.readStream.endHandler(end -> {
+                        context.assertEquals(content, body.toString());
+                        if (completed.incrementAndGet() == REQUESTS) {
+                            JsonObject metrics = storage.getMetrics().getJsonObject("readCoalescing");
+                            context.assertEquals(1L, metrics.getLong("reads"));
+                            context.assertEquals((long) REQUESTS - 1, metrics.getLong("coalesced"));
+                            async.complete();
+                        }
+                    });
+                    document.readStream.handler(buffer -> body.appendBuffer((Buffer) buffer));
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentReadsOfCollectionAndMissingResource(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/coalesced/res1");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/coalesced/res2");
+
+        vertx.runOnContext(v -> {
+            RedisStorage storage = new RedisStorage(vertx, new ModuleConfiguration().storageType(ModuleConfiguration.StorageType.redis));
+            AtomicInteger completed = new AtomicInteger();
+            Runnable completedRead = () -> {
+                if (completed.incrementAndGet() == 2 * REQUESTS) {
+                    context.assertEquals(2L, storage.getMetrics().getJsonObject("readCoalescing").getLong("reads"));
+                    async.complete();
+                }
+            };
+            for (int i = 0; i < REQUESTS; i++) {
+                storage.get("/server/resources/coalesced", null, 0, -1, resource -> {
+                    context.assertEquals(2, ((CollectionResource) resource).items.size());
+                    completedRead.run();
+                });
+                storage.get("/server/resources/coalesced/missing", null, 0, -1, resource -> {
+                    context.assertFalse(resource.exists);
+                    completedRead.run();
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.Collections;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests the reads having a not reachable read replica configured. All reads have to be answered by the master.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ReadReplicaIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    private static final String READ_CONSISTENCY_HEADER = "x-read-consistency";
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.redisReadReplicas(Collections.singletonList("localhost:6399"));
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/");
+    }
+
+    @Test
+    public void testReadsWithoutAvailableReplica(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/a/res1");
+
+        get("/server/resources/a/res1").then().assertThat().statusCode(200).body("foo", equalTo("bar1"));
+        given().header(READ_CONSISTENCY_HEADER, "eventual").get("/server/resources/a/res1")
+                .then().assertThat().statusCode(200).body("foo", equalTo("bar1"));
+        given().header(READ_CONSISTENCY_HEADER, "strong").get("/server/resources/a/")
+                .then().assertThat().statusCode(200).body("a", contains("res1"));
+        given().header(READ_CONSISTENCY_HEADER, "strong").get("/server/resources/a/?expand=1")
+                .then().assertThat().statusCode(200).body("res1.foo", equalTo("bar1"));
+        given().header(READ_CONSISTENCY_HEADER, "strong")
+                .body("{ \"resources\": [{\"path\": \"/server/resources/a/res1\"}] }")
+                .post("/server/resources?multiGet=true")
+                .then().assertThat().statusCode(200).body("resources[0].body.foo", equalTo("bar1"));
+
+        get("/_metrics").then().assertThat()
+                .statusCode(200)
+                .body("redisPool.read.connections", equalTo(1))
+                .body("redisPool.read.healthyConnections", equalTo(0))
+                .body("redisPool.read.commands", equalTo(0));
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidReadConsistency(TestContext context) {
+        Async async = context.async();
+        given().header(READ_CONSISTENCY_HEADER, "sometimes").get("/server/resources/a/res1")
+                .then().assertThat().statusCode(400).body(equalTo("Invalid x-read-consistency header: sometimes"));
+        async.complete();
+    }
+}
@@ -0,0 +1,209 @@
+package org.swisspush.reststorage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.RedisClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.RedisConnectionPool.Lane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link RedisConnectionPool} class
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisConnectionPoolTest {
+
+    private RedisClient interactive1;
+    private RedisClient interactive2;
+    private RedisClient bulk;
+    private List<Handler<AsyncResult<JsonArray>>> pendingHandlers;
+    private RedisConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pendingHandlers = new ArrayList<>();
+        interactive1 = mockClient();
+        interactive2 = mockClient();
+        bulk = mockClient();
+        pool = new RedisConnectionPool(Arrays.asList(interactive1, interactive2), Collections.singletonList(bulk));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisClient mockClient() {
+        RedisClient client = mock(RedisClient.class);
+        when(client.evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any(Handler.class))).thenAnswer(invocation -> {
+            pendingHandlers.add((Handler<AsyncResult<JsonArray>>) invocation.getArguments()[3]);
+            return client;
+        });
+        return client;
+    }
+
+    @Test
+    public void testCommandsUseLeastBusyConnectionOfLane(TestContext testContext) {
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+        pool.evalsha(Lane.BULK, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        verify(interactive2, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        verify(bulk, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+
+        // complete the command of the second connection, so it is the least busy one
+        pendingHandlers.get(1).handle(Future.succeededFuture(new JsonArray()));
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+        verify(interactive2, times(2)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+    }
+
+    @Test
+    public void testMetrics(TestContext testContext) {
+        List<AsyncResult<JsonArray>> results = new ArrayList<>();
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), results::add);
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), results::add);
+        pool.evalsha(Lane.INTERACTIVE, "sha", Collections.emptyList(), Collections.emptyList(), results::add);
+        pool.evalsha(Lane.BULK, "sha", Collections.emptyList(), Collections.emptyList(), results::add);
+
+        JsonObject interactiveMetrics = pool.getMetrics().getJsonObject("interactive");
+        testContext.assertEquals(2, interactiveMetrics.getInteger("connections"));
+        testContext.assertEquals(3L, interactiveMetrics.getLong("inFlight"));
+        testContext.assertEquals(0L, interactiveMetrics.getLong("commands"));
+
+        pendingHandlers.get(0).handle(Future.succeededFuture(new JsonArray()));
+        pendingHandlers.get(1).handle(Future.failedFuture("Booom"));
+
+        interactiveMetrics = pool.getMetrics().getJsonObject("interactive");
+        testContext.assertEquals(1L, interactiveMetrics.getLong("inFlight"));
+        testContext.assertEquals(2L, interactiveMetrics.getLong("commands"));
+        testContext.assertEquals(1L, interactiveMetrics.getLong("failures"));
+        testContext.assertTrue(interactiveMetrics.getDouble("latencyMaxMs") >= interactiveMetrics.getDouble("latencyAvgMs"));
+
+        JsonObject bulkMetrics = pool.getMetrics().getJsonObject("bulk");
+        testContext.assertEquals(1, bulkMetrics.getInteger("connections"));
+        testContext.assertEquals(1L, bulkMetrics.getLong("inFlight"));
+        testContext.assertEquals(0L, bulkMetrics.getLong("commands"));
+
+        testContext.assertEquals(2, results.size());
+        testContext.assertTrue(results.get(0).succeeded());
+        testContext.assertTrue(results.get(1).failed());
+    }
+
+    @Test
+    public void testReadLaneWithoutReplicasUsesInteractiveLane(TestContext testContext) {
+        pool.evalsha(Lane.READ, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        testContext.assertEquals(0, pool.getMetrics().getJsonObject("read").getInteger("connections"));
+    }
+
+    @Test
+    public void testReadReplicaUsedWhenInSync(TestContext testContext) {
+        RedisClient replica = mockClient();
+        mockReplicationInfo(bulk, new JsonObject().put("master_repl_offset", "1000"));
+        mockReplicationInfo(replica, new JsonObject().put("master_link_status", "up").put("slave_repl_offset", "900"));
+        pool = new RedisConnectionPool(Collections.singletonList(interactive1), Collections.singletonList(bulk),
+                Collections.singletonList(replica), 100);
+        List<RedisClient> initialized = new ArrayList<>();
+        pool.setReadReplicaInitializer(client -> {
+            initialized.add(client);
+            return Future.succeededFuture();
+        });
+
+        // not used before the first check
+        pool.evalsha(Lane.READ, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+
+        pool.checkReadReplicas();
+        testContext.assertEquals(Collections.singletonList(replica), initialized);
+        testContext.assertEquals(1, pool.getMetrics().getJsonObject("read").getInteger("healthyConnections"));
+
+        pool.evalsha(Lane.READ, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+        verify(replica, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+
+        // initialized once only
+        pool.checkReadReplicas();
+        testContext.assertEquals(1, initialized.size());
+    }
+
+    @Test
+    public void testReadReplicaNotUsedWhenLagging(TestContext testContext) {
+        RedisClient replica = mockClient();
+        mockReplicationInfo(bulk, new JsonObject().put("master_repl_offset", "1000"));
+        mockReplicationInfo(replica, new JsonObject().put("master_link_status", "up").put("slave_repl_offset", "800"));
+        pool = new RedisConnectionPool(Collections.singletonList(interactive1), Collections.singletonList(bulk),
+                Collections.singletonList(replica), 100);
+
+        pool.checkReadReplicas();
+        pool.evalsha(Lane.READ, "sha", Collections.emptyList(), Collections.emptyList(), result -> {});
+
+        verify(replica, never()).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        testContext.assertEquals(0, pool.getMetrics().getJsonObject("read").getInteger("healthyConnections"));
+    }
+
+    @Test
+    public void testReadReplicaNotUsedWhenLinkDown(TestContext testContext) {
+        RedisClient replica = mockClient();
+        mockReplicationInfo(bulk, new JsonObject().put("master_repl_offset", "1000"));
+        mockReplicationInfo(replica, new JsonObject().put("master_link_status", "down").put("slave_repl_offset", "1000"));
+        pool = new RedisConnectionPool(Collections.singletonList(interactive1), Collections.singletonList(bulk),
+                Collections.singletonList(replica), 100);
+
+        pool.checkReadReplicas();
+
+        testContext.assertEquals(0, pool.getMetrics().getJsonObject("read").getInteger("healthyConnections"));
+    }
+
+    @Test
+    public void testReadFallsBackToMasterOnReplicaFailure(TestContext testContext) {
+        RedisClient replica = mockClient();
+        mockReplicationInfo(bulk, new JsonObject().put("master_repl_offset", "1000"));
+        mockReplicationInfo(replica, new JsonObject().put("master_link_status", "up").put("slave_repl_offset", "1000"));
+        pool = new RedisConnectionPool(Collections.singletonList(interactive1), Collections.singletonList(bulk),
+                Collections.singletonList(replica), 100);
+        pool.checkReadReplicas();
+
+        List<AsyncResult<JsonArray>> results = new ArrayList<>();
+        pool.evalsha(Lane.READ, "sha", Collections.emptyList(), Collections.emptyList(), results::add);
+        pendingHandlers.get(0).handle(Future.failedFuture("NOSCRIPT No matching script"));
+
+        verify(interactive1, times(1)).evalsha(anyString(), anyListOf(String.class), anyListOf(String.class), any());
+        testContext.assertTrue(results.isEmpty());
+        pendingHandlers.get(1).handle(Future.succeededFuture(new JsonArray().add("TYPE_RESOURCE")));
+        testContext.assertEquals(1, results.size());
+        testContext.assertTrue(results.get(0).succeeded());
+
+        JsonObject readMetrics = pool.getMetrics().getJsonObject("read");
+        testContext.assertEquals(1L, readMetrics.getLong("fallbacks"));
+        testContext.assertEquals(0, readMetrics.getInteger("healthyConnections"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockReplicationInfo(RedisClient client, JsonObject replication) {
+        when(client.infoSection(eq("replication"), any(Handler.class))).thenAnswer(invocation -> {
+            ((Handler<AsyncResult<JsonObject>>) invocation.getArguments()[1]).handle(Future.succeededFuture(new JsonObject().put("replication", replication)));
+            return client;
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLaneWithoutConnections() {
+        new RedisConnectionPool(Collections.singletonList(interactive1), Collections.emptyList());
+    }
+}
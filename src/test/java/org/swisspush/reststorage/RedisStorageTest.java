@@ -7,6 +7,8 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.SharedData;
 import io.vertx.redis.RedisClient;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,7 +35,11 @@ public class RedisStorageTest {
     @Before
     public void setUp(TestContext context) {
         redisClient = Mockito.mock(RedisClient.class);
-        storage = new RedisStorage(mock(Vertx.class), new ModuleConfiguration(), redisClient);
+        Vertx vertx = mock(Vertx.class);
+        SharedData sharedData = mock(SharedData.class);
+        when(vertx.sharedData()).thenReturn(sharedData);
+        when(sharedData.getLocalMap(any())).thenReturn(mock(LocalMap.class));
+        storage = new RedisStorage(vertx, new ModuleConfiguration(), redisClient);
     }
 
 
@@ -163,6 +163,50 @@ public class RestStorageHandlerTest {
                 eq(50));
     }
 
+    @Test
+    public void testRejectBatchRequestWhenMemoryUsageHigherThanImportanceLevel(TestContext testContext) {
+        ModuleConfiguration config = new ModuleConfiguration().prefix("/").rejectStorageWriteOnLowMemory(true);
+        restStorageHandler = new RestStorageHandler(vertx, log, storage, config);
+
+        // ARRANGE
+        when(request.method()).thenReturn(HttpMethod.POST);
+        when(request.uri()).thenReturn("/some/resource?batch=true");
+        when(request.query()).thenReturn("batch=true");
+        when(request.params()).thenReturn(MultiMap.caseInsensitiveMultiMap().add("batch", "true"));
+        when(request.headers()).thenReturn(new CaseInsensitiveHeaders().add(HttpRequestHeader.IMPORTANCE_LEVEL_HEADER.getName(), "50"));
+        when(storage.getCurrentMemoryUsage()).thenReturn(Optional.of(75f));
+
+        // ACT
+        restStorageHandler.handle(request);
+
+        // ASSERT
+        verify(response, times(1)).setStatusCode(eq(StatusCode.INSUFFICIENT_STORAGE.getStatusCode()));
+        verify(response, times(1)).end(eq(StatusCode.INSUFFICIENT_STORAGE.getStatusMessage()));
+        verify(storage, never()).writeBatch(any(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testWatchersAreLimitedOverAllInstances(TestContext testContext) {
+        ModuleConfiguration config = new ModuleConfiguration().prefix("/").changeFeedMaxWatchers(1);
+        RestStorageHandler firstInstance = new RestStorageHandler(vertx, log, storage, config);
+        RestStorageHandler secondInstance = new RestStorageHandler(vertx, log, storage, config);
+
+        // ARRANGE
+        when(request.method()).thenReturn(HttpMethod.GET);
+        when(request.uri()).thenReturn("/some/resource/?watch=true");
+        when(request.path()).thenReturn("/some/resource/");
+        when(request.query()).thenReturn("watch=true");
+        when(request.params()).thenReturn(MultiMap.caseInsensitiveMultiMap().add("watch", "true"));
+
+        // ACT
+        firstInstance.handle(request);
+        secondInstance.handle(request);
+
+        // ASSERT
+        verify(storage, times(1)).watch(eq("/some/resource"), any(), anyLong(), any());
+        verify(response, times(1)).setStatusCode(eq(StatusCode.SERVICE_UNAVAILABLE.getStatusCode()));
+    }
+
     @Test
     public void notifiesResourceAboutExceptionsOnRequest(TestContext testContext) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
 
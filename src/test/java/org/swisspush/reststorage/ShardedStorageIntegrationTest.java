@@ -0,0 +1,153 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests the sharded storage using two shards stored on the same redis instance. The resources are partitioned by the
+ * path segment following <code>/server/resources/</code>. Resources of <code>tenantD</code> are stored on the first,
+ * resources of <code>tenantC</code> on the second shard.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ShardedStorageIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.redisShards(Arrays.asList("localhost:6379", "localhost:6379")).redisShardPathLevel(2);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+        delete("/?recursive=true");
+    }
+
+    @Test
+    public void testResourcesArePartitioned(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/tenantD/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/tenantC/a/res2");
+
+        context.assertTrue(jedis.exists("rest-storage:resources:{shard0}:server:resources:tenantD:res1"));
+        context.assertTrue(jedis.exists("rest-storage:resources:{shard1}:server:resources:tenantC:a:res2"));
+        context.assertFalse(jedis.exists("rest-storage:resources:{shard1}:server:resources:tenantD:res1"));
+
+        get("/server/resources/tenantD/res1").then().assertThat().statusCode(200).body("foo", equalTo("bar1"));
+        get("/server/resources/tenantC/a/res2").then().assertThat().statusCode(200).body("foo", equalTo("bar2"));
+        get("/server/resources/tenantC/").then().assertThat().statusCode(200).body("tenantC", contains("a/"));
+        given().body("{ \"resources\": [{\"path\": \"/server/resources/tenantD/res1\"}, {\"path\": \"/server/resources/tenantC/a/res2\"}, {\"path\": \"/server/resources\"}] }")
+                .post("/server/resources?multiGet=true")
+                .then().assertThat().statusCode(200)
+                .body("resources[0].body.foo", equalTo("bar1"))
+                .body("resources[1].body.foo", equalTo("bar2"))
+                .body("resources[2].status", equalTo(400));
+        async.complete();
+    }
+
+    @Test
+    public void testListingAboveShardLevel(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/tenantD/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/tenantC/res2");
+        with().body("{ \"foo\": \"bar3\" }").put("/server/resources/tenantA/res3");
+
+        get("/server/resources/").then().assertThat().statusCode(200).body("resources", contains("tenantA/", "tenantC/", "tenantD/"));
+        get("/server/resources/?offset=1&limit=1").then().assertThat().statusCode(200).body("resources", contains("tenantC/"));
+        get("/server/").then().assertThat().statusCode(200).body("server", contains("resources/"));
+        get("/server/notExisting/").then().assertThat().statusCode(404);
+        get("/server/resources/?expand=1").then().assertThat().statusCode(400);
+        async.complete();
+    }
+
+    @Test
+    public void testWriteAboveShardLevelNotAllowed(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources").then().assertThat().statusCode(405);
+        async.complete();
+    }
+
+    @Test
+    public void testDeleteAboveShardLevel(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/tenantD/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/tenantC/res2");
+
+        delete("/server/resources").then().assertThat().statusCode(400);
+        delete("/server/resources?recursive=true").then().assertThat().statusCode(200);
+        get("/server/resources/tenantD/res1").then().assertThat().statusCode(404);
+        get("/server/resources/tenantC/res2").then().assertThat().statusCode(404);
+        delete("/server/resources?recursive=true").then().assertThat().statusCode(404);
+        async.complete();
+    }
+
+    @Test
+    public void testAtomicBatchSpanningShards(TestContext context) {
+        Async async = context.async();
+        given().body("{ \"atomic\": true, \"items\": [" +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/tenantD/res1\", \"body\": {\"foo\": \"bar1\"}}," +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/tenantC/res2\", \"body\": {\"foo\": \"bar2\"}}" +
+                "] }")
+                .when().post("/server/resources?batch=true")
+                .then().assertThat().statusCode(200)
+                .body("items[0].status", equalTo(400))
+                .body("items[1].status", equalTo(400));
+
+        given().body("{ \"items\": [" +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/tenantD/res1\", \"body\": {\"foo\": \"bar1\"}}," +
+                "{\"method\": \"PUT\", \"path\": \"/server/resources/tenantC/res2\", \"body\": {\"foo\": \"bar2\"}}" +
+                "] }")
+                .when().post("/server/resources?batch=true")
+                .then().assertThat().statusCode(200)
+                .body("items[0].status", equalTo(200))
+                .body("items[1].status", equalTo(200));
+        get("/server/resources/tenantC/res2").then().assertThat().statusCode(200).body("foo", equalTo("bar2"));
+        async.complete();
+    }
+
+    @Test
+    public void testCleanupAllShards(TestContext context) {
+        Async async = context.async();
+        for (int i = 0; i < 5; i++) {
+            given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/tenantD/res" + i);
+            given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/tenantC/res" + i);
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/tenantC/res4").statusCode(), equalTo(404));
+
+        post("/server/_cleanup").then().assertThat()
+                .statusCode(200)
+                .body("cleanedResources", equalTo(10))
+                .body("expiredResourcesLeft", equalTo(0));
+        get("/_metrics").then().assertThat().statusCode(200).body("shards.size()", equalTo(2));
+        async.complete();
+    }
+
+    @Test
+    public void testCleanupWithUnloadedScript(TestContext context) {
+        Async async = context.async();
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/tenantD/res");
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/tenantC/res");
+        await().atMost(3, TimeUnit.SECONDS).until(() -> get("/server/resources/tenantC/res").statusCode(), equalTo(404));
+
+        // a shard not finding the script answers without cleaning and loads the script again, the next shards are
+        // cleaned anyway
+        jedis.scriptFlush();
+        post("/server/_cleanup").then().assertThat()
+                .statusCode(200)
+                .body("cleanedResources", lessThan(2));
+        await().atMost(3, TimeUnit.SECONDS).until(() -> post("/server/_cleanup").then().extract().path("expiredResourcesLeft"), equalTo(0));
+        async.complete();
+    }
+}
@@ -368,6 +368,40 @@ public class StorageExpandIntegrationTest extends RedisStorageIntegrationTestCas
         async.complete();
     }
 
+    @Test
+    public void testEtagChangesWhenSubResourceChanges(TestContext context) {
+        Async async = context.async();
+        delete("/server/resources");
+
+        with().body("{ \"foo\": \"bar1\" }").put("/server/resources/res1");
+        with().body("{ \"foo\": \"bar2\" }").put("/server/resources/res2");
+
+        String etag = given()
+                .body("{ \"subResources\": [\"res1\", \"res2\"] }")
+                .when()
+                .post(POST_STORAGE_EXP).getHeader(ETAG_HEADER);
+
+        given().header(IF_NONE_MATCH_HEADER, etag)
+                .body("{ \"subResources\": [\"res1\", \"res2\"] }")
+                .when()
+                .post(POST_STORAGE_EXP)
+                .then()
+                .assertThat().statusCode(304);
+
+        with().body("{ \"foo\": \"bar2_changed\" }").put("/server/resources/res2");
+
+        Response post = given().header(IF_NONE_MATCH_HEADER, etag)
+                .body("{ \"subResources\": [\"res1\", \"res2\"] }")
+                .when()
+                .post(POST_STORAGE_EXP);
+
+        context.assertEquals(200, post.getStatusCode());
+        context.assertNotEquals(etag, post.getHeader(ETAG_HEADER));
+        context.assertEquals("bar2_changed", post.jsonPath().getString("res2.foo"));
+
+        async.complete();
+    }
+
     @Test
     public void testWithResourcesHavingDoubleQuotesInTheName(TestContext context) {
         Async async = context.async();
@@ -0,0 +1,189 @@
+package org.swisspush.reststorage;
+
+import com.jayway.restassured.RestAssured;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.swisspush.reststorage.util.ModuleConfiguration;
+
+import static com.jayway.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests the watching of the changes of subtrees.
+ */
+@RunWith(VertxUnitRunner.class)
+public class WatchIntegrationTest extends RedisStorageIntegrationTestCase {
+
+    @Override
+    protected void updateModuleConfiguration(ModuleConfiguration modConfig) {
+        modConfig.changeFeed(true);
+        modConfig.changeFeedMaxLength(10);
+        modConfig.changeFeedPollIntervalMs(20);
+        modConfig.changeFeedMaxWatchers(2);
+    }
+
+    @Before
+    public void setPath() {
+        RestAssured.basePath = "/server/resources";
+    }
+
+    private String cursor(String path) {
+        return given().param("watch", "true").param("timeout", "0").get(path)
+                .then().assertThat().statusCode(200).extract().path("cursor");
+    }
+
+    @Test
+    public void testChangesAfterCursor(TestContext context) {
+        Async async = context.async();
+        String cursor = cursor("/server/resources/watched");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/watched/res");
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/other/res");
+        delete("/server/resources/watched/res");
+
+        String next = given().param("watch", "true").param("cursor", cursor).get("/server/resources/watched")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("put", "delete"))
+                .body("changes.path", contains("/server/resources/watched/res", "/server/resources/watched/res"))
+                .body("changes[0].etag", notNullValue())
+                .body("changes[1].etag", nullValue())
+                .extract().path("cursor");
+
+        given().param("watch", "true").param("cursor", next).param("timeout", "0").get("/server/resources/watched")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes", empty())
+                .body("cursor", equalTo(next));
+        async.complete();
+    }
+
+    @Test
+    public void testLongPoll(TestContext context) {
+        Async async = context.async();
+        String cursor = cursor("/server/resources/watched");
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(REST_STORAGE_PORT));
+        client.getNow("/server/resources/watched?watch=true&timeout=10&cursor=" + cursor, response -> response.bodyHandler(body -> {
+            context.assertEquals(200, response.statusCode());
+            JsonArray changes = new JsonObject(body.toString()).getJsonArray("changes");
+            context.assertEquals(1, changes.size());
+            context.assertEquals("/server/resources/watched/res", changes.getJsonObject(0).getString("path"));
+            client.close();
+            async.complete();
+        }));
+        vertx.setTimer(500, timer -> vertx.executeBlocking(future -> {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/other/res");
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/watched/res");
+            future.complete();
+        }, context.asyncAssertSuccess()));
+    }
+
+    @Test
+    public void testTimeout(TestContext context) {
+        Async async = context.async();
+        String cursor = cursor("/server/resources/watched");
+        given().param("watch", "true").param("cursor", cursor).param("timeout", "1").get("/server/resources/watched")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes", empty())
+                .body("cursor", equalTo(cursor));
+        async.complete();
+    }
+
+    @Test
+    public void testDeleteOfCollectionAbove(TestContext context) {
+        Async async = context.async();
+        with().body("{ \"foo\": \"bar\" }").put("/server/resources/watched/sub/res");
+        String cursor = cursor("/server/resources/watched/sub");
+        given().param("recursive", "true").delete("/server/resources/watched");
+
+        given().param("watch", "true").param("cursor", cursor).get("/server/resources/watched/sub")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("delete"))
+                .body("changes.path", contains("/server/resources/watched"));
+        async.complete();
+    }
+
+    @Test
+    public void testExpiredResource(TestContext context) throws InterruptedException {
+        Async async = context.async();
+        String cursor = cursor("/server/resources/watched");
+        given().header("x-expire-after", "1").body("{ \"foo\": \"bar\" }").put("/server/resources/watched/res");
+        Thread.sleep(1500);
+        post("/server/_cleanup").then().assertThat().statusCode(200);
+
+        given().param("watch", "true").param("cursor", cursor).get("/server/resources/watched")
+                .then().assertThat()
+                .statusCode(200)
+                .body("changes.type", contains("put", "expire"));
+        async.complete();
+    }
+
+    @Test
+    public void testTrimmedChanges(TestContext context) {
+        Async async = context.async();
+        String cursor = cursor("/server/resources/watched");
+        for (int i = 0; i < 12; i++) {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/watched/res" + i);
+        }
+        given().param("watch", "true").param("cursor", cursor).get("/server/resources/watched")
+                .then().assertThat().statusCode(410);
+        async.complete();
+    }
+
+    @Test
+    public void testInvalidParameters(TestContext context) {
+        Async async = context.async();
+        given().param("watch", "true").param("cursor", "foo").get("/server/resources/watched")
+                .then().assertThat().statusCode(400);
+        given().param("watch", "true").param("timeout", "1000").get("/server/resources/watched")
+                .then().assertThat().statusCode(400);
+        async.complete();
+    }
+
+    @Test
+    public void testTooManyWatchersAndClosedConnections(TestContext context) {
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(REST_STORAGE_PORT));
+        client.getNow("/server/resources/watched?watch=true&timeout=10", response -> {});
+        client.getNow("/server/resources/watched?watch=true&timeout=10", response -> {});
+        vertx.setTimer(500, timer -> vertx.executeBlocking(future -> {
+            given().param("watch", "true").param("timeout", "0").get("/server/resources/watched")
+                    .then().assertThat().statusCode(503);
+            future.complete();
+        }, context.asyncAssertSuccess(rejected -> {
+            // the watches of the closed connections are removed
+            client.close();
+            vertx.setTimer(500, closed -> vertx.executeBlocking(future -> {
+                get("/_metrics").then().assertThat().body("changeFeed.watchers", equalTo(0));
+                cursor("/server/resources/watched");
+                future.complete();
+            }, context.asyncAssertSuccess(watched -> async.complete())));
+        })));
+    }
+
+    @Test
+    public void testChangesPublishedOnEventBus(TestContext context) {
+        Async async = context.async();
+        // the changes are published once the stream has been read for the first time
+        long timerId = vertx.setPeriodic(100, timer -> vertx.executeBlocking(future -> {
+            with().body("{ \"foo\": \"bar\" }").put("/server/resources/watched/res");
+            future.complete();
+        }, false, null));
+        vertx.eventBus().<JsonObject>consumer("rest-storage-changes", message -> {
+            JsonObject change = message.body().getJsonArray("changes").getJsonObject(0);
+            context.assertEquals("put", change.getString("type"));
+            context.assertEquals("/server/resources/watched/res", change.getString("path"));
+            vertx.cancelTimer(timerId);
+            async.complete();
+        });
+    }
+}
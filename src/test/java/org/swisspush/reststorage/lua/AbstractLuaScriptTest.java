@@ -9,6 +9,8 @@
 package org.swisspush.reststorage.lua;
 
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.commons.lang.text.StrLookup;
+import org.apache.commons.lang.text.StrSubstitutor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.runner.RunWith;
@@ -62,7 +64,27 @@ public abstract class AbstractLuaScriptTest {
         return readScript(scriptFileName, false);
     }
 
+    /**
+     * Reads the script with the scripts it includes with --%(name), del.lua is included in cleanup.lua without its
+     * returns like in {@link org.swisspush.reststorage.RedisStorage}
+     */
     protected String readScript(String scriptFileName, boolean stripLogNotice) {
+        StrSubstitutor sub = new StrSubstitutor(new StrLookup() {
+            @Override
+            public String lookup(String key) {
+                if ("delscript".equals(key)) {
+                    return readScriptFile("del.lua", stripLogNotice).replaceAll("return", "--return");
+                }
+                if (this.getClass().getClassLoader().getResource(key + ".lua") == null) {
+                    return null;
+                }
+                return readScriptFile(key + ".lua", stripLogNotice);
+            }
+        }, "--%(", ")", StrSubstitutor.DEFAULT_ESCAPE);
+        return sub.replace(readScriptFile(scriptFileName, stripLogNotice));
+    }
+
+    private String readScriptFile(String scriptFileName, boolean stripLogNotice) {
         BufferedReader in = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(scriptFileName)));
         StringBuilder sb;
         try {
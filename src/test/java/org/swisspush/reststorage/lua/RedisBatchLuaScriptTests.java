@@ -0,0 +1,258 @@
+package org.swisspush.reststorage.lua;
+
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.swisspush.reststorage.util.LockMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RedisBatchLuaScriptTests extends AbstractLuaScriptTest {
+
+    @Test
+    public void testBatchPut() {
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"content_1\"}", "etag1", MAX_EXPIRE),
+                put(":project:server:test:sub:item2", "{\"content\": \"content_2\"}", "etag2", MAX_EXPIRE),
+                put(":project:server:other:item3", "{\"content\": \"content_3\"}", "etag3", MAX_EXPIRE));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("OK", "OK", "OK")));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "resource"), equalTo("{\"content\": \"content_1\"}"));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:sub:item2", "etag"), equalTo("etag2"));
+        assertThat(jedis.zrange(prefixCollections + ":project:server", 0, -1).toString(), equalTo("[other, test]"));
+        assertThat(jedis.zrange(prefixCollections + ":project:server:test", 0, -1).toString(), equalTo("[item1, sub]"));
+        assertThat(jedis.zrange(prefixCollections + ":project:server:test:sub", 0, -1).toString(), equalTo("[item2]"));
+        assertThat(jedis.zscore(prefixCollections + ":project:server", "test"), equalTo(Double.valueOf(MAX_EXPIRE)));
+    }
+
+    @Test
+    public void testBatchPutExpirableUpdatesAncestorsWithMaxExpiration() {
+
+        // ACT
+        String expire = String.valueOf(System.currentTimeMillis() + 100000);
+        List<String> results = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"content_1\"}", "etag1", expire),
+                put(":project:server:test:item2", "{\"content\": \"content_2\"}", "etag2", MAX_EXPIRE),
+                put(":project:server:test:item3", "{\"content\": \"content_3\"}", "etag3", expire));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("OK", "OK", "OK")));
+        assertThat(jedis.zscore(prefixCollections + ":project:server:test", "item1"), equalTo(Double.valueOf(expire)));
+        assertThat(jedis.zscore(prefixCollections + ":project:server:test", "item2"), equalTo(Double.valueOf(MAX_EXPIRE)));
+        assertThat(jedis.zscore(prefixCollections + ":project:server", "test"), equalTo(Double.valueOf(MAX_EXPIRE)));
+        assertThat(jedis.zscore(expirableSet, prefixResources + ":project:server:test:item1"), equalTo(Double.valueOf(expire)));
+        assertThat(jedis.zscore(expirableSet, prefixResources + ":project:server:test:item2"), equalTo(null));
+    }
+
+    @Test
+    public void testBatchDelete() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:sub:item2", "{\"content\": \"content_2\"}");
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                delete(":project:server:test:sub:item2"),
+                delete(":project:server:test:notExisting"),
+                delete(":project:server:test"));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("deleted", "notFound", "collection")));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:sub:item2"), equalTo(false));
+        assertThat(jedis.exists(prefixCollections + ":project:server:test:sub"), equalTo(false));
+        assertThat(jedis.zrange(prefixCollections + ":project:server:test", 0, -1).toString(), equalTo("[item1]"));
+    }
+
+    @Test
+    public void testBatchConflicts() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                put(":project:server:test", "{\"content\": \"collection\"}", "etag1", MAX_EXPIRE),
+                put(":project:server:test:item1:sub", "{\"content\": \"below resource\"}", "etag2", MAX_EXPIRE),
+                put(":project:server:new:item", "{\"content\": \"new\"}", "etag3", MAX_EXPIRE),
+                put(":project:server:new", "{\"content\": \"within batch\"}", "etag4", MAX_EXPIRE));
+
+        // ASSERT
+        assertThat(results.get(0), equalTo("existingCollection"));
+        assertThat(results.get(1), equalTo("existingResource " + prefixResources + ":project:server:test:item1"));
+        assertThat(results.get(2), equalTo("OK"));
+        assertThat(results.get(3), equalTo("existingCollection"));
+        assertThat(jedis.exists(prefixResources + ":project:server:new:item"), equalTo(true));
+    }
+
+    @Test
+    public void testBatchAtomic() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+
+        // ACT
+        List<String> results = evalScriptBatch(true,
+                put(":project:server:test:item2", "{\"content\": \"content_2\"}", "etag2", MAX_EXPIRE),
+                delete(":project:server:test:item1"),
+                put(":project:server:test", "{\"content\": \"collection\"}", "etag3", MAX_EXPIRE));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("notApplied", "notApplied", "existingCollection")));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item1"), equalTo(true));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item2"), equalTo(false));
+    }
+
+    @Test
+    public void testBatchPutAndDeleteSamePath() {
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"content_1\"}", "etag1", MAX_EXPIRE),
+                delete(":project:server:test:item1"),
+                put(":project:server:test:item2", "{\"content\": \"content_2\"}", "etag2", MAX_EXPIRE));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("OK", "deleted", "OK")));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item1"), equalTo(false));
+        assertThat(jedis.zrange(prefixCollections + ":project:server:test", 0, -1).toString(), equalTo("[item2]"));
+        assertThat(jedis.zrange(prefixCollections + ":project:server", 0, -1).toString(), equalTo("[test]"));
+    }
+
+    @Test
+    public void testBatchLockedResources() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, "etag1", "owner1", LockMode.REJECT, 300);
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", MAX_EXPIRE, "etag2", "owner1", LockMode.SILENT, 300);
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"other\"}", "etag3", MAX_EXPIRE),
+                delete(":project:server:test:item2"));
+        List<String> ownerResults = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"owner\"}", "etag4", MAX_EXPIRE, "owner1"),
+                delete(":project:server:test:item2", "owner1"));
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("reject", "silent")));
+        assertThat(ownerResults, equalTo(Arrays.asList("OK", "deleted")));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "resource"), equalTo("{\"content\": \"owner\"}"));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item2"), equalTo(false));
+    }
+
+    @Test
+    public void testBatchPutChunksAndBlobs() {
+
+        // ARRANGE
+        jedis.hset("rest-storage:chunks:1", "0", "{\"content\": ");
+        jedis.hset("rest-storage:chunks:1", "1", "\"content_1\"}");
+        jedis.pexpire("rest-storage:chunks:1", 300000L);
+
+        // ACT
+        List<String> results = evalScriptBatch(false,
+                new String[]{":project:server:test:item1", "PUT", "", "etag1", MAX_EXPIRE, "false", "", "rest-storage:chunks:1", "2", ""},
+                new String[]{":project:server:test:item2", "PUT", "{\"content\": \"same\"}", "etag2", MAX_EXPIRE, "false", "", "", "0", "rest-storage:blobs:1"},
+                new String[]{":project:server:test:item3", "PUT", "{\"content\": \"same\"}", "etag3", MAX_EXPIRE, "false", "", "", "0", "rest-storage:blobs:1"},
+                new String[]{":project:server:test:item4", "PUT", "", "etag4", MAX_EXPIRE, "false", "", "rest-storage:chunks:2", "2", ""});
+
+        // ASSERT
+        assertThat(results, equalTo(Arrays.asList("OK", "OK", "OK", "chunksExpired")));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "chunkkey"), equalTo("rest-storage:chunks:1"));
+        assertThat(jedis.pttl("rest-storage:chunks:1"), equalTo(-1L));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item2", "blob"), equalTo("rest-storage:blobs:1"));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item2", "resource"), equalTo(""));
+        assertThat(jedis.hget("rest-storage:blobs:1", "refs"), equalTo("2"));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item4"), equalTo(false));
+
+        // overwriting and deleting release the chunks and the blob
+        results = evalScriptBatch(false,
+                put(":project:server:test:item1", "{\"content\": \"content_1\"}", "etag5", MAX_EXPIRE),
+                put(":project:server:test:item2", "{\"content\": \"content_2\"}", "etag6", MAX_EXPIRE),
+                delete(":project:server:test:item3"));
+        assertThat(results, equalTo(Arrays.asList("OK", "OK", "deleted")));
+        assertThat(jedis.exists("rest-storage:chunks:1"), equalTo(false));
+        assertThat(jedis.exists("rest-storage:blobs:1"), equalTo(false));
+        assertThat(jedis.hexists(prefixResources + ":project:server:test:item1", "chunkkey"), equalTo(false));
+        assertThat(jedis.hexists(prefixResources + ":project:server:test:item2", "blob"), equalTo(false));
+    }
+
+    @Ignore
+    @Test
+    public void batch10000SmallWritesComparedToSingleWrites() {
+        int amount = 10000;
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= amount; i++) {
+            evalScriptPut(":project:server:single:test" + (i % 100) + ":item" + i, "{\"content\": \"" + i + "\"}", MAX_EXPIRE, "etag" + i);
+        }
+        long single = System.currentTimeMillis() - start;
+
+        List<String[]> items = new ArrayList<>();
+        for (int i = 1; i <= amount; i++) {
+            items.add(put(":project:server:batch:test" + (i % 100) + ":item" + i, "{\"content\": \"" + i + "\"}", "etag" + i, MAX_EXPIRE));
+        }
+        start = System.currentTimeMillis();
+        evalScriptBatch(false, items.toArray(new String[0][]));
+        long batch = System.currentTimeMillis() - start;
+
+        System.out.println("10000 single writes: " + DurationFormatUtils.formatDuration(single, "HH:mm:ss:SSS"));
+        System.out.println("10000 writes in a batch: " + DurationFormatUtils.formatDuration(batch, "HH:mm:ss:SSS"));
+
+        assertThat(jedis.zcard(prefixCollections + ":project:server:batch"), equalTo(100L));
+        assertThat(jedis.zcard(prefixCollections + ":project:server:single"), equalTo(100L));
+    }
+
+    private String[] put(String path, String value, String etag, String expiration) {
+        return put(path, value, etag, expiration, "");
+    }
+
+    private String[] put(String path, String value, String etag, String expiration, String lockOwner) {
+        return new String[]{path, "PUT", value, etag, expiration, "false", lockOwner, "", "0", ""};
+    }
+
+    private String[] delete(String path) {
+        return delete(path, "");
+    }
+
+    private String[] delete(String path, String lockOwner) {
+        return new String[]{path, "DELETE", "", "", "", "", lockOwner, "", "0", ""};
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> evalScriptBatch(boolean atomic, String[]... items) {
+        String batchScript = readScript("batch.lua");
+        List<String> keys = new ArrayList<>();
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                prefixDeltaResources,
+                prefixDeltaEtags,
+                expirableSet,
+                prefixLock,
+                getNowAsString(),
+                MAX_EXPIRE,
+                String.valueOf(atomic),
+                "0",
+                "false",
+                "",
+                "",
+                "",
+                "",
+                "0"
+        ));
+        for (String[] item : items) {
+            keys.add(item[0]);
+            arguments.addAll(Arrays.asList(item).subList(1, 10));
+        }
+        return (List<String>) jedis.eval(batchScript, keys, arguments);
+    }
+}
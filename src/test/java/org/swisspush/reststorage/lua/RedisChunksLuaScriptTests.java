@@ -0,0 +1,143 @@
+package org.swisspush.reststorage.lua;
+
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the scripts handling large values stored in chunks
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisChunksLuaScriptTests extends AbstractLuaScriptTest {
+
+    private static final String chunkKey1 = "rest-storage:chunks:1";
+    private static final String chunkKey2 = "rest-storage:chunks:2";
+
+    @Test
+    public void testPutAndGetChunks() {
+        writeChunks(chunkKey1, "{\"content\": ", "\"content_1\"}");
+
+        assertThat(evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2), equalTo("OK"));
+
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "chunks"), equalTo("2"));
+        String etag = jedis.hget(prefixResources + ":project:server:test:item1", "etag");
+        assertThat(evalScriptGet(":project:server:test:item1"), equalTo(Arrays.asList("TYPE_RESOURCE", "", etag, null, chunkKey1, "2")));
+    }
+
+    @Test
+    public void testPutRemovesProvisionalTtl() {
+        writeChunks(chunkKey1, "{\"content\": ", "\"content_1\"}");
+        jedis.pexpire(chunkKey1, 300000L);
+
+        assertThat(evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2), equalTo("OK"));
+        assertThat(jedis.pttl(chunkKey1), equalTo(-1L));
+    }
+
+    @Test
+    public void testPutRejectsExpiredChunks() {
+        assertThat(evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2), equalTo("chunksExpired"));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item1"), equalTo(false));
+    }
+
+    @Test
+    public void testOverwriteRemovesChunks() {
+        writeChunks(chunkKey1, "{\"content\": ", "\"content_1\"}");
+        evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2);
+        writeChunks(chunkKey2, "{\"content\": ", "\"content_2\"}");
+        evalScriptPutChunks(":project:server:test:item1", chunkKey2, 2);
+
+        assertThat(jedis.exists(chunkKey1), equalTo(false));
+        assertThat(jedis.exists(chunkKey2), equalTo(true));
+
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_3\"}");
+        assertThat(jedis.exists(chunkKey2), equalTo(false));
+        assertThat(jedis.hexists(prefixResources + ":project:server:test:item1", "chunks"), equalTo(false));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "resource"), equalTo("{\"content\": \"content_3\"}"));
+    }
+
+    @Test
+    public void testDeleteRemovesChunks() {
+        writeChunks(chunkKey1, "{\"content\": ", "\"content_1\"}");
+        evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2);
+        writeChunks(chunkKey2, "{\"content\": ", "\"content_2\"}");
+        evalScriptPutChunks(":project:server:test:sub:item2", chunkKey2, 2);
+
+        evalScriptDel(":project:server:test");
+
+        assertThat(jedis.exists(chunkKey1), equalTo(false));
+        assertThat(jedis.exists(chunkKey2), equalTo(false));
+    }
+
+    @Test
+    public void testMultiGetChunks() {
+        writeChunks(chunkKey1, "{\"content\": ", "\"content_1\"}");
+        evalScriptPutChunks(":project:server:test:item1", chunkKey1, 2);
+
+        List<String> arguments = Arrays.asList(prefixResources, prefixCollections, expirableSet, getNowAsString(), "0", "", "");
+        assertThat(jedis.eval(readScript("multiGet.lua"), Collections.singletonList(":project:server:test:item1"), arguments),
+                equalTo(Arrays.asList("TYPE_CHUNKED", "", "", "")));
+    }
+
+    private void writeChunks(String chunkKey, String... chunks) {
+        for (int i = 0; i < chunks.length; i++) {
+            jedis.hset(chunkKey, String.valueOf(i), chunks[i]);
+        }
+    }
+
+    private Object evalScriptPutChunks(String path, String chunkKey, int chunkCount) {
+        return evalScriptPut(path, "", chunkKey, chunkCount);
+    }
+
+    private Object evalScriptPut(String path, String value, String chunkKey, int chunkCount) {
+        String etag = UUID.randomUUID().toString();
+        List<String> arguments = Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                "false",
+                MAX_EXPIRE,
+                MAX_EXPIRE,
+                value,
+                etag,
+                prefixLock,
+                "",
+                "silent",
+                String.valueOf(System.currentTimeMillis() + 300000),
+                "0",
+                "0",
+                "false",
+                "",
+                chunkKey,
+                String.valueOf(chunkCount)
+        );
+        return jedis.eval(readScript("put.lua"), Collections.singletonList(path), arguments);
+    }
+
+    private Object evalScriptDel(String path) {
+        List<String> arguments = Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                prefixDeltaResources,
+                prefixDeltaEtags,
+                expirableSet,
+                "0",
+                MAX_EXPIRE,
+                "false",
+                "true",
+                prefixLock,
+                "",
+                "silent",
+                String.valueOf(System.currentTimeMillis() + 300000),
+                "0"
+        );
+        return jedis.eval(readScript("del.lua"), Collections.singletonList(path), arguments);
+    }
+}
@@ -1,13 +1,10 @@
 package org.swisspush.reststorage.lua;
 
-import org.apache.commons.lang.text.StrSubstitutor;
 import org.apache.commons.lang.time.DurationFormatUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -187,11 +184,7 @@ public class RedisCleanupLuaScriptTests extends AbstractLuaScriptTest {
     @SuppressWarnings({ "rawtypes", "unchecked", "serial" })
     private Object evalScriptCleanup(final long minscore, final long now, final int bulkSize, final boolean stripLogNotice) {
 
-        Map<String, String> values = new HashMap<>();
-        values.put("delscript", readScript("del.lua", stripLogNotice).replaceAll("return", "--return"));
-
-        StrSubstitutor sub = new StrSubstitutor(values, "--%(", ")");
-        String cleanupScript = sub.replace(readScript("cleanup.lua", stripLogNotice));
+        String cleanupScript = readScript("cleanup.lua", stripLogNotice);
         return jedis.eval(cleanupScript, new ArrayList(), new ArrayList() {
                     {
                         add(prefixResources);
@@ -0,0 +1,139 @@
+package org.swisspush.reststorage.lua;
+
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the scripts handling values stored once for several resources
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisDedupLuaScriptTests extends AbstractLuaScriptTest {
+
+    private static final String blobKey1 = "rest-storage:blobs:1";
+    private static final String blobKey2 = "rest-storage:blobs:2";
+    private static final String statsKey = "rest-storage:blobs:stats";
+    private static final String value1 = "{\"content\": \"content_1\"}";
+    private static final String value2 = "{\"content\": \"content_2\"}";
+
+    @Test
+    public void testPutAndGetBlob() {
+        assertThat(evalScriptPutBlob(":project:server:test:item1", value1, blobKey1), equalTo("OK"));
+        assertThat(evalScriptPutBlob(":project:server:test:item2", value1, blobKey1), equalTo("OK"));
+
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "resource"), equalTo(""));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "blob"), equalTo(blobKey1));
+        assertThat(jedis.hget(blobKey1, "refs"), equalTo("2"));
+        assertThat(evalScriptGet(":project:server:test:item2").toString(), startsWith("[TYPE_RESOURCE, " + value1));
+
+        assertThat(jedis.hget(statsKey, "blobs"), equalTo("1"));
+        assertThat(jedis.hget(statsKey, "references"), equalTo("2"));
+        assertThat(jedis.hget(statsKey, "bytes"), equalTo(String.valueOf(value1.length())));
+        assertThat(jedis.hget(statsKey, "referencedBytes"), equalTo(String.valueOf(2 * value1.length())));
+    }
+
+    @Test
+    public void testOverwriteReleasesBlob() {
+        evalScriptPutBlob(":project:server:test:item1", value1, blobKey1);
+        evalScriptPutBlob(":project:server:test:item2", value1, blobKey1);
+        evalScriptPutBlob(":project:server:test:item1", value2, blobKey2);
+
+        assertThat(jedis.hget(blobKey1, "refs"), equalTo("1"));
+        assertThat(jedis.hget(blobKey2, "refs"), equalTo("1"));
+
+        // the same value again keeps the reference
+        evalScriptPutBlob(":project:server:test:item1", value2, blobKey2);
+        assertThat(jedis.hget(blobKey2, "refs"), equalTo("1"));
+
+        // a value stored in the resource itself
+        evalScriptPutBlob(":project:server:test:item1", value2, "");
+        assertThat(jedis.exists(blobKey2), equalTo(false));
+        assertThat(jedis.hexists(prefixResources + ":project:server:test:item1", "blob"), equalTo(false));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:item1", "resource"), equalTo(value2));
+        assertThat(jedis.hget(statsKey, "blobs"), equalTo("1"));
+        assertThat(jedis.hget(statsKey, "references"), equalTo("1"));
+    }
+
+    @Test
+    public void testDeleteReleasesBlobs() {
+        evalScriptPutBlob(":project:server:test:item1", value1, blobKey1);
+        evalScriptPutBlob(":project:server:test:sub:item2", value1, blobKey1);
+        evalScriptPutBlob(":project:server:other", value1, blobKey1);
+
+        evalScriptDel(":project:server:test");
+
+        assertThat(jedis.hget(blobKey1, "refs"), equalTo("1"));
+        assertThat(jedis.hget(statsKey, "references"), equalTo("1"));
+
+        evalScriptDel(":project:server:other");
+        assertThat(jedis.exists(blobKey1), equalTo(false));
+        assertThat(jedis.hget(statsKey, "blobs"), equalTo("0"));
+        assertThat(jedis.hget(statsKey, "bytes"), equalTo("0"));
+    }
+
+    @Test
+    public void testMultiGetBlob() {
+        evalScriptPutBlob(":project:server:test:item1", value1, blobKey1);
+        String etag = jedis.hget(prefixResources + ":project:server:test:item1", "etag");
+
+        List<String> arguments = Arrays.asList(prefixResources, prefixCollections, expirableSet, getNowAsString(), "0", "", "");
+        assertThat(jedis.eval(readScript("multiGet.lua"), Collections.singletonList(":project:server:test:item1"), arguments),
+                equalTo(Arrays.asList("TYPE_RESOURCE", value1, etag, "")));
+    }
+
+    private Object evalScriptPutBlob(String path, String value, String blobKey) {
+        String etag = UUID.randomUUID().toString();
+        List<String> arguments = Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                "false",
+                MAX_EXPIRE,
+                MAX_EXPIRE,
+                value,
+                etag,
+                prefixLock,
+                "",
+                "silent",
+                String.valueOf(System.currentTimeMillis() + 300000),
+                "0",
+                "1",
+                "false",
+                "",
+                "",
+                "0",
+                "false",
+                blobKey
+        );
+        return jedis.eval(readScript("put.lua"), Collections.singletonList(path), arguments);
+    }
+
+    private Object evalScriptDel(String path) {
+        List<String> arguments = Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                prefixDeltaResources,
+                prefixDeltaEtags,
+                expirableSet,
+                "0",
+                MAX_EXPIRE,
+                "false",
+                "true",
+                prefixLock,
+                "",
+                "silent",
+                String.valueOf(System.currentTimeMillis() + 300000),
+                "1"
+        );
+        return jedis.eval(readScript("del.lua"), Collections.singletonList(path), arguments);
+    }
+}
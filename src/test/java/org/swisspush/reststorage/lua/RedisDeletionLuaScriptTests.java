@@ -0,0 +1,157 @@
+package org.swisspush.reststorage.lua;
+
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the scripts detaching collections deleted asynchronously and reclaiming their keys
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisDeletionLuaScriptTests extends AbstractLuaScriptTest {
+
+    private static final String deletionsKey = "rest-storage:deletions";
+
+    @Test
+    public void testDetachHidesSubtree() {
+        evalScriptPut(":project:server:test:deleted:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:deleted:sub:item2", "{\"content\": \"content_2\"}");
+        evalScriptPut(":project:server:test:item3", "{\"content\": \"content_3\"}");
+
+        assertThat(evalScriptDetach(":project:server:test:deleted"), equalTo("detached"));
+
+        assertThat(evalScriptGet(":project:server:test:deleted"), equalTo("notFound"));
+        assertThat(evalScriptGet(":project:server:test:deleted:sub:item2"), equalTo("notFound"));
+        assertThat(evalScriptGet(":project:server:test").toString(), equalTo("[TYPE_COLLECTION, item3]"));
+        assertThat(evalScriptPut(":project:server:test:deleted:sub:item4"), equalTo("reject"));
+        assertThat(evalScriptGet(":project:server:test:item3").toString(), startsWith("[TYPE_RESOURCE, {\"content\": \"content_3\"}"));
+
+        // the keys are removed by the reclaim script
+        assertThat(jedis.exists(prefixResources + ":project:server:test:deleted:sub:item2"), equalTo(true));
+        assertThat(jedis.hget(deletionsKey, ":project:server:test:deleted"), equalTo("0"));
+    }
+
+    @Test
+    public void testDetachRemovesEmptyParents() {
+        evalScriptPut(":project:server:test:deleted:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:other", "{\"content\": \"content_2\"}");
+
+        assertThat(evalScriptDetach(":project:server:test:deleted"), equalTo("detached"));
+
+        assertThat(jedis.exists(prefixCollections + ":project:server:test"), equalTo(false));
+        assertThat(jedis.zrange(prefixCollections + ":project:server", 0, -1).toString(), equalTo("[other]"));
+    }
+
+    @Test
+    public void testDetachOnlyCollections() {
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+
+        assertThat(evalScriptDetach(":project:server:test:item1"), equalTo("sync"));
+        assertThat(evalScriptDetach(":project:server:test:notExisting"), equalTo("sync"));
+        assertThat(evalScriptDetach(":project:server:test"), equalTo("detached"));
+        assertThat(evalScriptDetach(":project:server:test"), equalTo("notFound"));
+        assertThat(evalScriptDetach(":project:server:test:item1"), equalTo("notFound"));
+    }
+
+    @Test
+    public void testReclaimInBatches() {
+        String expire = String.valueOf(System.currentTimeMillis() + 10000);
+        for (int i = 0; i < 5; i++) {
+            evalScriptPut(":project:server:test:deleted:item" + i, "{\"content\": \"content\"}", expire);
+            evalScriptPut(":project:server:test:deleted:sub:sub:item" + i, "{\"content\": \"content\"}");
+        }
+        evalScriptPut(":project:server:test:item", "{\"content\": \"content\"}");
+        assertThat(jedis.zcard(expirableSet), equalTo(5L));
+
+        assertThat(evalScriptDetach(":project:server:test:deleted"), equalTo("detached"));
+
+        // 10 resources and 3 collections
+        assertThat(evalScriptReclaim(":project:server:test:deleted", 4), equalTo(Arrays.asList("pending", 4L)));
+        assertThat(jedis.hget(deletionsKey, ":project:server:test:deleted"), equalTo("4"));
+        assertThat(evalScriptReclaim(":project:server:test:deleted", 4), equalTo(Arrays.asList("pending", 4L)));
+        assertThat(evalScriptReclaim(":project:server:test:deleted", 4), equalTo(Arrays.asList("pending", 4L)));
+        assertThat(evalScriptReclaim(":project:server:test:deleted", 4), equalTo(Arrays.asList("done", 1L)));
+
+        assertThat(jedis.keys(prefixResources + ":project:server:test:deleted*").isEmpty(), equalTo(true));
+        assertThat(jedis.keys(prefixCollections + ":project:server:test:deleted*").isEmpty(), equalTo(true));
+        assertThat(jedis.zcard(expirableSet), equalTo(0L));
+        assertThat(jedis.exists(deletionsKey), equalTo(false));
+        assertThat(evalScriptGet(":project:server:test").toString(), equalTo("[TYPE_COLLECTION, item]"));
+
+        // writable again
+        assertThat(evalScriptPut(":project:server:test:deleted:item1"), equalTo("OK"));
+    }
+
+    @Test
+    public void testReclaimNotExistingCollection() {
+        jedis.hset(deletionsKey, ":project:server:test:deleted", "0");
+
+        assertThat(evalScriptReclaim(":project:server:test:deleted", 10), equalTo(Arrays.asList("done", 1L)));
+        assertThat(jedis.exists(deletionsKey), equalTo(false));
+    }
+
+    private Object evalScriptDetach(String path) {
+        return jedis.eval(readScript("detach.lua"), Collections.singletonList(path),
+                Arrays.asList(prefixResources, prefixCollections, prefixLock, deletionsKey));
+    }
+
+    private Object evalScriptReclaim(String path, int batchSize) {
+        return jedis.eval(readScript("reclaim.lua"), Collections.singletonList(path), Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                prefixDeltaResources,
+                prefixDeltaEtags,
+                expirableSet,
+                "1",
+                deletionsKey,
+                String.valueOf(batchSize)
+        ));
+    }
+
+    @Override
+    protected Object evalScriptGet(String path) {
+        return jedis.eval(readScript("get.lua"), Collections.singletonList(path), Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                getNowAsString(),
+                MAX_EXPIRE,
+                "",
+                "",
+                "",
+                "1",
+                "0",
+                deletionsKey
+        ));
+    }
+
+    private Object evalScriptPut(String path) {
+        List<String> arguments = Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                "false",
+                MAX_EXPIRE,
+                MAX_EXPIRE,
+                "{\"content\": \"content\"}",
+                "etag",
+                prefixLock,
+                "",
+                "silent",
+                String.valueOf(System.currentTimeMillis() + 300000),
+                "0",
+                "1",
+                "false",
+                deletionsKey
+        );
+        return jedis.eval(readScript("put.lua"), Collections.singletonList(path), arguments);
+    }
+}
@@ -0,0 +1,116 @@
+package org.swisspush.reststorage.lua;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class RedisExpandLuaScriptTests extends AbstractLuaScriptTest {
+
+    @Test
+    public void testExpandNotFound() {
+        assertThat(evalScriptExpand(":project:server:test", 1, 100, 1000, ""), equalTo("notFound"));
+        evalScriptPut(":project:server:test", "{\"content\": \"test\"}");
+        assertThat(evalScriptExpand(":project:server:test", 1, 100, 1000, ""), equalTo("notCollection"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExpandDepthOne() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}");
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:sub:subsub:item3", "{\"content\": \"content_3\"}");
+        evalScriptPut(":project:server:test:sub:item4", "{\"content\": \"content_4\"}");
+
+        // ACT
+        List<String> value = (List<String>) evalScriptExpand(":project:server:test", 1, 100, 1000, "");
+
+        // ASSERT
+        assertThat(value.subList(1, value.size()), equalTo(Arrays.asList(
+                "TYPE_RESOURCE", "item1", "{\"content\": \"content_1\"}",
+                "TYPE_RESOURCE", "item2", "{\"content\": \"content_2\"}",
+                "COLLECTION", "sub", "[\"item4\",\"subsub\\/\"]"
+        )));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExpandDepthTwo() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:sub:subsub:item3", "{\"content\": \"content_3\"}");
+        evalScriptPut(":project:server:test:sub:item4", "{\"content\": \"content_4\"}");
+
+        // ACT
+        List<String> value = (List<String>) evalScriptExpand(":project:server:test", 2, 100, 1000, "");
+
+        // ASSERT
+        assertThat(value.subList(1, value.size()), equalTo(Arrays.asList(
+                "TYPE_RESOURCE", "item1", "{\"content\": \"content_1\"}",
+                "COLLECTION_START", "sub", "",
+                "TYPE_RESOURCE", "item4", "{\"content\": \"content_4\"}",
+                "COLLECTION", "subsub", "[\"item3\"]",
+                "COLLECTION_END", "", ""
+        )));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExpandNotModified() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:sub:item2", "{\"content\": \"content_2\"}");
+        String etag = ((List<String>) evalScriptExpand(":project:server:test", 2, 100, 1000, "")).get(0);
+
+        // ACT & ASSERT
+        assertThat(evalScriptExpand(":project:server:test", 2, 100, 1000, etag), equalTo("notModified"));
+
+        evalScriptPut(":project:server:test:sub:item2", "{\"content\": \"content_2_changed\"}");
+        Object value = evalScriptExpand(":project:server:test", 2, 100, 1000, etag);
+        assertThat(value, not(equalTo("notModified")));
+        assertThat(((List<String>) value).get(0), not(equalTo(etag)));
+    }
+
+    @Test
+    public void testExpandLimitExceeded() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}");
+        evalScriptPut(":project:server:test:sub:item2", "{\"content\": \"content_2\"}");
+        evalScriptPut(":project:server:test:sub:item3", "{\"content\": \"content_3\"}");
+
+        // ACT & ASSERT
+        assertThat(evalScriptExpand(":project:server:test", 2, 3, 1000, ""), equalTo("limitExceeded"));
+        assertThat(evalScriptExpand(":project:server:test", 2, 4, 50, ""), equalTo("limitExceeded"));
+        assertThat(evalScriptExpand(":project:server:test", 2, 4, 1000, ""), not(equalTo("limitExceeded")));
+    }
+
+    @Test
+    public void testExpandCompressedResource() {
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, "etag1", true);
+        assertThat(evalScriptExpand(":project:server:test", 1, 100, 1000, ""), equalTo("compressionNotSupported"));
+    }
+
+    private Object evalScriptExpand(final String resourceName, int depth, int maxNodes, long maxBytes, String etag) {
+        String expandScript = readScript("expand.lua");
+        return jedis.eval(expandScript, Arrays.asList(resourceName), Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                getNowAsString(),
+                MAX_EXPIRE,
+                String.valueOf(depth),
+                String.valueOf(maxNodes),
+                String.valueOf(maxBytes),
+                etag
+        ));
+    }
+}
@@ -0,0 +1,142 @@
+package org.swisspush.reststorage.lua;
+
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the scripts using an expirable set divided into buckets by time windows
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisExpirableBucketsLuaScriptTests extends AbstractLuaScriptTest {
+
+    private static final long WINDOW = 1000;
+
+    @Test
+    public void testPutStoresExpirationInBucket() {
+        long expire = System.currentTimeMillis() + 10000;
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", String.valueOf(expire), WINDOW);
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", String.valueOf(expire), WINDOW);
+
+        assertThat(jedis.zcard(expirableSet), equalTo(0L));
+        assertThat(jedis.zcard(expirableSet + ":" + (expire / WINDOW)), equalTo(2L));
+        assertThat(jedis.zscore(expirableSet + ":windows", expirableSet + ":" + (expire / WINDOW)), equalTo((double) (expire / WINDOW)));
+
+        // moved into the bucket of its new window
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", String.valueOf(expire + WINDOW), WINDOW);
+        assertThat(jedis.zcard(expirableSet + ":" + (expire / WINDOW)), equalTo(1L));
+        assertThat(jedis.zcard(expirableSet + ":windows"), equalTo(2L));
+
+        // permanent again
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, WINDOW);
+        assertThat(bucketEntries(), equalTo(1L));
+    }
+
+    @Test
+    public void testGetExpiredResource() {
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", String.valueOf(System.currentTimeMillis() + 1000), WINDOW);
+
+        assertThat(evalScriptGet(":project:server:test:item1", System.currentTimeMillis(), WINDOW).toString(), startsWith("[TYPE_RESOURCE, {\"content\": \"content_1\"}"));
+        assertThat(evalScriptGet(":project:server:test:item1", System.currentTimeMillis() + 2000, WINDOW), equalTo("notFound"));
+    }
+
+    @Test
+    public void testNotMigratedEntriesAreRespected() {
+        // written before the expirable set was divided
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", String.valueOf(System.currentTimeMillis() + 1000), 0);
+        assertThat(jedis.zcard(expirableSet), equalTo(1L));
+
+        assertThat(evalScriptGet(":project:server:test:item1", System.currentTimeMillis() + 2000, WINDOW), equalTo("notFound"));
+
+        // the entry of the undivided set must not survive a write
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, WINDOW);
+        assertThat(jedis.zcard(expirableSet), equalTo(0L));
+        assertThat(bucketEntries(), equalTo(0L));
+    }
+
+    @Test
+    public void testMigrate() {
+        String expire = String.valueOf(System.currentTimeMillis() + 10000);
+        for (int i = 1; i <= 3; i++) {
+            evalScriptPut(":project:server:test:item" + i, "{\"content\": \"content\"}", expire, 0);
+        }
+
+        assertThat(evalScriptMigrate(2), equalTo(2L));
+        assertThat(evalScriptMigrate(2), equalTo(1L));
+        assertThat(evalScriptMigrate(2), equalTo(0L));
+        assertThat(jedis.zcard(expirableSet), equalTo(0L));
+        assertThat(bucketEntries(), equalTo(3L));
+    }
+
+    @Test
+    public void testDelete() {
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", String.valueOf(System.currentTimeMillis() + 10000), WINDOW);
+
+        assertThat(evalScriptDel(":project:server:test:item1"), equalTo("deleted"));
+        assertThat(bucketEntries(), equalTo(0L));
+    }
+
+    @Test
+    public void testCleanupReadsStartedWindows() {
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 10; i++) {
+            evalScriptPut(":project:server:test:item" + i, "{\"content\": \"content\"}", String.valueOf(now + i * 100), WINDOW);
+        }
+        evalScriptPut(":project:server:test:later", "{\"content\": \"content\"}", String.valueOf(now + 100000), WINDOW);
+        evalScriptPut(":project:server:test:permanent", "{\"content\": \"content\"}", MAX_EXPIRE, WINDOW);
+
+        assertThat(evalScriptCleanup(now + 2000, 4), equalTo(4L));
+        assertThat(evalScriptCleanup(now + 2000, 100), equalTo(6L));
+        assertThat(evalScriptCleanup(now + 2000, 100), equalTo(0L));
+        // only the bucket of the later window is left
+        assertThat(jedis.zrange(expirableSet + ":windows", 0, -1), equalTo(Collections.singleton(expirableSet + ":" + ((now + 100000) / WINDOW))));
+        assertThat(bucketEntries(), equalTo(1L));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:item1"), equalTo(false));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:permanent"), equalTo(true));
+    }
+
+    private long bucketEntries() {
+        long entries = 0;
+        for (String bucket : jedis.zrange(expirableSet + ":windows", 0, -1)) {
+            entries += jedis.zcard(bucket);
+        }
+        return entries;
+    }
+
+    private String evalScriptPut(String resourceName, String resourceValue, String expire, long window) {
+        return (String) jedis.eval(readScript("put.lua"), Collections.singletonList(resourceName), Arrays.asList(
+                prefixResources, prefixCollections, expirableSet, "false", expire, MAX_EXPIRE, resourceValue, UUID.randomUUID().toString(),
+                prefixLock, "", "silent", "0", "0", String.valueOf(window)));
+    }
+
+    private Object evalScriptGet(String resourceName, long timestamp, long window) {
+        return jedis.eval(readScript("get.lua"), Collections.singletonList(resourceName), Arrays.asList(
+                prefixResources, prefixCollections, expirableSet, String.valueOf(timestamp), MAX_EXPIRE, "", "", "",
+                String.valueOf(window)));
+    }
+
+    private Object evalScriptDel(String resourceName) {
+        return jedis.eval(readScript("del.lua"), Collections.singletonList(resourceName), Arrays.asList(
+                prefixResources, prefixCollections, prefixDeltaResources, prefixDeltaEtags, expirableSet, "0", MAX_EXPIRE,
+                "false", "false", prefixLock, UUID.randomUUID().toString(), "silent", "0", String.valueOf(WINDOW)));
+    }
+
+    private Object evalScriptMigrate(int bulkSize) {
+        return jedis.eval(readScript("migrateExpirable.lua"), Collections.emptyList(), Arrays.asList(
+                expirableSet, String.valueOf(WINDOW), String.valueOf(bulkSize)));
+    }
+
+    private Object evalScriptCleanup(long now, int bulkSize) {
+        return jedis.eval(readScript("cleanup.lua"), Collections.emptyList(), Arrays.asList(
+                prefixResources, prefixCollections, prefixDeltaResources, prefixDeltaEtags, expirableSet, "0", MAX_EXPIRE,
+                "false", "true", String.valueOf(now), String.valueOf(bulkSize), String.valueOf(WINDOW)));
+    }
+}
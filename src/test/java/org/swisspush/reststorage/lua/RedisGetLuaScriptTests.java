@@ -2,6 +2,7 @@ package org.swisspush.reststorage.lua;
 
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.*;
@@ -149,6 +150,119 @@ public class RedisGetLuaScriptTests extends AbstractLuaScriptTest {
         assertThat(value, equalTo("notFound"));
     }
 
+    @Test
+    public void getResourceExpirationStoredInResource() throws InterruptedException {
+
+        // ARRANGE
+        String now = String.valueOf(System.currentTimeMillis());
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test/test1/test2\"}", now);
+        evalScriptPut(":project:server:test:test1:test3", "{\"content\": \"test/test1/test3\"}");
+        Thread.sleep(10);
+
+        // the expirable set is only used as index for the cleanup
+        jedis.del(expirableSet);
+
+        // ACT
+        String timestamp = String.valueOf(System.currentTimeMillis());
+        String valueTest2 = (String) evalScriptGet(":project:server:test:test1:test2", timestamp);
+        List<String> valuesTest3 = (List<String>) evalScriptGet(":project:server:test:test1:test3", timestamp);
+
+        // ASSERT
+        assertThat(jedis.hget(prefixResources + ":project:server:test:test1:test2", "expire"), equalTo(now));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:test1:test3", "expire"), equalTo(MAX_EXPIRE));
+        assertThat(valueTest2, equalTo("notFound"));
+        assertThat(valuesTest3.size(), equalTo(4));
+        assertThat(valuesTest3.get(0), equalTo(TYPE_RESOURCE));
+    }
+
+    @Test
+    public void getResourceWithoutStoredExpiration() throws InterruptedException {
+
+        // ARRANGE
+        // resource written before the expiration was stored in the resource
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test/test1/test2\"}");
+        jedis.hdel(prefixResources + ":project:server:test:test1:test2", "expire");
+        jedis.zadd(expirableSet, System.currentTimeMillis(), prefixResources + ":project:server:test:test1:test2");
+        Thread.sleep(10);
+
+        // ACT
+        String value = (String) evalScriptGet(":project:server:test:test1:test2", String.valueOf(System.currentTimeMillis()));
+
+        // ASSERT
+        assertThat(value, equalTo("notFound"));
+    }
+
+    @Test
+    public void migrateExpiration() {
+
+        // ARRANGE
+        String in1min = String.valueOf(System.currentTimeMillis() + (1000 * 60));
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test/test1/test2\"}", in1min);
+        evalScriptPut(":project:server:test:test1:test3", "{\"content\": \"test/test1/test3\"}");
+        jedis.hdel(prefixResources + ":project:server:test:test1:test2", "expire");
+        jedis.hdel(prefixResources + ":project:server:test:test1:test3", "expire");
+
+        // ACT
+        Object migrated = jedis.eval(readScript("migrateExpiration.lua"), Arrays.asList(
+                prefixResources + ":project:server:test:test1:test2", prefixResources + ":project:server:test:test1:test3"),
+                Arrays.asList(expirableSet, MAX_EXPIRE, "0"));
+        Object migratedAgain = jedis.eval(readScript("migrateExpiration.lua"), Arrays.asList(
+                prefixResources + ":project:server:test:test1:test2", prefixResources + ":project:server:test:test1:test3"),
+                Arrays.asList(expirableSet, MAX_EXPIRE, "0"));
+
+        // ASSERT
+        assertThat(migrated, equalTo(2L));
+        assertThat(migratedAgain, equalTo(0L));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:test1:test2", "expire"), equalTo(in1min));
+        assertThat(jedis.hget(prefixResources + ":project:server:test:test1:test3", "expire"), equalTo(MAX_EXPIRE));
+    }
+
+    @Test
+    public void getCollectionPrunesExpiredMembers() throws InterruptedException {
+
+        // ARRANGE
+        String now = String.valueOf(System.currentTimeMillis());
+        for (int i = 1; i <= 5; i++) {
+            evalScriptPut(":project:server:test:test1:expired" + i, "{\"content\": \"expired\"}", now);
+        }
+        evalScriptPut(":project:server:test:test1:live", "{\"content\": \"live\"}");
+        Thread.sleep(10);
+
+        // ACT
+        List<String> values = (List<String>) jedis.eval(readScript("get.lua"), Arrays.asList(":project:server:test:test1"),
+                Arrays.asList(prefixResources, prefixCollections, expirableSet, String.valueOf(System.currentTimeMillis()),
+                        MAX_EXPIRE, "", "", "", "1", "3"));
+
+        // ASSERT
+        assertThat(values.size(), equalTo(2));
+        assertThat(values.get(1), equalTo("live"));
+        assertThat(jedis.zcard(prefixCollections + ":project:server:test:test1"), equalTo(3L));
+    }
+
+    @Test
+    public void pruneCollections() throws InterruptedException {
+
+        // ARRANGE
+        String now = String.valueOf(System.currentTimeMillis());
+        evalScriptPut(":project:server:test:test1:expired1", "{\"content\": \"expired\"}", now);
+        evalScriptPut(":project:server:test:test1:expired2", "{\"content\": \"expired\"}", now);
+        evalScriptPut(":project:server:test:test1:live", "{\"content\": \"live\"}");
+        evalScriptPut(":project:server:test:test2:expired3", "{\"content\": \"expired\"}", now);
+        Thread.sleep(10);
+
+        // ACT
+        Object removed = jedis.eval(readScript("pruneCollections.lua"),
+                Arrays.asList(prefixCollections + ":project:server:test:test1", prefixCollections + ":project:server:test:test2",
+                        prefixResources + ":project:server:test:test1:live"),
+                Arrays.asList(String.valueOf(System.currentTimeMillis()), "100"));
+
+        // ASSERT
+        assertThat(removed, equalTo(3L));
+        assertThat(jedis.zrange(prefixCollections + ":project:server:test:test1", 0, -1).size(), equalTo(1));
+        assertThat(jedis.exists(prefixCollections + ":project:server:test:test2"), equalTo(false));
+        assertThat(jedis.exists(prefixResources + ":project:server:test:test1:live"), equalTo(true));
+    }
+
     @Test
     public void getResourcePathDepthIs3ParentOfResourceHasUpdatedExpiration() throws InterruptedException {
 
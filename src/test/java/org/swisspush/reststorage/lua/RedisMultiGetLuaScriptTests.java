@@ -0,0 +1,90 @@
+package org.swisspush.reststorage.lua;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RedisMultiGetLuaScriptTests extends AbstractLuaScriptTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMultiGet() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, "etag1");
+        evalScriptPut(":project:server:other:item2", "{\"content\": \"content_2\"}", MAX_EXPIRE, "etag2");
+
+        // ACT
+        List<String> value = (List<String>) evalScriptMultiGet(
+                Arrays.asList(":project:server:other:item2", ":project:server:test:item1", ":project:server:notExisting"),
+                Arrays.asList("", "", ""));
+
+        // ASSERT
+        assertThat(value, equalTo(Arrays.asList(
+                "TYPE_RESOURCE", "{\"content\": \"content_2\"}", "etag2", "",
+                "TYPE_RESOURCE", "{\"content\": \"content_1\"}", "etag1", "",
+                "notFound", "", "", ""
+        )));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMultiGetNotModifiedAndCollection() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", MAX_EXPIRE, "etag1");
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", MAX_EXPIRE, "etag2");
+
+        // ACT
+        List<String> value = (List<String>) evalScriptMultiGet(
+                Arrays.asList(":project:server:test:item1", ":project:server:test:item2", ":project:server:test"),
+                Arrays.asList("etag1", "etagOld", ""));
+
+        // ASSERT
+        assertThat(value, equalTo(Arrays.asList(
+                "notModified", "", "etag1", "",
+                "TYPE_RESOURCE", "{\"content\": \"content_2\"}", "etag2", "",
+                "TYPE_COLLECTION", "", "", ""
+        )));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMultiGetExpiredAndCompressed() throws InterruptedException {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", String.valueOf(System.currentTimeMillis() + 5));
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", MAX_EXPIRE, "etag2", true);
+        Thread.sleep(10);
+
+        // ACT
+        List<String> value = (List<String>) evalScriptMultiGet(
+                Arrays.asList(":project:server:test:item1", ":project:server:test:item2"),
+                Arrays.asList("", ""));
+
+        // ASSERT
+        assertThat(value.get(0), equalTo("notFound"));
+        assertThat(value.get(4), equalTo("TYPE_RESOURCE"));
+        assertThat(value.get(6), equalTo("etag2"));
+        assertThat(value.get(7), equalTo("compressed"));
+    }
+
+    private Object evalScriptMultiGet(List<String> resourceNames, List<String> etags) {
+        String multiGetScript = readScript("multiGet.lua");
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                prefixResources,
+                prefixCollections,
+                expirableSet,
+                getNowAsString(),
+                "1",
+                ""
+        ));
+        arguments.addAll(etags);
+        return jedis.eval(multiGetScript, resourceNames, arguments);
+    }
+}
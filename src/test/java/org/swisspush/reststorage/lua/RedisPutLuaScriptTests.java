@@ -1,10 +1,14 @@
 package org.swisspush.reststorage.lua;
 
 import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.swisspush.reststorage.util.LockMode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -68,28 +72,33 @@ public class RedisPutLuaScriptTests extends AbstractLuaScriptTest {
     }
 
     @Test
-    public void putResourceMergeOnEmpty() {
+    public void putResourceCompareAndSetOnEmpty() {
 
         // ACT
-        evalScriptPutMerge(":project:server:test:test1:test2", "{\"content\": \"test_test1_test3\"}");
+        Object conflict = evalScriptPutCompareAndSet(":project:server:test:test1:test2", "{\"content\": \"test_test1_test3\"}", "someEtag");
+        Object result = evalScriptPutCompareAndSet(":project:server:test:test1:test2", "{\"content\": \"test_test1_test3\"}", "");
 
         // ASSERT
-        String result = jedis.hget("rest-storage:resources:project:server:test:test1:test2", RESOURCE);
-        JsonObject obj = new JsonObject(result);
+        assertThat(conflict, equalTo("conflict"));
+        assertThat(result, equalTo("OK"));
+        JsonObject obj = new JsonObject(jedis.hget("rest-storage:resources:project:server:test:test1:test2", RESOURCE));
         assertThat(obj.getString("content"), equalTo("test_test1_test3"));
     }
 
     @Test
-    public void putResourceMergeOnExisting() {
+    public void putResourceCompareAndSetOnExisting() {
 
         // ACT
         evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test_test1_test2\"}");
-        evalScriptPutMerge(":project:server:test:test1:test2", "{\"content\": \"test_test1_test3\"}");
+        String etag = jedis.hget("rest-storage:resources:project:server:test:test1:test2", "etag");
+        Object conflict = evalScriptPutCompareAndSet(":project:server:test:test1:test2", "{\"content\": \"test_test1_test3\"}", "");
+        Object result = evalScriptPutCompareAndSet(":project:server:test:test1:test2", "{\"content\": \"test_test1_test4\"}", etag);
 
         // ASSERT
-        String result = jedis.hget("rest-storage:resources:project:server:test:test1:test2", RESOURCE);
-        JsonObject obj = new JsonObject(result);
-        assertThat(obj.getString("content"), equalTo("test_test1_test3"));
+        assertThat(conflict, equalTo("conflict"));
+        assertThat(result, equalTo("OK"));
+        JsonObject obj = new JsonObject(jedis.hget("rest-storage:resources:project:server:test:test1:test2", RESOURCE));
+        assertThat(obj.getString("content"), equalTo("test_test1_test4"));
     }
 
     @Test
@@ -331,7 +340,7 @@ public class RedisPutLuaScriptTests extends AbstractLuaScriptTest {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked", "serial" })
-    private Object evalScriptPutMerge(final String resourceName1, final String resourceValue1) {
+    private Object evalScriptPutCompareAndSet(final String resourceName1, final String resourceValue1, final String expectedEtag) {
         String putScript = readScript("put.lua");
         return jedis.eval(putScript, new ArrayList() {
                     {
@@ -348,6 +357,18 @@ public class RedisPutLuaScriptTests extends AbstractLuaScriptTest {
                         add(resourceValue1);
                         add(UUID.randomUUID().toString());
                         add(prefixLock);
+                        add("");
+                        add("silent");
+                        add(String.valueOf(System.currentTimeMillis() + 300000));
+                        add("0");
+                        add("1");
+                        add("false");
+                        add("");
+                        add("");
+                        add("0");
+                        add("false");
+                        add("");
+                        add(expectedEtag);
                     }
                 }
         );
@@ -540,4 +561,95 @@ public class RedisPutLuaScriptTests extends AbstractLuaScriptTest {
         assertThat(jedis.hget("rest-storage:resources" + lockedPath, RESOURCE), equalTo(newResource));
         assertThat(jedis.exists(prefixLock + lockedPath), equalTo(false));
     }
+
+    @Test
+    public void putResourceUpdatesAncestorsWithLaterExpiration() {
+
+        // ARRANGE
+        long now = System.currentTimeMillis();
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test2\"}", String.valueOf(now + 1000));
+        evalScriptPut(":project:server:test:other", "{\"content\": \"other\"}", String.valueOf(now + 5000));
+
+        // ACT
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test2 later\"}", String.valueOf(now + 3000));
+
+        // ASSERT
+        assertThat(jedis.zscore("rest-storage:collections:project:server:test:test1", "test2"), equalTo((double) now + 3000));
+        assertThat(jedis.zscore("rest-storage:collections:project:server:test", "test1"), equalTo((double) now + 3000));
+        assertThat(jedis.zscore("rest-storage:collections:project:server", "test"), equalTo((double) now + 5000));
+        assertThat(jedis.zscore("rest-storage:collections:project", "server"), equalTo((double) now + 5000));
+    }
+
+    @Test
+    public void putResourceRecalculatesAncestorsWithDecreasedExpiration() {
+
+        // ARRANGE
+        long now = System.currentTimeMillis();
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test2\"}");
+        evalScriptPut(":project:server:test:other", "{\"content\": \"other\"}", String.valueOf(now + 5000));
+
+        // ACT
+        evalScriptPut(":project:server:test:test1:test2", "{\"content\": \"test2 expiring\"}", String.valueOf(now + 1000));
+
+        // ASSERT
+        assertThat(jedis.zscore("rest-storage:collections:project:server:test:test1", "test2"), equalTo((double) now + 1000));
+        assertThat(jedis.zscore("rest-storage:collections:project:server:test", "test1"), equalTo((double) now + 1000));
+        assertThat(jedis.zscore("rest-storage:collections:project:server", "test"), equalTo((double) now + 5000));
+        assertThat(jedis.zscore("rest-storage:collections:project", "server"), equalTo((double) now + 5000));
+    }
+
+    @Test
+    public void testChangesTakeTheTimeOfTheCaller() {
+        long now = System.currentTimeMillis();
+        evalScriptPutChange(":project:server:test:item1", now);
+        evalScriptPutChange(":project:server:test:item2", now + 5);
+        // a caller with a clock behind continues after the last change
+        evalScriptPutChange(":project:server:test:item3", now);
+
+        Object ids = jedis.eval("local ids = {} for _,entry in ipairs(redis.call('xrange',KEYS[1],'-','+')) do " +
+                "table.insert(ids,entry[1]) end return ids", 1, "rest-storage:changes");
+        assertThat(ids, equalTo(Arrays.asList(now + "-0", (now + 5) + "-0", (now + 5) + "-1")));
+
+        double version1 = jedis.zscore(prefixDeltaResources + ":project:server:test", "item1");
+        double version2 = jedis.zscore(prefixDeltaResources + ":project:server:test", "item2");
+        double version3 = jedis.zscore(prefixDeltaResources + ":project:server:test", "item3");
+        assertThat(version1, equalTo((double) now * 1000 + 1));
+        assertThat(version2, equalTo((double) (now + 5) * 1000 + 1));
+        assertThat(version3, equalTo(version2 + 1));
+    }
+
+    private void evalScriptPutChange(String path, long timestamp) {
+        List<String> arguments = Arrays.asList(prefixResources, prefixCollections, expirableSet, "false", MAX_EXPIRE, MAX_EXPIRE,
+                "{\"content\": \"test\"}", UUID.randomUUID().toString(), prefixLock, "", "silent",
+                String.valueOf(System.currentTimeMillis() + 300000), "0", "0", "false", "", "", "0", "", "", "", "",
+                "rest-storage:changes", "100", prefixDeltaResources, prefixDeltaEtags, "10", String.valueOf(timestamp));
+        assertThat(jedis.eval(readScript("put.lua"), Collections.singletonList(path), arguments), equalTo("OK"));
+    }
+
+    @Ignore
+    @Test
+    public void put10000ResourcesByPathDepth() {
+        int amount = 10000;
+        for (int depth = 2; depth <= 16; depth *= 2) {
+            StringBuilder path = new StringBuilder(":project");
+            for (int level = 2; level < depth; level++) {
+                path.append(":level").append(level);
+            }
+
+            long start = System.currentTimeMillis();
+            for (int i = 1; i <= amount; i++) {
+                evalScriptPut(path + ":item" + (i % 100), "{\"content\": \"" + i + "\"}", MAX_EXPIRE, "etag" + i);
+            }
+            long permanent = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            for (int i = 1; i <= amount; i++) {
+                evalScriptPut(path + ":expiring" + (i % 100), "{\"content\": \"" + i + "\"}", String.valueOf(System.currentTimeMillis() + 60000), "etag" + i);
+            }
+            long expiring = System.currentTimeMillis() - start;
+
+            System.out.println(amount + " permanent writes with path depth " + depth + ": " + DurationFormatUtils.formatDuration(permanent, "HH:mm:ss:SSS"));
+            System.out.println(amount + " expiring writes with path depth " + depth + ": " + DurationFormatUtils.formatDuration(expiring, "HH:mm:ss:SSS"));
+        }
+    }
 }
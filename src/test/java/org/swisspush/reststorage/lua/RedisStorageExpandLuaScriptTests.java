@@ -314,12 +314,64 @@ public class RedisStorageExpandLuaScriptTests extends AbstractLuaScriptTest {
         assertThat(value2.get(1).get(1), equalTo("{\"content\": \"content_3\"}"));
     }
 
+    @Test
+    public void testStorageExpandNotModified() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", AbstractLuaScriptTest.MAX_EXPIRE, "etag1");
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", AbstractLuaScriptTest.MAX_EXPIRE, "etag2");
+        evalScriptPut(":project:server:test:sub:sub1", "{\"content\": \"content_sub_1\"}");
+        List<String> subResources = Arrays.asList("item1", "item2", "sub/");
+
+        // ACT
+        String etag = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, "");
+        String sameEtag = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, "someOtherEtag");
+        String notModified = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, etag);
+
+        // ASSERT
+        assertNotNull(etag);
+        assertThat(sameEtag, equalTo(etag));
+        assertThat(notModified, equalTo("notModified"));
+    }
+
+    @Test
+    public void testStorageExpandEtagChanges() {
+
+        // ARRANGE
+        evalScriptPut(":project:server:test:item1", "{\"content\": \"content_1\"}", AbstractLuaScriptTest.MAX_EXPIRE, "etag1");
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2\"}", AbstractLuaScriptTest.MAX_EXPIRE, "etag2");
+        evalScriptPut(":project:server:test:sub:sub1", "{\"content\": \"content_sub_1\"}");
+        List<String> subResources = Arrays.asList("item1", "item2", "sub/");
+        String etag = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, "");
+
+        // ACT & ASSERT (changed resource)
+        evalScriptPut(":project:server:test:item2", "{\"content\": \"content_2_changed\"}", AbstractLuaScriptTest.MAX_EXPIRE, "etag2_changed");
+        String etagChangedResource = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, etag);
+        assertThat(etagChangedResource.equals(etag), equalTo(false));
+        assertThat(etagChangedResource.equals("notModified"), equalTo(false));
+
+        // ACT & ASSERT (new member in sub collection)
+        evalScriptPut(":project:server:test:sub:sub2", "{\"content\": \"content_sub_2\"}");
+        String etagChangedCollection = evalScriptStorageExpandAndExtractEtag(":project:server:test", subResources, etagChangedResource);
+        assertThat(etagChangedCollection.equals(etagChangedResource), equalTo(false));
+        assertThat(etagChangedCollection.equals("notModified"), equalTo(false));
+
+        // ACT & ASSERT (different sub resources requested)
+        String etagOtherSubResources = evalScriptStorageExpandAndExtractEtag(":project:server:test", Arrays.asList("item1", "item2"), etagChangedCollection);
+        assertThat(etagOtherSubResources.equals(etagChangedCollection), equalTo(false));
+        assertThat(etagOtherSubResources.equals("notModified"), equalTo(false));
+    }
+
     private Object evalScriptStorageExpand(final String resourceName1, final List<String> subResources) {
         return evalScriptStorageExpand(resourceName1, subResources, String.valueOf(System.currentTimeMillis()));
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked", "serial"})
     private Object evalScriptStorageExpand(final String resourceName1, final List<String> subResources, final String timestamp) {
+        return evalScriptStorageExpand(resourceName1, subResources, timestamp, "");
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked", "serial"})
+    private Object evalScriptStorageExpand(final String resourceName1, final List<String> subResources, final String timestamp, final String etag) {
         String getScript = readScript("storageExpand.lua");
         return jedis.eval(getScript, new ArrayList() {
                     {
@@ -334,29 +386,40 @@ public class RedisStorageExpandLuaScriptTests extends AbstractLuaScriptTest {
                         add("99999999999999");
                         add(StringUtils.join(subResources, ";"));
                         add(String.valueOf(subResources.size()));
+                        add(etag);
                     }
                 }
         );
     }
 
+    @SuppressWarnings("unchecked")
+    private String evalScriptStorageExpandAndExtractEtag(String resourceName, List<String> subResources, String etag){
+        Object value = evalScriptStorageExpand(resourceName, subResources, String.valueOf(System.currentTimeMillis()), etag);
+        if(value instanceof List){
+            return ((List<String>) value).get(0);
+        }
+        return (String) value;
+    }
+
     private List<List<String>> evalScriptStorageExpandAndExtract(String resourceName, List<String> subResources){
         return evalScriptStorageExpandAndExtract(resourceName, subResources, null);
     }
 
+    @SuppressWarnings("unchecked")
     private List<List<String>> evalScriptStorageExpandAndExtract(String resourceName, List<String> subResources, String timestamp){
         List<List<String>> result = new ArrayList<>();
-        String valueStr;
+        Object value;
         if(timestamp != null){
-            valueStr = (String) evalScriptStorageExpand(resourceName, subResources, timestamp);
+            value = evalScriptStorageExpand(resourceName, subResources, timestamp);
         } else {
-            valueStr = (String) evalScriptStorageExpand(resourceName, subResources);
+            value = evalScriptStorageExpand(resourceName, subResources);
         }
 
-        if(valueStr.equals("notFound")){
+        if("notFound".equals(value)){
             return result;
         }
 
-        JsonArray jsonArray = new JsonArray(valueStr);
+        JsonArray jsonArray = new JsonArray(((List<String>) value).get(1));
         for (Object arr : jsonArray) {
             JsonArray subArr = (JsonArray) arr;
             result.add(Arrays.asList(subArr.getString(0), subArr.getString(1)));
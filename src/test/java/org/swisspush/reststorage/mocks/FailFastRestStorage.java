@@ -1,10 +1,14 @@
 package org.swisspush.reststorage.mocks;
 
 import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.swisspush.reststorage.BatchItem;
+import org.swisspush.reststorage.Changes;
 import org.swisspush.reststorage.DocumentResource;
 import org.swisspush.reststorage.Resource;
 import org.swisspush.reststorage.Storage;
 import org.swisspush.reststorage.util.LockMode;
+import org.swisspush.reststorage.util.ReadConsistency;
 
 import java.util.List;
 import java.util.Optional;
@@ -26,16 +30,81 @@ public class FailFastRestStorage implements Storage {
     public Optional<Float> getCurrentMemoryUsage() {
         throw new UnsupportedOperationException(msg);    }
 
+    @Override
+    public JsonObject getMetrics() {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void getDeletions(Handler<JsonObject> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void getDeduplication(Handler<JsonObject> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void watch(String path, String cursor, long timeoutMs, Handler<Changes> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void unwatch(String path, Handler<Changes> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void changesSince(String path, String since, Handler<Changes> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
     @Override
     public void get(String path, String etag, int offset, int count, Handler<Resource> handler) {
         throw new UnsupportedOperationException(msg);
     }
 
+    @Override
+    public void get(String path, String etag, int offset, int count, ReadConsistency readConsistency, Handler<Resource> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void writeBatch(List<BatchItem> items, boolean atomic, Handler<List<BatchItem>> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, Handler<List<Resource>> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void multiGet(List<String> paths, List<String> etags, ReadConsistency readConsistency, Handler<List<Resource>> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
     @Override
     public void storageExpand(String path, String etag, List<String> subResources, Handler<Resource> handler) {
         throw new UnsupportedOperationException(msg);
     }
 
+    @Override
+    public void storageExpand(String path, String etag, List<String> subResources, ReadConsistency readConsistency, Handler<Resource> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, Handler<Resource> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
+    @Override
+    public void storageExpand(String path, String etag, int depth, ReadConsistency readConsistency, Handler<Resource> handler) {
+        throw new UnsupportedOperationException(msg);
+    }
+
     @Override
     public void put(String path, String etag, boolean merge, long expire, Handler<Resource> handler) {
         throw new UnsupportedOperationException(msg);
@@ -74,6 +74,29 @@ public class HttpRequestParamTest {
         context.assertNull(getString(null, LIMIT_PARAMETER));
     }
 
+    @Test
+    public void testGetInteger(TestContext context){
+        params.set(EXPAND_PARAMETER.getName(), "2");
+        context.assertEquals(2, getInteger(params, EXPAND_PARAMETER));
+
+        params.set(EXPAND_PARAMETER.getName(), "-1");
+        context.assertEquals(-1, getInteger(params, EXPAND_PARAMETER));
+
+        params.set(EXPAND_PARAMETER.getName(), "9999999999999999999");
+        context.assertNull(getInteger(params, EXPAND_PARAMETER));
+
+        params.set(EXPAND_PARAMETER.getName(), "");
+        context.assertNull(getInteger(params, EXPAND_PARAMETER));
+
+        params.set(EXPAND_PARAMETER.getName(), "xyz");
+        context.assertNull(getInteger(params, EXPAND_PARAMETER));
+
+        params.clear();
+        context.assertNull(getInteger(params, EXPAND_PARAMETER));
+
+        context.assertNull(getInteger(null, EXPAND_PARAMETER));
+    }
+
     @Test
     public void testGetBoolean(TestContext context){
         params.set(STORAGE_EXPAND_PARAMETER.getName(), "true");
@@ -1,11 +1,13 @@
 package org.swisspush.reststorage.util;
 
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import static org.swisspush.reststorage.util.ModuleConfiguration.StorageType;
@@ -40,12 +42,48 @@ public class ModuleConfigurationTest {
         testContext.assertEquals(config.getCollectionsPrefix(), "rest-storage:collections");
         testContext.assertEquals(config.getDeltaResourcesPrefix(), "delta:resources");
         testContext.assertEquals(config.getDeltaEtagsPrefix(), "delta:etags");
+        testContext.assertEquals(config.getDeltaHistorySize(), 0);
         testContext.assertEquals(config.getResourceCleanupAmount(), 100000L);
         testContext.assertEquals(config.getLockPrefix(), "rest-storage:locks");
         testContext.assertFalse(config.isConfirmCollectionDelete());
         testContext.assertFalse(config.isRejectStorageWriteOnLowMemory());
         testContext.assertEquals(config.getFreeMemoryCheckIntervalMs(), 60000L);
         testContext.assertFalse(config.isReturn200onDeleteNonExisting());
+        testContext.assertEquals(config.getExpandMaxNodes(), 10000);
+        testContext.assertEquals(config.getExpandMaxBytes(), 10485760L);
+        testContext.assertEquals(config.getRedisPoolSize(), 4);
+        testContext.assertEquals(config.getRedisBulkPoolSize(), 1);
+        testContext.assertFalse(config.isRedisAutoPipelining());
+        testContext.assertTrue(config.getRedisReadReplicas().isEmpty());
+        testContext.assertEquals(config.getRedisReplicaMaxOffsetLag(), 1048576L);
+        testContext.assertEquals(config.getRedisReplicaCheckIntervalMs(), 1000L);
+        testContext.assertTrue(config.getRedisShards().isEmpty());
+        testContext.assertEquals(config.getRedisShardPathLevel(), 0);
+        testContext.assertEquals(config.getRedisDatabase(), 0);
+        testContext.assertEquals(config.getExpirableBucketWindowMs(), 0L);
+        testContext.assertFalse(config.isNativeExpiration());
+        testContext.assertEquals(config.getCollectionPruneLimit(), 0);
+        testContext.assertEquals(config.getCollectionPruneIntervalMs(), 0L);
+        testContext.assertFalse(config.isAsyncRecursiveDelete());
+        testContext.assertEquals(config.getAsyncDeleteBatchSize(), 1000);
+        testContext.assertEquals(config.getDeletionsPrefix(), "rest-storage:deletions");
+        testContext.assertEquals(config.getResourceChunkSize(), 0);
+        testContext.assertEquals(config.getChunksPrefix(), "rest-storage:chunks");
+        testContext.assertFalse(config.isContentEtags());
+        testContext.assertEquals(config.getResourceDedupThreshold(), 0);
+        testContext.assertEquals(config.getBlobsPrefix(), "rest-storage:blobs");
+        testContext.assertEquals(config.getNearCacheSize(), 0);
+        testContext.assertEquals(config.getNearCacheMaxBytes(), 64L * 1024 * 1024);
+        testContext.assertEquals(config.getNegativeCacheSize(), 0);
+        testContext.assertEquals(config.getNegativeCacheTtlMs(), 1000L);
+        testContext.assertEquals(config.getInvalidationChannel(), "rest-storage:invalidations");
+        testContext.assertFalse(config.isPublishInvalidations());
+        testContext.assertFalse(config.isChangeFeed());
+        testContext.assertEquals(config.getChangeFeedStream(), "rest-storage:changes");
+        testContext.assertEquals(config.getChangeFeedMaxLength(), 100000L);
+        testContext.assertEquals(config.getChangeFeedAddress(), "rest-storage-changes");
+        testContext.assertEquals(config.getChangeFeedPollIntervalMs(), 100L);
+        testContext.assertEquals(config.getChangeFeedMaxWatchers(), 1000);
     }
 
     @Test
@@ -105,6 +143,7 @@ public class ModuleConfigurationTest {
         testContext.assertEquals(json.getString("redisHost"), "localhost");
         testContext.assertEquals(json.getInteger("redisPort"), 6379);
         testContext.assertNull(json.getString("redisAuth"));
+        testContext.assertEquals(json.getInteger("redisDatabase"), 0);
         testContext.assertEquals(json.getString("expirablePrefix"), "rest-storage:expirable");
         testContext.assertEquals(json.getString("resourcesPrefix"), "rest-storage:resources");
         testContext.assertEquals(json.getString("collectionsPrefix"), "rest-storage:collections");
@@ -201,11 +240,47 @@ public class ModuleConfigurationTest {
         json.put("collectionsPrefix", "newCollectionsPrefix");
         json.put("deltaResourcesPrefix", "newDeltaResourcesPrefix");
         json.put("deltaEtagsPrefix", "newDeltaEtagsPrefix");
+        json.put("deltaHistorySize", 500);
         json.put("resourceCleanupAmount", 999L);
         json.put("lockPrefix", "newLockPrefix");
         json.put("confirmCollectionDelete", true);
         json.put("rejectStorageWriteOnLowMemory", true);
         json.put("freeMemoryCheckIntervalMs", 30000);
+        json.put("expandMaxNodes", 50);
+        json.put("expandMaxBytes", 2048L);
+        json.put("redisPoolSize", 8);
+        json.put("redisBulkPoolSize", 2);
+        json.put("redisAutoPipelining", true);
+        json.put("redisReadReplicas", new JsonArray().add("replica1:6379").add("replica2:6380"));
+        json.put("redisReplicaMaxOffsetLag", 1024L);
+        json.put("redisReplicaCheckIntervalMs", 500L);
+        json.put("redisShards", new JsonArray().add("shard1:6379").add("shard2:6379"));
+        json.put("redisShardPathLevel", 2);
+        json.put("redisDatabase", 3);
+        json.put("expirableBucketWindowMs", 60000L);
+        json.put("nativeExpiration", true);
+        json.put("collectionPruneLimit", 10);
+        json.put("collectionPruneIntervalMs", 5000L);
+        json.put("asyncRecursiveDelete", true);
+        json.put("asyncDeleteBatchSize", 200);
+        json.put("deletionsPrefix", "newDeletionsPrefix");
+        json.put("resourceChunkSize", 1048576);
+        json.put("chunksPrefix", "newChunksPrefix");
+        json.put("contentEtags", true);
+        json.put("resourceDedupThreshold", 4096);
+        json.put("blobsPrefix", "newBlobsPrefix");
+        json.put("nearCacheSize", 1000);
+        json.put("nearCacheMaxBytes", 1048576L);
+        json.put("negativeCacheSize", 5000);
+        json.put("negativeCacheTtlMs", 500L);
+        json.put("invalidationChannel", "newInvalidationChannel");
+        json.put("publishInvalidations", true);
+        json.put("changeFeed", true);
+        json.put("changeFeedStream", "newChangeFeedStream");
+        json.put("changeFeedMaxLength", 1000L);
+        json.put("changeFeedAddress", "newChangeFeedAddress");
+        json.put("changeFeedPollIntervalMs", 50L);
+        json.put("changeFeedMaxWatchers", 10);
 
         ModuleConfiguration config = fromJsonObject(json);
         testContext.assertEquals(config.getRoot(), "newroot");
@@ -225,10 +300,46 @@ public class ModuleConfigurationTest {
         testContext.assertEquals(config.getCollectionsPrefix(), "newCollectionsPrefix");
         testContext.assertEquals(config.getDeltaResourcesPrefix(), "newDeltaResourcesPrefix");
         testContext.assertEquals(config.getDeltaEtagsPrefix(), "newDeltaEtagsPrefix");
+        testContext.assertEquals(config.getDeltaHistorySize(), 500);
         testContext.assertEquals(config.getResourceCleanupAmount(), 999L);
         testContext.assertEquals(config.getLockPrefix(), "newLockPrefix");
         testContext.assertTrue(config.isConfirmCollectionDelete());
         testContext.assertTrue(config.isRejectStorageWriteOnLowMemory());
         testContext.assertEquals(config.getFreeMemoryCheckIntervalMs(), 30000L);
+        testContext.assertEquals(config.getExpandMaxNodes(), 50);
+        testContext.assertEquals(config.getExpandMaxBytes(), 2048L);
+        testContext.assertEquals(config.getRedisPoolSize(), 8);
+        testContext.assertEquals(config.getRedisBulkPoolSize(), 2);
+        testContext.assertTrue(config.isRedisAutoPipelining());
+        testContext.assertEquals(config.getRedisReadReplicas(), Arrays.asList("replica1:6379", "replica2:6380"));
+        testContext.assertEquals(config.getRedisReplicaMaxOffsetLag(), 1024L);
+        testContext.assertEquals(config.getRedisReplicaCheckIntervalMs(), 500L);
+        testContext.assertEquals(config.getRedisShards(), Arrays.asList("shard1:6379", "shard2:6379"));
+        testContext.assertEquals(config.getRedisShardPathLevel(), 2);
+        testContext.assertEquals(config.getRedisDatabase(), 3);
+        testContext.assertEquals(config.getExpirableBucketWindowMs(), 60000L);
+        testContext.assertTrue(config.isNativeExpiration());
+        testContext.assertEquals(config.getCollectionPruneLimit(), 10);
+        testContext.assertEquals(config.getCollectionPruneIntervalMs(), 5000L);
+        testContext.assertTrue(config.isAsyncRecursiveDelete());
+        testContext.assertEquals(config.getAsyncDeleteBatchSize(), 200);
+        testContext.assertEquals(config.getDeletionsPrefix(), "newDeletionsPrefix");
+        testContext.assertEquals(config.getResourceChunkSize(), 1048576);
+        testContext.assertEquals(config.getChunksPrefix(), "newChunksPrefix");
+        testContext.assertTrue(config.isContentEtags());
+        testContext.assertEquals(config.getResourceDedupThreshold(), 4096);
+        testContext.assertEquals(config.getNearCacheSize(), 1000);
+        testContext.assertEquals(config.getNearCacheMaxBytes(), 1048576L);
+        testContext.assertEquals(config.getNegativeCacheSize(), 5000);
+        testContext.assertEquals(config.getNegativeCacheTtlMs(), 500L);
+        testContext.assertEquals(config.getInvalidationChannel(), "newInvalidationChannel");
+        testContext.assertTrue(config.isPublishInvalidations());
+        testContext.assertTrue(config.isChangeFeed());
+        testContext.assertEquals(config.getChangeFeedStream(), "newChangeFeedStream");
+        testContext.assertEquals(config.getChangeFeedMaxLength(), 1000L);
+        testContext.assertEquals(config.getChangeFeedAddress(), "newChangeFeedAddress");
+        testContext.assertEquals(config.getChangeFeedPollIntervalMs(), 50L);
+        testContext.assertEquals(config.getChangeFeedMaxWatchers(), 10);
+        testContext.assertEquals(config.getBlobsPrefix(), "newBlobsPrefix");
     }
 }
\ No newline at end of file
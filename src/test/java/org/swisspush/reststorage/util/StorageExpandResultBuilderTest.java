@@ -0,0 +1,105 @@
+package org.swisspush.reststorage.util;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link StorageExpandResultBuilder} class.
+ */
+@RunWith(VertxUnitRunner.class)
+public class StorageExpandResultBuilderTest {
+
+    @Test
+    public void testBuildEmptyResult(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder();
+        Buffer content = builder.build();
+        testContext.assertEquals("{}", content.toString());
+    }
+
+    @Test
+    public void testBuildWritesResourcesVerbatim(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder(16);
+        builder.appendResource("res1", "{ \"foo\": \"bar1\" }");
+        builder.appendResource("res:2", "{\"foo\":\"bar2\"}");
+        builder.appendCollection("sub", new JsonArray(Arrays.asList("subsub/", "sub1")));
+
+        String expected = "{\"res1\":{ \"foo\": \"bar1\" },\"res:2\":{\"foo\":\"bar2\"},\"sub\":[\"subsub/\",\"sub1\"]}";
+        Buffer content = builder.build();
+
+        testContext.assertEquals(expected, content.toString());
+
+        JsonObject parsed = new JsonObject(content.toString());
+        testContext.assertEquals("bar1", parsed.getJsonObject("res1").getString("foo"));
+        testContext.assertEquals("bar2", parsed.getJsonObject("res:2").getString("foo"));
+        testContext.assertEquals(2, parsed.getJsonArray("sub").size());
+    }
+
+    @Test
+    public void testBuildWritesCharacterRangesVerbatim(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder(16);
+        char[] value = "xx{ \"foo\": \"b\u00e4r\" }xx".toCharArray();
+        builder.appendResource("res1", value, 2, value.length - 4);
+        testContext.assertEquals("{\"res1\":{ \"foo\": \"b\u00e4r\" }}", builder.build().toString("ISO-8859-1"));
+        testContext.assertTrue(StorageExpandResultBuilder.isJsonObject(value, 2, value.length - 4));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject(value, 0, value.length));
+    }
+
+    @Test
+    public void testBuildIgnoresDuplicateNames(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder();
+        builder.appendResource("res1", "{\"foo\":\"bar1\"}");
+        builder.appendResource("res1", "{\"foo\":\"other\"}");
+        testContext.assertEquals("{\"res1\":{\"foo\":\"bar1\"}}", builder.build().toString());
+    }
+
+    @Test
+    public void testBuildEscapesNames(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder();
+        builder.appendResource("res\"1", "{}");
+        Buffer content = builder.build();
+        testContext.assertEquals("{\"res\\\"1\":{}}", content.toString());
+        testContext.assertTrue(new JsonObject(content.toString()).containsKey("res\"1"));
+    }
+
+    @Test
+    public void testBuildNestedCollections(TestContext testContext) {
+        StorageExpandResultBuilder builder = new StorageExpandResultBuilder();
+        builder.appendResource("res1", "{}");
+        builder.startCollection("sub");
+        builder.appendResource("res1", "{\"foo\":\"bar\"}");
+        builder.startCollection("subsub");
+        builder.endCollection();
+        builder.appendCollection("other", new JsonArray(Arrays.asList("a", "b/")));
+        builder.endCollection();
+        builder.appendResource("res2", "{}");
+
+        String expected = "{\"res1\":{},\"sub\":{\"res1\":{\"foo\":\"bar\"},\"subsub\":{},\"other\":[\"a\",\"b/\"]},\"res2\":{}}";
+        Buffer content = builder.build();
+        testContext.assertEquals(expected, content.toString());
+        testContext.assertEquals("bar", new JsonObject(content.toString()).getJsonObject("sub").getJsonObject("res1").getString("foo"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndCollectionWithoutStart() {
+        new StorageExpandResultBuilder().endCollection();
+    }
+
+    @Test
+    public void testIsJsonObject(TestContext testContext) {
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject(null));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject(""));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject("{ \"foo\"}"));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject("{ \"foo\": \"bar1\""));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject("[1, 2]"));
+        testContext.assertFalse(StorageExpandResultBuilder.isJsonObject("{} {}"));
+        testContext.assertTrue(StorageExpandResultBuilder.isJsonObject("{}"));
+        testContext.assertTrue(StorageExpandResultBuilder.isJsonObject("{ \"foo\": {\"bar\": [1, 2, {\"a\": null}]} }"));
+    }
+}